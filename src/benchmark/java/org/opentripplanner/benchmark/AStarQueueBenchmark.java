@@ -0,0 +1,133 @@
+package org.opentripplanner.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.spt.DominanceFunction;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the BinHeap and the indexed 4-ary heap priority queues of AStar on walk and bike searches across a
+ * city sized grid with a single-state dominance function.
+ *
+ * Besides search time, the queueOperations counter reports inserts and extractions, and the GC profiler
+ * enabled by BenchmarkRunner reports allocations per search. The BinHeap queues a duplicate for every improved
+ * state and extracts it later only to drop it, which the indexed heap avoids by changing the key in place.
+ *
+ * The indexed heap tracks the queue position of every vertex in the graph. smallSearches runs the walk searches
+ * of a few hundred meters that the stop tree cache makes from every stop, where such per-search costs would
+ * dominate, so allocations per search should stay close to the BinHeap there. It ignores the modes parameter.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AStarQueueBenchmark {
+
+    private static final int SMALL_SEARCHES = 100;
+
+    private static final double SMALL_SEARCH_METERS = 500;
+
+    @Param({ "WALK", "BICYCLE" })
+    public String modes;
+
+    @Param({ "false", "true" })
+    public boolean indexedPriorityQueue;
+
+    @Param({ "250" })
+    public int gridSize;
+
+    private GridStreetGraph grid;
+
+    @Setup
+    public void setup() {
+        grid = new GridStreetGraph(gridSize);
+    }
+
+    @Benchmark
+    public ShortestPathTree search(QueueCounters counters) {
+        RoutingRequest options = new RoutingRequest();
+        new QualifiedModeSet(modes).applyToRoutingRequest(options);
+        options.dominanceFunction = new DominanceFunction.MinimumWeight();
+        options.indexedPriorityQueue = indexedPriorityQueue;
+        options.setRoutingContext(grid.graph, grid.getSouthWest(), grid.getNorthEast());
+        try {
+            AStar aStar = new AStar();
+            ShortestPathTree spt = aStar.getShortestPathTree(options);
+            counters.searches++;
+            counters.queueOperations += aStar.getQueueOperationCount();
+            return spt;
+        } finally {
+            options.cleanup();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SMALL_SEARCHES)
+    public int smallSearches(QueueCounters counters) {
+        int vertexCount = 0;
+        for (int i = 0; i < SMALL_SEARCHES; i++) {
+            // spread the origins over the grid
+            IntersectionVertex origin = grid.vertices[(i * 37) % gridSize][(i * 53) % gridSize];
+            RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+            options.batch = true;
+            options.longDistance = true;
+            options.maxWalkDistance = SMALL_SEARCH_METERS;
+            options.softWalkLimiting = false;
+            options.dominanceFunction = new DominanceFunction.LeastWalk();
+            options.arrayShortestPathTree = true;
+            options.indexedPriorityQueue = indexedPriorityQueue;
+            options.setRoutingContext(grid.graph, origin, origin);
+            try {
+                AStar aStar = new AStar();
+                ShortestPathTree spt = aStar.getShortestPathTree(options);
+                vertexCount += spt.getVertexCount();
+                spt.release();
+                counters.searches++;
+                counters.queueOperations += aStar.getQueueOperationCount();
+            } finally {
+                options.cleanup();
+            }
+        }
+        return vertexCount;
+    }
+
+    /**
+     * Queue operation counts of an iteration, divide queueOperations by searches to get the count per search
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @org.openjdk.jmh.annotations.State(Scope.Thread)
+    public static class QueueCounters {
+
+        public long searches;
+
+        public long queueOperations;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            searches = 0;
+            queueOperations = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.opentripplanner.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fills the A* priority queue with random keys and drains it, which is the access pattern of a search
+ * that expands every state once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BinHeapBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    private double[] keys;
+
+    private Object[] elements;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        keys = new double[size];
+        elements = new Object[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = random.nextDouble() * 10000d;
+            elements[i] = new Object();
+        }
+    }
+
+    @Benchmark
+    public int insertAndExtract() {
+        BinHeap<Object> heap = new BinHeap<>(1000);
+        for (int i = 0; i < size; i++) {
+            heap.insert(elements[i], keys[i]);
+        }
+
+        int extracted = 0;
+        while (!heap.empty()) {
+            heap.extract_min();
+            extracted++;
+        }
+        return extracted;
+    }
+
+}
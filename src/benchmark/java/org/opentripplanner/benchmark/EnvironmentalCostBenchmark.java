@@ -0,0 +1,94 @@
+package org.opentripplanner.benchmark;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.airquality.AirQualityStore;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares walk searches with and without air quality and noise penalties on a synthetic street grid
+ * that has a forecast and a noise level for every edge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EnvironmentalCostBenchmark {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    @Param({ "false", "true" })
+    public boolean airQuality;
+
+    @Param({ "60" })
+    public int gridSize;
+
+    private GridStreetGraph grid;
+
+    private long requestTime;
+
+    @Setup
+    public void setup() {
+        grid = new GridStreetGraph(gridSize);
+
+        Random random = new Random(42);
+        int[] edgeIds = new int[grid.edges.size()];
+        for (int i = 0; i < edgeIds.length; i++) {
+            StreetEdge edge = grid.edges.get(i);
+            edgeIds[i] = edge.getId();
+            edge.setNoiseLevel(50d + random.nextDouble() * 40d);
+        }
+
+        int hours = 24;
+        long originTime = System.currentTimeMillis() - HOUR;
+        AirQualityStore store = new AirQualityStore();
+        AirQualityStore.Update update = store.beginUpdate(originTime, hours, edgeIds);
+        for (int row = 0; row < edgeIds.length; row++) {
+            for (int hour = 0; hour < hours; hour++) {
+                update.setValue(row, hour, 1f + random.nextFloat() * 2f);
+            }
+        }
+        update.publish();
+
+        grid.graph.airQualityStore = store;
+        requestTime = originTime + 2 * HOUR;
+    }
+
+    @Benchmark
+    public ShortestPathTree walk() {
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.setDateTime(new Date(requestTime));
+        if (airQuality) {
+            options.setAirQualityPenaltyHighRate(50d);
+            options.setAirQualityPenaltyLowRate(10d);
+            options.setAirQualityPenaltyThresholdHigh(2d);
+            options.setAirQualityPenaltyThresholdLow(1.75d);
+        }
+        options.setRoutingContext(grid.graph, grid.getSouthWest(), grid.getNorthEast());
+        try {
+            return new AStar().getShortestPathTree(options);
+        } finally {
+            options.cleanup();
+        }
+    }
+
+}
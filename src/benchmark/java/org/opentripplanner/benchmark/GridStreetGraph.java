@@ -0,0 +1,121 @@
+package org.opentripplanner.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+import org.opentripplanner.routing.edgetype.RentABikeOffEdge;
+import org.opentripplanner.routing.edgetype.RentABikeOnEdge;
+import org.opentripplanner.routing.edgetype.StreetBikeRentalLink;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.util.NonLocalizedString;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Synthetic street graph used by the benchmarks: a square grid of two-way streets with blocks of roughly
+ * 100 meters. The grid is deterministic so results are comparable between runs.
+ */
+public class GridStreetGraph {
+
+    private static final double ORIGIN_LAT = 61.69;
+
+    private static final double ORIGIN_LON = 27.27;
+
+    private static final double LAT_STEP = 0.0009;
+
+    private static final double LON_STEP = 0.0019;
+
+    public final Graph graph = new Graph();
+
+    public final IntersectionVertex[][] vertices;
+
+    public final List<StreetEdge> edges = new ArrayList<>();
+
+    /**
+     * Builds a grid of size x size intersections
+     *
+     * @param size number of intersections on each side
+     */
+    public GridStreetGraph(int size) {
+        vertices = new IntersectionVertex[size][size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                vertices[y][x] = new IntersectionVertex(graph, String.format("v_%d_%d", x, y),
+                        ORIGIN_LON + x * LON_STEP, ORIGIN_LAT + y * LAT_STEP);
+            }
+        }
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                if (x + 1 < size) {
+                    street(vertices[y][x], vertices[y][x + 1]);
+                }
+                if (y + 1 < size) {
+                    street(vertices[y][x], vertices[y + 1][x]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a bike rental station next to every n:th intersection in both directions
+     *
+     * @param spacing number of blocks between stations
+     */
+    public void addBikeRentalStations(int spacing) {
+        Set<String> networks = Collections.singleton("default");
+        for (int y = 0; y < vertices.length; y += spacing) {
+            for (int x = 0; x < vertices.length; x += spacing) {
+                IntersectionVertex intersection = vertices[y][x];
+                BikeRentalStation station = new BikeRentalStation();
+                station.id = String.format("station_%d_%d", x, y);
+                station.name = new NonLocalizedString(station.id);
+                station.x = intersection.getLon();
+                station.y = intersection.getLat();
+                station.bikesAvailable = 10;
+                station.spacesAvailable = 10;
+
+                BikeRentalStationVertex stationVertex = new BikeRentalStationVertex(graph, station);
+                new StreetBikeRentalLink(stationVertex, intersection);
+                new StreetBikeRentalLink(intersection, stationVertex);
+                new RentABikeOnEdge(stationVertex, stationVertex, networks);
+                new RentABikeOffEdge(stationVertex, stationVertex, networks);
+            }
+        }
+    }
+
+    /** @return south west corner of the grid */
+    public IntersectionVertex getSouthWest() {
+        return vertices[0][0];
+    }
+
+    /** @return north east corner of the grid */
+    public IntersectionVertex getNorthEast() {
+        int last = vertices.length - 1;
+        return vertices[last][last];
+    }
+
+    private void street(IntersectionVertex a, IntersectionVertex b) {
+        edges.add(edge(a, b, false));
+        edges.add(edge(b, a, true));
+    }
+
+    private StreetEdge edge(IntersectionVertex from, IntersectionVertex to, boolean back) {
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { from.getCoordinate(), to.getCoordinate() });
+        double length = SphericalDistanceLibrary.distance(from.getCoordinate(), to.getCoordinate());
+        String name = String.format("%s_%s", from.getLabel(), to.getLabel());
+        return new StreetEdge(from, to, geometry, name, length, StreetTraversalPermission.ALL, back);
+    }
+
+}
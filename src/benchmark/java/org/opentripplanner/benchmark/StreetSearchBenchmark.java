@@ -0,0 +1,90 @@
+package org.opentripplanner.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Street only searches across a synthetic grid, and a single street edge traversal.
+ *
+ * The search benchmarks exercise AStar.iterate, the priority queue and ShortestPathTree.add/visit
+ * together; the traversal benchmark isolates StreetEdge.traverse.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StreetSearchBenchmark {
+
+    /** Modes in the format of the mode parameter of the plan API */
+    @Param({ "WALK", "BICYCLE", "CAR", "BICYCLE_RENT" })
+    public String modes;
+
+    @Param({ "60" })
+    public int gridSize;
+
+    private GridStreetGraph grid;
+
+    private RoutingRequest traverseOptions;
+
+    private State traverseState;
+
+    private StreetEdge traverseEdge;
+
+    @Setup
+    public void setup() {
+        grid = new GridStreetGraph(gridSize);
+        grid.addBikeRentalStations(5);
+
+        traverseEdge = grid.edges.get(grid.edges.size() / 2);
+        traverseOptions = createRequest();
+        traverseOptions.setRoutingContext(grid.graph, grid.getSouthWest(), grid.getNorthEast());
+        traverseState = new State(traverseEdge.getFromVertex(), traverseOptions);
+    }
+
+    @TearDown
+    public void tearDown() {
+        traverseOptions.cleanup();
+    }
+
+    @Benchmark
+    public ShortestPathTree search() {
+        RoutingRequest options = createRequest();
+        options.setRoutingContext(grid.graph, grid.getSouthWest(), grid.getNorthEast());
+        try {
+            return new AStar().getShortestPathTree(options);
+        } finally {
+            options.cleanup();
+        }
+    }
+
+    @Benchmark
+    public State traverse() {
+        return traverseEdge.traverse(traverseState);
+    }
+
+    private RoutingRequest createRequest() {
+        RoutingRequest options = new RoutingRequest();
+        new QualifiedModeSet(modes).applyToRoutingRequest(options);
+        return options;
+    }
+
+}
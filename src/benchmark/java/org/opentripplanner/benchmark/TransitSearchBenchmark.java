@@ -0,0 +1,98 @@
+package org.opentripplanner.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Walk and transit searches on the bundled Columbus OSM extract with the synthetic perpendicular bus
+ * routes of FakeGraph, and the trip lookup done when boarding a pattern.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class TransitSearchBenchmark {
+
+    private static final GenericLocation FROM = new GenericLocation(39.9308, -83.0118);
+
+    private static final GenericLocation TO = new GenericLocation(39.9998, -83.0198);
+
+    private Graph graph;
+
+    private RoutingRequest boardOptions;
+
+    private State boardState;
+
+    private ServiceDay serviceDay;
+
+    private Timetable timetable;
+
+    @Setup
+    public void setup() throws Exception {
+        graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addPerpendicularRoutes(graph);
+        FakeGraph.link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        boardOptions = createRequest();
+        boardOptions.setRoutingContext(graph);
+        boardState = new State(boardOptions);
+        serviceDay = boardOptions.rctx.serviceDays.get(1);
+        TripPattern pattern = graph.index.patternForId.values().iterator().next();
+        timetable = pattern.scheduledTimetable;
+    }
+
+    @TearDown
+    public void tearDown() {
+        boardOptions.cleanup();
+    }
+
+    @Benchmark
+    public ShortestPathTree search() {
+        RoutingRequest options = createRequest();
+        options.setRoutingContext(graph);
+        try {
+            return new AStar().getShortestPathTree(options);
+        } finally {
+            options.cleanup();
+        }
+    }
+
+    @Benchmark
+    public TripTimes nextTrip() {
+        return timetable.getNextTrip(boardState, serviceDay, 0, true);
+    }
+
+    private RoutingRequest createRequest() {
+        RoutingRequest options = new RoutingRequest("TRANSIT,WALK");
+        options.setDateTime("2016-04-20", "13:00", graph.getTimeZone());
+        options.from = FROM;
+        options.to = TO;
+        return options;
+    }
+
+}
@@ -1,5 +1,6 @@
 package org.opentripplanner.airquality;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.time.OffsetDateTime;
@@ -10,6 +11,7 @@ import com.vividsolutions.jts.geom.Envelope;
 
 import ucar.ma2.Array;
 import ucar.ma2.ArrayFloat;
+import ucar.ma2.InvalidRangeException;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
 import ucar.nc2.units.DateUnit;
@@ -17,12 +19,20 @@ import ucar.nc2.units.DateUnit;
 /**
  * Class for representing single air quality data file
  * 
+ * In streaming mode the air quality variable is not read into memory. Instead time slices of it are
+ * read on demand with {@link #readAqiSlice(int, int, int, int, int)}, so memory use is bounded by a
+ * single slice regardless of the size of the file. Streaming files keep the NetCDF file open until
+ * {@link #close()} is called.
+ * 
  * @author Antti Leppä <antti.leppa@metatavu.fi>
  * @author Heikki Kurhinen <heikki.kurhinen@metatavu.fi>
  *
  */
-public class AirQualityDataFile {
+public class AirQualityDataFile implements Closeable {
 
+  private NetcdfFile netcdfFile;
+  private Variable aqiVariable;
+  private boolean streaming;
   private OffsetDateTime originDate;
   private String error;
   private Array timeArray;
@@ -36,10 +46,21 @@ public class AirQualityDataFile {
    * @param file NetCDF file containing air quality data
    */
   public AirQualityDataFile(String latitudeVariable, String longitudeVariable, String aqiVariable, String timeVariable, File file) {
+    this(latitudeVariable, longitudeVariable, aqiVariable, timeVariable, file, false);
+  }
+
+  /**
+   * Constructor for the class.
+   * 
+   * @param file NetCDF file containing air quality data
+   * @param streaming whether air quality data should be read slice by slice instead of all at once
+   */
+  public AirQualityDataFile(String latitudeVariable, String longitudeVariable, String aqiVariable, String timeVariable, File file, boolean streaming) {
     error = null;
+    this.streaming = streaming;
 
     try {
-      NetcdfFile netcdfFile = readNetcdfFile(file);
+      netcdfFile = readNetcdfFile(file);
       Variable time = netcdfFile.findVariable(timeVariable);
       Variable latitude = netcdfFile.findVariable(latitudeVariable);
       Variable longitude = netcdfFile.findVariable(longitudeVariable);
@@ -77,10 +98,78 @@ public class AirQualityDataFile {
       timeArray = time.read();
       latitudeArray = latitude.read();
       longitudeArray = longitude.read();
-      aqiArray = (ArrayFloat.D3) aqi.read(null, aqi.getShape());
+      
+      if (aqi.getRank() != 3) {
+        error = String.format("AQI variable of %s file is not three dimensional", file.getAbsolutePath());
+        return;
+      }
+      
+      if (streaming) {
+        aqiVariable = aqi;
+      } else {
+        aqiArray = (ArrayFloat.D3) aqi.read(null, aqi.getShape());
+      }
           
     } catch (Exception e) {
       error = e.getMessage();
+    } finally {
+      if (!streaming || error != null) {
+        close();
+      }
+    }
+  }
+  
+  /**
+   * Reads a single time slice of the air quality data restricted to given latitude and longitude window.
+   * 
+   * Values are returned in latitude major order. Only available in streaming mode.
+   * 
+   * @param timeIndex time index
+   * @param latitudeStart first latitude index
+   * @param latitudeCount number of latitude indices
+   * @param longitudeStart first longitude index
+   * @param longitudeCount number of longitude indices
+   * @return air quality values of the slice
+   * @throws IOException thrown when the slice could not be read
+   */
+  public float[] readAqiSlice(int timeIndex, int latitudeStart, int latitudeCount, int longitudeStart, int longitudeCount) throws IOException {
+    if (aqiVariable == null) {
+      throw new IllegalStateException("Air quality slices can be read only from open streaming data files");
+    }
+
+    try {
+      int[] origin = new int[] { timeIndex, latitudeStart, longitudeStart };
+      int[] shape = new int[] { 1, latitudeCount, longitudeCount };
+      return (float[]) aqiVariable.read(origin, shape).get1DJavaArray(float.class);
+    } catch (InvalidRangeException e) {
+      throw new IOException(String.format("Invalid air quality slice requested for time %d", timeIndex), e);
+    }
+  }
+  
+  /**
+   * Returns whether air quality data is read slice by slice
+   * 
+   * @return whether air quality data is read slice by slice
+   */
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * Closes the underlying NetCDF file
+   */
+  @Override
+  public void close() {
+    aqiVariable = null;
+    
+    if (netcdfFile != null) {
+      try {
+        netcdfFile.close();
+      } catch (IOException e) {
+        // Nothing to do, the file is not used anymore
+      }
+      
+      netcdfFile = null;
     }
   }
   
@@ -143,7 +232,7 @@ public class AirQualityDataFile {
   }
 
   /**
-   * Returns air quality data array
+   * Returns air quality data array. Returns null in streaming mode.
    * 
    * @return air quality data array
    */
@@ -0,0 +1,242 @@
+package org.opentripplanner.airquality;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Precomputed mapping from street edges to the air quality grid cells sampled along them.
+ *
+ * The mapping depends only on the graph and on the grid geometry, not on the forecast values, so it
+ * is computed once and reused for every new forecast file with the same grid. Cells are stored in a
+ * compressed row layout: samples of edge n are in cells[offsets[n]] ... cells[offsets[n + 1] - 1].
+ */
+public class AirQualityEdgeMapping implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+  private static final Logger LOG = LoggerFactory.getLogger(AirQualityEdgeMapping.class);
+
+  /** Distance in meters between two samples along an edge */
+  public static final double SAMPLE_SPACING = 12d;
+
+  private final long graphKey;
+  private final long gridKey;
+  private final int[] edgeIds;
+  private final int[] offsets;
+  private final int[] cells;
+
+  /**
+   * Constructor
+   *
+   * @param graphKey key of the graph the mapping was built for
+   * @param gridKey geometry key of the grid the mapping was built for
+   * @param edgeIds ids of mapped edges
+   * @param offsets sample offsets, one more than there are edges
+   * @param cells flat grid cell index of each sample
+   */
+  public AirQualityEdgeMapping(long graphKey, long gridKey, int[] edgeIds, int[] offsets, int[] cells) {
+    this.graphKey = graphKey;
+    this.gridKey = gridKey;
+    this.edgeIds = edgeIds;
+    this.offsets = offsets;
+    this.cells = cells;
+  }
+
+  /**
+   * Builds mapping for given edges. Edges are processed concurrently in given pool.
+   *
+   * @param graphKey key of the graph
+   * @param grid air quality grid
+   * @param streetEdges street edges to map
+   * @param pool fork join pool used for the computation
+   * @return mapping
+   */
+  public static AirQualityEdgeMapping build(long graphKey, AirQualityGrid grid, List<StreetEdge> streetEdges, ForkJoinPool pool) {
+    int edgeCount = streetEdges.size();
+    int[] edgeIds = new int[edgeCount];
+    int[][] edgeCells = new int[edgeCount][];
+
+    try {
+      pool.submit(() -> IntStream.range(0, edgeCount).parallel().forEach(i -> {
+        StreetEdge streetEdge = streetEdges.get(i);
+        edgeIds[i] = streetEdge.getId();
+        edgeCells[i] = getSampleCells(grid, streetEdge.getFromVertex().getCoordinate(), streetEdge.getToVertex().getCoordinate());
+      })).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while mapping edges to air quality grid", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to map edges to air quality grid", e.getCause());
+    }
+
+    int[] offsets = new int[edgeCount + 1];
+    for (int i = 0; i < edgeCount; i++) {
+      offsets[i + 1] = offsets[i] + edgeCells[i].length;
+    }
+
+    int[] cells = new int[offsets[edgeCount]];
+    for (int i = 0; i < edgeCount; i++) {
+      System.arraycopy(edgeCells[i], 0, cells, offsets[i], edgeCells[i].length);
+    }
+
+    LOG.info("Mapped {} street edges to {} air quality samples", edgeCount, cells.length);
+
+    return new AirQualityEdgeMapping(graphKey, grid.getGeometryKey(), edgeIds, offsets, cells);
+  }
+
+  /**
+   * Loads mapping from given file
+   *
+   * @param file file
+   * @return mapping
+   * @throws IOException thrown when the file could not be read
+   */
+  public static AirQualityEdgeMapping load(File file) throws IOException {
+    try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return (AirQualityEdgeMapping) in.readObject();
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new IOException(String.format("File %s does not contain an air quality edge mapping", file), e);
+    }
+  }
+
+  /**
+   * Saves mapping into given file
+   *
+   * @param file file
+   * @throws IOException thrown when the file could not be written
+   */
+  public void save(File file) throws IOException {
+    try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeObject(this);
+    }
+  }
+
+  /**
+   * Returns whether this mapping was built for given graph and grid
+   *
+   * @param graphKey graph key
+   * @param grid grid
+   * @return whether this mapping was built for given graph and grid
+   */
+  public boolean matches(long graphKey, AirQualityGrid grid) {
+    return this.graphKey == graphKey && this.gridKey == grid.getGeometryKey();
+  }
+
+  /**
+   * Returns number of mapped edges
+   *
+   * @return number of mapped edges
+   */
+  public int getEdgeCount() {
+    return edgeIds.length;
+  }
+
+  /**
+   * Returns id of the edge in given position
+   *
+   * @param edge position of the edge in this mapping
+   * @return edge id
+   */
+  public int getEdgeId(int edge) {
+    return edgeIds[edge];
+  }
+
+  /**
+   * Returns offset of the first sample of the edge in given position
+   *
+   * @param edge position of the edge in this mapping
+   * @return sample offset
+   */
+  public int getSampleStart(int edge) {
+    return offsets[edge];
+  }
+
+  /**
+   * Returns offset after the last sample of the edge in given position
+   *
+   * @param edge position of the edge in this mapping
+   * @return sample offset
+   */
+  public int getSampleEnd(int edge) {
+    return offsets[edge + 1];
+  }
+
+  /**
+   * Returns flat grid cell index of given sample
+   *
+   * @param sample sample offset
+   * @return flat grid cell index
+   */
+  public int getSampleCell(int sample) {
+    return cells[sample];
+  }
+
+  /**
+   * Returns the smallest grid window containing every sampled cell. Reading only this window of a
+   * forecast is enough to update all mapped edges.
+   *
+   * @param grid grid the mapping was built against
+   * @return window or null if the mapping has no samples
+   */
+  public AirQualityGrid.Window getWindow(AirQualityGrid grid) {
+    if (cells.length == 0) {
+      return null;
+    }
+
+    int minLat = Integer.MAX_VALUE;
+    int maxLat = Integer.MIN_VALUE;
+    int minLon = Integer.MAX_VALUE;
+    int maxLon = Integer.MIN_VALUE;
+    for (int cell : cells) {
+      int latIndex = grid.getLatitudeIndex(cell);
+      int lonIndex = grid.getLongitudeIndex(cell);
+      minLat = Math.min(minLat, latIndex);
+      maxLat = Math.max(maxLat, latIndex);
+      minLon = Math.min(minLon, lonIndex);
+      maxLon = Math.max(maxLon, lonIndex);
+    }
+
+    return new AirQualityGrid.Window(minLat, maxLat - minLat + 1, minLon, maxLon - minLon + 1);
+  }
+
+  /**
+   * Returns closest grid cells for samples taken along given line every {@link #SAMPLE_SPACING} meters
+   *
+   * @param grid grid
+   * @param from from coordinate
+   * @param to to coordinate
+   * @return flat cell indices of the samples
+   */
+  private static int[] getSampleCells(AirQualityGrid grid, Coordinate from, Coordinate to) {
+    double distance = SphericalDistanceLibrary.distance(from.y, from.x, to.y, to.x);
+    int sampleCount = (int) Math.ceil(distance / SAMPLE_SPACING);
+    int[] result = new int[sampleCount];
+
+    for (int i = 0; i < sampleCount; i++) {
+      double fraction = i * SAMPLE_SPACING / distance;
+      double longitude = from.x + (to.x - from.x) * fraction;
+      double latitude = from.y + (to.y - from.y) * fraction;
+      result[i] = grid.getClosestCell(longitude, latitude);
+    }
+
+    return result;
+  }
+
+}
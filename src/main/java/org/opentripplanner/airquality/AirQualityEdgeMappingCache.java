@@ -0,0 +1,97 @@
+package org.opentripplanner.airquality;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the most recently used {@link AirQualityEdgeMapping} in memory and optionally persists it
+ * into a file, so the mapping survives restarts as long as neither the graph nor the grid change.
+ */
+public class AirQualityEdgeMappingCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AirQualityEdgeMappingCache.class);
+
+  private final File cacheFile;
+  private volatile AirQualityEdgeMapping mapping;
+
+  /**
+   * Constructor
+   *
+   * @param cacheFile file where the mapping is persisted or null if the mapping should be kept only in memory
+   */
+  public AirQualityEdgeMappingCache(File cacheFile) {
+    this.cacheFile = cacheFile;
+  }
+
+  /**
+   * Returns mapping for given graph and grid. Mapping is loaded from memory or from the cache file when possible
+   * and computed otherwise.
+   *
+   * @param graphKey key of the graph and the mapped edge set
+   * @param grid air quality grid
+   * @param streetEdges street edges to map, in the same order as when the key was computed
+   * @param pool fork join pool used when the mapping needs to be computed
+   * @return mapping
+   */
+  public synchronized AirQualityEdgeMapping getMapping(long graphKey, AirQualityGrid grid, List<StreetEdge> streetEdges, ForkJoinPool pool) {
+    if (mapping != null && mapping.matches(graphKey, grid)) {
+      return mapping;
+    }
+
+    AirQualityEdgeMapping persisted = loadPersisted();
+    if (persisted != null && persisted.matches(graphKey, grid) && persisted.getEdgeCount() == streetEdges.size()) {
+      LOG.info("Using air quality edge mapping from {}", cacheFile);
+      mapping = persisted;
+      return mapping;
+    }
+
+    LOG.info("Computing air quality edge mapping for {} street edges", streetEdges.size());
+    mapping = AirQualityEdgeMapping.build(graphKey, grid, streetEdges, pool);
+    savePersisted(mapping);
+
+    return mapping;
+  }
+
+  /**
+   * Loads persisted mapping if one exists
+   *
+   * @return persisted mapping or null if not available
+   */
+  private AirQualityEdgeMapping loadPersisted() {
+    if (cacheFile == null || !cacheFile.exists()) {
+      return null;
+    }
+
+    try {
+      return AirQualityEdgeMapping.load(cacheFile);
+    } catch (IOException e) {
+      LOG.warn("Could not read air quality edge mapping from {}", cacheFile, e);
+      return null;
+    }
+  }
+
+  /**
+   * Persists given mapping if cache file has been configured
+   *
+   * @param mapping mapping
+   */
+  private void savePersisted(AirQualityEdgeMapping mapping) {
+    if (cacheFile == null) {
+      return;
+    }
+
+    try {
+      mapping.save(cacheFile);
+      LOG.info("Saved air quality edge mapping into {}", cacheFile);
+    } catch (IOException e) {
+      LOG.warn("Could not save air quality edge mapping into {}", cacheFile, e);
+    }
+  }
+
+}
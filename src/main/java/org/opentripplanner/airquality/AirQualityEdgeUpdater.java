@@ -2,7 +2,6 @@ package org.opentripplanner.airquality;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
 import org.geotools.referencing.GeodeticCalculator;
@@ -16,7 +15,7 @@ import com.vividsolutions.jts.geom.Coordinate;
 import ucar.ma2.Array;
 
 /**
- * Class that updates air quality data from single air quality data file into all street edges.
+ * Class that updates air quality data from single air quality data file of all street edges into an air quality store.
  * 
  * @author Antti Leppä <antti.leppa@metatavu.fi>
  * @author Heikki Kurhinen <heikki.kurhinen@metatavu.fi>
@@ -28,7 +27,8 @@ public class AirQualityEdgeUpdater {
   private static final int REPORT_EVERY_N_EDGE = 10000;
 
   private AirQualityDataFile airQualityDataFile;
-  private Collection<StreetEdge> streetEdges;
+  private List<StreetEdge> streetEdges;
+  private AirQualityStore store;
   private int edgesUpdated;
   private long aqiTime = 0;
   
@@ -37,11 +37,13 @@ public class AirQualityEdgeUpdater {
    * 
    * @param airQualityDataFile data file
    * @param streetEdges street edges
+   * @param store store receiving the data
    */
-  public AirQualityEdgeUpdater(AirQualityDataFile airQualityDataFile, Collection<StreetEdge> streetEdges) {
+  public AirQualityEdgeUpdater(AirQualityDataFile airQualityDataFile, List<StreetEdge> streetEdges, AirQualityStore store) {
     super();
     this.airQualityDataFile = airQualityDataFile;
     this.streetEdges = streetEdges;
+    this.store = store;
     this.edgesUpdated = 0;
     this.aqiTime = this.airQualityDataFile.getOriginDate().toInstant().toEpochMilli();
     LOG.info(String.format("Street edges update statring from time stamp %d", this.aqiTime));
@@ -51,22 +53,31 @@ public class AirQualityEdgeUpdater {
    * Updates air quality data to street edges
    */
   public void updateEdges() {
-    streetEdges.stream().forEach(this::updateEdge);
+    int timeSize = (int) airQualityDataFile.getTimeArray().getSize();
+    int[] edgeIds = streetEdges.stream().mapToInt(StreetEdge::getId).toArray();
+    AirQualityStore.Update update = store.beginUpdate(aqiTime, timeSize, edgeIds);
+    
+    for (int row = 0; row < edgeIds.length; row++) {
+      updateEdge(update, row, streetEdges.get(row));
+    }
+    
+    update.publish();
   }
   
   /**
-   * Updates air quality data into single edge
+   * Updates air quality data of single edge
    * 
+   * @param update store update
+   * @param row row of the edge in the store
    * @param streetEdge edge
    */
-  private void updateEdge(StreetEdge streetEdge) {
+  private void updateEdge(AirQualityStore.Update update, int row, StreetEdge streetEdge) {
     Vertex fromVertex = streetEdge.getFromVertex();
     Vertex toVertex = streetEdge.getToVertex();
     Coordinate fromCoordinate = fromVertex.getCoordinate();
     Coordinate toCoordinate = toVertex.getCoordinate();
     float[] aqi = getAverageAq(fromCoordinate.x, fromCoordinate.y, toCoordinate.x, toCoordinate.y);
-    streetEdge.setAqi(aqi);
-    streetEdge.setAqiTime(aqiTime);
+    update.setValues(row, aqi);
     
     edgesUpdated++;
     
@@ -0,0 +1,103 @@
+package org.opentripplanner.airquality;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Immutable view of a single air quality forecast held by an {@link AirQualityStore}.
+ *
+ * Values are kept outside of the Java heap in a direct buffer laid out column by column: all edges of
+ * the first forecast hour, then all edges of the second hour and so on. Edges are addressed by their
+ * edge id through a row lookup table.
+ */
+public class AirQualityForecast {
+
+  private static final long MILLIS_IN_HOUR = 60L * 60L * 1000L;
+
+  private final long originTime;
+  private final int hours;
+  private final int edgeCount;
+  private final int[] rowByEdgeId;
+  private final FloatBuffer values;
+
+  /**
+   * Constructor
+   *
+   * @param originTime epoch milliseconds of the first forecast hour
+   * @param hours number of forecast hours
+   * @param edgeCount number of edges with data
+   * @param rowByEdgeId row of each edge id or -1 when the edge has no data
+   * @param values forecast values, at least hours * edgeCount of them
+   */
+  AirQualityForecast(long originTime, int hours, int edgeCount, int[] rowByEdgeId, FloatBuffer values) {
+    this.originTime = originTime;
+    this.hours = hours;
+    this.edgeCount = edgeCount;
+    this.rowByEdgeId = rowByEdgeId;
+    this.values = values;
+  }
+
+  /**
+   * Returns epoch milliseconds of the first forecast hour
+   *
+   * @return epoch milliseconds of the first forecast hour
+   */
+  public long getOriginTime() {
+    return originTime;
+  }
+
+  /**
+   * Returns number of forecast hours
+   *
+   * @return number of forecast hours
+   */
+  public int getHours() {
+    return hours;
+  }
+
+  /**
+   * Returns number of edges with data
+   *
+   * @return number of edges with data
+   */
+  public int getEdgeCount() {
+    return edgeCount;
+  }
+
+  /**
+   * Returns forecast hour index for given time or -1 if the time is not covered by the forecast
+   *
+   * @param timeMillis epoch milliseconds
+   * @return forecast hour index or -1
+   */
+  public int getHourIndex(long timeMillis) {
+    long hour = (timeMillis - originTime) / MILLIS_IN_HOUR;
+    return hour >= 0 && hour < hours ? (int) hour : -1;
+  }
+
+  /**
+   * Returns forecast row of given edge id or -1 if the edge has no data
+   *
+   * @param edgeId edge id
+   * @return row or -1
+   */
+  public int getRow(int edgeId) {
+    return edgeId >= 0 && edgeId < rowByEdgeId.length ? rowByEdgeId[edgeId] : -1;
+  }
+
+  /**
+   * Returns air quality index for given edge and forecast hour or NaN if not available
+   *
+   * @param edgeId edge id
+   * @param hourIndex forecast hour index
+   * @return air quality index or NaN
+   */
+  public float getAqi(int edgeId, int hourIndex) {
+    int row = getRow(edgeId);
+    if (row < 0 || hourIndex < 0 || hourIndex >= hours) {
+      return Float.NaN;
+    }
+
+    return values.get(hourIndex * edgeCount + row);
+  }
+
+}
@@ -14,6 +14,7 @@
 package org.opentripplanner.airquality;
 
 import java.io.File;
+import java.util.concurrent.ForkJoinPool;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
@@ -34,8 +35,20 @@ import spark.utils.StringUtils;
  * type = air-quality
  * frequencySec = 600000
  * airQualityFile = /path/to/file.aqi.nc
+ * mappingFile = /path/to/edge-mapping.bin
+ * threads = 4
+ * indexed = true
+ * streaming = false
  * </pre>
  * 
+ * With indexed updating (the default) the edge to grid cell mapping is computed once per graph and
+ * grid geometry, optionally persisted to mappingFile, and edges are updated concurrently using
+ * threads worker threads. Setting indexed to false falls back to sampling every edge on every update.
+ * 
+ * With streaming enabled the forecast is read one time slice at a time and only over the grid window
+ * covering the street edges, which keeps memory use bounded for very large files. Streaming requires
+ * indexed updating.
+ * 
  * @author Antti Leppä <antti.leppa@metatavu.fi>
  * @author Heikki Kurhinen <heikki.kurhinen@metatavu.fi>
  */
@@ -49,6 +62,10 @@ public class AirQualityGraphUpdater extends PollingGraphUpdater {
     private String longitudeVariable;
     private String aqiVariable;
     private String timeVariable; 
+    private boolean indexed;
+    private boolean streaming;
+    private AirQualityEdgeMappingCache mappingCache;
+    private ForkJoinPool pool;
 
     @Override
     protected void configurePolling(Graph graph, JsonNode config) throws Exception {
@@ -57,8 +74,17 @@ public class AirQualityGraphUpdater extends PollingGraphUpdater {
       longitudeVariable = config.path("longitudeVariable").asText("longitude");
       aqiVariable = config.path("aqiVariable").asText("AQI");
       timeVariable = config.path("timeVariable").asText("time");
+      indexed = config.path("indexed").asBoolean(true);
+      streaming = config.path("streaming").asBoolean(false);
+      if (streaming && !indexed) {
+        LOG.warn("Air quality streaming requires indexed updating, reading whole files instead");
+        streaming = false;
+      }
+      String mappingFile = config.path("mappingFile").asText(null);
+      mappingCache = new AirQualityEdgeMappingCache(mappingFile != null ? new File(mappingFile) : null);
+      pool = new ForkJoinPool(config.path("threads").asInt(Runtime.getRuntime().availableProcessors()));
       
-      LOG.info("Configured air quality updater: file={}", airQualityFile);
+      LOG.info("Configured air quality updater: file={}, indexed={}, streaming={}, mappingFile={}", airQualityFile, indexed, streaming, mappingFile);
     }
 
     @Override
@@ -80,7 +106,7 @@ public class AirQualityGraphUpdater extends PollingGraphUpdater {
           return;
         }
 
-        AirQualityUpdater updater = new AirQualityUpdater(latitudeVariable, longitudeVariable, aqiVariable, timeVariable, airQualityFile);
+        AirQualityUpdater updater = new AirQualityUpdater(latitudeVariable, longitudeVariable, aqiVariable, timeVariable, airQualityFile, streaming);
         String errors = updater.checkFile();
         if (StringUtils.isNotEmpty(errors)) {
           LOG.warn("Errors {} in air quality file {}", errors, airQualityFile);
@@ -89,7 +115,11 @@ public class AirQualityGraphUpdater extends PollingGraphUpdater {
         
         LOG.info("Updating graph with air quality data");
         
-        updater.updateGraph(graph);
+        if (indexed) {
+          updater.updateGraph(graph, mappingCache, pool);
+        } else {
+          updater.updateGraph(graph);
+        }
         
         LOG.info("Updated graph with air quality data");
       });
@@ -98,6 +128,9 @@ public class AirQualityGraphUpdater extends PollingGraphUpdater {
     @Override
     public void teardown() {
       LOG.info("Stopping air quality graph updater");
+      if (pool != null) {
+        pool.shutdown();
+      }
     }
     
 }
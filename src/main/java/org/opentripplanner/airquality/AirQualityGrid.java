@@ -0,0 +1,278 @@
+package org.opentripplanner.airquality;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import ucar.ma2.Array;
+
+/**
+ * Geometry of the regular latitude / longitude grid of an air quality data file.
+ *
+ * Closest cells are resolved by index arithmetic when the axis has constant spacing and by
+ * binary search otherwise, so looking up a cell never scans the whole axis.
+ */
+public class AirQualityGrid implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Relative tolerance used when deciding whether an axis is evenly spaced */
+  private static final double REGULAR_AXIS_TOLERANCE = 1e-6;
+
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final boolean regularLatitudes;
+  private final boolean regularLongitudes;
+
+  /**
+   * Constructor
+   *
+   * @param latitudes latitude axis values in ascending or descending order
+   * @param longitudes longitude axis values in ascending or descending order
+   */
+  public AirQualityGrid(double[] latitudes, double[] longitudes) {
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.regularLatitudes = isRegular(latitudes);
+    this.regularLongitudes = isRegular(longitudes);
+  }
+
+  /**
+   * Creates grid from the axis arrays of a data file
+   *
+   * @param dataFile data file
+   * @return grid
+   */
+  public static AirQualityGrid fromDataFile(AirQualityDataFile dataFile) {
+    return new AirQualityGrid(toDoubleArray(dataFile.getLatitudeArray()), toDoubleArray(dataFile.getLongitudeArray()));
+  }
+
+  /**
+   * Returns number of cells along latitude axis
+   *
+   * @return number of cells along latitude axis
+   */
+  public int getLatitudeSize() {
+    return latitudes.length;
+  }
+
+  /**
+   * Returns number of cells along longitude axis
+   *
+   * @return number of cells along longitude axis
+   */
+  public int getLongitudeSize() {
+    return longitudes.length;
+  }
+
+  /**
+   * Returns number of cells in a single time slice of the grid
+   *
+   * @return number of cells in a single time slice
+   */
+  public int getCellCount() {
+    return latitudes.length * longitudes.length;
+  }
+
+  /**
+   * Returns flat cell index (latitude major) of the cell closest to given point
+   *
+   * @param longitude longitude
+   * @param latitude latitude
+   * @return flat cell index
+   */
+  public int getClosestCell(double longitude, double latitude) {
+    int latIndex = getClosestIndex(latitudes, regularLatitudes, latitude);
+    int lonIndex = getClosestIndex(longitudes, regularLongitudes, longitude);
+    return latIndex * longitudes.length + lonIndex;
+  }
+
+  /**
+   * Returns latitude index of a flat cell index
+   *
+   * @param cell flat cell index
+   * @return latitude index
+   */
+  public int getLatitudeIndex(int cell) {
+    return cell / longitudes.length;
+  }
+
+  /**
+   * Returns longitude index of a flat cell index
+   *
+   * @param cell flat cell index
+   * @return longitude index
+   */
+  public int getLongitudeIndex(int cell) {
+    return cell % longitudes.length;
+  }
+
+  /**
+   * Returns window covering the whole grid
+   *
+   * @return window covering the whole grid
+   */
+  public Window getFullWindow() {
+    return new Window(0, latitudes.length, 0, longitudes.length);
+  }
+
+  /**
+   * Returns a key identifying the geometry of this grid. Two grids with the same key map
+   * coordinates to the same cells, so edge mappings computed against one can be reused with the other.
+   *
+   * @return geometry key
+   */
+  public long getGeometryKey() {
+    return 31L * Arrays.hashCode(latitudes) + Arrays.hashCode(longitudes);
+  }
+
+  /**
+   * Returns whether given grid has the same geometry as this one
+   *
+   * @param other other grid
+   * @return whether given grid has the same geometry as this one
+   */
+  public boolean sameGeometry(AirQualityGrid other) {
+    return other != null && Arrays.equals(latitudes, other.latitudes) && Arrays.equals(longitudes, other.longitudes);
+  }
+
+  /**
+   * Returns closest index for a value from given axis
+   *
+   * @param axis axis
+   * @param regular whether the axis is evenly spaced
+   * @param value value
+   * @return closest index
+   */
+  private static int getClosestIndex(double[] axis, boolean regular, double value) {
+    int last = axis.length - 1;
+    if (last <= 0) {
+      return 0;
+    }
+
+    if (regular) {
+      double step = (axis[last] - axis[0]) / last;
+      long index = Math.round((value - axis[0]) / step);
+      return (int) Math.max(0, Math.min(last, index));
+    }
+
+    boolean ascending = axis[last] > axis[0];
+    int low = 0;
+    int high = last;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ascending ? axis[mid] < value : axis[mid] > value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    if (low > 0 && Math.abs(axis[low - 1] - value) <= Math.abs(axis[low] - value)) {
+      return low - 1;
+    }
+
+    return low;
+  }
+
+  /**
+   * Returns whether the values of given axis are evenly spaced
+   *
+   * @param axis axis
+   * @return whether the values of given axis are evenly spaced
+   */
+  private static boolean isRegular(double[] axis) {
+    if (axis.length < 3) {
+      return true;
+    }
+
+    double step = (axis[axis.length - 1] - axis[0]) / (axis.length - 1);
+    double tolerance = Math.abs(step) * REGULAR_AXIS_TOLERANCE;
+    for (int i = 1; i < axis.length; i++) {
+      if (Math.abs(axis[i] - axis[i - 1] - step) > tolerance) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Copies NetCDF array into a double array
+   *
+   * @param array array
+   * @return double array
+   */
+  private static double[] toDoubleArray(Array array) {
+    double[] result = new double[(int) array.getSize()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = array.getDouble(i);
+    }
+    return result;
+  }
+
+  /**
+   * Rectangular latitude / longitude index window of the grid
+   */
+  public static class Window {
+
+    private final int latitudeStart;
+    private final int latitudeCount;
+    private final int longitudeStart;
+    private final int longitudeCount;
+
+    /**
+     * Constructor
+     *
+     * @param latitudeStart first latitude index
+     * @param latitudeCount number of latitude indices
+     * @param longitudeStart first longitude index
+     * @param longitudeCount number of longitude indices
+     */
+    public Window(int latitudeStart, int latitudeCount, int longitudeStart, int longitudeCount) {
+      this.latitudeStart = latitudeStart;
+      this.latitudeCount = latitudeCount;
+      this.longitudeStart = longitudeStart;
+      this.longitudeCount = longitudeCount;
+    }
+
+    public int getLatitudeStart() {
+      return latitudeStart;
+    }
+
+    public int getLatitudeCount() {
+      return latitudeCount;
+    }
+
+    public int getLongitudeStart() {
+      return longitudeStart;
+    }
+
+    public int getLongitudeCount() {
+      return longitudeCount;
+    }
+
+    /**
+     * Returns number of cells in the window
+     *
+     * @return number of cells in the window
+     */
+    public int getCellCount() {
+      return latitudeCount * longitudeCount;
+    }
+
+    /**
+     * Returns index of given grid cell within a latitude major slice of this window
+     *
+     * @param grid grid
+     * @param cell flat cell index of the grid
+     * @return index within the window
+     */
+    public int getSliceIndex(AirQualityGrid grid, int cell) {
+      int latIndex = grid.getLatitudeIndex(cell) - latitudeStart;
+      int lonIndex = grid.getLongitudeIndex(cell) - longitudeStart;
+      return latIndex * longitudeCount + lonIndex;
+    }
+
+  }
+
+}
@@ -0,0 +1,138 @@
+package org.opentripplanner.airquality;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of air quality forecasts of a graph, handles concurrency.
+ *
+ * Forecast values are stored off-heap in two direct buffers. A new forecast is written into the
+ * standby buffer while routing requests keep reading the active one, and publishing the new forecast
+ * only flips a reference. Routing requests grab the forecast once (see RoutingContext) so a single
+ * search sees a coherent view of the data.
+ *
+ * The standby buffer is the one that was active before the previous update, so a search must not
+ * outlive two consecutive forecast updates. With hourly updates this is never an issue.
+ */
+public class AirQualityStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AirQualityStore.class);
+
+  private final FloatBuffer[] buffers = new FloatBuffer[2];
+  private int standby = 0;
+  private volatile AirQualityForecast forecast;
+
+  /**
+   * Returns currently published forecast or null if none has been published yet
+   *
+   * @return currently published forecast
+   */
+  // not synchronized; reference writes and reads are atomic in java
+  public AirQualityForecast getForecast() {
+    return forecast;
+  }
+
+  /**
+   * Starts writing a new forecast into the standby buffer. Values become visible to routing only after
+   * {@link Update#publish()} is called.
+   *
+   * @param originTime epoch milliseconds of the first forecast hour
+   * @param hours number of forecast hours
+   * @param edgeIds ids of the edges with data, the position of an id is its row in the forecast
+   * @return update
+   */
+  public synchronized Update beginUpdate(long originTime, int hours, int[] edgeIds) {
+    if ((long) hours * edgeIds.length * 4 > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(String.format("Air quality forecast of %d edges and %d hours does not fit into a single buffer", edgeIds.length, hours));
+    }
+
+    int capacity = hours * edgeIds.length;
+    FloatBuffer buffer = buffers[standby];
+    if (buffer == null || buffer.capacity() < capacity) {
+      LOG.info("Allocating {} MB off-heap buffer for air quality data", ((long) capacity * 4) >> 20);
+      buffer = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+      buffers[standby] = buffer;
+    }
+
+    int maxEdgeId = -1;
+    for (int edgeId : edgeIds) {
+      maxEdgeId = Math.max(maxEdgeId, edgeId);
+    }
+
+    int[] rowByEdgeId = new int[maxEdgeId + 1];
+    Arrays.fill(rowByEdgeId, -1);
+    for (int row = 0; row < edgeIds.length; row++) {
+      rowByEdgeId[edgeIds[row]] = row;
+    }
+
+    return new Update(new AirQualityForecast(originTime, hours, edgeIds.length, rowByEdgeId, buffer));
+  }
+
+  /**
+   * Publishes given forecast and turns the previously active buffer into the standby one
+   *
+   * @param forecast forecast
+   */
+  private synchronized void publish(AirQualityForecast forecast) {
+    this.forecast = forecast;
+    standby = 1 - standby;
+  }
+
+  /**
+   * Forecast being written into the standby buffer
+   */
+  public class Update {
+
+    private final AirQualityForecast forecast;
+    private final FloatBuffer values;
+    private boolean published = false;
+
+    private Update(AirQualityForecast forecast) {
+      this.forecast = forecast;
+      this.values = buffers[standby];
+    }
+
+    /**
+     * Sets value of given row and hour. Different rows may be written concurrently.
+     *
+     * @param row row
+     * @param hourIndex forecast hour index
+     * @param value air quality index
+     */
+    public void setValue(int row, int hourIndex, float value) {
+      values.put(hourIndex * forecast.getEdgeCount() + row, value);
+    }
+
+    /**
+     * Sets values of all hours of given row. Different rows may be written concurrently.
+     *
+     * @param row row
+     * @param hourlyValues air quality indices, one per forecast hour
+     */
+    public void setValues(int row, float[] hourlyValues) {
+      for (int hourIndex = 0; hourIndex < forecast.getHours(); hourIndex++) {
+        setValue(row, hourIndex, hourIndex < hourlyValues.length ? hourlyValues[hourIndex] : Float.NaN);
+      }
+    }
+
+    /**
+     * Publishes the forecast to routing
+     */
+    public void publish() {
+      if (published) {
+        throw new IllegalStateException("Air quality forecast has already been published");
+      }
+
+      published = true;
+      AirQualityStore.this.publish(forecast);
+      LOG.info("Published air quality forecast of {} edges and {} hours", forecast.getEdgeCount(), forecast.getHours());
+    }
+
+  }
+
+}
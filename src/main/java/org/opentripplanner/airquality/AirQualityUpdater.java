@@ -1,11 +1,16 @@
 package org.opentripplanner.airquality;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +35,17 @@ public class AirQualityUpdater {
    * @param aqiNcFiles air quality NetCDF files
    */
   public AirQualityUpdater(String latitudeVariable, String longitudeVariable, String aqiVariable, String timeVariable, File aqiNcFile) {
-    this.dataFile = readAirQualityDataFile(latitudeVariable, longitudeVariable, aqiVariable, timeVariable, aqiNcFile);
+    this(latitudeVariable, longitudeVariable, aqiVariable, timeVariable, aqiNcFile, false);
+  }
+  
+  /**
+   * Constructor
+   * 
+   * @param aqiNcFiles air quality NetCDF files
+   * @param streaming whether the file should be read one time slice at a time
+   */
+  public AirQualityUpdater(String latitudeVariable, String longitudeVariable, String aqiVariable, String timeVariable, File aqiNcFile, boolean streaming) {
+    this.dataFile = readAirQualityDataFile(latitudeVariable, longitudeVariable, aqiVariable, timeVariable, aqiNcFile, streaming);
   }
   
   /**
@@ -42,7 +57,33 @@ public class AirQualityUpdater {
     }
     
     Collection<StreetEdge> streetEdges = graph.getStreetEdges();
-    this.updateEdges(dataFile, streetEdges);
+    this.updateEdges(dataFile, streetEdges, getStore(graph));
+  }
+  
+  /**
+   * Updates street edges with air quality data using precomputed edge to grid cell mapping
+   * 
+   * @param graph graph
+   * @param mappingCache cache holding the edge mapping
+   * @param pool fork join pool used for mapping and updating the edges
+   */
+  public void updateGraph(Graph graph, AirQualityEdgeMappingCache mappingCache, ForkJoinPool pool) {
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Updating air quality data starting from {}", this.dataFile.getOriginDate().toString());
+    }
+
+    AirQualityGrid grid = AirQualityGrid.fromDataFile(dataFile);
+    List<StreetEdge> dataEdges = getDataEdges(graph, dataFile.getBoundingBox());
+    long graphKey = getGraphKey(graph, dataEdges);
+    AirQualityEdgeMapping mapping = mappingCache.getMapping(graphKey, grid, dataEdges, pool);
+    
+    try {
+      new IndexedAirQualityEdgeUpdater(dataFile, grid, mapping, getStore(graph), pool).updateEdges();
+    } catch (IOException e) {
+      LOG.error("Failed to read air quality data", e);
+    } finally {
+      dataFile.close();
+    }
   }
   
   public String checkFile() {
@@ -54,8 +95,9 @@ public class AirQualityUpdater {
    * 
    * @param dataFile data file
    * @param streetEdges street edges
+   * @param store store receiving the data
    */
-  private void updateEdges(AirQualityDataFile dataFile, Collection<StreetEdge> streetEdges) {
+  private void updateEdges(AirQualityDataFile dataFile, Collection<StreetEdge> streetEdges, AirQualityStore store) {
     Envelope dataBoundingBox = dataFile.getBoundingBox();
     
     List<StreetEdge> dataEdges = streetEdges.stream().filter(streetEdge -> {
@@ -63,18 +105,65 @@ public class AirQualityUpdater {
       return dataBoundingBox.contains(edgeEnvelope);
     }).collect(Collectors.toList());
 
-    AirQualityEdgeUpdater edgeUpdater = new AirQualityEdgeUpdater(dataFile, dataEdges);
+    AirQualityEdgeUpdater edgeUpdater = new AirQualityEdgeUpdater(dataFile, dataEdges, store);
     
     edgeUpdater.updateEdges();
   }
   
+  /**
+   * Returns air quality store of the graph, creating one when needed
+   * 
+   * @param graph graph
+   * @return air quality store
+   */
+  private AirQualityStore getStore(Graph graph) {
+    if (graph.airQualityStore == null) {
+      graph.airQualityStore = new AirQualityStore();
+    }
+    
+    return graph.airQualityStore;
+  }
+  
+  /**
+   * Returns street edges inside given bounding box ordered by edge id. Street index is used when available.
+   * 
+   * @param graph graph
+   * @param dataBoundingBox bounding box
+   * @return street edges inside the bounding box
+   */
+  private List<StreetEdge> getDataEdges(Graph graph, Envelope dataBoundingBox) {
+    Collection<? extends Edge> candidates = graph.streetIndex != null ? graph.streetIndex.getEdgesForEnvelope(dataBoundingBox) : graph.getStreetEdges();
+    
+    return candidates.stream()
+      .filter(StreetEdge.class::isInstance)
+      .map(StreetEdge.class::cast)
+      .filter(streetEdge -> {
+        Envelope edgeEnvelope = new Envelope(streetEdge.getFromVertex().getCoordinate(), streetEdge.getToVertex().getCoordinate());
+        return dataBoundingBox.contains(edgeEnvelope);
+      })
+      .sorted(Comparator.comparingInt(StreetEdge::getId))
+      .collect(Collectors.toList());
+  }
+  
+  /**
+   * Returns key identifying the graph and the set of edges mapped for it
+   * 
+   * @param graph graph
+   * @param dataEdges edges ordered by id
+   * @return key
+   */
+  private long getGraphKey(Graph graph, List<StreetEdge> dataEdges) {
+    int[] edgeIds = dataEdges.stream().mapToInt(StreetEdge::getId).toArray();
+    return 31L * graph.buildTime.getTime() + Arrays.hashCode(edgeIds);
+  }
+  
   /**
    * Loads air quality data file from the disk
    * 
    * @param file file
    * @return air quality data file
    */
-  private AirQualityDataFile readAirQualityDataFile(String latitudeVariable, String longitudeVariable, String aqiVariable, String timeVariable, File file) {
-    return new AirQualityDataFile(latitudeVariable, longitudeVariable, aqiVariable, timeVariable, file);
+  private AirQualityDataFile readAirQualityDataFile(String latitudeVariable, String longitudeVariable, String aqiVariable, String timeVariable, File file, boolean streaming) {
+    return new AirQualityDataFile(latitudeVariable, longitudeVariable, aqiVariable, timeVariable, file, streaming);
   }
 }
@@ -1,12 +1,11 @@
 package org.opentripplanner.airquality;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Class that is used to store air quailty data for single edge.
  * 
- * This is used only on graph build time
+ * Samples are accumulated into running sums and counts per time instead of growing arrays of samples.
  * 
  * @author Antti Leppä <antti.leppa@metatavu.fi>
  * @author Heikki Kurhinen <heikki.kurhinen@metatavu.fi>
@@ -14,13 +13,15 @@ import java.util.Map;
  */
 public class EdgeAirQuality {
   
-  private Map<Integer, float[]> airQualities; 
+  private float[] sums;
+  private int[] counts;
   
   /**
    * Constructor
    */
   public EdgeAirQuality() {
-    airQualities = new HashMap<>();
+    sums = new float[0];
+    counts = new int[0];
   }
   
   /**
@@ -30,15 +31,14 @@ public class EdgeAirQuality {
    * @param airQuality air quality index
    */
   public void addAirQualitySample(int time, float airQuality) {
-    float[] existing = airQualities.get(time);
-    if (existing == null) {
-      airQualities.put(time, new float[] { airQuality });
-    } else {
-      float[] updated = new float[existing.length + 1];
-      System.arraycopy(existing, 0, updated, 0, existing.length);
-      updated[existing.length] = airQuality;
-      airQualities.put(time, updated);
+    if (time >= sums.length) {
+      int length = Math.max(time + 1, sums.length * 2);
+      sums = Arrays.copyOf(sums, length);
+      counts = Arrays.copyOf(counts, length);
     }
+    
+    sums[time] += airQuality;
+    counts[time]++;
   }
   
   /**
@@ -48,7 +48,11 @@ public class EdgeAirQuality {
    * @return air quality index
    */
   public float getAirQuality(int time) {
-    return getAverage(getAirQualitiesInTime(time));
+    if (time >= counts.length || counts[time] == 0) {
+      return 0;
+    }
+    
+    return sums[time] / counts[time];
   }
   
   /**
@@ -66,35 +70,5 @@ public class EdgeAirQuality {
     
     return result;
   }
-  
-  /**
-   * Returns average for values
-   * 
-   * @param values values
-   * @return average
-   */
-  private float getAverage(float[] values) {
-    if (values == null) {
-      return 0;
-    }
-    
-    float result = 0f;
-    
-    for (float value : values) {
-      result += value;
-    }
-    
-    return result / values.length;
-  }
-  
-  /**
-   * Returns array of air quality indices in time
-   * 
-   * @param time time
-   * @return array of air quality indices
-   */
-  private float[] getAirQualitiesInTime(int time) {
-    return airQualities.get(time);
-  }
 
 }
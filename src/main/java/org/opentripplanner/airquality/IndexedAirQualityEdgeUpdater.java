@@ -0,0 +1,135 @@
+package org.opentripplanner.airquality;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Updates air quality data of street edges into an {@link AirQualityStore} using a precomputed
+ * {@link AirQualityEdgeMapping}.
+ *
+ * Because the edge to grid cell mapping is already known, updating edges only averages the time series
+ * of the mapped cells, which is done concurrently in a fork join pool.
+ */
+public class IndexedAirQualityEdgeUpdater {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IndexedAirQualityEdgeUpdater.class);
+
+  private final AirQualityDataFile airQualityDataFile;
+  private final AirQualityGrid grid;
+  private final AirQualityEdgeMapping mapping;
+  private final AirQualityStore store;
+  private final ForkJoinPool pool;
+
+  /**
+   * Constructor
+   *
+   * @param airQualityDataFile data file
+   * @param grid grid of the data file
+   * @param mapping edge mapping built against the grid
+   * @param store store receiving the data
+   * @param pool fork join pool
+   */
+  public IndexedAirQualityEdgeUpdater(AirQualityDataFile airQualityDataFile, AirQualityGrid grid, AirQualityEdgeMapping mapping, AirQualityStore store, ForkJoinPool pool) {
+    this.airQualityDataFile = airQualityDataFile;
+    this.grid = grid;
+    this.mapping = mapping;
+    this.store = store;
+    this.pool = pool;
+  }
+
+  /**
+   * Updates air quality data to street edges.
+   *
+   * Data is processed one time slice at a time. For streaming data files only the grid window covering
+   * the mapped edges is read for each slice, so memory use does not depend on the size of the file.
+   *
+   * @throws IOException thrown when a time slice could not be read from a streaming data file
+   */
+  public void updateEdges() throws IOException {
+    long aqiTime = airQualityDataFile.getOriginDate().toInstant().toEpochMilli();
+    int timeSize = (int) airQualityDataFile.getTimeArray().getSize();
+    boolean streaming = airQualityDataFile.isStreaming();
+    AirQualityGrid.Window window = streaming ? mapping.getWindow(grid) : grid.getFullWindow();
+    float[] values = streaming ? null : (float[]) airQualityDataFile.getAqiArray().get1DJavaArray(float.class);
+
+    int[] edgeIds = new int[mapping.getEdgeCount()];
+    for (int edge = 0; edge < edgeIds.length; edge++) {
+      edgeIds[edge] = mapping.getEdgeId(edge);
+    }
+
+    int[] sliceCells = getSliceCells(window);
+
+    LOG.info("Street edges update starting from time stamp {}", aqiTime);
+
+    AirQualityStore.Update update = store.beginUpdate(aqiTime, timeSize, edgeIds);
+    for (int time = 0; time < timeSize; time++) {
+      float[] slice;
+      int sliceStart;
+      if (window == null) {
+        slice = new float[0];
+        sliceStart = 0;
+      } else if (streaming) {
+        slice = airQualityDataFile.readAqiSlice(time, window.getLatitudeStart(), window.getLatitudeCount(), window.getLongitudeStart(), window.getLongitudeCount());
+        sliceStart = 0;
+      } else {
+        slice = values;
+        sliceStart = time * window.getCellCount();
+      }
+
+      updateSlice(update, time, slice, sliceStart, sliceCells, edgeIds.length);
+    }
+
+    update.publish();
+    LOG.info("{} street edges updated", edgeIds.length);
+  }
+
+  /**
+   * Writes averages of a single time slice into the store for all edges concurrently
+   *
+   * @param update store update
+   * @param time time index
+   * @param slice slice values in latitude major order
+   * @param sliceStart offset of the slice within the values array
+   * @param sliceCells index of each mapping sample within the slice
+   * @param edgeCount number of edges
+   */
+  private void updateSlice(AirQualityStore.Update update, int time, float[] slice, int sliceStart, int[] sliceCells, int edgeCount) {
+    try {
+      pool.submit(() -> IntStream.range(0, edgeCount).parallel().forEach(edge -> {
+        int start = mapping.getSampleStart(edge);
+        int end = mapping.getSampleEnd(edge);
+        float sum = 0f;
+        for (int sample = start; sample < end; sample++) {
+          sum += slice[sliceStart + sliceCells[sample]];
+        }
+        update.setValue(edge, time, start == end ? 0f : sum / (end - start));
+      })).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while updating air quality data", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to update air quality data", e.getCause());
+    }
+  }
+
+  /**
+   * Returns index of each mapping sample within a slice of given window
+   *
+   * @param window window or null if there are no samples
+   * @return slice indices of the samples
+   */
+  private int[] getSliceCells(AirQualityGrid.Window window) {
+    int sampleCount = mapping.getEdgeCount() == 0 ? 0 : mapping.getSampleEnd(mapping.getEdgeCount() - 1);
+    int[] result = new int[sampleCount];
+    for (int sample = 0; sample < sampleCount; sample++) {
+      result[sample] = window.getSliceIndex(grid, mapping.getSampleCell(sample));
+    }
+    return result;
+  }
+
+}
@@ -139,6 +139,30 @@ public abstract class RoutingResource {
      */
     @QueryParam("airQualityMode")
     protected String airQualityMode;
+
+    /**
+     * Threshold in decibels when the low noise penalty starts to affect routing
+     */
+    @QueryParam("noisePenaltyThresholdLow")
+    protected Double noisePenaltyThresholdLow;
+
+    /**
+     * Threshold in decibels when the high noise penalty starts to affect routing
+     */
+    @QueryParam("noisePenaltyThresholdHigh")
+    protected Double noisePenaltyThresholdHigh;
+
+    /**
+     * Low noise penalty rate
+     */
+    @QueryParam("noisePenaltyLowRate")
+    protected Double noisePenaltyLowRate;
+
+    /**
+     * High noise penalty rate
+     */
+    @QueryParam("noisePenaltyHighRate")
+    protected Double noisePenaltyHighRate;
     
     /** How much more reluctant is the user to walk on streets with car traffic allowed **/
     @QueryParam("walkOnStreetReluctance")
@@ -478,6 +502,18 @@ public abstract class RoutingResource {
         if (airQualityMode != null)
             request.setAirQualityMode(airQualityMode);
 
+        if (noisePenaltyThresholdLow != null)
+            request.setNoisePenaltyThresholdLow(noisePenaltyThresholdLow);
+
+        if (noisePenaltyThresholdHigh != null)
+            request.setNoisePenaltyThresholdHigh(noisePenaltyThresholdHigh);
+
+        if (noisePenaltyLowRate != null)
+            request.setNoisePenaltyLowRate(noisePenaltyLowRate);
+
+        if (noisePenaltyHighRate != null)
+            request.setNoisePenaltyHighRate(noisePenaltyHighRate);
+
         if (waitReluctance != null)
             request.setWaitReluctance(waitReluctance);
 
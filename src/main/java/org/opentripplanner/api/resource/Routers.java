@@ -47,6 +47,7 @@ import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.GraphSwapMetrics;
 import org.opentripplanner.routing.impl.MemoryGraphSource;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.standalone.CommandLineParameters;
@@ -152,15 +153,44 @@ public class Routers {
         }
     }
 
+    /**
+     * Return the timings and memory use of the staged reload that swapped in the current graph of the given routerId.
+     * @return status code 404 if the graph was not swapped in by a staged reload.
+     */
+    @RolesAllowed({ "ROUTERS" })
+    @GET @Path("{routerId}/reload")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response getSwapMetrics(@PathParam("routerId") String routerId) {
+        try {
+            GraphSwapMetrics metrics = otpServer.getRouter(routerId).swapMetrics;
+            if (metrics == null) {
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            return Response.status(Status.OK).entity(metrics).build();
+        } catch (GraphNotFoundException e) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+    }
+
     /** 
      * Reload the graphs for all registered routerIds from disk.
+     * @param background load the new graphs in the background without evicting the existing ones, and swap each of
+     * them in once it is loaded and warmed up. The response is sent before the graphs are loaded.
      */
     @RolesAllowed({ "ROUTERS" })
     @PUT @Produces({ MediaType.APPLICATION_JSON })
     public Response reloadGraphs(@QueryParam("path") String path,
             @QueryParam("preEvict") @DefaultValue("true") boolean preEvict,
-            @QueryParam("force") @DefaultValue("true") boolean force) {
-        otpServer.getGraphService().reloadGraphs(preEvict, force);
+            @QueryParam("force") @DefaultValue("true") boolean force,
+            @QueryParam("background") @DefaultValue("false") boolean background) {
+        GraphService graphService = otpServer.getGraphService();
+        if (background) {
+            for (String routerId : graphService.getRouterIds()) {
+                graphService.reloadGraphInBackground(routerId, force);
+            }
+            return Response.status(Status.ACCEPTED).build();
+        }
+        graphService.reloadGraphs(preEvict, force);
         return Response.status(Status.OK).build();
     }
 
@@ -169,14 +199,21 @@ public class Routers {
      * @param preEvict before reloading each graph, evict the existing graph. This will prevent 
      * memory usage from increasing during the reload, but routing will be unavailable on this 
      * routerId for the duration of the operation.
+     * @param background reload an already registered graph in the background without evicting it, and swap the new
+     * graph in once it is loaded and warmed up. The response is sent before the graph is loaded.
      */
     @RolesAllowed({ "ROUTERS" })
     @PUT @Path("{routerId}") @Produces({ MediaType.TEXT_PLAIN })
     public Response putGraphId(@PathParam("routerId") String routerId,
-            @QueryParam("preEvict") @DefaultValue("true") boolean preEvict) {
+            @QueryParam("preEvict") @DefaultValue("true") boolean preEvict,
+            @QueryParam("background") @DefaultValue("false") boolean background) {
         LOG.debug("Attempting to load graph '{}' from server's local filesystem.", routerId);
         GraphService graphService = otpServer.getGraphService();
         if (graphService.getRouterIds().contains(routerId)) {
+            if (background) {
+                graphService.reloadGraphInBackground(routerId, false);
+                return Response.status(Status.ACCEPTED).entity("graph already registered, reloading in the background.\n").build();
+            }
             boolean success = graphService.reloadGraph(routerId, preEvict, false);
             if (success)
                 return Response.status(201).entity("graph already registered, reloaded.\n").build();
@@ -0,0 +1,103 @@
+package org.opentripplanner.common;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * A sparse array indexed by small non-negative integers that can be frozen into an immutable copy in time
+ * proportional to the number of chunks rather than the number of elements.
+ *
+ * Elements are stored in fixed size chunks. A frozen copy shares every chunk with the array it was made from, and
+ * the mutable array copies a chunk the first time it writes to it after freezing, so only the chunks written since
+ * the previous freeze are ever copied. Readers of a frozen copy never see later writes.
+ *
+ * The mutable array is not thread-safe, frozen copies can be read from any number of threads.
+ */
+public class PersistentArray<T> {
+
+    private static final int CHUNK_BITS = 8;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private Object[][] chunks;
+
+    /** Chunks this array may write to in place, i.e. chunks not shared with a frozen copy */
+    private boolean[] owned;
+
+    private int size;
+
+    private final boolean frozen;
+
+    public PersistentArray() {
+        this(new Object[0][], 0, false);
+    }
+
+    private PersistentArray(Object[][] chunks, int size, boolean frozen) {
+        this.chunks = chunks;
+        this.owned = new boolean[chunks.length];
+        this.size = size;
+        this.frozen = frozen;
+    }
+
+    /** @return the element at the index or null if there is none */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        int chunk = index >>> CHUNK_BITS;
+        if (chunk >= chunks.length || chunks[chunk] == null) return null;
+        return (T) chunks[chunk][index & CHUNK_MASK];
+    }
+
+    /** Set the element at the index, null removes the element */
+    public void set(int index, T value) {
+        if (frozen) throw new UnsupportedOperationException("A frozen PersistentArray cannot be modified.");
+        int chunk = index >>> CHUNK_BITS;
+        if (chunk >= chunks.length) {
+            if (value == null) return;
+            int length = Math.max(chunk + 1, chunks.length * 2);
+            chunks = Arrays.copyOf(chunks, length);
+            owned = Arrays.copyOf(owned, length);
+        }
+        if (chunks[chunk] == null) {
+            if (value == null) return;
+            chunks[chunk] = new Object[CHUNK_SIZE];
+            owned[chunk] = true;
+        } else if (!owned[chunk]) {
+            chunks[chunk] = chunks[chunk].clone();
+            owned[chunk] = true;
+        }
+        Object[] elements = chunks[chunk];
+        int i = index & CHUNK_MASK;
+        if (elements[i] == null && value != null) size++;
+        else if (elements[i] != null && value == null) size--;
+        elements[i] = value;
+    }
+
+    /** @return number of non-null elements */
+    public int size() {
+        return size;
+    }
+
+    /** Call the action with the index and value of each non-null element in index order */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<Integer, T> action) {
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            Object[] elements = chunks[chunk];
+            if (elements == null) continue;
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                if (elements[i] != null) action.accept((chunk << CHUNK_BITS) | i, (T) elements[i]);
+            }
+        }
+    }
+
+    /**
+     * @return an immutable copy sharing all chunks with this array. Later writes to this array copy the chunks
+     * they touch first.
+     */
+    public PersistentArray<T> freeze() {
+        Arrays.fill(owned, false);
+        return new PersistentArray<>(chunks.clone(), size, true);
+    }
+
+}
@@ -0,0 +1,191 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A 4-ary min heap where each element is identified by a small non-negative integer handle (e.g. a vertex index).
+ * At most one element per handle is queued, and the position of each handle is tracked so that the element and
+ * key of a queued handle can be replaced in O(log n) instead of inserting a duplicate.
+ *
+ * A 4-ary heap is shallower than a binary heap and its children are adjacent in memory, which makes the
+ * sift-down of extract_min cheaper for the large, extract-heavy queues of street searches.
+ */
+public class IndexedFourAryHeap<T> {
+
+    private static final int ARITY = 4;
+
+    private static final double GROW_FACTOR = 2.0;
+
+    private double[] prio;
+    private Object[] elem;
+    private int[] handles;
+
+    /** Heap position + 1 of each handle, 0 when the handle is not queued */
+    private int[] positions;
+
+    private int size;
+
+    /**
+     * @param capacity initial number of queued elements
+     * @param handleCount initial handle range, grown when a larger handle is inserted
+     */
+    public IndexedFourAryHeap(int capacity, int handleCount) {
+        if (capacity < 10) capacity = 10;
+        prio = new double[capacity];
+        elem = new Object[capacity];
+        handles = new int[capacity];
+        positions = new int[Math.max(handleCount, 1)];
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    public boolean contains(int handle) {
+        return handle < positions.length && positions[handle] != 0;
+    }
+
+    /** @return the element queued for the handle, or null if the handle is not queued */
+    @SuppressWarnings("unchecked")
+    public T get(int handle) {
+        return contains(handle) ? (T) elem[positions[handle] - 1] : null;
+    }
+
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[0];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    @SuppressWarnings("unchecked")
+    public T peek_min() {
+        return size > 0 ? (T) elem[0] : null;
+    }
+
+    /**
+     * Queue an element for a handle. If the handle is already queued its element is replaced and its key is
+     * decreased or increased to the given one.
+     */
+    public void insert_or_rekey(int handle, T e, double p) {
+        if (contains(handle)) {
+            int i = positions[handle] - 1;
+            double old = prio[i];
+            elem[i] = e;
+            prio[i] = p;
+            if (p < old)
+                siftUp(i);
+            else
+                siftDown(i);
+            return;
+        }
+
+        if (handle >= positions.length)
+            positions = Arrays.copyOf(positions, Math.max(handle + 1, (int) (positions.length * GROW_FACTOR)));
+        if (size == prio.length)
+            resize((int) (prio.length * GROW_FACTOR));
+
+        int i = size++;
+        elem[i] = e;
+        prio[i] = p;
+        handles[i] = handle;
+        positions[handle] = i + 1;
+        siftUp(i);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = (T) elem[0];
+        positions[handles[0]] = 0;
+        size -= 1;
+        if (size > 0) {
+            move(size, 0);
+            siftDown(0);
+        }
+        elem[size] = null;
+        return minElem;
+    }
+
+    public void reset() {
+        // handles of the remaining elements must be cleared because the position array is reused
+        for (int i = 0; i < size; i++) {
+            positions[handles[i]] = 0;
+            elem[i] = null;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        Object e = elem[i];
+        double p = prio[i];
+        int handle = handles[i];
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            if (prio[parent] <= p)
+                break;
+            move(parent, i);
+            i = parent;
+        }
+        place(i, e, p, handle);
+    }
+
+    private void siftDown(int i) {
+        Object e = elem[i];
+        double p = prio[i];
+        int handle = handles[i];
+        while (true) {
+            int first = i * ARITY + 1;
+            if (first >= size)
+                break;
+            int last = Math.min(first + ARITY, size);
+            int child = first;
+            for (int c = first + 1; c < last; c++) {
+                if (prio[c] < prio[child])
+                    child = c;
+            }
+            if (prio[child] >= p)
+                break;
+            move(child, i);
+            i = child;
+        }
+        place(i, e, p, handle);
+    }
+
+    private void move(int from, int to) {
+        place(to, elem[from], prio[from], handles[from]);
+    }
+
+    private void place(int i, Object e, double p, int handle) {
+        elem[i] = e;
+        prio[i] = p;
+        handles[i] = handle;
+        positions[handle] = i + 1;
+    }
+
+    private void resize(int capacity) {
+        prio = Arrays.copyOf(prio, capacity);
+        elem = Arrays.copyOf(elem, capacity);
+        handles = Arrays.copyOf(handles, capacity);
+    }
+
+}
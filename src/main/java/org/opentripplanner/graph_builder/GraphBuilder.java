@@ -36,6 +36,7 @@ import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderI
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 import org.opentripplanner.reflect.ReflectionLibrary;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.ColumnarGraphFile;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.standalone.CommandLineParameters;
@@ -80,6 +81,9 @@ public class GraphBuilder implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
 
+    /** Should the graph also be saved in the columnar format next to the serialized graph? */
+    public boolean saveColumnarGraph = false;
+
     public void addModule(GraphBuilderModule loader) {
         _graphBuilderModules.add(loader);
     }
@@ -163,6 +167,9 @@ public class GraphBuilder implements Runnable {
         if (serializeGraph) {
             try {
                 graph.save(graphFile);
+                if (saveColumnarGraph) {
+                    ColumnarGraphFile.save(graph, new File(graphFile.getParentFile(), ColumnarGraphFile.FILENAME));
+                }
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
@@ -249,6 +256,8 @@ public class GraphBuilder implements Runnable {
             osmModule.staticParkAndRide = builderParams.staticParkAndRide;
             osmModule.banDiscouragedWalking = builderParams.banDiscouragedWalking;
             osmModule.banDiscouragedBiking = builderParams.banDiscouragedBiking;
+            osmModule.compactOsmDatabase = builderParams.compactOsmDatabase;
+            osmModule.mapOsmNodeCoordinates = builderParams.mapOsmNodeCoordinates;
             graphBuilder.addModule(osmModule);
             PruneFloatingIslands pruneFloatingIslands = new PruneFloatingIslands();
             pruneFloatingIslands.setPruningThresholdIslandWithoutStops(builderParams.pruningThresholdIslandWithoutStops);
@@ -314,7 +323,7 @@ public class GraphBuilder implements Runnable {
             // The stops can be linked to each other once they are already linked to the street network.
             if ( ! builderParams.useTransfersTxt) {
                 // This module will use streets or straight line distance depending on whether OSM data is found in the graph.
-                graphBuilder.addModule(new DirectTransferGenerator(builderParams.maxTransferDistance));
+                graphBuilder.addModule(new DirectTransferGenerator(builderParams.maxTransferDistance, builderParams.parallelTransfers));
             }
         }
         graphBuilder.addModule(new EmbedConfig(builderConfig, routerConfig));
@@ -322,6 +331,7 @@ public class GraphBuilder implements Runnable {
             graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
         }
         graphBuilder.serializeGraph = ( ! params.inMemory ) || params.preFlight;
+        graphBuilder.saveColumnarGraph = params.columnarGraph;
         return graphBuilder;
     }
 
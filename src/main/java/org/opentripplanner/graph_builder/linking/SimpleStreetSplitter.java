@@ -188,48 +188,13 @@ public class SimpleStreetSplitter {
             traverseModeSet = new TraverseModeSet(traverseMode);
         }
 
-        List<StreetEdge> walkableEdges = idx.query(env).stream()
-                .filter(streetEdge -> streetEdge instanceof StreetEdge)
-                .map(edge -> (StreetEdge) edge)
-                // note: not filtering by radius here as distance calculation is expensive
-                // we do that below.
-                .filter(edge -> edge.canTraverse(traverseModeSet) &&
-                        // only link to edges still in the graph.
-                        edge.getToVertex().getIncoming().contains(edge))
-                .collect(Collectors.toList());
-
-        Stream<StreetEdge> edgeStream = walkableEdges.stream();
-        if (vertex instanceof TransitStop) {
-            String code = ((TransitStop)vertex).getStopCode();
-            Optional<StreetEdge> hasMatchingEdges = walkableEdges.stream().filter(edge -> edgeStopCodeEquals(code, edge)).findAny();
-            if (hasMatchingEdges.isPresent()) {
-                edgeStream = edgeStream.filter(edge -> edgeStopCodeEquals(code, edge));
-            }
-        }
-
-        // We sort the list of candidate edges by distance to the stop
-        // This should remove any issues with things coming out of the spatial index in different orders
-        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
-        // so that we capture back edges and duplicate ways.
-        List<StreetEdge> candidateEdges = edgeStream
-            .collect(Collectors.toList());
+        String stopCode = vertex instanceof TransitStop ? ((TransitStop) vertex).getStopCode() : null;
 
         // make a map of distances
         final TIntDoubleMap distances = new TIntDoubleHashMap();
 
-        for (StreetEdge e : candidateEdges) {
-            distances.put(e.getId(), distance(vertex, e, xscale));
-        }
-
-        // sort the list
-        Collections.sort(candidateEdges, (o1, o2) -> {
-            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
-            if (diff < 0)
-                return -1;
-            if (diff > 0)
-                return 1;
-            return 0;
-        });
+        List<StreetEdge> candidateEdges = findCandidateEdges(vertex.getCoordinate(), stopCode, env,
+                traverseModeSet, xscale, distances);
 
         if (!candidateEdges.isEmpty() && vertex instanceof TransitStop) {
             int distance = (int)SphericalDistanceLibrary.degreesToMeters(distances.get(candidateEdges.get(0).getId()));
@@ -294,18 +259,7 @@ public class SimpleStreetSplitter {
         } else {
 
             // find the best edges
-            List<StreetEdge> bestEdges = Lists.newArrayList();
-
-            // add edges until there is a break of epsilon meters.
-            // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
-            // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
-            // fall just inside or beyond the cutoff depending on floating-point operations.
-            int i = 0;
-            do {
-                bestEdges.add(candidateEdges.get(i++));
-            } while (i < candidateEdges.size() &&
-                distances.get(candidateEdges.get(i).getId()) - distances
-                    .get(candidateEdges.get(i - 1).getId()) < duplicateDeg);
+            List<StreetEdge> bestEdges = selectBestEdges(candidateEdges, distances, duplicateDeg);
 
             for (StreetEdge edge : bestEdges) {
                 link(vertex, edge, xscale, options);
@@ -315,6 +269,123 @@ public class SimpleStreetSplitter {
         }
     }
 
+    /**
+     * Find the street edges that {@link #link(Vertex)} would link a vertex at the given coordinate to, without
+     * modifying the graph. This is the expensive part of linking, so it can be done outside the graph writer thread,
+     * e.g. for many vertices in parallel, and the result passed to {@link #link(Vertex, List)} later. No vertex may be
+     * linked by this splitter while this method runs.
+     *
+     * @param coordinate coordinate of the vertex to link
+     * @return the closest walkable edges, empty if there are none within the search radius
+     */
+    public List<StreetEdge> findLinkEdges(Coordinate coordinate) {
+        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+        Envelope env = new Envelope(coordinate);
+        final double xscale = Math.cos(coordinate.y * Math.PI / 180);
+        env.expandBy(radiusDeg / xscale, radiusDeg);
+        double duplicateDeg = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
+
+        final TIntDoubleMap distances = new TIntDoubleHashMap();
+        List<StreetEdge> candidateEdges = findCandidateEdges(coordinate, null, env,
+                new TraverseModeSet(TraverseMode.WALK), xscale, distances);
+
+        if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
+            return Collections.emptyList();
+        }
+        return selectBestEdges(candidateEdges, distances, duplicateDeg);
+    }
+
+    /**
+     * Link this vertex to the edges found for its coordinate by {@link #findLinkEdges(Coordinate)}. If any of them
+     * has been split or removed from the graph since, the vertex is linked from scratch with {@link #link(Vertex)}.
+     *
+     * @return whether the vertex was linked
+     */
+    public boolean link(Vertex vertex, List<StreetEdge> linkEdges) {
+        if (linkEdges.isEmpty()) {
+            return false;
+        }
+        for (StreetEdge edge : linkEdges) {
+            if (!edge.getToVertex().getIncoming().contains(edge)) {
+                return link(vertex);
+            }
+        }
+        final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
+        for (StreetEdge edge : linkEdges) {
+            link(vertex, edge, xscale, null);
+        }
+        return true;
+    }
+
+    /**
+     * Find the walkable edges in the envelope, sorted by distance to the coordinate.
+     *
+     * @param stopCode if not null and some edges have this ref, only those edges are returned
+     * @param distances filled with the distance of each returned edge by edge id, in latitude degrees
+     */
+    private List<StreetEdge> findCandidateEdges(Coordinate coordinate, String stopCode, Envelope env,
+            TraverseModeSet traverseModeSet, double xscale, TIntDoubleMap distances) {
+        List<StreetEdge> walkableEdges = idx.query(env).stream()
+                .filter(streetEdge -> streetEdge instanceof StreetEdge)
+                .map(edge -> (StreetEdge) edge)
+                // note: not filtering by radius here as distance calculation is expensive
+                // we do that below.
+                .filter(edge -> edge.canTraverse(traverseModeSet) &&
+                        // only link to edges still in the graph.
+                        edge.getToVertex().getIncoming().contains(edge))
+                .collect(Collectors.toList());
+
+        Stream<StreetEdge> edgeStream = walkableEdges.stream();
+        if (stopCode != null) {
+            Optional<StreetEdge> hasMatchingEdges = walkableEdges.stream().filter(edge -> edgeStopCodeEquals(stopCode, edge)).findAny();
+            if (hasMatchingEdges.isPresent()) {
+                edgeStream = edgeStream.filter(edge -> edgeStopCodeEquals(stopCode, edge));
+            }
+        }
+
+        // We sort the list of candidate edges by distance to the stop
+        // This should remove any issues with things coming out of the spatial index in different orders
+        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
+        // so that we capture back edges and duplicate ways.
+        List<StreetEdge> candidateEdges = edgeStream
+            .collect(Collectors.toList());
+
+        for (StreetEdge e : candidateEdges) {
+            distances.put(e.getId(), distance(coordinate, e, xscale));
+        }
+
+        // sort the list
+        Collections.sort(candidateEdges, (o1, o2) -> {
+            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
+            if (diff < 0)
+                return -1;
+            if (diff > 0)
+                return 1;
+            return 0;
+        });
+
+        return candidateEdges;
+    }
+
+    /** The closest candidate edge and all edges within DUPLICATE_WAY_EPSILON_METERS of the previous one */
+    private static List<StreetEdge> selectBestEdges(List<StreetEdge> candidateEdges, TIntDoubleMap distances,
+            double duplicateDeg) {
+        List<StreetEdge> bestEdges = Lists.newArrayList();
+
+        // add edges until there is a break of epsilon meters.
+        // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
+        // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
+        // fall just inside or beyond the cutoff depending on floating-point operations.
+        int i = 0;
+        do {
+            bestEdges.add(candidateEdges.get(i++));
+        } while (i < candidateEdges.size() &&
+            distances.get(candidateEdges.get(i).getId()) - distances
+                .get(candidateEdges.get(i - 1).getId()) < duplicateDeg);
+
+        return bestEdges;
+    }
+
     private static boolean edgeStopCodeEquals(String code, StreetEdge edge) {
         return edge.getRef() != null && edge.getRef().equals(code);
     }
@@ -537,10 +608,10 @@ public class SimpleStreetSplitter {
     }
 
     /** projected distance from stop to edge, in latitude degrees */
-    private static double distance (Vertex tstop, StreetEdge edge, double xscale) {
+    private static double distance (Coordinate tstop, StreetEdge edge, double xscale) {
         // use JTS internal tools wherever possible
         LineString transformed = equirectangularProject(edge.getGeometry(), xscale);
-        return transformed.distance(geometryFactory.createPoint(new Coordinate(tstop.getLon() * xscale, tstop.getLat())));
+        return transformed.distance(geometryFactory.createPoint(new Coordinate(tstop.x * xscale, tstop.y)));
     }
 
     /** projected distance from stop to edge, in latitude degrees */
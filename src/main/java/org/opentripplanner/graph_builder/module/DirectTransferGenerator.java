@@ -25,11 +25,15 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that links up the stops of a transit network among themselves. This is necessary for
@@ -46,6 +50,9 @@ public class DirectTransferGenerator implements GraphBuilderModule {
 
     final double radiusMeters;
 
+    /** Search for the nearby stops of several stops at once. */
+    final boolean parallel;
+
     public List<String> provides() {
         return Arrays.asList("linking");
     }
@@ -55,7 +62,12 @@ public class DirectTransferGenerator implements GraphBuilderModule {
     }
 
     public DirectTransferGenerator (double radiusMeters) {
+        this(radiusMeters, false);
+    }
+
+    public DirectTransferGenerator (double radiusMeters, boolean parallel) {
         this.radiusMeters = radiusMeters;
+        this.parallel = parallel;
     }
 
     @Override
@@ -64,6 +76,8 @@ public class DirectTransferGenerator implements GraphBuilderModule {
         if (graph.index == null) {
             graph.index = new GraphIndex(graph);
         }
+        /* Initialize the calendar service lazily created by routing contexts before they are created concurrently. */
+        graph.getCalendarService();
 
         /* The linker will use streets if they are available, or straight-line distance otherwise. */
         NearbyStopFinder nearbyStopFinder = new NearbyStopFinder(graph, radiusMeters);
@@ -73,34 +87,35 @@ public class DirectTransferGenerator implements GraphBuilderModule {
             LOG.info("Creating direct transfer edges between stops using straight line distance (not streets)...");
         }
 
-        int nTransfersTotal = 0;
-        int nLinkableStops = 0;
-
+        /* Skip stops that are entrances to stations or whose entrances are coded separately */
+        List<TransitStop> stops = new ArrayList<>();
         for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
-
-            /* Skip stops that are entrances to stations or whose entrances are coded separately */
-            if (!ts0.isStreetLinkable()) continue;
-            if (++nLinkableStops % 1000 == 0) {
-                LOG.info("Linked {} stops", nLinkableStops);
+            if (ts0.isStreetLinkable()) {
+                stops.add(ts0);
             }
-            LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
-
-            /* Determine the set of stops that are already reachable via other pathways or transfers */
-            Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
-            for (Edge e : ts0.getOutgoing()) {
-                if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
-                    if (e.getToVertex() instanceof TransitStop) {
-                        TransitStop to = (TransitStop) e.getToVertex();
-                        pathwayDestinations.add(to);
+        }
+
+        /*
+         * Find the stops to transfer to from every stop before creating any transfer, so that the searches do not
+         * depend on each other and can run concurrently. Each search has its own routing request and search state.
+         */
+        AtomicInteger nSearchedStops = new AtomicInteger();
+        List<List<NearbyStopFinder.StopAtDistance>> transfers = (parallel ? stops.parallelStream() : stops.stream())
+                .map(ts0 -> {
+                    if (nSearchedStops.incrementAndGet() % 1000 == 0) {
+                        LOG.info("Found nearby stops of {} stops", nSearchedStops.get());
                     }
-                }
-            }
+                    return findTransfers(nearbyStopFinder, ts0);
+                })
+                .collect(Collectors.toList());
 
-            /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
+        /* Create the transfers in a single thread and in the order of the stops, the graph is not thread-safe. */
+        int nTransfersTotal = 0;
+        int nLinkableStops = stops.size();
+        for (int i = 0; i < nLinkableStops; i++) {
+            TransitStop ts0 = stops.get(i);
             int n = 0;
-            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
-                /* Skip the origin stop, loop transfers are not needed. */
-                if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
+            for (NearbyStopFinder.StopAtDistance sd : transfers.get(i)) {
                 new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom, sd.edges);
                 n += 1;
             }
@@ -114,6 +129,35 @@ public class DirectTransferGenerator implements GraphBuilderModule {
         graph.hasDirectTransfers = true;
     }
 
+    /**
+     * Find the stops to make transfers to from the given stop: each nearby stop that is the closest stop on some trip
+     * pattern, ordered by vertex index so that the transfers are created in the same order whatever the order in which
+     * the searches ran.
+     */
+    private List<NearbyStopFinder.StopAtDistance> findTransfers(NearbyStopFinder nearbyStopFinder, TransitStop ts0) {
+        LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
+
+        /* Determine the set of stops that are already reachable via other pathways or transfers */
+        Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
+        for (Edge e : ts0.getOutgoing()) {
+            if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
+                if (e.getToVertex() instanceof TransitStop) {
+                    TransitStop to = (TransitStop) e.getToVertex();
+                    pathwayDestinations.add(to);
+                }
+            }
+        }
+
+        List<NearbyStopFinder.StopAtDistance> transfers = new ArrayList<>();
+        for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
+            /* Skip the origin stop, loop transfers are not needed. */
+            if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
+            transfers.add(sd);
+        }
+        transfers.sort(Comparator.comparingInt(sd -> sd.tstop.getIndex()));
+        return transfers;
+    }
+
     @Override
     public void checkInputs() {
         // No inputs
@@ -35,6 +35,9 @@ import java.util.*;
  * Ideally they could also be used in long distance mode and profile routing for the street segments.
  * For each stop, it finds the closest stops on all other patterns. This reduces the number of transfer edges
  * significantly compared to simple radius-constrained all-to-all stop linkage.
+ *
+ * Searches can run concurrently as long as the graph is not modified meanwhile: each of them creates its own routing
+ * request and search state.
  */
 public class NearbyStopFinder {
 
@@ -92,7 +95,11 @@ public class NearbyStopFinder {
                 new SimpleIsochrone.MinMap<TripPattern, StopAtDistance>();
 
         /* Iterate over nearby stops via the street network or using straight-line distance, depending on the graph. */
-        for (NearbyStopFinder.StopAtDistance stopAtDistance : findNearbyStops(vertex)) {
+        /* Sort them so that ties between stops on a pattern are always resolved the same way. */
+        List<StopAtDistance> nearbyStops = findNearbyStops(vertex);
+        nearbyStops.sort(Comparator.<StopAtDistance>comparingDouble(sd -> sd.dist)
+                .thenComparingInt(sd -> sd.tstop.getIndex()));
+        for (NearbyStopFinder.StopAtDistance stopAtDistance : nearbyStops) {
             /* Filter out destination stops that are already reachable via pathways or transfers. */
             // FIXME why is the above comment relevant here? how does the next line achieve this?
             TransitStop ts1 = stopAtDistance.tstop;
@@ -0,0 +1,176 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import com.google.common.collect.Iterators;
+import com.google.common.primitives.Longs;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A map of OSM nodes keyed by their ID using primitive storage, for the compact OSM database. Most nodes have no tags
+ * and are only needed for their coordinates: only these are stored, in fixed point at the precision of OSM data, in
+ * chunks that are either on the heap or mapped from a temporary file. Such nodes are created again each time they are
+ * looked up. Nodes with tags and virtual nodes are kept as they are.
+ *
+ * Only the operations used by the OSM database are efficient: putting a node returns null rather than the node it
+ * replaces, and iterating over the map materializes all nodes.
+ */
+class CompactNodeMap extends AbstractMap<Long, OSMNode> {
+
+    /* OSM coordinates have 7 decimal places. */
+    private static final double FIXED_POINT_FACTOR = 1e7;
+
+    /* Number of nodes per chunk of coordinates. */
+    private static final int CHUNK_NODES = 1 << 18;
+
+    private static final int NO_SLOT = -1;
+
+    /* Slot of the coordinates of each untagged node. */
+    private final TLongIntMap slots = new TLongIntHashMap(1024, 0.5f, Long.MIN_VALUE, NO_SLOT);
+
+    private final TLongObjectMap<OSMNode> nodes = new TLongObjectHashMap<OSMNode>();
+
+    /* Latitude and longitude of each slot. */
+    private final List<IntBuffer> chunks = new ArrayList<IntBuffer>();
+
+    private int nextSlot = 0;
+
+    /* The temporary file the chunks are mapped from, or null if they are on the heap. */
+    private final FileChannel channel;
+
+    /**
+     * @param mapped True to keep the coordinates in a temporary file mapped in memory rather than on the heap.
+     */
+    CompactNodeMap(boolean mapped) throws IOException {
+        if (mapped) {
+            File file = File.createTempFile("otp-osm-nodes", ".bin");
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            // The file remains usable through the open channel once it is deleted, where the platform allows that.
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        } else {
+            channel = null;
+        }
+    }
+
+    @Override
+    public OSMNode put(Long nodeId, OSMNode node) {
+        long id = nodeId;
+        if (node.getTags() != null || id < 0) {
+            slots.remove(id);
+            nodes.put(id, node);
+            return null;
+        }
+        nodes.remove(id);
+        int slot = slots.get(id);
+        if (slot == NO_SLOT) {
+            slot = nextSlot++;
+            slots.put(id, slot);
+        }
+        IntBuffer chunk = chunk(slot);
+        int i = (slot % CHUNK_NODES) * 2;
+        chunk.put(i, (int) Math.round(node.lat * FIXED_POINT_FACTOR));
+        chunk.put(i + 1, (int) Math.round(node.lon * FIXED_POINT_FACTOR));
+        return null;
+    }
+
+    @Override
+    public OSMNode get(Object nodeId) {
+        if (!(nodeId instanceof Long)) {
+            return null;
+        }
+        long id = (Long) nodeId;
+        OSMNode node = nodes.get(id);
+        if (node != null) {
+            return node;
+        }
+        int slot = slots.get(id);
+        if (slot == NO_SLOT) {
+            return null;
+        }
+        IntBuffer chunk = chunks.get(slot / CHUNK_NODES);
+        int i = (slot % CHUNK_NODES) * 2;
+        node = new OSMNode();
+        node.setId(id);
+        node.lat = chunk.get(i) / FIXED_POINT_FACTOR;
+        node.lon = chunk.get(i + 1) / FIXED_POINT_FACTOR;
+        return node;
+    }
+
+    @Override
+    public boolean containsKey(Object nodeId) {
+        if (!(nodeId instanceof Long)) {
+            return false;
+        }
+        long id = (Long) nodeId;
+        return nodes.containsKey(id) || slots.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return nodes.size() + slots.size();
+    }
+
+    @Override
+    public Set<Entry<Long, OSMNode>> entrySet() {
+        return new AbstractSet<Entry<Long, OSMNode>>() {
+            @Override
+            public Iterator<Entry<Long, OSMNode>> iterator() {
+                Iterator<Long> ids = Iterators.concat(Longs.asList(nodes.keys()).iterator(),
+                        Longs.asList(slots.keys()).iterator());
+                return Iterators.transform(ids, id -> new SimpleImmutableEntry<Long, OSMNode>(id, get(id)));
+            }
+
+            @Override
+            public int size() {
+                return CompactNodeMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Release the coordinates. Chunks mapped from the temporary file stay valid until they are garbage collected.
+     */
+    void close() throws IOException {
+        chunks.clear();
+        slots.clear();
+        nextSlot = 0;
+        nodes.clear();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private IntBuffer chunk(int slot) {
+        int c = slot / CHUNK_NODES;
+        while (chunks.size() <= c) {
+            if (channel == null) {
+                chunks.add(IntBuffer.allocate(CHUNK_NODES * 2));
+            } else {
+                long chunkBytes = CHUNK_NODES * 2L * Integer.BYTES;
+                try {
+                    chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, chunks.size() * chunkBytes, chunkBytes)
+                            .asIntBuffer());
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to map OSM node coordinates from a temporary file", e);
+                }
+            }
+        }
+        return chunks.get(c);
+    }
+}
@@ -17,6 +17,9 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.vividsolutions.jts.geom.*;
+import gnu.trove.TDecorators;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.GeometryUtils;
@@ -34,6 +37,7 @@ import org.opentripplanner.util.MapUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -42,7 +46,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
     /* Map of all nodes used in ways/areas keyed by their OSM ID */
-    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+    private Map<Long, OSMNode> nodesById;
 
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
@@ -51,13 +55,13 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Map<Long, OSMNode> bikeParkingNodes = new HashMap<Long, OSMNode>();
 
     /* Map of all non-area ways keyed by their OSM ID */
-    private Map<Long, OSMWay> waysById = new HashMap<Long, OSMWay>();
+    private Map<Long, OSMWay> waysById;
 
     /* Map of all area ways keyed by their OSM ID */
-    private Map<Long, OSMWay> areaWaysById = new HashMap<Long, OSMWay>();
+    private Map<Long, OSMWay> areaWaysById;
 
     /* Map of all relations keyed by their OSM ID */
-    private Map<Long, OSMRelation> relationsById = new HashMap<Long, OSMRelation>();
+    private Map<Long, OSMRelation> relationsById;
 
     /* All walkable areas */
     private List<Area> walkableAreas = new ArrayList<Area>();
@@ -69,7 +73,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private List<Area> bikeParkingAreas = new ArrayList<Area>();
 
     /* Map of all area OSMWay for a given node */
-    private Map<Long, Set<OSMWay>> areasForNode = new HashMap<Long, Set<OSMWay>>();
+    private Map<Long, Set<OSMWay>> areasForNode;
 
     /* Map of all area OSMWay for a given node */
     private List<OSMWay> singleWayAreas = new ArrayList<OSMWay>();
@@ -77,13 +81,16 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Set<OSMWithTags> processedAreas = new HashSet<OSMWithTags>();
 
     /* Set of area way IDs */
-    private Set<Long> areaWayIds = new HashSet<Long>();
+    private Set<Long> areaWayIds;
 
     /* Set of all node IDs of kept ways. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> waysNodeIds = new HashSet<Long>();
+    private Set<Long> waysNodeIds;
 
     /* Set of all node IDs of kept areas. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> areaNodeIds = new HashSet<Long>();
+    private Set<Long> areaNodeIds;
+
+    /* Strings of the tags of kept entities, shared between them. Null unless the database is compact. */
+    private Map<String, String> tagDictionary;
 
     /* Track which vertical level each OSM way belongs to, for building elevators etc. */
     private Map<OSMWithTags, OSMLevel> wayLevels = new HashMap<OSMWithTags, OSMLevel>();
@@ -116,6 +123,46 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
      */
     public boolean noZeroLevels = true;
 
+    public OSMDatabase() {
+        nodesById = new HashMap<Long, OSMNode>();
+        waysById = new HashMap<Long, OSMWay>();
+        areaWaysById = new HashMap<Long, OSMWay>();
+        relationsById = new HashMap<Long, OSMRelation>();
+        areasForNode = new HashMap<Long, Set<OSMWay>>();
+        areaWayIds = new HashSet<Long>();
+        waysNodeIds = new HashSet<Long>();
+        areaNodeIds = new HashSet<Long>();
+    }
+
+    /**
+     * Create a compact database for large extracts: entities and IDs are stored in maps and sets keyed by primitive
+     * longs, only the coordinates of untagged nodes are kept, the node references of ways are primitive and the
+     * strings of tags are shared.
+     *
+     * @param mapNodeCoordinates True to keep node coordinates in a temporary file mapped in memory, off the heap.
+     */
+    public OSMDatabase(boolean mapNodeCoordinates) throws IOException {
+        nodesById = new CompactNodeMap(mapNodeCoordinates);
+        waysById = TDecorators.wrap(new TLongObjectHashMap<OSMWay>());
+        areaWaysById = TDecorators.wrap(new TLongObjectHashMap<OSMWay>());
+        relationsById = TDecorators.wrap(new TLongObjectHashMap<OSMRelation>());
+        areasForNode = TDecorators.wrap(new TLongObjectHashMap<Set<OSMWay>>());
+        areaWayIds = TDecorators.wrap(new TLongHashSet());
+        waysNodeIds = TDecorators.wrap(new TLongHashSet());
+        areaNodeIds = TDecorators.wrap(new TLongHashSet());
+        tagDictionary = new HashMap<String, String>();
+    }
+
+    /**
+     * Release the node coordinates of a compact database once the graph has been built.
+     */
+    public void close() throws IOException {
+        if (nodesById instanceof CompactNodeMap) {
+            ((CompactNodeMap) nodesById).close();
+        }
+        tagDictionary = null;
+    }
+
     public OSMNode getNode(Long nodeId) {
         return nodesById.get(nodeId);
     }
@@ -196,6 +243,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         if (nodesById.containsKey(node.getId()))
             return;
 
+        if (tagDictionary != null)
+            node.internTags(tagDictionary);
         nodesById.put(node.getId(), node);
 
         if (nodesById.size() % 100000 == 0)
@@ -210,6 +259,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             return;
 
         if (areaWayIds.contains(wayId)) {
+            compact(way);
             areaWaysById.put(wayId, way);
         }
 
@@ -226,6 +276,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             // this is an area that's a simple polygon. So we can just add it straight
             // to the areas, if it's not part of a relation.
             if (!areaWayIds.contains(wayId)) {
+                compact(way);
                 singleWayAreas.add(way);
                 areaWaysById.put(wayId, way);
                 areaWayIds.add(wayId);
@@ -236,12 +287,21 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             return;
         }
 
+        compact(way);
         waysById.put(wayId, way);
 
         if (waysById.size() % 10000 == 0)
             LOG.debug("ways=" + waysById.size());
     }
 
+    /* Reduce the memory used by a way that is kept in a compact database. */
+    private void compact(OSMWay way) {
+        if (tagDictionary != null) {
+            way.internTags(tagDictionary);
+            way.compactNodeRefs();
+        }
+    }
+
     @Override
     public void addRelation(OSMRelation relation) {
         if (relationsById.containsKey(relation.getId()))
@@ -270,6 +330,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             return;
         }
 
+        if (tagDictionary != null)
+            relation.internTags(tagDictionary);
         relationsById.put(relation.getId(), relation);
 
         if (relationsById.size() % 100 == 0)
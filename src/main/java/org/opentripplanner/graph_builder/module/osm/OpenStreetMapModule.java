@@ -55,6 +55,7 @@ import org.opentripplanner.util.NonLocalizedString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -158,6 +159,16 @@ public class OpenStreetMapModule implements GraphBuilderModule {
     public boolean banDiscouragedWalking = false;
     public boolean banDiscouragedBiking = false;
 
+    /**
+     * Whether to load OSM data in a compact database, which needs much less memory for large extracts.
+     */
+    public boolean compactOsmDatabase = false;
+
+    /**
+     * Whether the compact OSM database keeps node coordinates off the heap, in a temporary file mapped in memory.
+     */
+    public boolean mapOsmNodeCoordinates = false;
+
     /**
      * Construct and set providers all at once.
      */
@@ -170,7 +181,7 @@ public class OpenStreetMapModule implements GraphBuilderModule {
 
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
-        OSMDatabase osmdb = new OSMDatabase();
+        OSMDatabase osmdb = createDatabase();
         Handler handler = new Handler(graph, osmdb);
         for (OpenStreetMapProvider provider : _providers) {
             LOG.info("Gathering OSM from provider: " + provider);
@@ -182,11 +193,29 @@ public class OpenStreetMapModule implements GraphBuilderModule {
         }
         LOG.info("Building street graph from OSM");
         handler.buildGraph(extra);
+        try {
+            osmdb.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to release the OSM database", e);
+        }
         graph.hasStreets = true;
         //Calculates envelope for OSM
         graph.calculateEnvelope();
     }
 
+    private OSMDatabase createDatabase() {
+        if (!compactOsmDatabase) {
+            return new OSMDatabase();
+        }
+        LOG.info("Using a compact OSM database, node coordinates are kept {}.",
+                mapOsmNodeCoordinates ? "in a memory-mapped temporary file" : "on the heap");
+        try {
+            return new OSMDatabase(mapOsmNodeCoordinates);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create the compact OSM database", e);
+        }
+    }
+
     /*
      * TODO: What this function is supposed to do? Please comment or remove.
      */
@@ -0,0 +1,423 @@
+package org.opentripplanner.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Executes the GraphQL queries of a single router with bounded resources.
+ *
+ * At most maxConcurrentQueries queries are executed at the same time and at most maxQueuedQueries wait for their
+ * turn. Queries beyond that are rejected immediately, and queued queries are rejected when they have waited longer
+ * than their timeout, so that the API can answer 503 instead of piling up work. The fields of a query are resolved
+ * concurrently in a second pool of maxFieldThreads threads. Field resolution waits for nested fields, so when that
+ * pool is saturated fields are resolved in the calling thread instead of being queued, which bounds the number of
+ * threads without risking a deadlock.
+ *
+ * The queries of a batch are admitted together and take at most maxConcurrentQueries of the places, executing one
+ * after the other within them, so that a batch larger than the limits is executed rather than rejected.
+ *
+ * With virtualThreads enabled and a JVM supporting them, both queries and fields run in virtual threads and only
+ * the concurrency limits above apply. Queue time, execution time and rejections are recorded per operation name.
+ *
+ * Configured in router-config.json:
+ * <pre>
+ * "graphQL": {
+ *     "maxConcurrentQueries": 16,
+ *     "maxQueuedQueries": 100,
+ *     "maxFieldThreads": 32,
+ *     "virtualThreads": false
+ * }
+ * </pre>
+ */
+public class GraphQLExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphQLExecutor.class);
+
+    /** Operation name used for queries without one */
+    public static final String ANONYMOUS_OPERATION = "anonymous";
+
+    private final int maxConcurrentQueries;
+
+    private final int maxQueuedQueries;
+
+    private final ExecutorService queryExecutor;
+
+    private final ExecutorService fieldExecutor;
+
+    /** Permits for executing queries, only limiting in addition to the pool size with virtual threads */
+    private final Semaphore executionPermits;
+
+    /** Number of queries submitted and not yet finished, both waiting and executing */
+    private final AtomicInteger admittedQueries = new AtomicInteger();
+
+    private final Map<String, OperationMetrics> metricsByOperation = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an executor with the default limits
+     *
+     * @param routerId id of the router, used in thread names
+     */
+    public GraphQLExecutor(String routerId) {
+        this(routerId, MissingNode.getInstance());
+    }
+
+    /**
+     * @param routerId id of the router, used in thread names
+     * @param config graphQL section of the router config
+     */
+    public GraphQLExecutor(String routerId, JsonNode config) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        maxConcurrentQueries = Math.max(1, config.path("maxConcurrentQueries").asInt(processors * 2));
+        maxQueuedQueries = Math.max(0, config.path("maxQueuedQueries").asInt(100));
+        int maxFieldThreads = Math.max(1, config.path("maxFieldThreads").asInt(processors * 4));
+        executionPermits = new Semaphore(maxConcurrentQueries);
+
+        ExecutorService virtualThreadExecutor = null;
+        if (config.path("virtualThreads").asBoolean(false)) {
+            virtualThreadExecutor = createVirtualThreadExecutor();
+            if (virtualThreadExecutor == null) {
+                LOG.warn("Virtual threads are not supported by this JVM, executing GraphQL queries of router {} in platform threads", routerId);
+            }
+        }
+
+        if (virtualThreadExecutor != null) {
+            queryExecutor = virtualThreadExecutor;
+            fieldExecutor = virtualThreadExecutor;
+        } else {
+            ThreadPoolExecutor queryPool = new ThreadPoolExecutor(maxConcurrentQueries, maxConcurrentQueries,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("GraphQLQuery-" + routerId + "-%d").build());
+            queryPool.allowCoreThreadTimeOut(true);
+            queryExecutor = queryPool;
+
+            ThreadPoolExecutor fieldPool = new ThreadPoolExecutor(maxFieldThreads, maxFieldThreads,
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("GraphQLExecutor-" + routerId + "-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+            fieldPool.allowCoreThreadTimeOut(true);
+            fieldExecutor = fieldPool;
+        }
+
+        LOG.info("GraphQL executor of router {}: {} concurrent queries, {} queued queries, {}", routerId,
+            maxConcurrentQueries, maxQueuedQueries,
+            virtualThreadExecutor != null ? "virtual threads" : maxFieldThreads + " field threads");
+    }
+
+    /**
+     * Submit a query for execution
+     *
+     * @param operationName operation name of the query, may be null
+     * @param timeoutMillis maximum time the query may wait for execution
+     * @param query the query
+     * @return future of the result, failing with a RejectedExecutionException if the query waited too long
+     * @throws RejectedExecutionException if too many queries are already waiting
+     */
+    public <T> Future<T> submit(String operationName, long timeoutMillis, Callable<T> query) {
+        OperationMetrics metrics = getOperationMetrics(operationName);
+        if (admittedQueries.incrementAndGet() > maxConcurrentQueries + maxQueuedQueries) {
+            admittedQueries.decrementAndGet();
+            metrics.rejected.incrementAndGet();
+            throw new RejectedExecutionException("Too many GraphQL queries waiting for execution");
+        }
+
+        long submitTime = System.nanoTime();
+        FutureTask<T> task = new FutureTask<T>(() -> {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - (System.nanoTime() - submitTime);
+            if (remainingNanos <= 0 || !executionPermits.tryAcquire(remainingNanos, TimeUnit.NANOSECONDS)) {
+                metrics.rejected.incrementAndGet();
+                throw new RejectedExecutionException("GraphQL query waited for execution longer than its timeout");
+            }
+            try {
+                long startTime = System.nanoTime();
+                metrics.recordQueueTime(startTime - submitTime);
+                try {
+                    return query.call();
+                } finally {
+                    metrics.recordExecutionTime(System.nanoTime() - startTime);
+                }
+            } finally {
+                executionPermits.release();
+            }
+        }) {
+            @Override
+            protected void done() {
+                // also called when a waiting query is cancelled
+                admittedQueries.decrementAndGet();
+            }
+        };
+
+        try {
+            queryExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // executor shut down
+            admittedQueries.decrementAndGet();
+            metrics.rejected.incrementAndGet();
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * Submit the queries of a batch for execution. The batch is admitted as min(batch size, maxConcurrentQueries)
+     * queries. Each of these takes the next query of the batch that has not started, in order, until none is left, so
+     * the batch never executes more queries at the same time than it was admitted for.
+     *
+     * @param operationNames operation name of each query, may contain nulls
+     * @param timeoutMillis maximum time the batch may wait before it starts executing
+     * @param queries the queries
+     * @return futures of the results in the order of the queries, failing with a RejectedExecutionException if the
+     *         batch waited too long. Cancelling the future of a query that has not started skips it.
+     * @throws RejectedExecutionException if too many queries are already waiting
+     */
+    public <T> List<Future<T>> submitBatch(List<String> operationNames, long timeoutMillis, List<Callable<T>> queries) {
+        int width = Math.min(queries.size(), maxConcurrentQueries);
+        if (admittedQueries.addAndGet(width) > maxConcurrentQueries + maxQueuedQueries) {
+            admittedQueries.addAndGet(-width);
+            for (String operationName : operationNames) {
+                getOperationMetrics(operationName).rejected.incrementAndGet();
+            }
+            throw new RejectedExecutionException("Too many GraphQL queries waiting for execution");
+        }
+
+        long submitTime = System.nanoTime();
+        List<CompletableFuture<T>> results = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+        AtomicInteger nextQuery = new AtomicInteger();
+        // the batch is rejected if none of its places gets a permit in time
+        AtomicInteger undecidedWorkers = new AtomicInteger(width);
+        AtomicBoolean started = new AtomicBoolean();
+        Runnable worker = () -> {
+            try {
+                long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - (System.nanoTime() - submitTime);
+                boolean permitted = false;
+                try {
+                    permitted = nextQuery.get() < queries.size() && remainingNanos > 0
+                        && executionPermits.tryAcquire(remainingNanos, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (permitted) {
+                    started.set(true);
+                }
+                if (undecidedWorkers.decrementAndGet() == 0 && !started.get()) {
+                    rejectRemaining(operationNames, results, nextQuery,
+                        "GraphQL query waited for execution longer than its timeout");
+                }
+                if (!permitted) {
+                    return;
+                }
+                try {
+                    int i;
+                    while ((i = nextQuery.getAndIncrement()) < queries.size()) {
+                        executeInBatch(getOperationMetrics(operationNames.get(i)), submitTime, queries.get(i),
+                            results.get(i));
+                    }
+                } finally {
+                    executionPermits.release();
+                }
+            } finally {
+                admittedQueries.decrementAndGet();
+            }
+        };
+
+        for (int i = 0; i < width; i++) {
+            try {
+                queryExecutor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // executor shut down, the workers that were not started will not get a permit
+                admittedQueries.addAndGet(i - width);
+                if (undecidedWorkers.addAndGet(i - width) == 0 && !started.get()) {
+                    rejectRemaining(operationNames, results, nextQuery, e.getMessage());
+                }
+                break;
+            }
+        }
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Execute a query and wait for its result
+     *
+     * @see #submit(String, long, Callable)
+     * @throws RejectedExecutionException if the query was not executed because of the limits
+     * @throws ExecutionException if the query failed
+     */
+    public <T> T execute(String operationName, long timeoutMillis, Callable<T> query)
+        throws ExecutionException, InterruptedException {
+        try {
+            return submit(operationName, timeoutMillis, query).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                throw (RejectedExecutionException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return executor for resolving the fields of queries
+     */
+    public ExecutorService getFieldExecutor() {
+        return fieldExecutor;
+    }
+
+    /**
+     * @return number of queries waiting or executing
+     */
+    public int getAdmittedQueries() {
+        return admittedQueries.get();
+    }
+
+    /**
+     * @return metrics by operation name, sorted by name
+     */
+    public Map<String, OperationMetrics> getMetrics() {
+        return Collections.unmodifiableMap(new TreeMap<>(metricsByOperation));
+    }
+
+    /**
+     * Stop accepting queries. Queries already submitted are executed.
+     */
+    public void shutdown() {
+        queryExecutor.shutdown();
+        fieldExecutor.shutdown();
+    }
+
+    /** Execute a query of a batch unless it was cancelled */
+    private static <T> void executeInBatch(OperationMetrics metrics, long submitTime, Callable<T> query,
+        CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        metrics.recordQueueTime(startTime - submitTime);
+        T value = null;
+        Exception failure = null;
+        try {
+            value = query.call();
+        } catch (Exception e) {
+            failure = e;
+        }
+        // recorded before the result is published, like the queries submitted alone
+        metrics.recordExecutionTime(System.nanoTime() - startTime);
+        if (failure != null) {
+            result.completeExceptionally(failure);
+        } else {
+            result.complete(value);
+        }
+    }
+
+    /** Reject the queries of a batch that have not started */
+    private <T> void rejectRemaining(List<String> operationNames, List<CompletableFuture<T>> results,
+        AtomicInteger nextQuery, String message) {
+        int i;
+        while ((i = nextQuery.getAndIncrement()) < results.size()) {
+            if (!results.get(i).isDone()) {
+                getOperationMetrics(operationNames.get(i)).rejected.incrementAndGet();
+                results.get(i).completeExceptionally(new RejectedExecutionException(message));
+            }
+        }
+    }
+
+    private OperationMetrics getOperationMetrics(String operationName) {
+        return metricsByOperation.computeIfAbsent(operationName != null ? operationName : ANONYMOUS_OPERATION,
+            name -> new OperationMetrics());
+    }
+
+    /**
+     * Java 8 source level, so virtual threads are looked up reflectively
+     *
+     * @return executor starting a virtual thread per task, or null if the JVM does not support them
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Counters of a single operation name. Times are in milliseconds.
+     */
+    public static class OperationMetrics {
+
+        private final AtomicLong executed = new AtomicLong();
+
+        private final AtomicLong rejected = new AtomicLong();
+
+        private final AtomicLong totalQueueNanos = new AtomicLong();
+
+        private final AtomicLong maxQueueNanos = new AtomicLong();
+
+        private final AtomicLong totalExecutionNanos = new AtomicLong();
+
+        private final AtomicLong maxExecutionNanos = new AtomicLong();
+
+        private void recordQueueTime(long nanos) {
+            totalQueueNanos.addAndGet(nanos);
+            maxQueueNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private void recordExecutionTime(long nanos) {
+            executed.incrementAndGet();
+            totalExecutionNanos.addAndGet(nanos);
+            maxExecutionNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getExecuted() {
+            return executed.get();
+        }
+
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        public double getAverageQueueTime() {
+            long count = executed.get();
+            return count == 0 ? 0 : totalQueueNanos.get() / 1e6 / count;
+        }
+
+        public double getMaxQueueTime() {
+            return maxQueueNanos.get() / 1e6;
+        }
+
+        public double getAverageExecutionTime() {
+            long count = executed.get();
+            return count == 0 ? 0 : totalExecutionNanos.get() / 1e6 / count;
+        }
+
+        public double getMaxExecutionTime() {
+            return maxExecutionNanos.get() / 1e6;
+        }
+    }
+}
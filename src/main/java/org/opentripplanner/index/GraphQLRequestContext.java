@@ -0,0 +1,217 @@
+package org.opentripplanner.index;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.index.model.TripTimeShort;
+import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TimetableSnapshot;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.GraphIndex;
+import org.opentripplanner.standalone.Router;
+
+import graphql.schema.DataFetchingEnvironment;
+
+/**
+ * State shared by all data fetchers of a single GraphQL request.
+ *
+ * Queries like "stops near me -> patterns -> next departures" ask for the departures and alerts of the same stop,
+ * pattern and service date many times. This class makes sure each of them is computed once per request: stoptimes
+ * are memoized by stop, pattern and search window, alerts by the entity they belong to, and timetables and service
+ * days by pattern, agency and service date. All fetchers see the same timetable snapshot, which is taken when it is
+ * first needed, and the same current time, so the results of a request are consistent even if realtime updates are
+ * committed while it is executing.
+ *
+ * Data fetchers are executed concurrently, so all caches are thread-safe. The number of lookups answered from the
+ * caches is counted and returned with the response.
+ */
+public class GraphQLRequestContext {
+
+    private final GraphIndex index;
+
+    private final Router router;
+
+    /** Seconds since the epoch used for searches without a start time */
+    private final long requestTime = System.currentTimeMillis() / 1000;
+
+    private volatile boolean snapshotFetched = false;
+
+    private TimetableSnapshot snapshot;
+
+    /** Resolver results by resolver name and arguments */
+    private final Map<List<Object>, Object> results = new ConcurrentHashMap<>();
+
+    private final Map<List<Object>, Timetable> timetables = new ConcurrentHashMap<>();
+
+    private final Map<List<Object>, ServiceDay> serviceDays = new ConcurrentHashMap<>();
+
+    private final AtomicLong resolverCalls = new AtomicLong();
+
+    private final AtomicLong savedResolverCalls = new AtomicLong();
+
+    private final AtomicLong timetableResolutions = new AtomicLong();
+
+    private final AtomicLong savedTimetableResolutions = new AtomicLong();
+
+    /**
+     * @param index graph index the request is executed against
+     * @param router router of the request, may be null if the request does not plan itineraries
+     */
+    public GraphQLRequestContext(GraphIndex index, Router router) {
+        this.index = index;
+        this.router = router;
+    }
+
+    /**
+     * Returns the context of the request of a data fetcher. Requests executed without a context, e.g. in tests, get
+     * a new context that is only used by the calling fetcher.
+     *
+     * @param environment data fetching environment
+     * @param index graph index
+     * @return request context
+     */
+    public static GraphQLRequestContext forEnvironment(DataFetchingEnvironment environment, GraphIndex index) {
+        Object context = environment.getContext();
+        if (context instanceof GraphQLRequestContext) {
+            return (GraphQLRequestContext) context;
+        }
+        return new GraphQLRequestContext(index, context instanceof Router ? (Router) context : null);
+    }
+
+    public Router getRouter() {
+        return router;
+    }
+
+    /**
+     * @return the time used for searches starting now, in seconds since the epoch
+     */
+    public long getRequestTime() {
+        return requestTime;
+    }
+
+    /**
+     * @return the timetable snapshot used for the whole request, or null if there is no realtime data
+     */
+    public TimetableSnapshot getTimetableSnapshot() {
+        if (!snapshotFetched) {
+            synchronized (this) {
+                if (!snapshotFetched) {
+                    snapshot = index.graph.timetableSnapshotSource != null
+                        ? index.graph.timetableSnapshotSource.getTimetableSnapshot() : null;
+                    snapshotFetched = true;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the timetable of the pattern on the service date, including realtime updates
+     */
+    public Timetable resolve(TripPattern pattern, ServiceDate serviceDate) {
+        timetableResolutions.incrementAndGet();
+        List<Object> key = Arrays.asList(pattern, serviceDate);
+        Timetable timetable = timetables.get(key);
+        if (timetable != null) {
+            savedTimetableResolutions.incrementAndGet();
+            return timetable;
+        }
+        return timetables.computeIfAbsent(key, k -> {
+            TimetableSnapshot timetableSnapshot = getTimetableSnapshot();
+            return timetableSnapshot != null
+                ? timetableSnapshot.resolve(pattern, serviceDate) : pattern.scheduledTimetable;
+        });
+    }
+
+    /**
+     * @return the service day of the agency on the service date
+     */
+    public ServiceDay getServiceDay(ServiceDate serviceDate, String agencyId) {
+        return serviceDays.computeIfAbsent(Arrays.asList(serviceDate, agencyId),
+            k -> new ServiceDay(index.graph, serviceDate, index.graph.getCalendarService(), agencyId));
+    }
+
+    /**
+     * Memoized {@link GraphIndex#stopTimesForPattern(Stop, TripPattern, long, int, int, boolean, GraphQLRequestContext)}
+     */
+    public List<TripTimeShort> stopTimesForPattern(Stop stop, TripPattern pattern, long startTime, int timeRange,
+        int numberOfDepartures, boolean omitNonPickups) {
+        if (pattern == null) {
+            return Collections.emptyList();
+        }
+        return memoize(Arrays.asList("stopTimesForPattern", stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups),
+            () -> Collections.unmodifiableList(
+                index.stopTimesForPattern(stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups, this)));
+    }
+
+    public List<AlertPatch> getAlertsForRoute(Route route) {
+        return memoize(Arrays.asList("alertsForRoute", route), () -> index.getAlertsForRoute(route));
+    }
+
+    public List<AlertPatch> getAlertsForTrip(Trip trip) {
+        return memoize(Arrays.asList("alertsForTrip", trip), () -> index.getAlertsForTrip(trip));
+    }
+
+    public List<AlertPatch> getAlertsForPattern(TripPattern pattern) {
+        return memoize(Arrays.asList("alertsForPattern", pattern), () -> index.getAlertsForPattern(pattern));
+    }
+
+    public List<AlertPatch> getAlertsForAgency(Agency agency) {
+        return memoize(Arrays.asList("alertsForAgency", agency), () -> index.getAlertsForAgency(agency));
+    }
+
+    /**
+     * @return number of memoized resolver calls made during the request
+     */
+    public long getResolverCalls() {
+        return resolverCalls.get();
+    }
+
+    /**
+     * @return number of resolver calls answered with the result of an earlier call
+     */
+    public long getSavedResolverCalls() {
+        return savedResolverCalls.get();
+    }
+
+    /**
+     * @return number of timetables resolved during the request
+     */
+    public long getTimetableResolutions() {
+        return timetableResolutions.get();
+    }
+
+    /**
+     * @return number of timetable resolutions answered with the result of an earlier resolution
+     */
+    public long getSavedTimetableResolutions() {
+        return savedTimetableResolutions.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T memoize(List<Object> key, Supplier<T> supplier) {
+        resolverCalls.incrementAndGet();
+        Object result = results.get(key);
+        if (result != null) {
+            savedResolverCalls.incrementAndGet();
+            return (T) result;
+        }
+        // Not computeIfAbsent, the suppliers resolve timetables and could block other keys for a long time. Two
+        // fetchers asking for the same key at the same time may both compute it, the result is the same.
+        T computed = supplier.get();
+        result = results.putIfAbsent(key, computed);
+        return result != null ? (T) result : computed;
+    }
+}
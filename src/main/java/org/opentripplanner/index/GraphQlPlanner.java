@@ -49,7 +49,7 @@ public class GraphQlPlanner {
 
     public Map<String, Object> plan(DataFetchingEnvironment environment) {
 
-        Router router = (Router) environment.getContext();
+        Router router = GraphQLRequestContext.forEnvironment(environment, index).getRouter();
 
 
         RoutingRequest request = createRequest(environment);
@@ -150,7 +150,7 @@ public class GraphQlPlanner {
     }
 
     private RoutingRequest createRequest(DataFetchingEnvironment environment) {
-        Router router = (Router) environment.getContext();
+        Router router = GraphQLRequestContext.forEnvironment(environment, index).getRouter();
         RoutingRequest request = router.defaultRoutingRequest.clone();
         request.routerId = router.id;
 
@@ -176,6 +176,10 @@ public class GraphQlPlanner {
         callWith.argument("airQualityPenaltyLowRate", request::setAirQualityPenaltyLowRate);
         callWith.argument("airQualityPenaltyHighRate", request::setAirQualityPenaltyHighRate);
         callWith.argument("airQualityMode", request::setAirQualityMode);
+        callWith.argument("noisePenaltyThresholdLow", request::setNoisePenaltyThresholdLow);
+        callWith.argument("noisePenaltyThresholdHigh", request::setNoisePenaltyThresholdHigh);
+        callWith.argument("noisePenaltyLowRate", request::setNoisePenaltyLowRate);
+        callWith.argument("noisePenaltyHighRate", request::setNoisePenaltyHighRate);
         callWith.argument("walkOnStreetReluctance", request::setWalkOnStreetReluctance);
         callWith.argument("waitReluctance", request::setWaitReluctance);
         callWith.argument("waitAtBeginningFactor", request::setWaitAtBeginningFactor);
@@ -81,6 +81,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 // TODO move to org.opentripplanner.api.resource, this is a Jersey resource class
 
@@ -640,6 +641,7 @@ public class IndexAPI {
     @Consumes(MediaType.APPLICATION_JSON)
     public Response getGraphQLBatch (List<HashMap<String, Object>> queries, @Context HttpHeaders httpHeaders, @HeaderParam("OTPTimeout") @DefaultValue("10000") int timeout, @HeaderParam("OTPMaxResolves") @DefaultValue("1000000") long maxResolves) {
         List<Map<String, Object>> responses = new ArrayList<>();
+        List<String> operationNames = new ArrayList<>();
         List<Callable<Map>> futures = new ArrayList<>();
   
         for (HashMap<String, Object> query : queries) {
@@ -659,11 +661,15 @@ public class IndexAPI {
             
             String operationName = (String) query.getOrDefault("operationName", null);
 
+            operationNames.add(operationName);
             futures.add(() -> index.getGraphQLExecutionResult((String) query.get("query"), router,variables, operationName, timeout, maxResolves, httpHeaders.getRequestHeaders()));
         }
 
+        GraphQLExecutor executor = index.getGraphQLExecutor();
+        List<Future<Map>> results = new ArrayList<>();
         try {
-            List<Future<Map>> results = index.threadPool.invokeAll(futures);
+            // admitted as a unit, so a batch larger than the query limits is not rejected for its size alone
+            results = executor.submitBatch(operationNames, timeout, futures);
 
             for (int i = 0; i < queries.size(); i++) {
                 HashMap<String, Object> response = new HashMap<>();
@@ -671,13 +677,40 @@ public class IndexAPI {
                 response.put("payload", results.get(i).get());
                 responses.add(response);
             }
-        } catch (CancellationException | ExecutionException | InterruptedException e) {
+        } catch (RejectedExecutionException e) {
+            cancelAll(results);
+            LOG.warn("Returning error 503, {}", e.getMessage());
+            return Response.status(Status.SERVICE_UNAVAILABLE).build();
+        } catch (ExecutionException e) {
+            cancelAll(results);
+            if (e.getCause() instanceof RejectedExecutionException) {
+                LOG.warn("Returning error 503, {}", e.getCause().getMessage());
+                return Response.status(Status.SERVICE_UNAVAILABLE).build();
+            }
+            LOG.warn("Returning error 500, {}:{}", e.getClass(), e.getMessage());
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        } catch (CancellationException | InterruptedException e) {
+            cancelAll(results);
             LOG.warn("Returning error 500, {}:{}", e.getClass(), e.getMessage());
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
         }
         return Response.status(Status.OK).entity(responses).build();
     }
 
+    /** Return queue time, execution time and rejection counts of the GraphQL queries of this router by operation name. */
+    @GET
+    @Path("/graphql/metrics")
+    public Response getGraphQLMetrics () {
+        return Response.status(Status.OK).entity(index.getGraphQLExecutor().getMetrics()).build();
+    }
+
+    /** Cancel the queries of a batch that has already failed */
+    private static void cancelAll(List<Future<Map>> results) {
+        for (Future<Map> result : results) {
+            result.cancel(true);
+        }
+    }
+
     /** Represents a transfer from a stop */
     private static class Transfer {
         /** The stop we are connecting to */
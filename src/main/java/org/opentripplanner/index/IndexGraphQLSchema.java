@@ -53,7 +53,6 @@ import org.opentripplanner.routing.core.TicketType;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.SimpleTransfer;
 import org.opentripplanner.routing.edgetype.Timetable;
-import org.opentripplanner.routing.edgetype.TimetableSnapshot;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.error.VertexNotFoundException;
 import org.opentripplanner.routing.graph.GraphIndex;
@@ -61,7 +60,6 @@ import org.opentripplanner.routing.graph.GraphIndex.PlaceAndDistance;
 import org.opentripplanner.routing.trippattern.RealTimeState;
 import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.opentripplanner.updater.GtfsRealtimeFuzzyTripMatcher;
-import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.opentripplanner.util.ResourceBundleSingleton;
 import org.opentripplanner.util.TranslatedString;
 import org.opentripplanner.util.model.EncodedPolylineBean;
@@ -516,6 +514,26 @@ public class IndexGraphQLSchema {
                 .description("A air quality routing mode. Either TIME or DISTANCE. Defaults to TIME")
                 .type(Scalars.GraphQLString)
                 .build())
+            .argument(GraphQLArgument.newArgument()
+                .name("noisePenaltyThresholdLow")
+                .description("Threshold in decibels when the low noise penalty starts to affect routing. Noise routing is enabled when any noise penalty argument is positive, unset ones use defaults. Default value: 70")
+                .type(Scalars.GraphQLFloat)
+                .build())
+            .argument(GraphQLArgument.newArgument()
+                .name("noisePenaltyThresholdHigh")
+                .description("Threshold in decibels when the high noise penalty starts to affect routing. Default value: 80")
+                .type(Scalars.GraphQLFloat)
+                .build())
+            .argument(GraphQLArgument.newArgument()
+                .name("noisePenaltyLowRate")
+                .description("Low noise penalty rate. Default value: 5")
+                .type(Scalars.GraphQLFloat)
+                .build())
+            .argument(GraphQLArgument.newArgument()
+                .name("noisePenaltyHighRate")
+                .description("High noise penalty rate. Default value: 10")
+                .type(Scalars.GraphQLFloat)
+                .build())
             .argument(GraphQLArgument.newArgument()
                 .name("walkReluctance")
                 .description("A multiplier for how bad walking is, compared to being in transit for equal lengths of time.Empirically, values between 10 and 20 seem to correspond well to the concept of not wanting to walk too much without asking for totally ridiculous itineraries, but this observation should in no way be taken as scientific or definitive. Your mileage may vary. Default value: 2.0 ")
@@ -926,7 +944,8 @@ public class IndexGraphQLSchema {
                     int timeRange = environment.getArgument("timeRange");
                     int maxDepartures = environment.getArgument("numberOfDepartures");
                     boolean omitNonPickups = environment.getArgument("omitNonPickups");
-                    return departureRow.getStoptimes(index, startTime, timeRange, maxDepartures, omitNonPickups);
+                    return departureRow.getStoptimes(GraphQLRequestContext.forEnvironment(environment, index), startTime,
+                        timeRange, maxDepartures, omitNonPickups);
                 })
                 .build())
             .build();
@@ -1054,7 +1073,7 @@ public class IndexGraphQLSchema {
                     .defaultValue(false)
                     .build())
                 .dataFetcher(environment ->
-                    index.stopTimesForPattern(environment.getSource(),
+                    GraphQLRequestContext.forEnvironment(environment, index).stopTimesForPattern(environment.getSource(),
                         index.patternForId.get(environment.getArgument("id")),
                         environment.getArgument("startTime"),
                         environment.getArgument("timeRange"),
@@ -1190,15 +1209,16 @@ public class IndexGraphQLSchema {
                     }
                     Stop stop = environment.getSource();
                     boolean omitNonPickups = environment.getArgument("omitNonPickups");
+                    GraphQLRequestContext context = GraphQLRequestContext.forEnvironment(environment, index);
                     if (stop.getLocationType() == 1) {
                         // Merge all stops if this is a station
                         return index.stopsForParentStation
                             .get(stop.getId())
                             .stream()
-                            .flatMap(singleStop -> index.getStopTimesForStop(singleStop, date,omitNonPickups).stream())
+                            .flatMap(singleStop -> index.getStopTimesForStop(singleStop, date, omitNonPickups, context).stream())
                             .collect(Collectors.toList());
                     }
-                    return index.getStopTimesForStop(stop, date, omitNonPickups);
+                    return index.getStopTimesForStop(stop, date, omitNonPickups, context);
                 })
                 .build())
             .field(GraphQLFieldDefinition.newFieldDefinition()
@@ -1226,6 +1246,7 @@ public class IndexGraphQLSchema {
                     .build())
                 .dataFetcher(environment -> {
                     Stop stop = environment.getSource();
+                    GraphQLRequestContext context = GraphQLRequestContext.forEnvironment(environment, index);
                     if (stop.getLocationType() == 1) {
                         // Merge all stops if this is a station
                         return index.stopsForParentStation
@@ -1236,7 +1257,8 @@ public class IndexGraphQLSchema {
                                     environment.getArgument("startTime"),
                                     environment.getArgument("timeRange"),
                                     environment.getArgument("numberOfDepartures"),
-                                    environment.getArgument("omitNonPickups"))
+                                    environment.getArgument("omitNonPickups"),
+                                    context)
                                 .stream()
                             )
                             .collect(Collectors.toList());
@@ -1245,7 +1267,8 @@ public class IndexGraphQLSchema {
                         environment.getArgument("startTime"),
                         environment.getArgument("timeRange"),
                         environment.getArgument("numberOfDepartures"),
-                        environment.getArgument("omitNonPickups"));
+                        environment.getArgument("omitNonPickups"),
+                        context);
 
                 })
                 .build())
@@ -1274,6 +1297,7 @@ public class IndexGraphQLSchema {
                     .build())
                 .dataFetcher(environment -> {
                     Stop stop = environment.getSource();
+                    GraphQLRequestContext context = GraphQLRequestContext.forEnvironment(environment, index);
                     Stream<StopTimesInPattern> stream;
                     if (stop.getLocationType() == 1) {
                         stream = index.stopsForParentStation
@@ -1284,7 +1308,8 @@ public class IndexGraphQLSchema {
                                     environment.getArgument("startTime"),
                                     environment.getArgument("timeRange"),
                                     environment.getArgument("numberOfDepartures"),
-                                    environment.getArgument("omitNonPickups"))
+                                    environment.getArgument("omitNonPickups"),
+                                    context)
                                     .stream()
                             );
                     }
@@ -1294,7 +1319,8 @@ public class IndexGraphQLSchema {
                             environment.getArgument("startTime"),
                             environment.getArgument("timeRange"),
                             environment.getArgument("numberOfDepartures"),
-                            environment.getArgument("omitNonPickups")
+                            environment.getArgument("omitNonPickups"),
+                            context
                         ).stream();
                     }
                     return stream.flatMap(stoptimesWithPattern -> stoptimesWithPattern.times.stream())
@@ -1520,19 +1546,9 @@ public class IndexGraphQLSchema {
                                 : environment.getArgument("serviceDay");
                         final ServiceDate serviceDate = argServiceDate != null
                             ? ServiceDate.parseString(argServiceDate) : new ServiceDate();
-                        final ServiceDay serviceDay = new ServiceDay(index.graph, serviceDate,
-                            index.graph.getCalendarService(), trip.getRoute().getAgency().getId());
-                        TimetableSnapshotSource timetableSnapshotSource = index.graph.timetableSnapshotSource;
-                        Timetable timetable = null;
-                        if (timetableSnapshotSource != null) {
-                            TimetableSnapshot timetableSnapshot = timetableSnapshotSource.getTimetableSnapshot();
-                            if (timetableSnapshot != null) {
-                                timetable = timetableSnapshot.resolve(index.patternForTrip.get(trip), serviceDate);
-                            }
-                        }
-                        if (timetable == null) {
-                            timetable = index.patternForTrip.get(trip).scheduledTimetable;
-                        }
+                        final GraphQLRequestContext context = GraphQLRequestContext.forEnvironment(environment, index);
+                        final ServiceDay serviceDay = context.getServiceDay(serviceDate, trip.getRoute().getAgency().getId());
+                        final Timetable timetable = context.resolve(index.patternForTrip.get(trip), serviceDate);
                         return TripTimeShort.fromTripTimes(timetable, trip, serviceDay);
                     } catch (ParseException e) {
                         return null; // Invalid date format
@@ -1557,8 +1573,8 @@ public class IndexGraphQLSchema {
                 .name("alerts")
                 .description("Get all alerts active for the trip")
                 .type(new GraphQLList(alertType))
-                .dataFetcher(dataFetchingEnvironment -> index.getAlertsForTrip(
-                    dataFetchingEnvironment.getSource()))
+                .dataFetcher(dataFetchingEnvironment -> GraphQLRequestContext.forEnvironment(dataFetchingEnvironment, index)
+                    .getAlertsForTrip(dataFetchingEnvironment.getSource()))
                 .build())
             .build();
 
@@ -1675,8 +1691,8 @@ public class IndexGraphQLSchema {
                 .name("alerts")
                 .description("Get all alerts active for the pattern")
                 .type(new GraphQLList(alertType))
-                .dataFetcher(dataFetchingEnvironment -> index.getAlertsForPattern(
-                    dataFetchingEnvironment.getSource()))
+                .dataFetcher(dataFetchingEnvironment -> GraphQLRequestContext.forEnvironment(dataFetchingEnvironment, index)
+                    .getAlertsForPattern(dataFetchingEnvironment.getSource()))
                 .build())
             .build();
 
@@ -1773,8 +1789,8 @@ public class IndexGraphQLSchema {
                 .name("alerts")
                 .description("Get all alerts active for the route")
                 .type(new GraphQLList(alertType))
-                .dataFetcher(dataFetchingEnvironment -> index.getAlertsForRoute(
-                    dataFetchingEnvironment.getSource()))
+                .dataFetcher(dataFetchingEnvironment -> GraphQLRequestContext.forEnvironment(dataFetchingEnvironment, index)
+                    .getAlertsForRoute(dataFetchingEnvironment.getSource()))
                 .build())
             .build();
 
@@ -1830,8 +1846,8 @@ public class IndexGraphQLSchema {
                 .name("alerts")
                 .description("Get all alerts active for the agency")
                 .type(new GraphQLList(alertType))
-                .dataFetcher(dataFetchingEnvironment -> index.getAlertsForAgency(
-                    dataFetchingEnvironment.getSource()))
+                .dataFetcher(dataFetchingEnvironment -> GraphQLRequestContext.forEnvironment(dataFetchingEnvironment, index)
+                    .getAlertsForAgency(dataFetchingEnvironment.getSource()))
                 .build())
             .build();
 
@@ -1,40 +1,161 @@
 package org.opentripplanner.ngsi;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.config.SocketConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.opentripplanner.ngsi.models.NoiseLevelObserved;
 
-public class NgsiClient {
+/**
+ * Client for listing entities from a NGSI v2 context broker.
+ *
+ * The client keeps a pool of persistent connections and is meant to be created once and reused for
+ * every poll. Results are fetched in pages using the NGSI limit and offset parameters, and each page
+ * is parsed as a stream so entities are handed to the caller one at a time instead of buffering the
+ * whole response. The client is thread-safe.
+ *
+ * Requests are blocking. The client is called from the polling thread of the updater, which does
+ * nothing else while waiting for the broker, so the graph writer is never blocked by a fetch.
+ */
+public class NgsiClient implements Closeable {
 
+  /** Maximum page size accepted by Orion context broker */
+  public static final int DEFAULT_PAGE_SIZE = 1000;
+
+  private static final int SOCKET_TIMEOUT = 30 * 1000;
+
+  private final CloseableHttpClient httpClient;
+  private final ObjectMapper objectMapper;
+  private final int pageSize;
+
+  /**
+   * Constructor
+   */
+  public NgsiClient() {
+    this(DEFAULT_PAGE_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param pageSize number of entities requested per page
+   */
+  public NgsiClient(int pageSize) {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setDefaultMaxPerRoute(4);
+    connectionManager.setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(SOCKET_TIMEOUT).build());
+
+    this.httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+    this.objectMapper = new ObjectMapper();
+    this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Lists noise level observations
+   *
+   * @param serverUrl entities url of the broker
+   * @param parameters additional query parameters
+   * @return observations or null if the broker responded with an error
+   * @throws IOException thrown when the request fails
+   * @throws URISyntaxException thrown when server url is invalid
+   */
   public List<NoiseLevelObserved> listNoiseLevelObserved(String serverUrl, List<NameValuePair> parameters) throws IOException, URISyntaxException {
-    HttpGet request = new HttpGet();
-    try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+    List<NoiseLevelObserved> result = new ArrayList<>();
+    if (!listNoiseLevelObserved(serverUrl, parameters, result::add)) {
+      return null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Lists noise level observations page by page, passing each observation to given consumer as soon as it
+   * has been parsed
+   *
+   * @param serverUrl entities url of the broker
+   * @param parameters additional query parameters
+   * @param consumer consumer receiving the observations
+   * @return whether all pages were received successfully
+   * @throws IOException thrown when the request fails
+   * @throws URISyntaxException thrown when server url is invalid
+   */
+  public boolean listNoiseLevelObserved(String serverUrl, List<NameValuePair> parameters, Consumer<NoiseLevelObserved> consumer) throws IOException, URISyntaxException {
+    int offset = 0;
+    while (true) {
       URIBuilder uriBuilder = new URIBuilder(serverUrl);
       uriBuilder.addParameter("type", "NoiseLevelObserved");
       uriBuilder.addParameters(parameters);
-      request.setURI(uriBuilder.build());
-      try (CloseableHttpResponse response = client.execute(request)) {
-        if (response.getStatusLine().getStatusCode() == 200) {
-          ObjectMapper objectMapper = new ObjectMapper();
-          objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-          return objectMapper.readValue(response.getEntity().getContent(), new TypeReference<List<NoiseLevelObserved>>() {});
-        }
+      uriBuilder.addParameter("limit", String.valueOf(pageSize));
+      uriBuilder.addParameter("offset", String.valueOf(offset));
+
+      int count = listPage(new HttpGet(uriBuilder.build()), consumer);
+      if (count < 0) {
+        return false;
       }
+
+      if (count < pageSize) {
+        return true;
+      }
+
+      offset += count;
     }
+  }
+
+  @Override
+  public void close() throws IOException {
+    httpClient.close();
+  }
+
+  /**
+   * Executes a single page request
+   *
+   * @param request request
+   * @param consumer consumer receiving the observations
+   * @return number of entities in the page or -1 if the broker responded with an error
+   * @throws IOException thrown when the request fails
+   */
+  private int listPage(HttpGet request, Consumer<NoiseLevelObserved> consumer) throws IOException {
+    try (CloseableHttpResponse response = httpClient.execute(request)) {
+      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+        // consume the entity so the connection can be returned to the pool
+        EntityUtils.consume(response.getEntity());
+        return -1;
+      }
+
+      try (InputStream content = response.getEntity().getContent(); JsonParser parser = objectMapper.getFactory().createParser(content)) {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+          throw new IOException(String.format("Expected an array of entities from %s", request.getURI()));
+        }
 
-    return null;
+        int count = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          consumer.accept(objectMapper.readValue(parser, NoiseLevelObserved.class));
+          count++;
+        }
+
+        return count;
+      }
+    }
   }
 
-}
\ No newline at end of file
+}
@@ -19,19 +19,12 @@ import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.geom.LineString;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicNameValuePair;
-import org.opentripplanner.ngsi.models.Location;
 import org.opentripplanner.ngsi.models.NoiseLevelObserved;
-import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.updater.GraphUpdaterManager;
 import org.opentripplanner.updater.PollingGraphUpdater;
@@ -47,8 +40,13 @@ import org.slf4j.LoggerFactory;
  * type = noise-level
  * frequencySec = 300
  * serverUrl = https://ngsi.example.com
+ * sensorTimeoutSec = 3600
  * </pre>
  * 
+ * Observations are fetched on the polling thread, only updating the edges is done by the graph writer.
+ * After the first poll only observations modified since the previous successful fetch are requested.
+ * Sensors keep affecting the noise level of nearby edges until they have not reported for sensorTimeoutSec seconds.
+ * 
  * @author Antti Leppä <antti.leppa@metatavu.fi>
  * @author Heikki Kurhinen <heikki.kurhinen@metatavu.fi>
  */
@@ -56,14 +54,24 @@ import org.slf4j.LoggerFactory;
 public class NoiseLevelGraphUpdater extends PollingGraphUpdater {
 
     private static final Logger LOG = LoggerFactory.getLogger(NoiseLevelGraphUpdater.class);
+
+    /** Overlap between consecutive fetches, covers clock differences between OTP and the broker */
+    private static final long FETCH_OVERLAP_SEC = 60l;
+
     private GraphUpdaterManager updaterManager;
     private String serverUrl;
+    private int sensorTimeoutSec;
+    private NgsiClient ngsiClient;
+    private NoiseSensorEdgeIndex sensorEdgeIndex;
+    private OffsetDateTime lastFetch;
 
     @Override
     protected void configurePolling(Graph graph, JsonNode config) throws Exception {
       serverUrl = config.path("serverUrl").asText();
+      sensorTimeoutSec = config.path("sensorTimeoutSec").asInt(3600);
+      sensorEdgeIndex = new NoiseSensorEdgeIndex(sensorTimeoutSec * 1000l);
       
-      LOG.info("Configured noise level updater: server-url={}", serverUrl);
+      LOG.info("Configured noise level updater: server-url={}, sensor-timeout-sec={}", serverUrl, sensorTimeoutSec);
     }
 
     @Override
@@ -75,129 +83,58 @@ public class NoiseLevelGraphUpdater extends PollingGraphUpdater {
     @Override
     public void setup() {
       LOG.info("Starting noise level graph updater");
+      ngsiClient = new NgsiClient();
     }
 
     @Override
     protected void runPolling() {
-      updaterManager.execute(graph -> {
-        if (serverUrl == null) {
-          LOG.warn("Noise level server url is not configured");
-          return;
-        }
-
-        LOG.info("Updating noise levels");
-
-        NgsiClient ngsiClient = new NgsiClient();
-        OffsetDateTime updatesFrom = OffsetDateTime.now().minusMinutes(5l);
-        List<NameValuePair> parameters = Arrays.asList(new BasicNameValuePair("q", String.format("dateModified>%s", updatesFrom.format(DateTimeFormatter.ISO_DATE_TIME))));
-
-        try {
-          Long updatedEdgesCount = 0l;
-          List<NoiseLevelObserved> noiseLevels = ngsiClient.listNoiseLevelObserved(serverUrl, parameters);
-          if (noiseLevels == null) {
-            LOG.error("Error fething noise levels from {}", serverUrl);
-            return;
-          }
-
-          Envelope noiseLevelArea = getNoiseLevelArea(noiseLevels);
-          List<StreetEdge> dataEdges = getEdgesInEnvelope(graph, noiseLevelArea);
-
-          LOG.info("Found {} edges available for noise updates", dataEdges.size());
-          
-          for(StreetEdge edge : dataEdges) {
-            edge.setNoiseLevel(0d);
-
-            for(NoiseLevelObserved noiseLevel : noiseLevels) {
-              if (noiseLevel.getLAmax() == null || noiseLevel.getLAmax().getValue() == null) {
-                continue;
-              }
-
-              Coordinate noiseCoordinate = getNoiseCoordinate(noiseLevel);
-              if (edgeNearNoiseSource(noiseCoordinate, edge.getGeometry())) {
-                double noiseObserved = noiseLevel.getLAmax().getValue();
-                double edgeNoiseLevel = edge.getNoiseLevel();
-                if (noiseObserved > edgeNoiseLevel) {
-                  updatedEdgesCount++;
-                  edge.setNoiseLevel(noiseObserved);
-                }
-                
-              }
-            }
-          }
-
-          LOG.info("Updated {} edges with noise data", updatedEdgesCount);
-        } catch (IOException e) {
-          LOG.error("Error updating noise levels", e);
-        } catch (URISyntaxException e) {
-          LOG.error("Error updating noise levels", e);
-        }
-      });
-    }
-
-    private List<StreetEdge> getEdgesInEnvelope(Graph graph, Envelope envelope) {
-      return graph.getStreetEdges().stream().filter(streetEdge -> {
-        Envelope edgeEnvelope = new Envelope(streetEdge.getFromVertex().getCoordinate(), streetEdge.getToVertex().getCoordinate());
-        return envelope.contains(edgeEnvelope);
-      }).collect(Collectors.toList());
-    }
-
-    private Envelope getNoiseLevelArea(List<NoiseLevelObserved> noiseLevels) {
-      Double minLat = getMinLatitude(noiseLevels); 
-      Double minLng = getMinLongitude(noiseLevels);
-      Double maxLat = getMaxLatitude(noiseLevels);
-      Double maxLng = getMaxLongitude(noiseLevels);
-      return new Envelope(minLat, minLng, maxLat, maxLng);
-    }
-
-    private Double getMinLatitude(List<NoiseLevelObserved> noiseLevels) {
-      return getCoordinateList(0, noiseLevels).stream().filter(Objects::nonNull).min(Double::compare).orElse(0d);
-    }
-
-    private Double getMaxLatitude(List<NoiseLevelObserved> noiseLevels) {
-      return getCoordinateList(0, noiseLevels).stream().filter(Objects::nonNull).max(Double::compare).orElse(0d);
-    }
-
-    private Double getMinLongitude(List<NoiseLevelObserved> noiseLevels) {
-      return getCoordinateList(1, noiseLevels).stream().filter(Objects::nonNull).min(Double::compare).orElse(0d);
-    }
-
-    private Double getMaxLongitude(List<NoiseLevelObserved> noiseLevels) {
-      return getCoordinateList(1, noiseLevels).stream().filter(Objects::nonNull).max(Double::compare).orElse(0d);
-    }
-
-    private List<Double> getCoordinateList(int coordinateIndex, List<NoiseLevelObserved> noiseLevels) {
-      return noiseLevels.stream()
-        .filter(Objects::nonNull)
-        .map((noiseLevel) -> {
-          Location location = noiseLevel.getLocation();
-          if (location == null ||
-              location.getValue() == null || 
-              location.getValue().getCoordinates() == null ||
-              location.getValue().getCoordinates().get(coordinateIndex) == null) {
-            
-            return null;
-          } else {
-            return location.getValue().getCoordinates().get(coordinateIndex);
-          }
-        }).collect(Collectors.toList());
-    }
+      if (serverUrl == null) {
+        LOG.warn("Noise level server url is not configured");
+        return;
+      }
 
-    private Coordinate getNoiseCoordinate(NoiseLevelObserved noiseLevel) {
-      List<Double> coordinates = noiseLevel.getLocation().getValue().getCoordinates();
-      return new Coordinate(coordinates.get(0), coordinates.get(1));
-    }
+      LOG.info("Updating noise levels");
+
+      // Fetch happens on the polling thread, only the edge update is run by the graph writer
+      OffsetDateTime fetchStarted = OffsetDateTime.now();
+      OffsetDateTime updatesFrom = lastFetch != null ? lastFetch.minusSeconds(FETCH_OVERLAP_SEC) : fetchStarted.minusSeconds(sensorTimeoutSec);
+      List<NameValuePair> parameters = Arrays.asList(new BasicNameValuePair("q", String.format("dateModified>%s", updatesFrom.format(DateTimeFormatter.ISO_DATE_TIME))));
+
+      List<NoiseLevelObserved> noiseLevels;
+      try {
+        noiseLevels = ngsiClient.listNoiseLevelObserved(serverUrl, parameters);
+      } catch (IOException e) {
+        LOG.error("Error updating noise levels", e);
+        return;
+      } catch (URISyntaxException e) {
+        LOG.error("Error updating noise levels", e);
+        return;
+      }
 
-    private boolean edgeNearNoiseSource(Coordinate noiseSource, LineString edgeGeometry) {
-      if(noiseSource.distance(edgeGeometry.getStartPoint().getCoordinate()) < 0.002) {
-        return true;
+      if (noiseLevels == null) {
+        LOG.error("Error fething noise levels from {}", serverUrl);
+        return;
       }
 
-      return noiseSource.distance(edgeGeometry.getEndPoint().getCoordinate()) < 0.002;
+      lastFetch = fetchStarted;
+      LOG.info("Received {} noise level observations", noiseLevels.size());
+
+      updaterManager.execute(graph -> {
+        int updatedEdgesCount = sensorEdgeIndex.update(graph, noiseLevels, System.currentTimeMillis());
+        LOG.info("Updated {} edges with noise data from {} sensors", updatedEdgesCount, sensorEdgeIndex.getSensorCount());
+      });
     }
 
     @Override
     public void teardown() {
       LOG.info("Stopping noise level graph updater");
+      if (ngsiClient != null) {
+        try {
+          ngsiClient.close();
+        } catch (IOException e) {
+          LOG.warn("Failed to close NGSI client", e);
+        }
+      }
     }
     
 }
@@ -0,0 +1,242 @@
+package org.opentripplanner.ngsi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+
+import org.opentripplanner.ngsi.models.Location;
+import org.opentripplanner.ngsi.models.NoiseLevelObserved;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+
+/**
+ * Keeps track of which street edges are influenced by which noise sensors.
+ *
+ * The edges near a sensor are looked up from the street spatial index once, when the sensor is first
+ * seen or when it moves. On later polls only the edges of sensors whose readings changed are
+ * recomputed. The noise level of an edge is the highest reading of the sensors near it.
+ *
+ * This class is not thread-safe, it is meant to be used from the graph writer thread only.
+ */
+public class NoiseSensorEdgeIndex {
+
+  /** Distance in degrees within which an edge end point must be from a sensor to be influenced by it */
+  public static final double INFLUENCE_RADIUS_DEGREES = 0.002;
+
+  private final Map<String, Sensor> sensors = new HashMap<>();
+  private final Map<StreetEdge, List<Sensor>> sensorsByEdge = new HashMap<>();
+  private final long sensorTimeoutMillis;
+
+  /**
+   * Constructor
+   *
+   * @param sensorTimeoutMillis time after which a sensor without new readings stops influencing edges
+   */
+  public NoiseSensorEdgeIndex(long sensorTimeoutMillis) {
+    this.sensorTimeoutMillis = sensorTimeoutMillis;
+  }
+
+  /**
+   * Applies new observations and recomputes the noise levels of the edges they touch
+   *
+   * @param graph graph
+   * @param observations observations received since the previous update
+   * @param now current time in epoch milliseconds
+   * @return number of edges whose noise level was recomputed
+   */
+  public int update(Graph graph, Collection<NoiseLevelObserved> observations, long now) {
+    Set<StreetEdge> dirtyEdges = new HashSet<>();
+
+    for (NoiseLevelObserved observation : observations) {
+      Coordinate coordinate = getCoordinate(observation);
+      if (coordinate == null || observation.getLAmax() == null || observation.getLAmax().getValue() == null) {
+        continue;
+      }
+
+      String sensorId = observation.getId() != null ? observation.getId() : coordinate.toString();
+      double level = observation.getLAmax().getValue();
+      Sensor sensor = sensors.get(sensorId);
+
+      if (sensor != null && !sensor.coordinate.equals2D(coordinate)) {
+        removeSensor(sensor, dirtyEdges);
+        sensor = null;
+      }
+
+      if (sensor == null) {
+        sensor = new Sensor(sensorId, coordinate);
+        sensor.level = level;
+        assignEdges(graph, sensor);
+        sensors.put(sensorId, sensor);
+        dirtyEdges.addAll(sensor.edges);
+      } else if (sensor.level != level) {
+        sensor.level = level;
+        dirtyEdges.addAll(sensor.edges);
+      }
+
+      sensor.updated = now;
+    }
+
+    Iterator<Sensor> iterator = sensors.values().iterator();
+    while (iterator.hasNext()) {
+      Sensor sensor = iterator.next();
+      if (now - sensor.updated > sensorTimeoutMillis) {
+        iterator.remove();
+        detachSensor(sensor, dirtyEdges);
+      }
+    }
+
+    for (StreetEdge edge : dirtyEdges) {
+      edge.setNoiseLevel(getNoiseLevel(edge));
+    }
+
+    return dirtyEdges.size();
+  }
+
+  /**
+   * Returns number of tracked sensors
+   *
+   * @return number of tracked sensors
+   */
+  public int getSensorCount() {
+    return sensors.size();
+  }
+
+  /**
+   * Returns noise level of an edge based on the sensors near it
+   *
+   * @param edge edge
+   * @return noise level
+   */
+  private double getNoiseLevel(StreetEdge edge) {
+    List<Sensor> edgeSensors = sensorsByEdge.get(edge);
+    double result = 0d;
+    if (edgeSensors != null) {
+      for (Sensor sensor : edgeSensors) {
+        result = Math.max(result, sensor.level);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Finds edges near given sensor from the street index
+   *
+   * @param graph graph
+   * @param sensor sensor
+   */
+  private void assignEdges(Graph graph, Sensor sensor) {
+    Envelope envelope = new Envelope(sensor.coordinate);
+    envelope.expandBy(INFLUENCE_RADIUS_DEGREES);
+
+    Collection<? extends Edge> candidates = graph.streetIndex != null ? graph.streetIndex.getEdgesForEnvelope(envelope) : graph.getStreetEdges();
+    for (Edge candidate : candidates) {
+      // edges removed from the graph may still linger in the spatial index
+      if (candidate.getFromVertex() == null) {
+        continue;
+      }
+
+      if (candidate instanceof StreetEdge && edgeNearNoiseSource(sensor.coordinate, ((StreetEdge) candidate).getGeometry())) {
+        StreetEdge edge = (StreetEdge) candidate;
+        sensor.edges.add(edge);
+        List<Sensor> edgeSensors = sensorsByEdge.get(edge);
+        if (edgeSensors == null) {
+          edgeSensors = new ArrayList<>(1);
+          sensorsByEdge.put(edge, edgeSensors);
+        }
+        edgeSensors.add(sensor);
+      }
+    }
+  }
+
+  /**
+   * Removes sensor from the index
+   *
+   * @param sensor sensor
+   * @param dirtyEdges set collecting edges that need recomputing
+   */
+  private void removeSensor(Sensor sensor, Set<StreetEdge> dirtyEdges) {
+    sensors.remove(sensor.id);
+    detachSensor(sensor, dirtyEdges);
+  }
+
+  /**
+   * Detaches sensor from its edges
+   *
+   * @param sensor sensor
+   * @param dirtyEdges set collecting edges that need recomputing
+   */
+  private void detachSensor(Sensor sensor, Set<StreetEdge> dirtyEdges) {
+    for (StreetEdge edge : sensor.edges) {
+      List<Sensor> edgeSensors = sensorsByEdge.get(edge);
+      if (edgeSensors != null) {
+        edgeSensors.remove(sensor);
+        if (edgeSensors.isEmpty()) {
+          sensorsByEdge.remove(edge);
+        }
+      }
+      dirtyEdges.add(edge);
+    }
+  }
+
+  /**
+   * Returns coordinate of the observation or null if the observation has no valid location
+   *
+   * @param noiseLevel observation
+   * @return coordinate
+   */
+  private Coordinate getCoordinate(NoiseLevelObserved noiseLevel) {
+    Location location = noiseLevel.getLocation();
+    if (location == null || location.getValue() == null || location.getValue().getCoordinates() == null) {
+      return null;
+    }
+
+    // GeoJSON coordinates are in longitude, latitude order
+    List<Double> coordinates = location.getValue().getCoordinates();
+    if (coordinates.size() < 2 || coordinates.get(0) == null || coordinates.get(1) == null) {
+      return null;
+    }
+
+    return new Coordinate(coordinates.get(0), coordinates.get(1));
+  }
+
+  private boolean edgeNearNoiseSource(Coordinate noiseSource, LineString edgeGeometry) {
+    if (edgeGeometry == null) {
+      return false;
+    }
+
+    if (noiseSource.distance(edgeGeometry.getStartPoint().getCoordinate()) < INFLUENCE_RADIUS_DEGREES) {
+      return true;
+    }
+
+    return noiseSource.distance(edgeGeometry.getEndPoint().getCoordinate()) < INFLUENCE_RADIUS_DEGREES;
+  }
+
+  /**
+   * Noise sensor and the edges it influences
+   */
+  private static class Sensor {
+
+    private final String id;
+    private final Coordinate coordinate;
+    private final List<StreetEdge> edges = new ArrayList<>();
+    private double level;
+    private long updated;
+
+    private Sensor(String id, Coordinate coordinate) {
+      this.id = id;
+      this.coordinate = coordinate;
+    }
+
+  }
+
+}
@@ -25,6 +25,20 @@ public class OSMNode extends OSMWithTags {
         return "osm node " + id;
     }
 
+    /**
+     * Nodes are equal when they have the same ID, as an OSM database may create a new object each time it is asked
+     * for a node.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof OSMNode && ((OSMNode) other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
     /**
      * Returns the capacity of this node if defined, or 0.
      * 
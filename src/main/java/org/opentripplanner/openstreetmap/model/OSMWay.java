@@ -16,6 +16,10 @@
 
 package org.opentripplanner.openstreetmap.model;
 
+import com.google.common.primitives.Longs;
+import gnu.trove.TDecorators;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -39,6 +43,13 @@ public class OSMWay extends OSMWithTags {
         return _nodes;
     }
 
+    /**
+     * Store the node references as primitive longs rather than boxed ones, to save memory.
+     */
+    public void compactNodeRefs() {
+        _nodes = TDecorators.wrap(new TLongArrayList(Longs.toArray(_nodes)));
+    }
+
     public String toString() {
         return "osm way " + id;
     }
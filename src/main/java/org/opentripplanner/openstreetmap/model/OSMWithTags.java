@@ -80,6 +80,26 @@ public class OSMWithTags {
         return _tags;
     }
 
+    /**
+     * Replace the keys and values of the tags with the equal strings of the given dictionary, adding the strings it
+     * does not contain yet, so that entities with the same tags share the same strings.
+     */
+    public void internTags(Map<String, String> dictionary) {
+        if (_tags == null)
+            return;
+
+        Map<String, String> tags = new HashMap<String, String>(_tags.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> tag : _tags.entrySet()) {
+            tags.put(intern(dictionary, tag.getKey()), intern(dictionary, tag.getValue()));
+        }
+        _tags = tags;
+    }
+
+    private static String intern(Map<String, String> dictionary, String s) {
+        String interned = dictionary.putIfAbsent(s, s);
+        return interned != null ? interned : s;
+    }
+
     /**
      * Is the tag defined?
      */
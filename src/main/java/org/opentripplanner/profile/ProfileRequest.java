@@ -129,6 +129,12 @@ public class ProfileRequest implements Serializable, Cloneable {
     /** What assumption should be used when boarding frequency vehicles? */
     public RaptorWorkerTimetable.BoardingAssumption boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.RANDOM;
 
+    /**
+     * Run the randomized frequency searches of each departure minute in parallel. This uses more cores to answer a
+     * single request faster; the results are statistically the same.
+     */
+    public boolean parallelFrequencySearches = false;
+
     /* The relative importance of different factors when biking */
     /** The relative importance of maximizing safety when cycling */
     public int bikeSafe;
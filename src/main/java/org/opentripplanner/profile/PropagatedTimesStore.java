@@ -223,6 +223,32 @@ public class PropagatedTimesStore {
         }
     }
 
+    /**
+     * Set the summary statistics from statistics accumulated one iteration at a time. This gives the same results as
+     * {@link #setFromArray(int[][], boolean[], ConfidenceCalculationMethod)} with MIN_MAX, without ever holding the
+     * times of all iterations.
+     */
+    public void setFromStatistics(IterationStatistics statistics) {
+        for (int target = 0; target < size; target++) {
+            int count = statistics.counts[target];
+
+            // never reachable
+            if (count == 0)
+                continue;
+
+            // if the destination is reachable less than half the time, consider it unreachable "on average", see
+            // setFromArray
+            if (count >= statistics.iterationsInAverages * req.reachabilityThreshold)
+                avgs[target] = statistics.sums[target] / count;
+
+            mins[target] = statistics.mins[target];
+
+            // worst case: if it is sometimes unreachable, worst case is unreachable
+            if (statistics.reachedCounts[target] == statistics.iterations)
+                maxs[target] = statistics.maxs[target];
+        }
+    }
+
     /**
      * Make a ResultEnvelope directly from a given SampleSet.
      * The RaptorWorkerData must have been constructed from the same SampleSet.
@@ -363,6 +389,73 @@ public class PropagatedTimesStore {
         return count;
     }
 
+    /**
+     * Minimum, maximum and sum of the travel times to each target over many iterations, accumulated one iteration at a
+     * time. Instances are not thread-safe; when iterations are computed in parallel each thread accumulates its own
+     * statistics, which are merged at the end.
+     */
+    public static class IterationStatistics {
+
+        final int[] mins, maxs, sums, counts, reachedCounts;
+
+        /** number of iterations, and number of iterations included in averages */
+        int iterations, iterationsInAverages;
+
+        public IterationStatistics(int size) {
+            mins = new int[size];
+            maxs = new int[size];
+            sums = new int[size];
+            counts = new int[size];
+            reachedCounts = new int[size];
+            Arrays.fill(mins, Integer.MAX_VALUE);
+            Arrays.fill(maxs, Integer.MIN_VALUE);
+        }
+
+        /**
+         * @param times travel times to each target in a single iteration
+         * @param includeInAverages whether the iteration should be included in averages, extrema are not
+         */
+        public void add(int[] times, boolean includeInAverages) {
+            iterations++;
+            if (includeInAverages)
+                iterationsInAverages++;
+
+            for (int target = 0; target < times.length; target++) {
+                int time = times[target];
+                if (time == RaptorWorker.UNREACHED)
+                    continue;
+
+                reachedCounts[target]++;
+                if (time < mins[target])
+                    mins[target] = time;
+                if (time > maxs[target])
+                    maxs[target] = time;
+
+                if (includeInAverages) {
+                    sums[target] += time;
+                    counts[target]++;
+                }
+            }
+        }
+
+        /** Add the iterations accumulated in other statistics of the same size */
+        public void merge(IterationStatistics other) {
+            iterations += other.iterations;
+            iterationsInAverages += other.iterationsInAverages;
+            for (int target = 0; target < mins.length; target++) {
+                mins[target] = Math.min(mins[target], other.mins[target]);
+                maxs[target] = Math.max(maxs[target], other.maxs[target]);
+                sums[target] += other.sums[target];
+                counts[target] += other.counts[target];
+                reachedCounts[target] += other.reachedCounts[target];
+            }
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+    }
+
     public static enum ConfidenceCalculationMethod {
         /** Do not calculate confidence intervals */
         NONE,
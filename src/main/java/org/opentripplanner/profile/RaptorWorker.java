@@ -15,6 +15,9 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.IntStream;
 
 /**
@@ -113,6 +116,23 @@ public class RaptorWorker {
 
     private FrequencyRandomOffsets offsets;
 
+    /** Assumption used when boarding frequency vehicles, the extrema draws override the one of the request */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
+    /**
+     * Workers holding the scratch arrays of frequency draws, one per concurrent draw. They are reused for all draws so
+     * that the state of the scheduled search is copied into existing arrays instead of new ones.
+     */
+    private final Queue<RaptorWorker> idleDrawWorkers = new ConcurrentLinkedQueue<>();
+
+    private final List<RaptorWorker> drawWorkers = new CopyOnWriteArrayList<>();
+
+    /** Times at targets of the current frequency draw, only in draw workers */
+    private int[] drawTimesAtTargets;
+
+    /** Statistics of the frequency draws made by this worker, only in draw workers */
+    private PropagatedTimesStore.IterationStatistics drawStatistics;
+
     public RaptorWorker(RaptorWorkerData data, ProfileRequest req) {
         this.data = data;
         // these should only reflect the results of the (deterministic) scheduled search
@@ -127,6 +147,14 @@ public class RaptorWorker {
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
         offsets = new FrequencyRandomOffsets(data);
+        boardingAssumption = req.boardingAssumption;
+    }
+
+    /** Create a worker for frequency draws, with its own search state and random offsets */
+    private RaptorWorker(RaptorWorker parent) {
+        this(parent.data, parent.req);
+        drawTimesAtTargets = new int[data.nTargets];
+        drawStatistics = new PropagatedTimesStore.IterationStatistics(data.nTargets);
     }
 
     public void advance () {
@@ -177,13 +205,8 @@ public class RaptorWorker {
 
         ts.searchCount = iterations;
 
-        // Iterate backward through minutes (range-raptor) taking a snapshot of router state after each call
-        int[][] timesAtTargetsEachIteration = new int[iterations][data.nTargets];
-
-        // for each iteration, whether it is the result of a schedule or Monte Carlo search, or whether it is an extrema.
-        // extrema are not included in averages.
-        boolean[] includeIterationInAverages = new boolean[iterations];
-        Arrays.fill(includeIterationInAverages, true);
+        // Only summary statistics are kept, the times at targets of each iteration are streamed into them
+        PropagatedTimesStore.IterationStatistics statistics = new PropagatedTimesStore.IterationStatistics(data.nTargets);
 
         // TODO don't hardwire timestep below
         ts.timeStep = 60;
@@ -192,9 +215,13 @@ public class RaptorWorker {
         int[] scheduledTimesAtTargets = new int[data.nTargets];
         Arrays.fill(scheduledTimesAtTargets, UNREACHED);
 
-        // current iteration
-        int iteration = 0;
+        // elapsed times at targets from scheduled search, when there are no frequencies
+        int[] elapsedTimesAtTargets = data.hasFrequencies ? null : new int[data.nTargets];
+
+        // we add 2 because we do two "fake" draws where we do min or max instead of a monte carlo draw
+        int drawsPerMinute = monteCarloDraws + 2;
 
+        // Iterate backward through minutes (range-raptor) taking a snapshot of router state after each call
         // FIXME this should be changed to tolerate a zero-width time range
         for (int departureTime = req.toTime - 60, n = 0; departureTime >= fromTime; departureTime -= 60, n++) {
             if (n % 15 == 0) {
@@ -214,83 +241,106 @@ public class RaptorWorker {
 
             // run the frequency searches
             if (data.hasFrequencies) {
-                for (int i = 0; i < monteCarloDraws + 2; i++) {
-                    // make copies for just this search. We need copies because we can't use dynamic
-                    // programming/range-raptor with randomized schedules
-                    int[] bestTimesCopy = Arrays.copyOf(bestTimes, bestTimes.length);
-                    int[] bestNonTransferTimesCopy = Arrays
-                            .copyOf(bestNonTransferTimes, bestNonTransferTimes.length);
-                    int[] previousPatternsCopy = Arrays
-                            .copyOf(previousPatterns, previousPatterns.length);
-
-                    // special cases: calculate the best and the worst cases as well
-                    // Note that this (intentionally) does not affect searches where the user has requested
-                    // an assumption other than RANDOM, or stops with transfer rules.
-                    RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
-
-                    if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
-                        // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
-                    }
-                    else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
-                        // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
-                    }
-                    else if (requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
-                        // use a new Monte Carlo draw each time
-                        // included in averages by default
-                        offsets.randomize();
-
-                    this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
-                            previousPatternsCopy);
-
-                    req.boardingAssumption = requestedBoardingAssumption;
-
-                    // do propagation
-                    int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
-                    System.arraycopy(scheduledTimesAtTargets, 0, frequencyTimesAtTargets, 0,
-                            scheduledTimesAtTargets.length);
-                    // updates timesAtTargetsEachIteration directly because it has a reference into the array.
-                    this.doPropagation(bestNonTransferTimesCopy, frequencyTimesAtTargets,
-                            departureTime);
-
-                    // convert to elapsed time
-                    for (int t = 0; t < frequencyTimesAtTargets.length; t++) {
-                        if (frequencyTimesAtTargets[t] != UNREACHED)
-                            frequencyTimesAtTargets[t] -= departureTime;
-                    }
+                // The draws only read the state of the scheduled search, so they are independent of each other
+                final int dt = departureTime;
+                IntStream draws = IntStream.range(0, drawsPerMinute);
+                if (req.parallelFrequencySearches) {
+                    draws = draws.parallel();
                 }
+                draws.forEach(draw -> runFrequencyDraw(draw, dt, scheduledTimesAtTargets));
             } else {
-                final int dt = departureTime;
-                timesAtTargetsEachIteration[iteration++] = IntStream.of(scheduledTimesAtTargets)
-                        .map(i -> i != UNREACHED ? i - dt : i)
-                        .toArray();
+                // convert to elapsed time
+                for (int t = 0; t < scheduledTimesAtTargets.length; t++) {
+                    elapsedTimesAtTargets[t] = scheduledTimesAtTargets[t] != UNREACHED
+                            ? scheduledTimesAtTargets[t] - departureTime : UNREACHED;
+                }
+                statistics.add(elapsedTimesAtTargets, true);
             }
         }
 
-        // make sure we filled the array, otherwise results are garbage.
+        for (RaptorWorker drawWorker : drawWorkers) {
+            statistics.merge(drawWorker.drawStatistics);
+            totalPropagationTime += drawWorker.totalPropagationTime;
+        }
+
+        // make sure we recorded all iterations, otherwise results are garbage.
         // This implies a bug in OTP, but it has happened in the past when we did
         // not set the number of iterations correctly.
-        // iteration should be incremented past end of array by ++ in assignment above
-        if (iteration != iterations)
-            throw new IllegalStateException("Iterations did not completely fill output array");
+        if (statistics.getIterations() != iterations)
+            throw new IllegalStateException("Iterations did not match the expected number of searches");
 
         long calcTime = System.currentTimeMillis() - beginCalcTime;
         LOG.info("calc time {}sec", calcTime / 1000.0);
+        // with parallel frequency searches propagation time is summed over threads, so it is not part of calc time
         LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
-        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
+        LOG.info("  raptor {}sec", Math.max(0, calcTime - totalPropagationTime) / 1000.0);
         ts.propagation = (int) totalPropagationTime;
-        ts.transitSearch = (int) (calcTime - totalPropagationTime);
-        //dumpVariableByte(timesAtTargetsEachMinute);
+        ts.transitSearch = (int) Math.max(0, calcTime - totalPropagationTime);
         // we can use min_max here as we've also run it once with best case and worst case board,
         // so the best and worst cases are meaningful.
-        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
-                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        propagatedTimesStore.setFromStatistics(statistics);
         return propagatedTimesStore;
     }
 
+    /**
+     * Run one randomized frequency search from the state of the scheduled search at a departure minute, and add the
+     * times at targets to the statistics of the draw worker that ran it. May be called concurrently for different
+     * draws of the same minute.
+     *
+     * @param draw index of the draw in the minute, the first two are the worst and best case when boarding is random
+     * @param scheduledTimesAtTargets times at targets of the scheduled search, not modified
+     */
+    private void runFrequencyDraw(int draw, int departureTime, int[] scheduledTimesAtTargets) {
+        RaptorWorker drawWorker = idleDrawWorkers.poll();
+        if (drawWorker == null) {
+            drawWorker = new RaptorWorker(this);
+            drawWorkers.add(drawWorker);
+        }
+
+        // copy the state of the scheduled search into the scratch arrays of the draw worker. We need copies because
+        // we can't use dynamic programming/range-raptor with randomized schedules
+        System.arraycopy(bestTimes, 0, drawWorker.bestTimes, 0, bestTimes.length);
+        System.arraycopy(bestNonTransferTimes, 0, drawWorker.bestNonTransferTimes, 0, bestNonTransferTimes.length);
+        System.arraycopy(previousPatterns, 0, drawWorker.previousPatterns, 0, previousPatterns.length);
+
+        // special cases: calculate the best and the worst cases as well
+        // Note that this (intentionally) does not affect searches where the user has requested
+        // an assumption other than RANDOM, or stops with transfer rules.
+        boolean includeInAverages = true;
+        drawWorker.boardingAssumption = req.boardingAssumption;
+        if (req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
+            if (draw == 0) {
+                drawWorker.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+                // don't include extrema in averages
+                includeInAverages = false;
+            } else if (draw == 1) {
+                drawWorker.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                // don't include extrema in averages
+                includeInAverages = false;
+            } else {
+                // use a new Monte Carlo draw each time
+                drawWorker.offsets.randomize();
+            }
+        }
+
+        drawWorker.runRaptorFrequency(departureTime, drawWorker.bestTimes, drawWorker.bestNonTransferTimes,
+                drawWorker.previousPatterns);
+
+        // do propagation
+        int[] frequencyTimesAtTargets = drawWorker.drawTimesAtTargets;
+        System.arraycopy(scheduledTimesAtTargets, 0, frequencyTimesAtTargets, 0, scheduledTimesAtTargets.length);
+        drawWorker.doPropagation(drawWorker.bestNonTransferTimes, frequencyTimesAtTargets, departureTime);
+
+        // convert to elapsed time
+        for (int t = 0; t < frequencyTimesAtTargets.length; t++) {
+            if (frequencyTimesAtTargets[t] != UNREACHED)
+                frequencyTimesAtTargets[t] -= departureTime;
+        }
+
+        drawWorker.drawStatistics.add(frequencyTimesAtTargets, includeInAverages);
+        idleDrawWorkers.add(drawWorker);
+    }
+
     public void dumpVariableByte(int[][] array) {
         try {
             FileOutputStream fos = new FileOutputStream("/Users/abyrd/results.dat");
@@ -391,7 +441,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
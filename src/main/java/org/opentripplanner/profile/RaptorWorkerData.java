@@ -322,6 +322,8 @@ public class RaptorWorkerData implements Serializable {
             rr.softWalkLimiting = false;
             rr.dominanceFunction = new DominanceFunction.LeastWalk();
             rr.longDistance = true;
+            rr.arrayShortestPathTree = true;
+            rr.indexedPriorityQueue = true;
             rr.numItineraries = 1;
 
             ShortestPathTree spt = astar.getShortestPathTree(rr, 5);
@@ -345,6 +347,7 @@ public class RaptorWorkerData implements Serializable {
             // NB using walk speed of 1 m/s here since we want meters, not seconds
             // walk speed is applied during search.
             TIntIntMap transfersFromStop = findStopsNear(spt, graph, false, 1f);
+            spt.release();
 
             // convert it to use indices in the graph not in the worker data
             TIntIntMap transfersFromStopWithGraphIndices = new TIntIntHashMap();
@@ -266,6 +266,8 @@ public class RepeatedRaptorProfileRouter {
 
         rr.numItineraries = 1;
         rr.longDistance = true;
+        rr.arrayShortestPathTree = true;
+        rr.indexedPriorityQueue = true;
 
         AStar aStar = new AStar();
         preTransitSpt = aStar.getShortestPathTree(rr, 5);
@@ -13,12 +13,14 @@
 
 package org.opentripplanner.routing.algorithm;
 
+import java.lang.ref.SoftReference;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedFourAryHeap;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
@@ -50,6 +52,13 @@ public class AStar {
     private static final MonitoringStore store = MonitoringStoreFactory.getStore();
     private static final double OVERSEARCH_MULTIPLIER = 4.0;
 
+    /**
+     * The indexed queue of the last search completed on each thread. Its position array spans all vertices, so it is
+     * reset and reused by the next search rather than allocated for each of many small searches.
+     */
+    private static final ThreadLocal<SoftReference<IndexedFourAryHeap<State>>> releasedIndexedPq =
+            new ThreadLocal<>();
+
     private boolean verbose = false;
 
     private TraverseVisitor traverseVisitor;
@@ -65,6 +74,9 @@ public class AStar {
         public State u;
         public ShortestPathTree spt;
         BinHeap<State> pq;
+        /** Queue of one state per vertex, null unless selected in startSearch. Co-dominant states overflow to pq. */
+        IndexedFourAryHeap<State> indexedPq;
+        int nQueueOperations;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
@@ -136,20 +148,29 @@ public class AStar {
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
         runState.pq = new BinHeap<>(initialSize);
+        // With a single-state dominance function a newly added state usually replaces the queued state of its
+        // vertex, so its key can be changed in place instead of queueing a duplicate that is dropped later.
+        if (options.indexedPriorityQueue && options.dominanceFunction.isSingleState()) {
+            runState.indexedPq = takeReleasedIndexedPq();
+            if (runState.indexedPq == null) {
+                runState.indexedPq = new IndexedFourAryHeap<>(initialSize, Vertex.getMaxIndex());
+            }
+        }
         runState.nVisited = 0;
+        runState.nQueueOperations = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
         if (addToQueue) {
             State initialState = new State(options);
             runState.spt.add(initialState);
-            runState.pq.insert(initialState, 0);
+            enqueue(initialState, 0);
         }
     }
 
     boolean iterate(){
         // print debug info
         if (verbose) {
-            double w = runState.pq.peek_min_key();
+            double w = peekMinKey();
             System.out.println("pq min key = " + w);
         }
 
@@ -157,7 +178,7 @@ public class AStar {
         runState.heuristic.doSomeWork();
 
         // get the lowest-weight state in the queue
-        runState.u = runState.pq.extract_min();
+        runState.u = dequeue();
         
         // check that this state has not been dominated
         // and mark vertex as visited
@@ -229,7 +250,7 @@ public class AStar {
                     if (traverseVisitor != null)
                         traverseVisitor.visitEnqueue(v);
                     //LOG.info("u.w={} v.w={} h={}", runState.u.weight, v.weight, remaining_w);
-                    runState.pq.insert(v, estimate);
+                    enqueue(v, estimate);
                 } 
             }
         }
@@ -239,7 +260,7 @@ public class AStar {
     
     void runSearch(long abortTime){
         /* the core of the A* algorithm */
-        while (!runState.pq.empty()) { // Until the priority queue is empty:
+        while (!isQueueEmpty()) { // Until the priority queue is empty:
             /*
              * Terminate based on timeout?
              */
@@ -314,6 +335,7 @@ public class AStar {
         if (runState != null) {
             runSearch(abortTime);
             spt = runState.spt;
+            releaseIndexedPq();
         }
         
         storeMemory();
@@ -334,16 +356,84 @@ public class AStar {
                 runState.spt.add(state);
                 // TODO: hardwired for earliest arrival
                 // TODO: weights are seconds, no?
-                runState.pq.insert(state, state.getElapsedTimeSeconds());
+                enqueue(state, state.getElapsedTimeSeconds());
             }
             
             runSearch(abortTime);
             spt = runState.spt;
+            releaseIndexedPq();
         }
         
         return spt;
     }
 
+    /**
+     * Queue a state that was just added to the SPT. With the indexed queue, a state replacing the queued state of its
+     * vertex takes over its queue entry. Otherwise the queued state is co-dominant and still needed, so the new state
+     * goes to the overflow heap.
+     */
+    private void enqueue(State state, double estimate) {
+        runState.nQueueOperations++;
+        IndexedFourAryHeap<State> indexedPq = runState.indexedPq;
+        if (indexedPq == null) {
+            runState.pq.insert(state, estimate);
+            return;
+        }
+
+        int index = state.getVertex().getIndex();
+        State queued = indexedPq.get(index);
+        if (queued == null || !runState.spt.visit(queued)) {
+            indexedPq.insert_or_rekey(index, state, estimate);
+        } else {
+            runState.pq.insert(state, estimate);
+        }
+    }
+
+    private State dequeue() {
+        runState.nQueueOperations++;
+        IndexedFourAryHeap<State> indexedPq = runState.indexedPq;
+        if (indexedPq == null || indexedPq.empty()) {
+            return runState.pq.extract_min();
+        }
+        if (runState.pq.empty() || indexedPq.peek_min_key() <= runState.pq.peek_min_key()) {
+            return indexedPq.extract_min();
+        }
+        return runState.pq.extract_min();
+    }
+
+    private boolean isQueueEmpty() {
+        return runState.pq.empty() && (runState.indexedPq == null || runState.indexedPq.empty());
+    }
+
+    private double peekMinKey() {
+        IndexedFourAryHeap<State> indexedPq = runState.indexedPq;
+        if (indexedPq == null || indexedPq.empty()) {
+            return runState.pq.peek_min_key();
+        }
+        if (runState.pq.empty()) {
+            return indexedPq.peek_min_key();
+        }
+        return Math.min(indexedPq.peek_min_key(), runState.pq.peek_min_key());
+    }
+
+    private static IndexedFourAryHeap<State> takeReleasedIndexedPq() {
+        SoftReference<IndexedFourAryHeap<State>> reference = releasedIndexedPq.get();
+        if (reference == null) {
+            return null;
+        }
+        releasedIndexedPq.remove();
+        return reference.get();
+    }
+
+    /** Empty the indexed queue of the finished search, clearing only the handles still queued, for the next one. */
+    private void releaseIndexedPq() {
+        if (runState.indexedPq != null) {
+            runState.indexedPq.reset();
+            releasedIndexedPq.set(new SoftReference<>(runState.indexedPq));
+            runState.indexedPq = null;
+        }
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
@@ -367,6 +457,11 @@ public class AStar {
         }
     }
 
+    /** @return number of states inserted into and extracted from the priority queue during the last search */
+    public int getQueueOperationCount() {
+        return runState != null ? runState.nQueueOperations : 0;
+    }
+
     public List<GraphPath> getPathsToTarget() {
         if (runState == null || runState.targetAcceptedStates == null) {
             return Collections.emptyList();
@@ -0,0 +1,195 @@
+package org.opentripplanner.routing.core;
+
+import org.opentripplanner.airquality.AirQualityForecast;
+
+/**
+ * Air quality and noise penalty settings of a single search, resolved once when the RoutingContext is
+ * created so that street edge traversal only does primitive arithmetic and array reads.
+ *
+ * The forecast hour is taken from the request time, so it is the same for every traversal of the search.
+ * Air quality and noise penalties are enabled separately, each when any of its options is positive.
+ */
+public class EnvironmentalCostModel {
+
+    /* Defaults used when air quality routing is requested but some of the penalty options are not set */
+
+    public static final double DEFAULT_AIR_QUALITY_PENALTY_HIGH_RATE = 50d;
+
+    public static final double DEFAULT_AIR_QUALITY_PENALTY_LOW_RATE = 10d;
+
+    public static final double DEFAULT_AIR_QUALITY_PENALTY_THRESHOLD_HIGH = 2d;
+
+    public static final double DEFAULT_AIR_QUALITY_PENALTY_THRESHOLD_LOW = 1.75d;
+
+    /* Defaults used when noise routing is requested but some of the penalty options are not set */
+
+    public static final double DEFAULT_NOISE_PENALTY_HIGH_RATE = 10d;
+
+    public static final double DEFAULT_NOISE_PENALTY_LOW_RATE = 5d;
+
+    public static final double DEFAULT_NOISE_PENALTY_THRESHOLD_HIGH = 80d;
+
+    public static final double DEFAULT_NOISE_PENALTY_THRESHOLD_LOW = 70d;
+
+    /** Model that applies no environmental penalties */
+    public static final EnvironmentalCostModel NONE = new EnvironmentalCostModel(null, -1, false, 0, 0, 0, 0, false, false, 0, 0, 0, 0);
+
+    private final AirQualityForecast forecast;
+
+    private final int hourIndex;
+
+    private final boolean airQualityEnabled;
+
+    private final double airQualityPenaltyHighRate;
+
+    private final double airQualityPenaltyLowRate;
+
+    private final double airQualityPenaltyThresholdHigh;
+
+    private final double airQualityPenaltyThresholdLow;
+
+    private final boolean airQualityByDistance;
+
+    private final boolean noiseEnabled;
+
+    private final double noisePenaltyHighRate;
+
+    private final double noisePenaltyLowRate;
+
+    private final double noisePenaltyThresholdHigh;
+
+    private final double noisePenaltyThresholdLow;
+
+    private EnvironmentalCostModel(AirQualityForecast forecast, int hourIndex, boolean airQualityEnabled,
+            double airQualityPenaltyHighRate, double airQualityPenaltyLowRate,
+            double airQualityPenaltyThresholdHigh, double airQualityPenaltyThresholdLow,
+            boolean airQualityByDistance, boolean noiseEnabled,
+            double noisePenaltyHighRate, double noisePenaltyLowRate,
+            double noisePenaltyThresholdHigh, double noisePenaltyThresholdLow) {
+        this.forecast = forecast;
+        this.hourIndex = hourIndex;
+        this.airQualityEnabled = airQualityEnabled;
+        this.airQualityPenaltyHighRate = airQualityPenaltyHighRate;
+        this.airQualityPenaltyLowRate = airQualityPenaltyLowRate;
+        this.airQualityPenaltyThresholdHigh = airQualityPenaltyThresholdHigh;
+        this.airQualityPenaltyThresholdLow = airQualityPenaltyThresholdLow;
+        this.airQualityByDistance = airQualityByDistance;
+        this.noiseEnabled = noiseEnabled;
+        this.noisePenaltyHighRate = noisePenaltyHighRate;
+        this.noisePenaltyLowRate = noisePenaltyLowRate;
+        this.noisePenaltyThresholdHigh = noisePenaltyThresholdHigh;
+        this.noisePenaltyThresholdLow = noisePenaltyThresholdLow;
+    }
+
+    /**
+     * Resolves the model for a request. Unset penalty options fall back to the defaults of this class.
+     *
+     * @param options routing request
+     * @param forecast air quality forecast grabbed for the search, may be null
+     * @return model
+     */
+    public static EnvironmentalCostModel create(RoutingRequest options, AirQualityForecast forecast) {
+        double highRate = toPrimitive(options.getAirQualityPenaltyHighRate());
+        double lowRate = toPrimitive(options.getAirQualityPenaltyLowRate());
+        double thresholdHigh = toPrimitive(options.getAirQualityPenaltyThresholdHigh());
+        double thresholdLow = toPrimitive(options.getAirQualityPenaltyThresholdLow());
+        boolean airQualityEnabled = highRate > 0 || lowRate > 0 || thresholdHigh > 0 || thresholdLow > 0;
+
+        double noiseHighRate = toPrimitive(options.getNoisePenaltyHighRate());
+        double noiseLowRate = toPrimitive(options.getNoisePenaltyLowRate());
+        double noiseThresholdHigh = toPrimitive(options.getNoisePenaltyThresholdHigh());
+        double noiseThresholdLow = toPrimitive(options.getNoisePenaltyThresholdLow());
+        boolean noiseEnabled = noiseHighRate > 0 || noiseLowRate > 0 || noiseThresholdHigh > 0 || noiseThresholdLow > 0;
+
+        if (!airQualityEnabled && !noiseEnabled) {
+            return NONE;
+        }
+
+        int hourIndex = airQualityEnabled && forecast != null && options.getDateTime() != null ? forecast.getHourIndex(options.getDateTime().getTime()) : -1;
+
+        return new EnvironmentalCostModel(forecast, hourIndex, airQualityEnabled,
+                highRate > 0 ? highRate : DEFAULT_AIR_QUALITY_PENALTY_HIGH_RATE,
+                lowRate > 0 ? lowRate : DEFAULT_AIR_QUALITY_PENALTY_LOW_RATE,
+                thresholdHigh > 0 ? thresholdHigh : DEFAULT_AIR_QUALITY_PENALTY_THRESHOLD_HIGH,
+                thresholdLow > 0 ? thresholdLow : DEFAULT_AIR_QUALITY_PENALTY_THRESHOLD_LOW,
+                "DISTANCE".equals(options.airQualityMode),
+                noiseEnabled,
+                noiseHighRate > 0 ? noiseHighRate : DEFAULT_NOISE_PENALTY_HIGH_RATE,
+                noiseLowRate > 0 ? noiseLowRate : DEFAULT_NOISE_PENALTY_LOW_RATE,
+                noiseThresholdHigh > 0 ? noiseThresholdHigh : DEFAULT_NOISE_PENALTY_THRESHOLD_HIGH,
+                noiseThresholdLow > 0 ? noiseThresholdLow : DEFAULT_NOISE_PENALTY_THRESHOLD_LOW);
+    }
+
+    /**
+     * @return whether any environmental penalty affects routing
+     */
+    public boolean isEnabled() {
+        return airQualityEnabled || noiseEnabled;
+    }
+
+    /**
+     * @return whether air quality affects routing
+     */
+    public boolean isAirQualityEnabled() {
+        return airQualityEnabled;
+    }
+
+    /**
+     * @return whether air quality penalties are multiplied by walked distance instead of time
+     */
+    public boolean isAirQualityByDistance() {
+        return airQualityByDistance;
+    }
+
+    /**
+     * @return whether noise affects routing
+     */
+    public boolean isNoiseEnabled() {
+        return noiseEnabled;
+    }
+
+    /**
+     * Returns the air quality index of an edge for the hour of the search
+     *
+     * @param edgeId edge id
+     * @return air quality index or NaN if not available
+     */
+    public float getAqi(int edgeId) {
+        return hourIndex < 0 ? Float.NaN : forecast.getAqi(edgeId, hourIndex);
+    }
+
+    /**
+     * Returns air quality penalty per second or meter for given air quality index
+     *
+     * @param aqi air quality index
+     * @return penalty, zero if air quality is good enough
+     */
+    public double getAirQualityPenalty(float aqi) {
+        if (aqi > airQualityPenaltyThresholdHigh) {
+            return (aqi + 1 - airQualityPenaltyThresholdHigh) * airQualityPenaltyHighRate;
+        } else if (aqi > airQualityPenaltyThresholdLow) {
+            return (aqi + 1 - airQualityPenaltyThresholdLow) * airQualityPenaltyLowRate;
+        }
+        return 0d;
+    }
+
+    /**
+     * Returns noise penalty per second for given noise level
+     *
+     * @param noiseLevel noise level
+     * @return penalty, zero if noise level is low enough
+     */
+    public double getNoisePenalty(double noiseLevel) {
+        if (noiseLevel > noisePenaltyThresholdHigh) {
+            return (noiseLevel + 1 - noisePenaltyThresholdHigh) * noisePenaltyHighRate;
+        } else if (noiseLevel > noisePenaltyThresholdLow) {
+            return (noiseLevel + 1 - noisePenaltyThresholdLow) * noisePenaltyLowRate;
+        }
+        return 0d;
+    }
+
+    private static double toPrimitive(Double value) {
+        return value != null ? value : 0d;
+    }
+
+}
@@ -20,6 +20,7 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.airquality.AirQualityForecast;
 import org.opentripplanner.api.resource.DebugOutput;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeightHeuristic;
@@ -101,6 +102,12 @@ public class RoutingContext implements Cloneable {
     /** A snapshot of street speeds for looking up real-time or historical traffic data */
     public final StreetSpeedSnapshot streetSpeedSnapshot;
 
+    /** The air quality forecast in use for this search, for a coherent view of the data throughout the search */
+    public final AirQualityForecast airQualityForecast;
+
+    /** Environmental penalties of this search, resolved once so street traversal does not need to */
+    public final EnvironmentalCostModel environmentalCostModel;
+
     /**
      * Cache lists of which transit services run on which midnight-to-midnight periods. This ties a TraverseOptions to a particular start time for the
      * duration of a search so the same options cannot be used for multiple searches concurrently. To do so this cache would need to be moved into
@@ -243,6 +250,13 @@ public class RoutingContext implements Cloneable {
         else
             this.streetSpeedSnapshot = null;
 
+        // and for air quality
+        if (graph.airQualityStore != null)
+            this.airQualityForecast = graph.airQualityStore.getForecast();
+        else
+            this.airQualityForecast = null;
+
+        this.environmentalCostModel = EnvironmentalCostModel.create(routingRequest, airQualityForecast);
 
         Edge fromBackEdge = null;
         Edge toBackEdge = null;
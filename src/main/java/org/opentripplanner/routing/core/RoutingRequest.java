@@ -206,6 +206,26 @@ public class RoutingRequest implements Cloneable, Serializable {
      **/
     public String airQualityMode = "TIME";
 
+    /**
+     * Threshold in decibels when the low noise penalty starts to affect routing
+     */
+    public Double noisePenaltyThresholdLow = 0d;
+
+    /**
+     * Threshold in decibels when the high noise penalty starts to affect routing
+     */
+    public Double noisePenaltyThresholdHigh = 0d;
+
+    /**
+     * Low noise penalty rate
+     */
+    public Double noisePenaltyLowRate = 0d;
+
+    /**
+     * High noise penalty rate
+     */
+    public Double noisePenaltyHighRate = 0d;
+
     /** Used instead of walk reluctance for stairs */
     public double stairsReluctance = 2.0;
     
@@ -477,6 +497,18 @@ public class RoutingRequest implements Cloneable, Serializable {
     /** The function that compares paths converging on the same vertex to decide which ones continue to be explored. */
     public DominanceFunction dominanceFunction = new DominanceFunction.Pareto();
 
+    /**
+     * Keep search states in an array indexed by vertex instead of a map. Faster and allocates less when a search
+     * reaches a large part of the graph, but the array covers the whole graph even for short searches.
+     */
+    public boolean arrayShortestPathTree = false;
+
+    /**
+     * Queue search states in an indexed heap that keeps one state per vertex and decreases its key instead of
+     * queueing duplicates. Only used with single-state dominance functions, see DominanceFunction.isSingleState.
+     */
+    public boolean indexedPriorityQueue = false;
+
     /** Accept only paths that use transit (no street-only paths). */
     public boolean onlyTransitTrips = false;
 
@@ -1229,6 +1261,38 @@ public class RoutingRequest implements Cloneable, Serializable {
       this.airQualityMode = airQualityMode;
     }
 
+    public Double getNoisePenaltyHighRate() {
+      return noisePenaltyHighRate;
+    }
+
+    public void setNoisePenaltyHighRate(Double noisePenaltyHighRate) {
+      this.noisePenaltyHighRate = noisePenaltyHighRate;
+    }
+
+    public Double getNoisePenaltyLowRate() {
+      return noisePenaltyLowRate;
+    }
+
+    public void setNoisePenaltyLowRate(Double noisePenaltyLowRate) {
+      this.noisePenaltyLowRate = noisePenaltyLowRate;
+    }
+
+    public Double getNoisePenaltyThresholdHigh() {
+      return noisePenaltyThresholdHigh;
+    }
+
+    public void setNoisePenaltyThresholdHigh(Double noisePenaltyThresholdHigh) {
+      this.noisePenaltyThresholdHigh = noisePenaltyThresholdHigh;
+    }
+
+    public Double getNoisePenaltyThresholdLow() {
+      return noisePenaltyThresholdLow;
+    }
+
+    public void setNoisePenaltyThresholdLow(Double noisePenaltyThresholdLow) {
+      this.noisePenaltyThresholdLow = noisePenaltyThresholdLow;
+    }
+
     public void setWalkOnStreetReluctance(double walkOnStreetReluctance) {
         if (walkOnStreetReluctance > 0) {
             this.walkOnStreetReluctance = walkOnStreetReluctance;
@@ -39,8 +39,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.ObjectOutputStream;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
@@ -125,15 +123,9 @@ public class StreetEdge extends Edge implements Cloneable {
 
     /** The angle at the start of the edge geometry. Internal representation like that of inAngle. */
     private byte outAngle;
-    
-    /** Air quality indices */
-    private float[] aqi;
 
     /** Current noise level */
     private double noiseLevel;
-    
-    /** Value indicating time of first aqi array cell **/
-    private long aqiTime;
 
     public StreetEdge(StreetVertex v1, StreetVertex v2, LineString geometry,
                       I18NString name, double length,
@@ -537,86 +529,42 @@ public class StreetEdge extends Edge implements Cloneable {
 
         s1.incrementWeight(weight);
         
-        Double airQualityPenaltyHighRate = options.getAirQualityPenaltyHighRate();
-        Double airQualityPenaltyLowRate = options.getAirQualityPenaltyLowRate();
-        Double airQualityPenaltyThresholdHigh = options.getAirQualityPenaltyThresholdHigh();
-        Double airQualityPenaltyThresholdLow = options.getAirQualityPenaltyThresholdLow();
-        boolean useAirQuality = airQualityPenaltyHighRate > 0 || airQualityPenaltyLowRate > 0 || airQualityPenaltyThresholdHigh > 0 || airQualityPenaltyThresholdLow > 0;
-        boolean walkingOrBiking = traverseMode == TraverseMode.WALK || traverseMode == TraverseMode.BICYCLE;
-        
-        if (walkingOrBiking && useAirQuality) {
-            if (airQualityPenaltyHighRate <= 0) {
-                airQualityPenaltyHighRate = 50.00d;
-                System.out.println("Routing by air quality by airQualityPenaltyHighRate is not set");
-            }
-            
-            if (airQualityPenaltyLowRate <= 0) {
-                airQualityPenaltyLowRate = 10.00d;
-                System.out.println("Routing by air quality by airQualityPenaltyLowRate is not set");
-            }
-            
-            if (airQualityPenaltyThresholdHigh <= 0) {
-                airQualityPenaltyThresholdHigh = 2.00d;
-                System.out.println("Routing by air quality by airQualityPenaltyThresholdHigh is not set");
-            }
-            
-            if (airQualityPenaltyThresholdLow <= 0) {
-                airQualityPenaltyThresholdLow = 1.75d;
-                System.out.println("Routing by air quality by airQualityPenaltyThresholdLow is not set");
-            }
-            
-            Instant aqiTimeInstant = Instant.ofEpochMilli(getAqiTime());
-            Instant requestInstant = options.getDateTime().toInstant();
-            
-            int airQualityHour = (int) ChronoUnit.HOURS.between(aqiTimeInstant, requestInstant);
-            if (aqi != null && airQualityHour >= 0 && airQualityHour < aqi.length) {
-                float[] aqiValues = getAqi();
-                float aqiValue = aqiValues[airQualityHour];
-                double airQualityPenalty = 0d;
-                
-                if (aqiValue > airQualityPenaltyThresholdHigh) {
-                    // If quality of air is worse than high threshold we apply the high penalty to this route
-                    airQualityPenalty = (aqiValue + 1 - airQualityPenaltyThresholdHigh) * airQualityPenaltyHighRate;
-                } else if (aqiValue > airQualityPenaltyThresholdLow) {
-                    // If quality of air is worse than low threshold we apply the low penalty to this route
-                    airQualityPenalty = (aqiValue + 1 - airQualityPenaltyThresholdLow) * airQualityPenaltyLowRate;
-                } 
-                
+        RoutingContext rctx = options.getRoutingContext();
+        EnvironmentalCostModel environmentalCosts = rctx != null ? rctx.environmentalCostModel : EnvironmentalCostModel.create(options, null);
+        if (environmentalCosts.isEnabled()) {
+            applyEnvironmentalCosts(s0, s1, environmentalCosts, traverseMode, roundedTime);
+        }
+
+        return s1;
+    }
+
+    /**
+     * Adds air quality and noise penalties of this edge to the weight of the traversal
+     */
+    private void applyEnvironmentalCosts(State s0, StateEditor s1, EnvironmentalCostModel environmentalCosts,
+            TraverseMode traverseMode, int roundedTime) {
+        if (environmentalCosts.isAirQualityEnabled() && (traverseMode == TraverseMode.WALK || traverseMode == TraverseMode.BICYCLE)) {
+            float aqiValue = environmentalCosts.getAqi(getId());
+
+            if (!Float.isNaN(aqiValue)) {
+                double airQualityPenalty = environmentalCosts.getAirQualityPenalty(aqiValue);
+
                 if (airQualityPenalty > 0d) {
                     // Apply the air quality penalty
-                    double penaltyMultiplier = "DISTANCE".equals(options.airQualityMode) ? s0.getWalkDistanceDelta() : roundedTime;
+                    double penaltyMultiplier = environmentalCosts.isAirQualityByDistance() ? s0.getWalkDistanceDelta() : roundedTime;
                     s1.incrementWeight(penaltyMultiplier * airQualityPenalty);
                 }
 
                 s1.incrementPollutionExposure(aqiValue);
-            } else {
-                System.out.println(String.format("StreetEdge does not contain air quality index for hour %d, aqi from %s (%d), request %s", airQualityHour, aqiTimeInstant.toString(), this.aqiTime, requestInstant.toString()));
             }
         }
-        
-        Double noisePenaltyHighRate = 10d; // TODO: add option
-        Double noisePenaltyLowRate = 5d; // TODO: add option
-        Double noisePenaltyThresholdHigh = 80d; // TODO: add option
-        Double noisePenaltyThresholdLow = 70d; // TODO: add option
-        boolean useNoiseRouting = useAirQuality; // TODO: this should be separate option
-
-        if (useNoiseRouting) {
-            double noiseLevel = getNoiseLevel();
-            double noisePenalty = 0d;
-
-            if (noiseLevel > noisePenaltyThresholdHigh) {
-                noisePenalty = (noiseLevel + 1 - noisePenaltyThresholdHigh) * noisePenaltyHighRate;
-            } else if (noiseLevel > noisePenaltyThresholdLow) {
-                noisePenalty = (noiseLevel + 1 - noisePenaltyThresholdLow) * noisePenaltyLowRate;
-            } 
-            
+
+        if (environmentalCosts.isNoiseEnabled()) {
+            double noisePenalty = environmentalCosts.getNoisePenalty(getNoiseLevel());
             if (noisePenalty > 0d) {
                 s1.incrementWeight(roundedTime * noisePenalty);
             }
-
         }
-
-        return s1;
     }
 
     private double calculateOverageWeight(double firstValue, double secondValue, double maxValue,
@@ -781,6 +729,46 @@ public class StreetEdge extends Edge implements Cloneable {
 		this.compactGeometry = CompactLineString.compactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), isBack() ? (LineString)geometry.reverse() : geometry, isBack());
 	}
 
+	/**
+	 * Gets the geometry in the compacted form of {@link CompactLineString}, as stored in the edge. Used for writing
+	 * the edge to a columnar graph file without expanding the geometry.
+	 */
+	public int[] getCompactGeometry() {
+		return compactGeometry;
+	}
+
+	/** Gets the length in fixed millimeters, as stored in the edge */
+	public int getLengthMillimeters() {
+		return length_mm;
+	}
+
+	/** Gets all boolean flags packed in a single byte, as stored in the edge */
+	public byte getPackedFlags() {
+		return flags;
+	}
+
+	/** Gets the angle at the start of the edge geometry in the internal representation of brads */
+	public byte getPackedInAngle() {
+		return inAngle;
+	}
+
+	/** Gets the angle at the end of the edge geometry in the internal representation of brads */
+	public byte getPackedOutAngle() {
+		return outAngle;
+	}
+
+	/**
+	 * Restores the fields that are derived from the geometry or packed into bytes, as returned by the getters above.
+	 * Used when loading a columnar graph file, so that nothing needs to be recomputed from an expanded geometry.
+	 */
+	public void setPackedFields(int lengthMillimeters, int[] compactGeometry, byte flags, byte inAngle, byte outAngle) {
+		this.length_mm = lengthMillimeters;
+		this.compactGeometry = compactGeometry;
+		this.flags = flags;
+		this.inAngle = inAngle;
+		this.outAngle = outAngle;
+	}
+
 	public void shareData(StreetEdge reversedEdge) {
 	    if (Arrays.equals(compactGeometry, reversedEdge.compactGeometry)) {
 	        compactGeometry = reversedEdge.compactGeometry;
@@ -1018,32 +1006,6 @@ public class StreetEdge extends Edge implements Cloneable {
             return -1;
     }
     
-    /**
-     * Returns air quality index array. 
-     * 
-     * Each cell represents hourly average of air quality in the edge
-     * 
-     * @return air quality index array
-     */
-    public float[] getAqi() {
-      return aqi;
-    }
-    
-    /**
-     * Sets an air quality index array. 
-     */
-    public void setAqi(float[] aqi) {
-      this.aqi = aqi;
-    }
-    
-    public long getAqiTime() {
-      return aqiTime;
-    }
-    
-    public void setAqiTime(long aqiTime) {
-      this.aqiTime = aqiTime;
-    }
-
     /**
      * Gets the noise level
      * 
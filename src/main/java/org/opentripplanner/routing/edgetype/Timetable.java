@@ -15,10 +15,12 @@ package org.opentripplanner.routing.edgetype;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.stream.IntStream;
 
 import com.beust.jcommander.internal.Lists;
 
@@ -87,6 +89,13 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
+
+    /**
+     * The sorted trip index used by getNextTrip. Null if the timetable has not been finished or some trip does not
+     * visit every stop of the pattern. A timetable may be finished again while routing threads search it, so the
+     * index is built completely before it is published with a single write, and readers read it once per search.
+     */
+    private transient volatile TripIndex sortedTripIndex;
     
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
@@ -152,38 +161,48 @@ public class Timetable implements Serializable {
         }
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled()) continue;
-            if ((tt.getNumStops() <= stopIndex)) continue;
-            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
-            if (boarding) {
-                int depTime = tt.getDepartureTime(stopIndex);
-                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                                           // now its not sure if this check should be still in place because there is a boolean field
-                                           // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
-                    bestTime = depTime;
-                }
-            } else {
-                int arvTime = tt.getArrivalTime(stopIndex);
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
+        // When the times at this stop are in the same order as the sorted trip index, binary search for the
+        // first candidate and walk from there. Trips from other service IDs or rejected by transfer rules are
+        // skipped during the walk, which stops as soon as no later trip can improve on the best one.
+        // Frequency entries are always scanned below.
+        TripIndex index = sortedTripIndex;
+        if (isSorted(index, stopIndex, boarding)) {
+            int tripIndex = boarding ? findSortedDeparture(index, s0, serviceDay, currentStop, stopIndex, time)
+                    : findSortedArrival(index, s0, serviceDay, currentStop, stopIndex, time);
+            if (tripIndex >= 0) {
+                bestTrip = tripTimes.get(tripIndex);
+                bestTime = boarding ? bestTrip.getDepartureTime(stopIndex) : bestTrip.getArrivalTime(stopIndex);
+            }
+        } else {
+            // Linear search through the timetable looking for the best departure.
+            // Stoptimes may change with realtime updates, so trips can overtake each other and the times at some
+            // stops are not sorted.
+            // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+            // We could invert this and skip some service days based on schedule overlap as in RRRR.
+            for (TripTimes tt : tripTimes) {
+                if (tt.isCanceled()) continue;
+                if ((tt.getNumStops() <= stopIndex)) continue;
+                if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (boarding) {
+                    int depTime = tt.getDepartureTime(stopIndex);
+                    if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                                               // now its not sure if this check should be still in place because there is a boolean field
+                                               // for canceled trips
+                    if (depTime >= adjustedTime && depTime < bestTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                    }
+                } else {
+                    int arvTime = tt.getArrivalTime(stopIndex);
+                    if (arvTime < 0) continue;
+                    if (arvTime <= adjustedTime && arvTime > bestTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                    }
                 }
             }
         }
@@ -222,6 +241,86 @@ public class Timetable implements Serializable {
         return bestTrip;
     }
 
+    /**
+     * @return whether the sorted trip index can be used to find departures (arrivals) at the given stop
+     */
+    private boolean isSorted(TripIndex index, int stopIndex, boolean boarding) {
+        if (index == null || index.size != tripTimes.size()) return false;
+        return boarding ? index.departuresSorted[stopIndex] : index.arrivalsSorted[stopIndex];
+    }
+
+    /**
+     * Find the trip departing first at or after the given time using the sorted trip index. Among trips
+     * departing at the same time the one appearing first in tripTimes is chosen, as in the linear search.
+     * @return index of the trip in tripTimes, or -1 if no trip can be boarded
+     */
+    private int findSortedDeparture(TripIndex index, State s0, ServiceDay serviceDay, Stop currentStop, int stopIndex, int time) {
+        // binary search for the first trip departing at or after the time
+        int[] sortedTrips = index.sortedTrips;
+        int lo = 0, hi = sortedTrips.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tripTimes.get(sortedTrips[mid]).getDepartureTime(stopIndex) < time) lo = mid + 1;
+            else hi = mid;
+        }
+        int bestIndex = -1;
+        int bestTime = Integer.MAX_VALUE;
+        for (int i = lo; i < sortedTrips.length; i++) {
+            int tripIndex = sortedTrips[i];
+            TripTimes tt = tripTimes.get(tripIndex);
+            int depTime = tt.getDepartureTime(stopIndex);
+            if (depTime > bestTime) break; // no later trip can be better
+            if (depTime < 0) continue;
+            if (tt.isCanceled()) continue;
+            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+            // the adjusted time is never before the search time, so the trips skipped by the binary search are out
+            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, true, serviceDay, time);
+            if (adjustedTime == -1) continue;
+            if (depTime >= adjustedTime && (depTime < bestTime || tripIndex < bestIndex)) {
+                bestIndex = tripIndex;
+                bestTime = depTime;
+            }
+        }
+        return bestIndex;
+    }
+
+    /**
+     * Find the trip arriving last at or before the given time using the sorted trip index. Among trips
+     * arriving at the same time the one appearing first in tripTimes is chosen, as in the linear search.
+     * @return index of the trip in tripTimes, or -1 if no trip can be alighted
+     */
+    private int findSortedArrival(TripIndex index, State s0, ServiceDay serviceDay, Stop currentStop, int stopIndex, int time) {
+        // binary search for the first trip arriving after the time
+        int[] sortedTrips = index.sortedTrips;
+        int lo = 0, hi = sortedTrips.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tripTimes.get(sortedTrips[mid]).getArrivalTime(stopIndex) <= time) lo = mid + 1;
+            else hi = mid;
+        }
+        int bestIndex = -1;
+        int bestTime = Integer.MIN_VALUE;
+        for (int i = lo - 1; i >= 0; i--) {
+            int tripIndex = sortedTrips[i];
+            TripTimes tt = tripTimes.get(tripIndex);
+            int arvTime = tt.getArrivalTime(stopIndex);
+            if (arvTime < bestTime) break; // no earlier trip can be better
+            if (arvTime < 0) break; // times are sorted, so only unavailable times remain
+            if (tt.isCanceled()) continue;
+            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+            // the adjusted time is never after the search time, so the trips skipped by the binary search are out
+            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, false, serviceDay, time);
+            if (adjustedTime == -1) continue;
+            if (arvTime <= adjustedTime && (arvTime > bestTime || tripIndex < bestIndex)) {
+                bestIndex = tripIndex;
+                bestTime = arvTime;
+            }
+        }
+        return bestIndex;
+    }
+
     /**
      * Check transfer table rules. Given the last alight time from the State,
      * return the boarding time t0 adjusted for this particular trip's minimum transfer time,
@@ -310,6 +409,69 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+
+        sortedTripIndex = indexTripTimes(nStops);
+    }
+
+    /**
+     * Build the sorted trip index used by getNextTrip. Trips on a pattern rarely overtake each other, so a single
+     * order by departure time at the first stop usually keeps the times at every stop sorted. Stops where a
+     * (possibly delayed) trip breaks the order are flagged and fall back to the linear search.
+     * @return the index, or null if some trip does not visit every stop of the pattern
+     */
+    private TripIndex indexTripTimes(int nStops) {
+        int nTrips = tripTimes.size();
+        int nIndexed = 0;
+        int[] indexes = new int[nTrips];
+        for (int i = 0; i < nTrips; i++) {
+            TripTimes tt = tripTimes.get(i);
+            if (tt.getNumStops() != nStops) return null;
+            if (tt.isCanceled()) continue;
+            indexes[nIndexed++] = i;
+        }
+
+        // stable sort, ties stay in tripTimes order
+        int[] sorted = IntStream.of(Arrays.copyOf(indexes, nIndexed)).boxed()
+                .sorted(Comparator.comparingInt(i -> tripTimes.get(i).getDepartureTime(0)))
+                .mapToInt(Integer::intValue).toArray();
+
+        boolean[] departures = new boolean[nStops];
+        boolean[] arrivals = new boolean[nStops];
+        for (int s = 0; s < nStops; s++) {
+            departures[s] = true;
+            arrivals[s] = true;
+            for (int i = 1; i < sorted.length; i++) {
+                TripTimes previous = tripTimes.get(sorted[i - 1]);
+                TripTimes current = tripTimes.get(sorted[i]);
+                if (current.getDepartureTime(s) < previous.getDepartureTime(s)) departures[s] = false;
+                if (current.getArrivalTime(s) < previous.getArrivalTime(s)) arrivals[s] = false;
+            }
+        }
+
+        return new TripIndex(sorted, nTrips, departures, arrivals);
+    }
+
+    /** Trips of a timetable ordered by departure time at the first stop, immutable once built. */
+    private static final class TripIndex {
+
+        /** Indexes into tripTimes of the non-canceled trips, ordered by departure time at the first stop. */
+        final int[] sortedTrips;
+
+        /** Size of tripTimes when the index was built, trips added or removed later invalidate the index. */
+        final int size;
+
+        /** For each stop, whether the departure times of sortedTrips are non-decreasing at that stop. */
+        final boolean[] departuresSorted;
+
+        /** For each stop, whether the arrival times of sortedTrips are non-decreasing at that stop. */
+        final boolean[] arrivalsSorted;
+
+        TripIndex(int[] sortedTrips, int size, boolean[] departuresSorted, boolean[] arrivalsSorted) {
+            this.sortedTrips = sortedTrips;
+            this.size = size;
+            this.departuresSorted = departuresSorted;
+            this.arrivalsSorted = arrivalsSorted;
+        }
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -363,6 +525,8 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        // the new times may be in a different order, the index is rebuilt by finish()
+        sortedTripIndex = null;
         return tripTimes.set(tripIndex, tt);
     }
 
@@ -15,13 +15,13 @@ package org.opentripplanner.routing.edgetype;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.function.Predicate;
 
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.PersistentArray;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.onebusaway.gtfs.model.Trip;
 
-import com.google.common.base.Preconditions;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,7 +38,13 @@ import com.google.common.base.Preconditions;
  * for that duration to provide a consistent view not only of trips that have been boarded, but of
  * relative arrival and departure times of other trips that have not necessarily been boarded.
  *
- * At this point, only one writing thread at a time is supported.
+ * At this point, only one writing thread at a time is supported, except that updates of different patterns may be
+ * applied concurrently, see {@link #update(String, TripPattern, TripTimes, ServiceDate)}.
+ *
+ * Timetables are stored by TripPattern.getIndex() in a {@link PersistentArray}, so a commit shares all unchanged
+ * patterns with the previous snapshot instead of cloning a map. The timetables of trips added to other patterns
+ * are merged at commit time, so resolving a timetable from a committed snapshot does not allocate. Only the patterns
+ * whose timetables or added trips changed since the previous commit are merged again.
  */
 public class TimetableSnapshot {
 
@@ -100,12 +106,35 @@ public class TimetableSnapshot {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshot.class);
     
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
-    // The SortedSet members are copy-on-write
-    // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    /**
+     * Updated timetables of each pattern by pattern index, sorted by service date. The arrays are copy-on-write,
+     * so they can be shared between snapshots.
+     */
+    private PersistentArray<Timetable[]> timetables = new PersistentArray<>();
+
+    /**
+     * In committed snapshots, the timetables of each pattern merged with trips added to other patterns on the same
+     * service date, see {@link #resolveLastAdded(TripPattern, Timetable[], ServiceDate)}. Null in the buffer.
+     */
+    private PersistentArray<Timetable[]> lastAddedTimetables = null;
+
+    /**
+     * In the buffer, the merged timetables of the last commit. Only the patterns that changed since are merged again
+     * at the next commit, the others are shared with the committed snapshots.
+     */
+    private PersistentArray<Timetable[]> mergedLastAddedTimetables = new PersistentArray<>();
+
+    /** In the buffer, the indexes of the patterns whose timetables were replaced since the last commit */
+    private Set<Integer> dirtyPatternIndexes = new HashSet<>();
+
+    /** In the buffer, the ids (without agency) of the trips whose last added trip pattern changed since the last commit */
+    private Set<String> dirtyLastAddedTripIds = new HashSet<>();
+
+    /**
+     * In the buffer, the indexes of the patterns that have had updated timetables by the ids (without agency) of their
+     * trips, to find the patterns affected by a change of the last added trip pattern of a trip.
+     */
+    private Map<String, Set<Integer>> patternIndexesByTripId = new HashMap<>();
 
     /**
      * <p>
@@ -118,6 +147,9 @@ public class TimetableSnapshot {
      * </p>
      */
     private HashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new HashMap<>();
+
+    /** Whether lastAddedTripPattern is shared with the last committed snapshot and must be copied before writing */
+    private boolean lastAddedTripPatternShared = false;
     
     /**
      * Boolean value indicating that timetable snapshot is read only if true. Once it is true, it shouldn't
@@ -142,43 +174,45 @@ public class TimetableSnapshot {
      * or the originally scheduled timetable if there are no updates in this snapshot.
      */
     public Timetable resolve(TripPattern pattern, ServiceDate serviceDate) {
-        SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+        Timetable[] sortedTimetables = timetables.get(pattern.getIndex());
 
         if (sortedTimetables != null && serviceDate != null) {
-            Timetable lastAdded = resolveLastAdded(pattern, serviceDate);
+            Timetable lastAdded;
+            if (lastAddedTimetables != null) {
+                lastAdded = findValid(lastAddedTimetables.get(pattern.getIndex()), serviceDate);
+            } else {
+                lastAdded = resolveLastAdded(pattern, sortedTimetables, serviceDate);
+            }
             if (lastAdded != null) {
-                for (Timetable timetable : sortedTimetables) {
-
-                    if (timetable != null && timetable.tripTimes != null && timetable.isValidFor(serviceDate)) {
-
-                        for (TripTimes tripTime : timetable.tripTimes) {
-                            if (!lastAdded.tripTimes.contains(tripTime)) {
-                                lastAdded.tripTimes.add(tripTime);
-                            }
-                        }
-                    }
-                }
-                lastAdded.finish();
                 return lastAdded;
-            } else {
-                for (Timetable timetable : sortedTimetables) {
-                    if (timetable != null && timetable.isValidFor(serviceDate)) {
-                        LOG.trace("returning modified timetable");
-                        return timetable;
-                    }
-                }
+            }
+            Timetable timetable = findValid(sortedTimetables, serviceDate);
+            if (timetable != null) {
+                LOG.trace("returning modified timetable");
+                return timetable;
             }
         }
 
         return pattern.scheduledTimetable;
     }
 
+    private static Timetable findValid(Timetable[] sortedTimetables, ServiceDate serviceDate) {
+        if (sortedTimetables != null) {
+            for (Timetable timetable : sortedTimetables) {
+                if (timetable.isValidFor(serviceDate)) {
+                    return timetable;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
-     * Returns an updated timetable for the specified pattern if one is available in this snapshot,
-     * or the originally scheduled timetable if there are no updates in this snapshot.
+     * Returns a timetable combining the trips added to other patterns in place of the trips of
+     * the specified pattern with the updated trips of the specified pattern, or null if none of its
+     * trips were added to another pattern on the service date.
      */
-    private Timetable resolveLastAdded(TripPattern pattern, ServiceDate serviceDate) {
-
+    private Timetable resolveLastAdded(TripPattern pattern, Timetable[] sortedTimetables, ServiceDate serviceDate) {
         Set<TripPattern> updatedPatterns = new HashSet<>();
         List<Trip> trips = pattern.getTrips();
         for (Trip trip : trips) {
@@ -187,29 +221,134 @@ public class TimetableSnapshot {
                 updatedPatterns.add(lastAddedTripPattern);
             }
         }
+        return resolveLastAdded(updatedPatterns, sortedTimetables, serviceDate);
+    }
+
+    private Timetable resolveLastAdded(Set<TripPattern> updatedPatterns, Timetable[] sortedTimetables, ServiceDate serviceDate) {
         Timetable lastAddedTimetable = null;
-        if (!updatedPatterns.isEmpty()) {
-            for (TripPattern updatedPattern : updatedPatterns) {
-                if (updatedPattern.scheduledTimetable != null && updatedPattern.scheduledTimetable.isValidFor(serviceDate)) {
-                    if (updatedPattern.scheduledTimetable.tripTimes != null) {
-                        for (TripTimes tripTime : updatedPattern.scheduledTimetable.tripTimes) {
-                            if (!tripTime.isCanceled() & !tripTime.isScheduled()) {
-                                LOG.trace("returning modified timetable");
-                                if (lastAddedTimetable == null) {
-                                    lastAddedTimetable = new Timetable(updatedPattern.scheduledTimetable, serviceDate);
-
-                                } else {
-                                    lastAddedTimetable.addTripTimes(tripTime);
-                                }
+        for (TripPattern updatedPattern : updatedPatterns) {
+            if (updatedPattern.scheduledTimetable != null && updatedPattern.scheduledTimetable.isValidFor(serviceDate)) {
+                if (updatedPattern.scheduledTimetable.tripTimes != null) {
+                    for (TripTimes tripTime : updatedPattern.scheduledTimetable.tripTimes) {
+                        if (!tripTime.isCanceled() & !tripTime.isScheduled()) {
+                            LOG.trace("returning modified timetable");
+                            if (lastAddedTimetable == null) {
+                                lastAddedTimetable = new Timetable(updatedPattern.scheduledTimetable, serviceDate);
+
+                            } else {
+                                lastAddedTimetable.addTripTimes(tripTime);
                             }
                         }
                     }
                 }
             }
         }
+        if (lastAddedTimetable == null) {
+            return null;
+        }
+
+        for (Timetable timetable : sortedTimetables) {
+            if (timetable.tripTimes != null && timetable.isValidFor(serviceDate)) {
+                for (TripTimes tripTime : timetable.tripTimes) {
+                    if (!lastAddedTimetable.tripTimes.contains(tripTime)) {
+                        lastAddedTimetable.tripTimes.add(tripTime);
+                    }
+                }
+            }
+        }
+        lastAddedTimetable.finish();
         return lastAddedTimetable;
     }
 
+    /**
+     * Merges the timetables of trips added to other patterns for every pattern and service date where resolve needs
+     * them, so that committed snapshots do not build them on each lookup. The merged timetables of the last commit are
+     * kept for the patterns whose timetables did not change and none of whose trips were added to another pattern or
+     * removed from one since.
+     */
+    private PersistentArray<Timetable[]> mergeLastAddedTimetables() {
+        for (String tripId : dirtyLastAddedTripIds) {
+            Set<Integer> patternIndexes = patternIndexesByTripId.get(tripId);
+            if (patternIndexes != null) {
+                dirtyPatternIndexes.addAll(patternIndexes);
+            }
+        }
+
+        if (!dirtyPatternIndexes.isEmpty()) {
+            Map<String, List<TripIdAndServiceDate>> addedByTripId = new HashMap<>();
+            for (TripIdAndServiceDate key : lastAddedTripPattern.keySet()) {
+                List<TripIdAndServiceDate> keys = addedByTripId.get(key.getTripId());
+                if (keys == null) {
+                    keys = new ArrayList<>(1);
+                    addedByTripId.put(key.getTripId(), keys);
+                }
+                keys.add(key);
+            }
+            for (int patternIndex : dirtyPatternIndexes) {
+                Timetable[] sortedTimetables = timetables.get(patternIndex);
+                mergedLastAddedTimetables.set(patternIndex, sortedTimetables == null || addedByTripId.isEmpty() ? null
+                        : mergeLastAddedTimetables(sortedTimetables, addedByTripId));
+            }
+        }
+
+        dirtyPatternIndexes.clear();
+        dirtyLastAddedTripIds.clear();
+        return mergedLastAddedTimetables.freeze();
+    }
+
+    /**
+     * @param sortedTimetables the updated timetables of a pattern
+     * @param addedByTripId the keys of lastAddedTripPattern by trip id
+     * @return the timetables of the pattern merged with the trips added to other patterns, or null if there are none
+     */
+    private Timetable[] mergeLastAddedTimetables(Timetable[] sortedTimetables,
+            Map<String, List<TripIdAndServiceDate>> addedByTripId) {
+        Map<ServiceDate, Set<TripPattern>> updatedPatternsByDate = null;
+        TripPattern pattern = sortedTimetables[0].pattern;
+        for (Trip trip : pattern.getTrips()) {
+            List<TripIdAndServiceDate> keys = addedByTripId.get(trip.getId().getId());
+            if (keys == null) continue;
+            for (TripIdAndServiceDate key : keys) {
+                if (!key.getFeedId().equals(trip.getId().getAgencyId())) continue;
+                if (updatedPatternsByDate == null) updatedPatternsByDate = new HashMap<>();
+                Set<TripPattern> updatedPatterns = updatedPatternsByDate.get(key.getServiceDate());
+                if (updatedPatterns == null) {
+                    updatedPatterns = new HashSet<>();
+                    updatedPatternsByDate.put(key.getServiceDate(), updatedPatterns);
+                }
+                updatedPatterns.add(lastAddedTripPattern.get(key));
+            }
+        }
+        if (updatedPatternsByDate == null) return null;
+
+        List<Timetable> merged = new ArrayList<>(updatedPatternsByDate.size());
+        for (Entry<ServiceDate, Set<TripPattern>> entry : updatedPatternsByDate.entrySet()) {
+            Timetable lastAdded = resolveLastAdded(entry.getValue(), sortedTimetables, entry.getKey());
+            if (lastAdded != null) {
+                merged.add(lastAdded);
+            }
+        }
+        return merged.isEmpty() ? null : merged.toArray(new Timetable[merged.size()]);
+    }
+
+    /**
+     * Replace the updated timetables of a pattern in the buffer, remembering that its merged timetables must be
+     * merged again at the next commit.
+     *
+     * @param sortedTimetables the new timetables of the pattern sorted by service date, null if there are none
+     */
+    private void setTimetables(int patternIndex, Timetable[] sortedTimetables) {
+        if (sortedTimetables != null && timetables.get(patternIndex) == null) {
+            // the trips of a pattern do not change, indexing them again only repeats the same entries
+            for (Trip trip : sortedTimetables[0].pattern.getTrips()) {
+                patternIndexesByTripId.computeIfAbsent(trip.getId().getId(), tripId -> new HashSet<>(2))
+                        .add(patternIndex);
+            }
+        }
+        timetables.set(patternIndex, sortedTimetables);
+        dirtyPatternIndexes.add(patternIndex);
+    }
+
     /**
      * Get the last <b>added</b> trip pattern given a trip id (without agency) and a service date as
      * a result of a call to {@link #update(String feedId, TripPattern, TripTimes, ServiceDate)} with trip times of
@@ -229,6 +368,10 @@ public class TimetableSnapshot {
     /**
      * Update the trip times of one trip in a timetable of a trip pattern. If the trip of the trip
      * times does not exist yet in the timetable, add it.
+     *
+     * Several threads may call this method at the same time as long as they update different patterns and no other
+     * method modifying the snapshot is called meanwhile. The state shared between patterns is only accessed while
+     * holding the lock on this snapshot, copying and updating the timetable of the pattern is done without it.
      * 
      * @param pattern trip pattern
      * @param updatedTripTimes updated trip times
@@ -244,27 +387,31 @@ public class TimetableSnapshot {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
         }
         
-        Timetable tt = resolve(pattern, serviceDate);
+        Timetable tt;
+        boolean copy;
+        synchronized (this) {
+            tt = resolve(pattern, serviceDate);
+            copy = !dirtyTimetables.contains(tt);
+        }
         // we need to perform the copy of Timetable here rather than in Timetable.update()
         // to avoid repeatedly copying in case several updates are applied to the same timetable
-        if ( ! dirtyTimetables.contains(tt)) {
+        if (copy) {
             Timetable old = tt;
             tt = new Timetable(tt, serviceDate);
-            SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
-            if(sortedTimetables == null) {
-                sortedTimetables = new TreeSet<Timetable>(new SortedTimetableComparator());
-            } else {
-                SortedSet<Timetable> temp =
-                        new TreeSet<Timetable>(new SortedTimetableComparator());
-                temp.addAll(sortedTimetables);
-                sortedTimetables = temp;
+            synchronized (this) {
+                // the timetable arrays may be shared with committed snapshots, so they are replaced, not modified
+                SortedSet<Timetable> sortedTimetables = new TreeSet<Timetable>(new SortedTimetableComparator());
+                Timetable[] oldTimetables = timetables.get(pattern.getIndex());
+                if (oldTimetables != null) {
+                    sortedTimetables.addAll(Arrays.asList(oldTimetables));
+                }
+                if(old.serviceDate != null)
+                    sortedTimetables.remove(old);
+                sortedTimetables.add(tt);
+                setTimetables(pattern.getIndex(), sortedTimetables.toArray(new Timetable[sortedTimetables.size()]));
+                dirtyTimetables.add(tt);
+                dirty = true;
             }
-            if(old.serviceDate != null)
-                sortedTimetables.remove(old);
-            sortedTimetables.add(tt);
-            timetables.put(pattern, sortedTimetables);
-            dirtyTimetables.add(tt);
-            dirty = true;
         }
         
         // Assume all trips in a pattern are from the same feed, which should be the case.
@@ -276,7 +423,10 @@ public class TimetableSnapshot {
             // Remember this pattern for the added trip id and service date
             String tripId = updatedTripTimes.trip.getId().getId();
             TripIdAndServiceDate tripIdAndServiceDate = new TripIdAndServiceDate(feedId, tripId, serviceDate);
-            lastAddedTripPattern.put(tripIdAndServiceDate, pattern);
+            synchronized (this) {
+                getWritableLastAddedTripPattern().put(tripIdAndServiceDate, pattern);
+                dirtyLastAddedTripIds.add(tripId);
+            }
         } else {
             // Set updated trip times of trip
             tt.setTripTimes(tripIndex, updatedTripTimes);
@@ -287,9 +437,22 @@ public class TimetableSnapshot {
         return true;
     }
 
+    /**
+     * @return lastAddedTripPattern, copied first if it is shared with the last committed snapshot
+     */
+    @SuppressWarnings("unchecked")
+    private HashMap<TripIdAndServiceDate, TripPattern> getWritableLastAddedTripPattern() {
+        if (lastAddedTripPatternShared) {
+            lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>) lastAddedTripPattern.clone();
+            lastAddedTripPatternShared = false;
+        }
+        return lastAddedTripPattern;
+    }
+
     /**
      * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms).
+     * the indexing step. Only the chunks of the timetable array modified since the last commit
+     * are copied.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the
@@ -301,7 +464,6 @@ public class TimetableSnapshot {
         return commit(false);
     }
 
-    @SuppressWarnings("unchecked")
     public TimetableSnapshot commit(boolean force) {
         if (readOnly) {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
@@ -312,9 +474,10 @@ public class TimetableSnapshot {
         for (Timetable tt : dirtyTimetables) {
             tt.finish(); // summarize, index, etc. the new timetables
         }
-        ret.timetables = (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
-        ret.lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>)
-                this.lastAddedTripPattern.clone();
+        ret.timetables = this.timetables.freeze();
+        ret.lastAddedTripPattern = this.lastAddedTripPattern;
+        this.lastAddedTripPatternShared = true;
+        ret.lastAddedTimetables = this.mergeLastAddedTimetables();
         this.dirtyTimetables.clear();
         this.dirty = false;
 
@@ -348,7 +511,16 @@ public class TimetableSnapshot {
      * @return true if the timetable changed as a result of the call
      */
     protected boolean clearTimetable(String feedId) {
-        return timetables.keySet().removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
+        List<Integer> patternIndexes = new ArrayList<>();
+        timetables.forEach((patternIndex, sortedTimetables) -> {
+            if (feedId.equals(sortedTimetables[0].pattern.getFeedId())) {
+                patternIndexes.add(patternIndex);
+            }
+        });
+        for (int patternIndex : patternIndexes) {
+            setTimetables(patternIndex, null);
+        }
+        return !patternIndexes.isEmpty();
     }
 
     /**
@@ -358,7 +530,10 @@ public class TimetableSnapshot {
      * @return true if the lastAddedTripPattern changed as a result of the call
      */
     protected boolean clearLastAddedTripPattern(String feedId) {
-        return lastAddedTripPattern.keySet().removeIf(lastAddedTripPattern -> feedId.equals(lastAddedTripPattern.getFeedId()));
+        if (lastAddedTripPattern.keySet().stream().noneMatch(key -> feedId.equals(key.getFeedId()))) {
+            return false;
+        }
+        return removeLastAddedTripPatterns(key -> feedId.equals(key.getFeedId()));
     }
 
     /**
@@ -369,40 +544,49 @@ public class TimetableSnapshot {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
         }
 
-        boolean modified = false;
-        for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-            TripPattern pattern = it.next();
-            SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
-            SortedSet<Timetable> toKeepTimetables =
-                    new TreeSet<Timetable>(new SortedTimetableComparator());
+        Map<Integer, Timetable[]> purged = new HashMap<>();
+        timetables.forEach((patternIndex, sortedTimetables) -> {
+            List<Timetable> toKeepTimetables = new ArrayList<>(sortedTimetables.length);
             for(Timetable timetable : sortedTimetables) {
                 if(serviceDate.compareTo(timetable.serviceDate) < 0) {
                     toKeepTimetables.add(timetable);
-                } else {
-                    modified = true;
                 }
             }
 
-            if(toKeepTimetables.isEmpty()) {
-                it.remove();
-            } else {
-                timetables.put(pattern, toKeepTimetables);
+            if (toKeepTimetables.size() < sortedTimetables.length) {
+                purged.put(patternIndex, toKeepTimetables.isEmpty() ? null
+                        : toKeepTimetables.toArray(new Timetable[toKeepTimetables.size()]));
             }
+        });
+        for (Entry<Integer, Timetable[]> entry : purged.entrySet()) {
+            setTimetables(entry.getKey(), entry.getValue());
         }
+        boolean modified = !purged.isEmpty();
         
         // Also remove last added trip pattern for days that are purged
-        for (Iterator<Entry<TripIdAndServiceDate, TripPattern>> iterator = lastAddedTripPattern
-                .entrySet().iterator(); iterator.hasNext();) {
-            TripIdAndServiceDate tripIdAndServiceDate = iterator.next().getKey();
-            if (serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0) {
-                iterator.remove();
-                modified = true;
-            }
+        if (lastAddedTripPattern.keySet().stream().anyMatch(key -> serviceDate.compareTo(key.getServiceDate()) >= 0)) {
+            removeLastAddedTripPatterns(key -> serviceDate.compareTo(key.getServiceDate()) >= 0);
+            modified = true;
         }
 
         return modified;
     }
 
+    /**
+     * Remove the last added trip patterns of the matching trips and service dates
+     *
+     * @return true if any was removed
+     */
+    private boolean removeLastAddedTripPatterns(Predicate<TripIdAndServiceDate> filter) {
+        return getWritableLastAddedTripPattern().keySet().removeIf(key -> {
+            if (!filter.test(key)) {
+                return false;
+            }
+            dirtyLastAddedTripIds.add(key.getTripId());
+            return true;
+        });
+    }
+
     public boolean isDirty() {
         if (readOnly) return false;
         return dirty;
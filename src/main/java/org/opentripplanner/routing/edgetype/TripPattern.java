@@ -50,6 +50,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a group of trips on a route, with the same direction id that all call at the same
@@ -67,6 +68,8 @@ public class TripPattern implements Cloneable, Serializable {
 
     private static final long serialVersionUID = MavenVersion.VERSION.getUID();
 
+    private static final AtomicInteger maxIndex = new AtomicInteger();
+
     public static final int FLAG_WHEELCHAIR_ACCESSIBLE = 1;
     public static final int MASK_PICKUP = 2|4;
     public static final int SHIFT_PICKUP = 1;
@@ -104,6 +107,12 @@ public class TripPattern implements Cloneable, Serializable {
      */
     public final Timetable scheduledTimetable = new Timetable(this);
 
+    /**
+     * Unique index of this pattern within the running JVM, assigned when the pattern is created or deserialized.
+     * Used to look up per-pattern realtime data from arrays instead of hash maps.
+     */
+    private transient int index = maxIndex.getAndIncrement();
+
     /** The human-readable, unique name for this trip pattern. */
     public String name;
 
@@ -162,6 +171,11 @@ public class TripPattern implements Cloneable, Serializable {
     // TODO MOVE codes INTO Timetable or TripTimes
     BitSet services;
 
+    /** Get this pattern's unique index, that can serve as an index into a table */
+    public int getIndex() {
+        return index;
+    }
+
     public TripPattern(Route route, StopPattern stopPattern) {
         this.route = route;
         this.mode = GtfsLibrary.getTraverseMode(this.route);
@@ -182,6 +196,7 @@ public class TripPattern implements Cloneable, Serializable {
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
+        index = maxIndex.getAndIncrement();
         // The serialized graph contains cyclic references TripPattern <--> Timetable.
         // The Timetable must be indexed from here (rather than in its own readObject method)
         // to ensure that the stops field it uses in TripPattern is already deserialized.
@@ -700,7 +715,9 @@ public class TripPattern implements Cloneable, Serializable {
 
     public TripPattern clone () {
         try {
-            return (TripPattern) super.clone();
+            TripPattern clone = (TripPattern) super.clone();
+            clone.index = maxIndex.getAndIncrement();
+            return clone;
         } catch (CloneNotSupportedException e) {
             /* cannot happen */
             throw new RuntimeException(e);
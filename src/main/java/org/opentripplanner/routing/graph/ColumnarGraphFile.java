@@ -0,0 +1,568 @@
+package org.opentripplanner.routing.graph;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.services.StreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.util.I18NString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Iterables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A graph file storing the street layer in flat columns instead of serialized objects.
+ *
+ * Most of a graph consists of intersections and the street edges between them. Loading them from Graph.obj goes
+ * through an ObjectInputStream, which keeps a handle to every object it has read until the end of the stream and
+ * so needs about twice the memory of the loaded graph. This file stores the coordinates, labels and flags of
+ * intersection vertices and the endpoints, lengths, permissions, flags and compacted geometries of street edges
+ * in columns of primitive values. The file is memory mapped when loading and the vertex and edge objects are
+ * materialized directly from the mapped columns, without any intermediate copies. The columns are mapped in segments
+ * of a fixed size, as a single mapped buffer cannot be larger than 2 GB. Geometries shared by the two
+ * directions of a street stay shared. Names and refs are deduplicated into a table of shared objects.
+ *
+ * Everything else (the Graph object itself, transit and other edges and vertices, and debug data) follows the
+ * columns as a regular serialized object stream, in which references to the vertices and edges stored in columns
+ * are replaced by their column index. Only edges and vertices of exactly the classes StreetEdge, IntersectionVertex
+ * and OsmVertex are stored in columns, subclasses may have state of their own.
+ *
+ * Layout, all values big-endian:
+ * <pre>
+ * header:  magic, format version, vertex count, edge count, label bytes, geometry ints
+ * columns: one column per field of the vertices, the UTF-8 labels, one column per field of the edges,
+ *          and the geometries as a length followed by the compacted coordinates
+ * objects: shared names and refs, the Graph, the other edges, and the debug data if the graph has any
+ * </pre>
+ * The format version must be incremented whenever the layout or the meaning of a column changes.
+ */
+public class ColumnarGraphFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarGraphFile.class);
+
+    /** Name of the file, next to Graph.obj */
+    public static final String FILENAME = "Graph.columnar";
+
+    private static final int MAGIC = 0x4f545043; // "OTPC"
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 6 * 4;
+
+    private static final byte VERTEX_OSM_FLAG = 1;
+
+    private static final byte VERTEX_TRAFFIC_LIGHT_FLAG = 2;
+
+    private static final byte VERTEX_FREE_FLOWING_FLAG = 4;
+
+    private static final int[] EMPTY_GEOMETRY = new int[0];
+
+    /** Size of the buffers the columns are mapped in */
+    static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    /**
+     * Writes the graph to a columnar graph file.
+     */
+    public static void save(Graph graph, File file) throws IOException {
+        LOG.info("Writing columnar graph {} ...", file.getAbsolutePath());
+        graph.rebuildVertexAndEdgeIndices();
+
+        Map<Vertex, Integer> vertexIndex = new IdentityHashMap<>();
+        List<IntersectionVertex> vertices = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            // vertices without edges do not survive serialization either
+            if (isColumnar(v) && v.getDegreeOut() + v.getDegreeIn() > 0) {
+                vertexIndex.put(v, vertices.size());
+                vertices.add((IntersectionVertex) v);
+            }
+        }
+        Map<Edge, Integer> edgeIndex = new IdentityHashMap<>();
+        List<StreetEdge> edges = new ArrayList<>();
+        List<Edge> otherEdges = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e.getClass() == StreetEdge.class && vertexIndex.containsKey(e.getFromVertex())
+                        && vertexIndex.containsKey(e.getToVertex())) {
+                    edgeIndex.put(e, edges.size());
+                    edges.add((StreetEdge) e);
+                } else {
+                    otherEdges.add(e);
+                }
+            }
+        }
+
+        SharedObjects shared = new SharedObjects();
+        byte[][] labels = new byte[vertices.size()][];
+        int labelBytes = 0;
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = vertices.get(i).getLabel().getBytes(StandardCharsets.UTF_8);
+            labelBytes += labels[i].length;
+        }
+        Map<int[], Integer> geometryOffsets = new IdentityHashMap<>();
+        TIntArrayList geometries = new TIntArrayList();
+        int[] geometryOffset = new int[edges.size()];
+        for (int i = 0; i < geometryOffset.length; i++) {
+            int[] geometry = edges.get(i).getCompactGeometry();
+            if (geometry == null) {
+                geometryOffset[i] = -1;
+                continue;
+            }
+            Integer offset = geometryOffsets.get(geometry);
+            if (offset == null) {
+                offset = geometries.size();
+                geometryOffsets.put(geometry, offset);
+                geometries.add(geometry.length);
+                geometries.add(geometry);
+            }
+            geometryOffset[i] = offset;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(vertices.size());
+            out.writeInt(edges.size());
+            out.writeInt(labelBytes);
+            out.writeInt(geometries.size());
+
+            // columns in the order of Layout
+            for (Vertex v : vertices) out.writeDouble(v.getX());
+            for (Vertex v : vertices) out.writeDouble(v.getY());
+            for (Vertex v : vertices) out.writeLong(v instanceof OsmVertex ? ((OsmVertex) v).nodeId : 0);
+            for (Vertex v : vertices) out.writeInt(shared.indexOf(v.getRawName()));
+            int labelEnd = 0;
+            for (byte[] label : labels) out.writeInt(labelEnd += label.length);
+            for (IntersectionVertex v : vertices) {
+                out.writeByte((v instanceof OsmVertex ? VERTEX_OSM_FLAG : 0)
+                        | (v.trafficLight ? VERTEX_TRAFFIC_LIGHT_FLAG : 0)
+                        | (v.freeFlowing ? VERTEX_FREE_FLOWING_FLAG : 0));
+            }
+            for (byte[] label : labels) out.write(label);
+
+            for (StreetEdge e : edges) out.writeInt(e.getId());
+            for (StreetEdge e : edges) out.writeInt(vertexIndex.get(e.getFromVertex()));
+            for (StreetEdge e : edges) out.writeInt(vertexIndex.get(e.getToVertex()));
+            for (StreetEdge e : edges) out.writeInt(e.getLengthMillimeters());
+            for (int offset : geometryOffset) out.writeInt(offset);
+            for (StreetEdge e : edges) out.writeInt(shared.indexOf(e.getRawName()));
+            for (StreetEdge e : edges) out.writeInt(shared.indexOf(e.getRef()));
+            for (StreetEdge e : edges) out.writeInt(e.getStreetClass());
+            for (StreetEdge e : edges) out.writeLong(e.wayId);
+            for (StreetEdge e : edges) out.writeFloat(e.getBicycleSafetyFactor());
+            for (StreetEdge e : edges) out.writeFloat(e.getCarSpeed());
+            for (StreetEdge e : edges) out.writeDouble(e.getNoiseLevel());
+            for (StreetEdge e : edges) out.writeByte(e.getPermission() != null ? e.getPermission().ordinal() : -1);
+            for (StreetEdge e : edges) out.writeByte(e.getPackedFlags());
+            for (StreetEdge e : edges) out.writeByte(e.getPackedInAngle());
+            for (StreetEdge e : edges) out.writeByte(e.getPackedOutAngle());
+            for (int i = 0; i < geometries.size(); i++) out.writeInt(geometries.get(i));
+
+            ObjectOutputStream objects = new ReferenceReplacingOutputStream(out, vertexIndex, edgeIndex);
+            objects.writeObject(shared.objects);
+            objects.writeObject(graph);
+            objects.writeObject(otherEdges);
+            graph.writeDebugData(objects);
+            objects.flush();
+        } catch (IOException | RuntimeException e) {
+            file.delete(); // remove half-written file
+            throw e;
+        }
+        LOG.info("Columnar graph written. {} of {} edges in columns.", edges.size(), edges.size() + otherEdges.size());
+    }
+
+    /**
+     * Loads a graph from a columnar graph file.
+     */
+    public static Graph load(File file, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        return load(file, level, indexFactory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Loads a graph from a columnar graph file, mapping the columns in buffers of the given size.
+     */
+    @SuppressWarnings("unchecked")
+    static Graph load(File file, LoadLevel level, StreetVertexIndexFactory indexFactory, long segmentSize)
+            throws IOException, ClassNotFoundException {
+        LOG.info("Reading columnar graph {} ...", file.getAbsolutePath());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Truncated columnar graph file " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a columnar graph file");
+            }
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Columnar graph format version " + version + " is not supported by this version "
+                        + "of OTP, which reads version " + FORMAT_VERSION + ". Please rebuild the graph.");
+            }
+            Layout layout = new Layout(header.getInt(), header.getInt(), header.getInt(), header.getInt());
+            Columns columns = new Columns(channel, HEADER_SIZE, layout.length, segmentSize);
+
+            channel.position(HEADER_SIZE + layout.length);
+            ReferenceResolvingInputStream in = new ReferenceResolvingInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            List<Object> shared = (List<Object>) in.readObject();
+            in.vertices = materializeVertices(columns, layout, shared);
+            in.edges = materializeEdges(columns, layout, shared, in.vertices);
+            LOG.debug("Street layer materialized from columns.");
+
+            Graph graph = (Graph) in.readObject();
+            if (graph.graphVersionMismatch())
+                throw new RuntimeException("Graph version mismatch detected.");
+            if (level == LoadLevel.BASIC)
+                return graph;
+            List<Edge> otherEdges = (List<Edge>) in.readObject();
+            graph.rebuildVertices(Iterables.concat(Arrays.asList(in.edges), otherEdges));
+
+            LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+            graph.index(indexFactory);
+
+            if (level == LoadLevel.FULL) {
+                return graph;
+            }
+            graph.readDebugData(in);
+            return graph;
+        } catch (InvalidClassException ex) {
+            LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
+            throw new IllegalStateException("Stored Graph version error", ex);
+        }
+    }
+
+    private static boolean isColumnar(Vertex v) {
+        return v.getClass() == IntersectionVertex.class || v.getClass() == OsmVertex.class;
+    }
+
+    /** @return the shared object at the index written by {@link SharedObjects#indexOf(Object)} */
+    private static Object getShared(List<Object> shared, int index) {
+        return index >= 0 ? shared.get(index) : null;
+    }
+
+    private static Vertex[] materializeVertices(Columns columns, Layout layout, List<Object> shared) {
+        Vertex[] vertices = new Vertex[layout.vertexCount];
+        int labelStart = 0;
+        for (int i = 0; i < vertices.length; i++) {
+            double x = columns.getDouble(layout.vertexX + 8L * i);
+            double y = columns.getDouble(layout.vertexY + 8L * i);
+            I18NString name = (I18NString) getShared(shared, columns.getInt(layout.vertexName + 4L * i));
+            int labelEnd = columns.getInt(layout.vertexLabelEnd + 4L * i);
+            byte[] labelBytes = new byte[labelEnd - labelStart];
+            columns.get(layout.labels + labelStart, labelBytes);
+            String label = new String(labelBytes, StandardCharsets.UTF_8);
+            labelStart = labelEnd;
+
+            byte flags = columns.get(layout.vertexFlags + i);
+            IntersectionVertex v;
+            if ((flags & VERTEX_OSM_FLAG) != 0) {
+                v = new OsmVertex(null, label, x, y, columns.getLong(layout.vertexNodeId + 8L * i), name);
+            } else {
+                v = new IntersectionVertex(null, label, x, y, name);
+            }
+            v.trafficLight = (flags & VERTEX_TRAFFIC_LIGHT_FLAG) != 0;
+            v.freeFlowing = (flags & VERTEX_FREE_FLOWING_FLAG) != 0;
+            vertices[i] = v;
+        }
+        return vertices;
+    }
+
+    private static Edge[] materializeEdges(Columns columns, Layout layout, List<Object> shared,
+            Vertex[] vertices) {
+        StreetTraversalPermission[] permissions = StreetTraversalPermission.values();
+        TIntObjectHashMap<int[]> geometries = new TIntObjectHashMap<>();
+        Edge[] edges = new Edge[layout.edgeCount];
+        for (int i = 0; i < edges.length; i++) {
+            StreetVertex from = (StreetVertex) vertices[columns.getInt(layout.edgeFrom + 4L * i)];
+            StreetVertex to = (StreetVertex) vertices[columns.getInt(layout.edgeTo + 4L * i)];
+            I18NString name = (I18NString) getShared(shared, columns.getInt(layout.edgeName + 4L * i));
+            byte permissionOrdinal = columns.get(layout.edgePermission + i);
+            StreetTraversalPermission permission = permissionOrdinal >= 0 ? permissions[permissionOrdinal] : null;
+            // no geometry, the packed fields derived from it are restored below
+            StreetEdge e = new StreetEdge(from, to, null, name, 0, permission, false);
+
+            int geometryOffset = columns.getInt(layout.edgeGeometry + 4L * i);
+            int[] geometry = null;
+            if (geometryOffset >= 0) {
+                geometry = geometries.get(geometryOffset);
+                if (geometry == null) {
+                    long position = layout.geometries + 4L * geometryOffset;
+                    int size = columns.getInt(position);
+                    geometry = size == 0 ? EMPTY_GEOMETRY : new int[size];
+                    for (int j = 0; j < size; j++) {
+                        geometry[j] = columns.getInt(position + 4L * (j + 1));
+                    }
+                    geometries.put(geometryOffset, geometry);
+                }
+            }
+            e.setPackedFields(columns.getInt(layout.edgeLength + 4L * i), geometry,
+                    columns.get(layout.edgeFlags + i), columns.get(layout.edgeInAngle + i),
+                    columns.get(layout.edgeOutAngle + i));
+            e.setRef((String) getShared(shared, columns.getInt(layout.edgeRef + 4L * i)));
+            e.setStreetClass(columns.getInt(layout.edgeStreetClass + 4L * i));
+            e.wayId = columns.getLong(layout.edgeWayId + 8L * i);
+            e.setBicycleSafetyFactor(columns.getFloat(layout.edgeBicycleSafety + 4L * i));
+            e.setCarSpeed(columns.getFloat(layout.edgeCarSpeed + 4L * i));
+            e.setNoiseLevel(columns.getDouble(layout.edgeNoiseLevel + 8L * i));
+            e.setId(columns.getInt(layout.edgeId + 4L * i));
+            edges[i] = e;
+        }
+        return edges;
+    }
+
+    /**
+     * Offsets of the columns relative to the end of the header
+     */
+    private static class Layout {
+
+        final int vertexCount, edgeCount;
+
+        final long vertexX, vertexY, vertexNodeId, vertexName, vertexLabelEnd, vertexFlags, labels;
+
+        final long edgeId, edgeFrom, edgeTo, edgeLength, edgeGeometry, edgeName, edgeRef, edgeStreetClass,
+                edgeWayId, edgeBicycleSafety, edgeCarSpeed, edgeNoiseLevel, edgePermission, edgeFlags,
+                edgeInAngle, edgeOutAngle, geometries;
+
+        final long length;
+
+        private long position = 0;
+
+        Layout(int vertexCount, int edgeCount, int labelBytes, int geometryInts) throws IOException {
+            this.vertexCount = vertexCount;
+            this.edgeCount = edgeCount;
+            vertexX = column(vertexCount, 8);
+            vertexY = column(vertexCount, 8);
+            vertexNodeId = column(vertexCount, 8);
+            vertexName = column(vertexCount, 4);
+            vertexLabelEnd = column(vertexCount, 4);
+            vertexFlags = column(vertexCount, 1);
+            labels = column(labelBytes, 1);
+            edgeId = column(edgeCount, 4);
+            edgeFrom = column(edgeCount, 4);
+            edgeTo = column(edgeCount, 4);
+            edgeLength = column(edgeCount, 4);
+            edgeGeometry = column(edgeCount, 4);
+            edgeName = column(edgeCount, 4);
+            edgeRef = column(edgeCount, 4);
+            edgeStreetClass = column(edgeCount, 4);
+            edgeWayId = column(edgeCount, 8);
+            edgeBicycleSafety = column(edgeCount, 4);
+            edgeCarSpeed = column(edgeCount, 4);
+            edgeNoiseLevel = column(edgeCount, 8);
+            edgePermission = column(edgeCount, 1);
+            edgeFlags = column(edgeCount, 1);
+            edgeInAngle = column(edgeCount, 1);
+            edgeOutAngle = column(edgeCount, 1);
+            geometries = column(geometryInts, 4);
+            length = position;
+        }
+
+        private long column(int count, int width) throws IOException {
+            if (count < 0) {
+                throw new IOException("Corrupt columnar graph file header");
+            }
+            long start = position;
+            position += (long) count * width;
+            return start;
+        }
+    }
+
+    /**
+     * The columns, mapped from the file in consecutive segments of a fixed size and read at long offsets. Values
+     * crossing the end of a segment are read byte by byte.
+     */
+    private static class Columns {
+
+        private final ByteBuffer[] segments;
+
+        private final long segmentSize;
+
+        Columns(FileChannel channel, long start, long length, long segmentSize) throws IOException {
+            if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Segment size must be between 1 and 2^31 - 1 bytes");
+            }
+            this.segmentSize = segmentSize;
+            segments = new ByteBuffer[(int) ((length + segmentSize - 1) / segmentSize)];
+            for (int i = 0; i < segments.length; i++) {
+                long offset = i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + offset,
+                        Math.min(segmentSize, length - offset));
+            }
+        }
+
+        byte get(long position) {
+            return segments[(int) (position / segmentSize)].get((int) (position % segmentSize));
+        }
+
+        void get(long position, byte[] bytes) {
+            int copied = 0;
+            while (copied < bytes.length) {
+                ByteBuffer segment = segments[(int) ((position + copied) / segmentSize)].duplicate();
+                segment.position((int) ((position + copied) % segmentSize));
+                int length = Math.min(segment.remaining(), bytes.length - copied);
+                segment.get(bytes, copied, length);
+                copied += length;
+            }
+        }
+
+        int getInt(long position) {
+            ByteBuffer segment = segments[(int) (position / segmentSize)];
+            int offset = (int) (position % segmentSize);
+            return offset + 4 <= segment.limit() ? segment.getInt(offset) : (int) getSplit(position, 4);
+        }
+
+        long getLong(long position) {
+            ByteBuffer segment = segments[(int) (position / segmentSize)];
+            int offset = (int) (position % segmentSize);
+            return offset + 8 <= segment.limit() ? segment.getLong(offset) : getSplit(position, 8);
+        }
+
+        float getFloat(long position) {
+            return Float.intBitsToFloat(getInt(position));
+        }
+
+        double getDouble(long position) {
+            return Double.longBitsToDouble(getLong(position));
+        }
+
+        /** Big-endian value of the given number of bytes spanning two segments */
+        private long getSplit(long position, int width) {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                value = (value << 8) | (get(position + i) & 0xff);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Objects referenced from the columns, deduplicated by equality
+     */
+    private static class SharedObjects {
+
+        final ArrayList<Object> objects = new ArrayList<>();
+
+        final Map<Object, Integer> indexes = new HashMap<>();
+
+        /** @return index of the object, -1 for null */
+        int indexOf(Object object) {
+            if (object == null) {
+                return -1;
+            }
+            Integer index = indexes.get(object);
+            if (index == null) {
+                index = objects.size();
+                indexes.put(object, index);
+                objects.add(object);
+            }
+            return index;
+        }
+    }
+
+    /** Serialized in place of a vertex stored in the columns */
+    private static class VertexReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int index;
+
+        VertexReference(int index) {
+            this.index = index;
+        }
+    }
+
+    /** Serialized in place of an edge stored in the columns */
+    private static class EdgeReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int index;
+
+        EdgeReference(int index) {
+            this.index = index;
+        }
+    }
+
+    private static class ReferenceReplacingOutputStream extends ObjectOutputStream {
+
+        private final Map<Vertex, Integer> vertexIndex;
+
+        private final Map<Edge, Integer> edgeIndex;
+
+        ReferenceReplacingOutputStream(OutputStream out, Map<Vertex, Integer> vertexIndex,
+                Map<Edge, Integer> edgeIndex) throws IOException {
+            super(out);
+            this.vertexIndex = vertexIndex;
+            this.edgeIndex = edgeIndex;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (obj instanceof Vertex) {
+                Integer index = vertexIndex.get(obj);
+                if (index != null) {
+                    return new VertexReference(index);
+                }
+            } else if (obj instanceof Edge) {
+                Integer index = edgeIndex.get(obj);
+                if (index != null) {
+                    return new EdgeReference(index);
+                }
+            }
+            return obj;
+        }
+    }
+
+    private static class ReferenceResolvingInputStream extends ObjectInputStream {
+
+        Vertex[] vertices;
+
+        Edge[] edges;
+
+        ReferenceResolvingInputStream(InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            if (obj instanceof VertexReference) {
+                return vertices[((VertexReference) obj).index];
+            } else if (obj instanceof EdgeReference) {
+                return edges[((EdgeReference) obj).index];
+            }
+            return obj;
+        }
+    }
+}
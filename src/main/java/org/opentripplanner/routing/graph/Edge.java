@@ -280,4 +280,9 @@ public abstract class Edge implements Serializable {
     	return this.id;
     }
 
+    /** Restores the id of an edge materialized from a {@link ColumnarGraphFile} */
+    void setId(int id) {
+        this.id = id;
+    }
+
 }
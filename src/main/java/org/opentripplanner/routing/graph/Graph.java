@@ -31,6 +31,7 @@ import org.onebusaway.gtfs.model.FeedInfo;
 import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.airquality.AirQualityStore;
 import org.opentripplanner.analyst.core.GeometryIndex;
 import org.opentripplanner.analyst.request.SampleFactory;
 import org.opentripplanner.common.MavenVersion;
@@ -65,7 +66,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.prefs.Preferences;
 /**
  * A graph is really just one or more indexes into a set of vertexes. It used to keep edgelists for each vertex, but those are in the vertex now.
@@ -114,6 +118,12 @@ public class Graph implements Serializable {
 
     public transient GraphIndex index;
 
+    /**
+     * Whether the independent indexes of loaded graphs are built concurrently on the common fork-join pool, see
+     * {@link #index(StreetVertexIndexFactory)}. Can be turned off to compare with sequential indexing.
+     */
+    public static boolean parallelIndexing = true;
+
     private transient GeometryIndex geomIndex;
 
     private transient SampleFactory sampleFactory;
@@ -206,6 +216,9 @@ public class Graph implements Serializable {
 
     /** A speed source for traffic data */
     public transient StreetSpeedSnapshotSource streetSpeedSource;
+
+    /** Off-heap store of air quality forecasts for street edges */
+    public transient AirQualityStore airQualityStore;
     
     /** How should we cluster stops? */
     public String stopClusterMode = "proximity";
@@ -712,22 +725,41 @@ public class Graph implements Serializable {
      * This used to be done in readObject methods upon deserialization, but stand-alone mode now
      * allows passing graphs from graphbuilder to server in memory, without a round trip through
      * serialization. 
+     *
+     * The street spatial index, the vertex and edge id maps, the timetable lower bounds and the graph index only read
+     * the graph and each write their own structures, so they are built concurrently, and the graph index builds its
+     * independent parts concurrently as well. The time taken by each phase is logged.
      * TODO: do we really need a factory for different street vertex indexes?
      */
     public void index(StreetVertexIndexFactory indexFactory) {
-        streetIndex = indexFactory.newIndex(this);
-        LOG.debug("street index built.");
-        LOG.debug("Rebuilding edge and vertex indices.");
-        rebuildVertexAndEdgeIndices();
+        long startTime = System.currentTimeMillis();
+        Executor executor = parallelIndexing ? ForkJoinPool.commonPool() : Runnable::run;
+        CompletableFuture<Void> streetIndexBuilt = IndexingPhases.runAsync("street index", executor,
+                () -> streetIndex = indexFactory.newIndex(this));
+        CompletableFuture<Void> idsBuilt = IndexingPhases.runAsync("vertex and edge ids", executor,
+                this::rebuildVertexAndEdgeIndices);
+        CompletableFuture<Void> timetablesFinished = IndexingPhases.runAsync("timetables", executor,
+                this::finishTimetables);
+        // Built in this thread, so that waiting for its own parts does not block a thread of the pool
+        GraphIndex graphIndex = IndexingPhases.get("graph index", () -> new GraphIndex(this, executor));
+        IndexingPhases.join(streetIndexBuilt);
+        IndexingPhases.join(idsBuilt);
+        IndexingPhases.join(timetablesFinished);
+        this.index = graphIndex;
+        LOG.info("Graph indexed {} in {} ms.", parallelIndexing ? "in parallel" : "sequentially",
+                System.currentTimeMillis() - startTime);
+    }
+
+    /** Computes the lower bounds of the scheduled timetables used in routing */
+    private void finishTimetables() {
         Set<TripPattern> tableTripPatterns = Sets.newHashSet();
         for (PatternArriveVertex pav : Iterables.filter(this.getVertices(), PatternArriveVertex.class)) {
             tableTripPatterns.add(pav.getTripPattern());
         }
-        for (TripPattern ttp : tableTripPatterns) {
-            if (ttp != null) ttp.scheduledTimetable.finish(); // skip frequency-based patterns with no table (null)
-        }
-        // TODO: Move this ^ stuff into the graph index
-        this.index = new GraphIndex(this);
+        // TODO: Move this stuff into the graph index
+        (parallelIndexing ? tableTripPatterns.parallelStream() : tableTripPatterns.stream())
+                .filter(ttp -> ttp != null) // skip frequency-based patterns with no table (null)
+                .forEach(ttp -> ttp.scheduledTimetable.finish());
     }
     
     /**
@@ -753,12 +785,7 @@ public class Graph implements Serializable {
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
             List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new ConcurrentHashMap<String, Vertex>();
-            
-            for (Edge e : edges) {
-                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
-                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
-            }
+            graph.rebuildVertices(edges);
 
             LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
             graph.index(indexFactory);
@@ -767,12 +794,7 @@ public class Graph implements Serializable {
                 return graph;
             }
             
-            if (graph.debugData) {
-                graph.graphBuilderAnnotations = (List<GraphBuilderAnnotation>) in.readObject();
-                LOG.debug("Debug info read.");
-            } else {
-                LOG.warn("Graph file does not contain debug data.");
-            }
+            graph.readDebugData(in);
             return graph;
         } catch (InvalidClassException ex) {
             LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
@@ -780,6 +802,17 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Recreates the transient vertex map of a loaded graph from the endpoints of its edges.
+     */
+    void rebuildVertices(Iterable<? extends Edge> edges) {
+        vertices = new ConcurrentHashMap<String, Vertex>();
+        for (Edge e : edges) {
+            vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+            vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+        }
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -787,7 +820,7 @@ public class Graph implements Serializable {
      * @return false if Maven versions match (even if commit ids do not match), true if Maven version of graph does not match this version of OTP or
      *         graphs are otherwise obviously incompatible.
      */
-    private boolean graphVersionMismatch() {
+    boolean graphVersionMismatch() {
         MavenVersion v = MavenVersion.VERSION;
         MavenVersion gv = this.mavenVersion;
         LOG.info("Graph version: {}", gv);
@@ -844,6 +877,14 @@ public class Graph implements Serializable {
         LOG.debug("Writing edges...");
         out.writeObject(this);
         out.writeObject(edges);
+        writeDebugData(out);
+        LOG.info("Graph written.");
+    }
+
+    /**
+     * Writes the graph builder annotations and the vertex and edge ids if the graph has debug data
+     */
+    void writeDebugData(ObjectOutputStream out) throws IOException {
         if (debugData) {
             // should we make debug info generation conditional?
             LOG.debug("Writing debug data...");
@@ -853,7 +894,19 @@ public class Graph implements Serializable {
         } else {
             LOG.debug("Skipping debug data.");
         }
-        LOG.info("Graph written.");
+    }
+
+    /**
+     * Reads the graph builder annotations written by {@link #writeDebugData(ObjectOutputStream)}
+     */
+    @SuppressWarnings("unchecked")
+    void readDebugData(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        if (debugData) {
+            graphBuilderAnnotations = (List<GraphBuilderAnnotation>) in.readObject();
+            LOG.debug("Debug info read.");
+        } else {
+            LOG.warn("Graph file does not contain debug data.");
+        }
     }
 
     /* deserialization for org.opentripplanner.customize */
@@ -11,8 +11,10 @@ import java.nio.file.Files;
 import java.nio.file.attribute.FileAttribute;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -30,7 +32,6 @@ import graphql.ExceptionWhileDataFetching;
 import graphql.GraphQLError;
 import graphql.schema.GraphQLSchema;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import graphql.ExecutionResult;
@@ -57,6 +58,8 @@ import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.index.FieldErrorInstrumentation;
+import org.opentripplanner.index.GraphQLExecutor;
+import org.opentripplanner.index.GraphQLRequestContext;
 import org.opentripplanner.index.IndexGraphQLSchema;
 import org.opentripplanner.index.ResourceConstrainedExecutorServiceExecutionStrategy;
 import org.opentripplanner.index.model.StopTimesInPattern;
@@ -84,7 +87,6 @@ import org.opentripplanner.routing.edgetype.ParkAndRideLinkEdge;
 import org.opentripplanner.routing.edgetype.StreetBikeParkLink;
 import org.opentripplanner.routing.edgetype.TablePatternEdge;
 import org.opentripplanner.routing.edgetype.Timetable;
-import org.opentripplanner.routing.edgetype.TimetableSnapshot;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.impl.DefaultFareServiceImpl;
 import org.opentripplanner.routing.services.AlertPatchService;
@@ -159,9 +161,17 @@ public class GraphIndex {
 
     final GraphQLSchema indexSchema;
 
-    public final ExecutorService threadPool;
+    /** Executes the GraphQL queries of the router of this graph, see {@link #setGraphQLExecutor(GraphQLExecutor)} */
+    private volatile GraphQLExecutor graphQLExecutor;
 
     public GraphIndex (Graph graph) {
+        this(graph, Runnable::run);
+    }
+
+    /**
+     * @param executor executor for building the independent parts of the index concurrently
+     */
+    public GraphIndex (Graph graph, Executor executor) {
         LOG.info("Indexing graph...");
         
         FareService fareService = graph.getService(FareService.class);
@@ -218,39 +228,44 @@ public class GraphIndex {
                 stationForId.put(stop.getId(), stop);
             }
         }
-        for (TransitStop stopVertex : stopVertexForStop.values()) {
-            Envelope envelope = new Envelope(stopVertex.getCoordinate());
-            stopSpatialIndex.insert(envelope, stopVertex);
-        }
-        for (TripPattern pattern : patternForId.values()) {
-            patternsForFeedId.put(pattern.getFeedId(), pattern);
-            patternsForRoute.put(pattern.route, pattern);
-
-            for (Trip trip : pattern.getTrips()) {
-                patternForTrip.put(trip, pattern);
-                tripForId.put(trip.getId(), trip);
+        CompletableFuture<Void> stopsIndexed = IndexingPhases.runAsync("stop spatial index", executor, () -> {
+            for (TransitStop stopVertex : stopVertexForStop.values()) {
+                Envelope envelope = new Envelope(stopVertex.getCoordinate());
+                stopSpatialIndex.insert(envelope, stopVertex);
             }
-            for (Stop stop: pattern.getStops()) {
-                if (!patternsForStop.containsEntry(stop, pattern)) {
-                    patternsForStop.put(stop, pattern);
+        });
+        IndexingPhases.run("pattern, trip and route maps", () -> {
+            for (TripPattern pattern : patternForId.values()) {
+                patternsForFeedId.put(pattern.getFeedId(), pattern);
+                patternsForRoute.put(pattern.route, pattern);
+
+                for (Trip trip : pattern.getTrips()) {
+                    patternForTrip.put(trip, pattern);
+                    tripForId.put(trip.getId(), trip);
+                }
+                for (Stop stop: pattern.getStops()) {
+                    if (!patternsForStop.containsEntry(stop, pattern)) {
+                        patternsForStop.put(stop, pattern);
+                    }
                 }
             }
-        }
-        for (Route route : patternsForRoute.asMap().keySet()) {
-            routeForId.put(route.getId(), route);
-        }
+            for (Route route : patternsForRoute.asMap().keySet()) {
+                routeForId.put(route.getId(), route);
+            }
+        });
+        IndexingPhases.join(stopsIndexed);
 
         // Copy these two service indexes from the graph until we have better ones.
         calendarService = graph.getCalendarService();
         serviceCodes = graph.serviceCodes;
         this.graph = graph;
-        threadPool = Executors.newCachedThreadPool(
-            new ThreadFactoryBuilder().setNameFormat("GraphQLExecutor-" + graph.routerId + "-%d")
-                .build()
-        );
+        graphQLExecutor = new GraphQLExecutor(graph.routerId);
 
-        indexSchema = new IndexGraphQLSchema(this).indexSchema;
-        getLuceneIndex();
+        // Stop clustering and the Lucene index use the maps above, the schema only refers to this index
+        CompletableFuture<GraphQLSchema> schemaBuilt = IndexingPhases.supplyAsync("GraphQL schema", executor,
+            () -> new IndexGraphQLSchema(this).indexSchema);
+        IndexingPhases.run("stop clusters and Lucene index", this::getLuceneIndex);
+        indexSchema = IndexingPhases.join(schemaBuilt);
         LOG.info("Done indexing graph.");
     }
 
@@ -514,8 +529,11 @@ public class GraphIndex {
             return stop.getId().getAgencyId() + ";" + stop.getId().getId() + ";" + pattern.code;
         }
 
-        public List<TripTimeShort> getStoptimes(GraphIndex index, long startTime, int timeRange, int numberOfDepartures, boolean omitNonPickups) {
-            return index.stopTimesForPattern(stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups);
+        /**
+         * Departures of the pattern from the stop, shared with the other lookups of the request through its context.
+         */
+        public List<TripTimeShort> getStoptimes(GraphQLRequestContext context, long startTime, int timeRange, int numberOfDepartures, boolean omitNonPickups) {
+            return context.stopTimesForPattern(stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups);
         }
 
         public static DepartureRow fromId(GraphIndex index, String id) {
@@ -726,12 +744,22 @@ public class GraphIndex {
      * @return
      */
     public List<StopTimesInPattern> stopTimesForStop(final Stop stop, final long startTime, final int timeRange, final int numberOfDepartures, boolean omitNonPickups) {
+        return stopTimesForStop(stop, startTime, timeRange, numberOfDepartures, omitNonPickups, new GraphQLRequestContext(this, null));
+    }
+
+    /**
+     * Fetch upcoming vehicle departures from a stop, sharing timetables and the departures of each pattern with other
+     * lookups of the same request.
+     *
+     * @see #stopTimesForStop(Stop, long, int, int, boolean)
+     */
+    public List<StopTimesInPattern> stopTimesForStop(final Stop stop, final long startTime, final int timeRange, final int numberOfDepartures, boolean omitNonPickups, GraphQLRequestContext context) {
    
         final List<StopTimesInPattern> ret = new ArrayList<>();
 
         for (final TripPattern pattern : patternsForStop.get(stop)) {
             
-            final List<TripTimeShort> stopTimesForStop = stopTimesForPattern(stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups);
+            final List<TripTimeShort> stopTimesForStop = context.stopTimesForPattern(stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups);
 
             
             if (stopTimesForStop.size() >0) {
@@ -765,13 +793,25 @@ public class GraphIndex {
      */
     public List<TripTimeShort> stopTimesForPattern(final Stop stop, final TripPattern pattern, long startTime, final int timeRange,
             int numberOfDepartures, boolean omitNonPickups) {
+        return stopTimesForPattern(stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups,
+                new GraphQLRequestContext(this, null));
+    }
+
+    /**
+     * Fetch next n upcoming vehicle departures for a stop of pattern, resolving timetables and service days through
+     * the context of the request. A start time of 0 is the time the request started.
+     *
+     * @see #stopTimesForPattern(Stop, TripPattern, long, int, int, boolean)
+     */
+    public List<TripTimeShort> stopTimesForPattern(final Stop stop, final TripPattern pattern, long startTime, final int timeRange,
+            int numberOfDepartures, boolean omitNonPickups, GraphQLRequestContext context) {
 
         if (pattern == null) { 
             return Collections.emptyList();
         }
 
         if (startTime == 0) {
-            startTime = System.currentTimeMillis() / 1000;
+            startTime = context.getRequestTime();
         }
 
         final PriorityQueue<TripTimeShort> ret = new PriorityQueue<TripTimeShort>(numberOfDepartures) {
@@ -783,23 +823,13 @@ public class GraphIndex {
             }
         };
 
-        final TimetableSnapshot snapshot = (graph.timetableSnapshotSource != null)
-            ? graph.timetableSnapshotSource.getTimetableSnapshot() : null;
-
         Date date = new Date(startTime * 1000);
         final ServiceDate[] serviceDates = {new ServiceDate(date).previous(), new ServiceDate(date), new ServiceDate(date).next()};
 
         // Loop through all possible days
         for (final ServiceDate serviceDate : serviceDates) {
-            final ServiceDay sd = new ServiceDay(graph, serviceDate, calendarService,
-                    pattern.route.getAgency().getId());
-            Timetable tt;
-
-            if (snapshot != null) {
-                tt = snapshot.resolve(pattern, serviceDate);
-            } else {
-                tt = pattern.scheduledTimetable;
-            }
+            final ServiceDay sd = context.getServiceDay(serviceDate, pattern.route.getAgency().getId());
+            final Timetable tt = context.resolve(pattern, serviceDate);
 
             if (!tt.temporallyViable(sd, startTime, timeRange, true))
                 continue;
@@ -863,21 +893,22 @@ public class GraphIndex {
      * @return
      */
     public List<StopTimesInPattern> getStopTimesForStop(Stop stop, ServiceDate serviceDate, boolean omitNonPickups) {
+        return getStopTimesForStop(stop, serviceDate, omitNonPickups, new GraphQLRequestContext(this, null));
+    }
+
+    /**
+     * Get a list of all trips that pass through a stop during a single ServiceDate, resolving timetables and service
+     * days through the context of the request.
+     *
+     * @see #getStopTimesForStop(Stop, ServiceDate, boolean)
+     */
+    public List<StopTimesInPattern> getStopTimesForStop(Stop stop, ServiceDate serviceDate, boolean omitNonPickups, GraphQLRequestContext context) {
         List<StopTimesInPattern> ret = new ArrayList<>();
-        TimetableSnapshot snapshot = null;
-        if (graph.timetableSnapshotSource != null) {
-            snapshot = graph.timetableSnapshotSource.getTimetableSnapshot();
-        }
         Collection<TripPattern> patterns = patternsForStop.get(stop);
         for (TripPattern pattern : patterns) {
             StopTimesInPattern stopTimes = new StopTimesInPattern(pattern);
-            Timetable tt;
-            if (snapshot != null){
-                tt = snapshot.resolve(pattern, serviceDate);
-            } else {
-                tt = pattern.scheduledTimetable;
-            }
-            ServiceDay sd = new ServiceDay(graph, serviceDate, calendarService, pattern.route.getAgency().getId());
+            Timetable tt = context.resolve(pattern, serviceDate);
+            ServiceDay sd = context.getServiceDay(serviceDate, pattern.route.getAgency().getId());
             int sidx = 0;
             for (Stop currStop : pattern.stopPattern.stops) {
                 if (currStop.equals(stop)) {
@@ -1009,10 +1040,35 @@ public class GraphIndex {
     	}
     }
 
+    public GraphQLExecutor getGraphQLExecutor() {
+        return graphQLExecutor;
+    }
+
+    /**
+     * Replace the executor of GraphQL queries, e.g. with one configured for the router. The previous executor is
+     * shut down after finishing the queries already submitted to it.
+     */
+    public void setGraphQLExecutor(GraphQLExecutor graphQLExecutor) {
+        GraphQLExecutor previous = this.graphQLExecutor;
+        this.graphQLExecutor = graphQLExecutor;
+        if (previous != null && previous != graphQLExecutor) {
+            previous.shutdown();
+        }
+    }
+
     public Response getGraphQLResponse(String query, Router router, Map<String, Object> variables, String operationName, int timeout, long maxResolves, MultivaluedMap<String, String> headers) {
         Response.ResponseBuilder res = Response.status(Response.Status.OK);
-        HashMap<String, Object> content = getGraphQLExecutionResult(query, router, variables,
-            operationName, timeout, maxResolves, headers);
+        HashMap<String, Object> content;
+        try {
+            content = graphQLExecutor.execute(operationName, timeout, () -> getGraphQLExecutionResult(query, router,
+                variables, operationName, timeout, maxResolves, headers));
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Returning error 503 for GraphQL operation {}: {}", operationName, e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        } catch (ExecutionException | InterruptedException e) {
+            LOG.warn("Returning error 500, {}:{}", e.getClass(), e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
         if (content.get("errors") != null) {
             // TODO: Put correct error code, eg. 400 for syntax error
             res = Response.status(Response.Status.INTERNAL_SERVER_ERROR);
@@ -1024,14 +1080,15 @@ public class GraphIndex {
         Map<String, Object> variables, String operationName, int timeout, long maxResolves, MultivaluedMap<String, String> headers) {
         
         GraphQL graphQL = GraphQL.newGraphQL(indexSchema).queryExecutionStrategy(
-            new ResourceConstrainedExecutorServiceExecutionStrategy(threadPool, timeout, TimeUnit.MILLISECONDS, maxResolves)
+            new ResourceConstrainedExecutorServiceExecutionStrategy(graphQLExecutor.getFieldExecutor(), timeout, TimeUnit.MILLISECONDS, maxResolves)
         ).instrumentation(FieldErrorInstrumentation.get(query, router, variables, headers)).build();
 
         if (variables == null) {
             variables = new HashMap<>();
         }
         
-        ExecutionResult executionResult = graphQL.execute(query, operationName, router, variables);
+        GraphQLRequestContext context = new GraphQLRequestContext(this, router);
+        ExecutionResult executionResult = graphQL.execute(query, operationName, context, variables);
         HashMap<String, Object> content = new HashMap<>();
         
         if (!executionResult.getErrors().isEmpty()) {
@@ -1075,56 +1132,65 @@ public class GraphIndex {
         if (executionResult.getData() != null) {
             content.put("data", executionResult.getData());
         }
+
+        HashMap<String, Object> resolverCache = new HashMap<>();
+        resolverCache.put("resolverCalls", context.getResolverCalls());
+        resolverCache.put("savedResolverCalls", context.getSavedResolverCalls());
+        resolverCache.put("timetableResolutions", context.getTimetableResolutions());
+        resolverCache.put("savedTimetableResolutions", context.getSavedTimetableResolutions());
+        content.put("extensions", Collections.singletonMap("resolverCache", resolverCache));
+        LOG.debug("GraphQL request {} saved {} of {} resolver calls and {} of {} timetable resolutions", operationName,
+            context.getSavedResolverCalls(), context.getResolverCalls(),
+            context.getSavedTimetableResolutions(), context.getTimetableResolutions());
         return content;
     }
 
-    private Stream<AlertPatch> getAlertPatchStream() {
+    private Stream<AlertPatchService> getAlertPatchServices() {
         if (graph.updaterManager == null) {
             return Stream.empty();
         }
         return graph.updaterManager.getUpdaterList().stream()
             .filter(GtfsRealtimeAlertsUpdater.class::isInstance)
             .map(GtfsRealtimeAlertsUpdater.class::cast)
-            .map(GtfsRealtimeAlertsUpdater::getAlertPatchService)
-            .map(AlertPatchService::getAllAlertPatches)
-            .flatMap(Collection::stream);
+            .map(GtfsRealtimeAlertsUpdater::getAlertPatchService);
     }
 
     public List<AlertPatch> getAlerts() {
-        return getAlertPatchStream()
+        return getAlertPatchServices()
+            .map(AlertPatchService::getAllAlertPatches)
+            .flatMap(Collection::stream)
             .collect(Collectors.toList());
     }
 
     public List<AlertPatch> getAlertsForRoute(Route route) {
-        return getAlertPatchStream()
-            .filter(alertPatch -> alertPatch.getRoute() != null)
-            .filter(alertPatch -> route.getId().equals(alertPatch.getRoute()))
+        return getAlertPatchServices()
+            .flatMap(alertPatchService -> alertPatchService.getRoutePatches(route.getId()).stream())
             .collect(Collectors.toList());
     }
 
     public List<AlertPatch> getAlertsForTrip(Trip trip) {
-        return getAlertPatchStream()
-            .filter(alertPatch -> alertPatch.getTrip() != null)
-            .filter(alertPatch -> trip.getId().equals(alertPatch.getTrip()))
+        return getAlertPatchServices()
+            .flatMap(alertPatchService -> alertPatchService.getTripPatches(trip.getId()).stream())
             .collect(Collectors.toList());
     }
 
     public List<AlertPatch> getAlertsForPattern(TripPattern pattern) {
-        return getAlertPatchStream()
-            .filter(alertPatch -> alertPatch.getTripPatterns() != null)
-            .filter(alertPatch -> alertPatch.getTripPatterns().stream().anyMatch(tripPattern -> pattern.code.equals(tripPattern.code)))
+        return getAlertPatchServices()
+            .flatMap(alertPatchService -> alertPatchService.getPatternPatches(pattern.code).stream())
             .collect(Collectors.toList());
     }
 
     public List<AlertPatch> getAlertsForAgency(Agency agency) {
-        return getAlertPatchStream()
-            .filter(alertPatch -> alertPatch.getAgency() != null)
-            .filter(alertPatch -> agency.getId().equals(alertPatch.getAgency()))
+        return getAlertPatchServices()
+            .flatMap(alertPatchService -> alertPatchService.getAgencyPatches(agency.getId()).stream())
             .collect(Collectors.toList());
     }
 
     public AlertPatch getAlertForId(String id) {
-        return getAlertPatchStream().filter(alertPatch -> id.equals(alertPatch.getId())).findFirst().get();
+        return getAlertPatchServices()
+            .map(alertPatchService -> alertPatchService.getPatch(id))
+            .filter(Objects::nonNull)
+            .findFirst().get();
     }
 
     /**
@@ -0,0 +1,61 @@
+package org.opentripplanner.routing.graph;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the phases of indexing a loaded graph, possibly concurrently, and logs how long each of them took.
+ */
+final class IndexingPhases {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexingPhases.class);
+
+    private IndexingPhases() {
+    }
+
+    /** Runs a phase in the calling thread */
+    static void run(String phase, Runnable task) {
+        get(phase, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /** Runs a phase producing a result in the calling thread */
+    static <T> T get(String phase, Supplier<T> task) {
+        long startTime = System.nanoTime();
+        T result = task.get();
+        LOG.info("Indexing phase '{}' took {} ms", phase, (System.nanoTime() - startTime) / 1000000);
+        return result;
+    }
+
+    /** Starts a phase with the executor */
+    static CompletableFuture<Void> runAsync(String phase, Executor executor, Runnable task) {
+        return CompletableFuture.runAsync(() -> run(phase, task), executor);
+    }
+
+    /** Starts a phase producing a result with the executor */
+    static <T> CompletableFuture<T> supplyAsync(String phase, Executor executor, Supplier<T> task) {
+        return CompletableFuture.supplyAsync(() -> get(phase, task), executor);
+    }
+
+    /** Waits for a phase started with the executor, rethrowing its failure */
+    static <T> T join(CompletableFuture<T> phase) {
+        try {
+            return phase.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -232,6 +232,11 @@ public abstract class Vertex implements Serializable, Cloneable {
         return this.name.toString(locale);
     }
 
+    /** Gets the non-localized I18NString of the name */
+    public I18NString getRawName() {
+        return this.name;
+    }
+
     /* FIELD ACCESSOR METHODS : READ ONLY */
 
     /** Every vertex has a label which is globally unique. */
@@ -16,32 +16,35 @@ package org.opentripplanner.routing.impl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-
-import javax.ws.rs.core.Context;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.AlertPatchService;
-import org.opentripplanner.routing.services.GraphService;
-
-import com.google.common.collect.LinkedListMultimap;
-import com.google.common.collect.ListMultimap;
-import org.opentripplanner.standalone.OTPApplication;
-import org.opentripplanner.standalone.OTPServer;
 
+/**
+ * Keeps the applied alert patches indexed by id, stop, route, trip, trip pattern code and agency.
+ *
+ * Changes are serialized by locking the service. The patches for a key are kept in an immutable list that is
+ * replaced on every change, so readers get a consistent list without locking.
+ */
 public class AlertPatchServiceImpl implements AlertPatchService {
 
     private Graph graph;
 
-    private Map<String, AlertPatch> alertPatches = new HashMap<String, AlertPatch>();
-    private ListMultimap<AgencyAndId, AlertPatch> patchesByRoute = LinkedListMultimap.create();
-    private ListMultimap<AgencyAndId, AlertPatch> patchesByStop = LinkedListMultimap.create();
+    private Map<String, AlertPatch> alertPatches = new ConcurrentHashMap<String, AlertPatch>();
+    private PatchIndex<AgencyAndId> patchesByRoute = new PatchIndex<>();
+    private PatchIndex<AgencyAndId> patchesByStop = new PatchIndex<>();
+    private PatchIndex<AgencyAndId> patchesByTrip = new PatchIndex<>();
+    private PatchIndex<String> patchesByPattern = new PatchIndex<>();
+    private PatchIndex<String> patchesByAgency = new PatchIndex<>();
 
     public AlertPatchServiceImpl(Graph graph) {
         this.graph = graph;
@@ -52,23 +55,34 @@ public class AlertPatchServiceImpl implements AlertPatchService {
         return alertPatches.values();
     }
 
+    @Override
+    public AlertPatch getPatch(String id) {
+        return alertPatches.get(id);
+    }
+
     @Override
     public Collection<AlertPatch> getStopPatches(AgencyAndId stop) {
-        List<AlertPatch> result = patchesByStop.get(stop);
-        if (result == null) {
-            result = Collections.emptyList();
-        }
-        return result;
+        return patchesByStop.get(stop);
     }
 
     @Override
     public Collection<AlertPatch> getRoutePatches(AgencyAndId route) {
-        List<AlertPatch> result = patchesByRoute.get(route);
-        if (result == null) {
-            result = Collections.emptyList();
-        }
-        return result;
+        return patchesByRoute.get(route);
+    }
 
+    @Override
+    public Collection<AlertPatch> getTripPatches(AgencyAndId trip) {
+        return patchesByTrip.get(trip);
+    }
+
+    @Override
+    public Collection<AlertPatch> getPatternPatches(String patternCode) {
+        return patchesByPattern.get(patternCode);
+    }
+
+    @Override
+    public Collection<AlertPatch> getAgencyPatches(String agency) {
+        return patchesByAgency.get(agency);
     }
 
     @Override
@@ -80,18 +94,17 @@ public class AlertPatchServiceImpl implements AlertPatchService {
         alertPatch.apply(graph);
         alertPatches.put(alertPatch.getId(), alertPatch);
 
-        AgencyAndId stop = alertPatch.getStop();
-        if (stop != null) {
-            patchesByStop.put(stop, alertPatch);
-        }
-        AgencyAndId route = alertPatch.getRoute();
-        if (route != null) {
-            patchesByRoute.put(route, alertPatch);
+        patchesByStop.add(alertPatch.getStop(), alertPatch);
+        patchesByRoute.add(alertPatch.getRoute(), alertPatch);
+        patchesByTrip.add(alertPatch.getTrip(), alertPatch);
+        patchesByAgency.add(alertPatch.getAgency(), alertPatch);
+        for (String patternCode : getPatternCodes(alertPatch)) {
+            patchesByPattern.add(patternCode, alertPatch);
         }
     }
 
     @Override
-    public void expire(Set<String> purge) {
+    public synchronized void expire(Set<String> purge) {
         for (String patchId : purge) {
             if (alertPatches.containsKey(patchId)) {
                 expire(alertPatches.get(patchId));
@@ -102,7 +115,7 @@ public class AlertPatchServiceImpl implements AlertPatchService {
     }
 
     @Override
-    public void expireAll() {
+    public synchronized void expireAll() {
         for (AlertPatch alertPatch : alertPatches.values()) {
             expire(alertPatch);
         }
@@ -110,7 +123,7 @@ public class AlertPatchServiceImpl implements AlertPatchService {
     }
 
     @Override
-    public void expireAllExcept(Set<String> retain) {
+    public synchronized void expireAllExcept(Set<String> retain) {
         ArrayList<String> toRemove = new ArrayList<String>();
 
         for (Entry<String, AlertPatch> entry : alertPatches.entrySet()) {
@@ -124,15 +137,63 @@ public class AlertPatchServiceImpl implements AlertPatchService {
     }
 
     private void expire(AlertPatch alertPatch) {
-        AgencyAndId stop = alertPatch.getStop();
-        if (stop != null) {
-            patchesByStop.remove(stop, alertPatch);
-        }
-        AgencyAndId route = alertPatch.getRoute();
-        if (route != null) {
-            patchesByRoute.remove(route, alertPatch);
+        patchesByStop.remove(alertPatch.getStop(), alertPatch);
+        patchesByRoute.remove(alertPatch.getRoute(), alertPatch);
+        patchesByTrip.remove(alertPatch.getTrip(), alertPatch);
+        patchesByAgency.remove(alertPatch.getAgency(), alertPatch);
+        for (String patternCode : getPatternCodes(alertPatch)) {
+            patchesByPattern.remove(patternCode, alertPatch);
         }
 
         alertPatch.remove(graph);
     }
+
+    private static Set<String> getPatternCodes(AlertPatch alertPatch) {
+        Set<String> patternCodes = new HashSet<String>();
+        for (TripPattern tripPattern : alertPatch.getTripPatterns()) {
+            patternCodes.add(tripPattern.code);
+        }
+        return patternCodes;
+    }
+
+    /**
+     * Alert patches by key. Only changed while holding the lock of the service. The lists are immutable and
+     * replaced on every change.
+     */
+    private static class PatchIndex<K> {
+
+        private final Map<K, List<AlertPatch>> patches = new ConcurrentHashMap<K, List<AlertPatch>>();
+
+        private List<AlertPatch> get(K key) {
+            List<AlertPatch> result = key == null ? null : patches.get(key);
+            if (result == null) {
+                result = Collections.emptyList();
+            }
+            return result;
+        }
+
+        private void add(K key, AlertPatch alertPatch) {
+            if (key == null) {
+                return;
+            }
+            List<AlertPatch> result = new ArrayList<AlertPatch>(get(key));
+            result.add(alertPatch);
+            patches.put(key, Collections.unmodifiableList(result));
+        }
+
+        private void remove(K key, AlertPatch alertPatch) {
+            if (key == null) {
+                return;
+            }
+            List<AlertPatch> result = new ArrayList<AlertPatch>(get(key));
+            if (!result.remove(alertPatch)) {
+                return;
+            }
+            if (result.isEmpty()) {
+                patches.remove(key);
+            } else {
+                patches.put(key, Collections.unmodifiableList(result));
+            }
+        }
+    }
 }
@@ -51,6 +51,9 @@ public class GraphScanner {
     /** Load level */
     public LoadLevel loadLevel = LoadLevel.FULL;
 
+    /** Load columnar graph files when present */
+    public boolean columnarGraph = false;
+
     /** The GraphService where register graphs to */
     private GraphService graphService;
 
@@ -82,7 +85,7 @@ public class GraphScanner {
             LOG.info("Graph files will be sought in paths relative to {}", basePath);
             for (String routerId : routerIds) {
                 InputStreamGraphSource graphSource = InputStreamGraphSource.newFileGraphSource(
-                        routerId, getBasePath(routerId), loadLevel);
+                        routerId, getBasePath(routerId), loadLevel, columnarGraph);
                 graphService.registerGraph(routerId, graphSource);
             }
         } else {
@@ -132,7 +135,7 @@ public class GraphScanner {
                     Arrays.toString(graphToRegister.toArray()));
             for (String routerId : graphToRegister) {
                 InputStreamGraphSource graphSource = InputStreamGraphSource.newFileGraphSource(
-                        routerId, getBasePath(routerId), loadLevel);
+                        routerId, getBasePath(routerId), loadLevel, columnarGraph);
                 // Can be null here if the file has been removed in the meantime.
                 graphService.registerGraph(routerId, graphSource);
             }
@@ -0,0 +1,52 @@
+package org.opentripplanner.routing.impl;
+
+import java.util.Date;
+
+/**
+ * Timings and memory use of a staged reload, in which a new graph is loaded and warmed up while the old one keeps
+ * serving requests, and then swapped in. Heap figures are approximate as they include garbage not yet collected.
+ */
+public class GraphSwapMetrics {
+
+    /** When the new router was swapped in. */
+    public Date swapTime;
+
+    /** Time to read and index the graph and to start up its router, in milliseconds. */
+    public long loadMillis;
+
+    /** Time spent replaying sampled requests against the new router, in milliseconds. */
+    public long warmUpMillis;
+
+    /** The number of sampled requests that were replayed. */
+    public int warmUpRequests;
+
+    /** Time to publish the new router and shut down the old one, in milliseconds. */
+    public long swapMillis;
+
+    /** Time from the start of the reload until the new router was serving requests, in milliseconds. */
+    public long swapLatencyMillis;
+
+    /** Heap in use before loading the new graph, in bytes. */
+    public long heapUsedBeforeLoad;
+
+    /** Heap in use once the new graph was warmed up, while both graphs were resident, in bytes. */
+    public long heapUsedWithBothGraphs;
+
+    /** Additional heap used while both graphs were resident, in bytes. */
+    public long getOverlapBytes() {
+        return heapUsedWithBothGraphs - heapUsedBeforeLoad;
+    }
+
+    static long heapUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("load %d ms, warm-up %d ms (%d requests), swap %d ms, swap latency %d ms, " +
+                "heap used %d MB before load and %d MB with both graphs (overlap %d MB)", loadMillis, warmUpMillis,
+                warmUpRequests, swapMillis, swapLatencyMillis, heapUsedBeforeLoad >> 20, heapUsedWithBothGraphs >> 20,
+                getOverlapBytes() >> 20);
+    }
+}
@@ -18,6 +18,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.MissingNode;
 import com.google.common.io.ByteStreams;
+import org.opentripplanner.routing.graph.ColumnarGraphFile;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.routing.services.GraphSource;
@@ -27,10 +28,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.Date;
 
 /**
  * The primary implementation of the GraphSource interface. The graph is loaded from a serialized
- * graph from a given source.
+ * graph from a given source. File sources can optionally load a columnar graph file written next
+ * to the serialized graph, see {@link ColumnarGraphFile}.
  * 
  */
 public class InputStreamGraphSource implements GraphSource {
@@ -46,7 +49,7 @@ public class InputStreamGraphSource implements GraphSource {
      * */
     private static final long LOAD_DELAY_SEC = 10;
 
-    private Router router;
+    private volatile Router router;
 
     private String routerId;
 
@@ -72,7 +75,20 @@ public class InputStreamGraphSource implements GraphSource {
      */
     public static InputStreamGraphSource newFileGraphSource(String routerId, File path,
             LoadLevel loadLevel) {
-        return new InputStreamGraphSource(routerId, loadLevel, new FileStreams(path));
+        return newFileGraphSource(routerId, path, loadLevel, false);
+    }
+
+    /**
+     * @param routerId
+     * @param path
+     * @param loadLevel
+     * @param columnar True to load the columnar graph file instead of the serialized graph when it
+     *        is present and up to date.
+     * @return A GraphSource loading graph from the file system under a base path.
+     */
+    public static InputStreamGraphSource newFileGraphSource(String routerId, File path,
+            LoadLevel loadLevel, boolean columnar) {
+        return new InputStreamGraphSource(routerId, loadLevel, new FileStreams(path, columnar));
     }
 
     /**
@@ -130,14 +146,17 @@ public class InputStreamGraphSource implements GraphSource {
                     router = loadGraph();
                 }
             } else {
+                long startTime = System.currentTimeMillis();
+                long heapUsedBeforeLoad = GraphSwapMetrics.heapUsed();
                 Router newRouter = loadGraph();
                 if (newRouter != null) {
                     // Load OK
-                    if (router != null) {
-                        LOG.info("Reloading '{}': post-evicting router", routerId);
-                        router.shutdown();
+                    Router oldRouter = router;
+                    if (oldRouter != null) {
+                        swap(oldRouter, newRouter, startTime, heapUsedBeforeLoad);
+                    } else {
+                        router = newRouter;
                     }
-                    router = newRouter; // Assignment in java is atomic
                 } else {
                     // Load failed
                     if (force || router == null) {
@@ -166,6 +185,33 @@ public class InputStreamGraphSource implements GraphSource {
         }
     }
 
+    /**
+     * Replace the router of the old graph, which keeps serving requests meanwhile, with the router of the newly loaded
+     * graph. The new router is first warmed up with the requests sampled by the old one, so that the first requests it
+     * serves do not pay for cold caches and unoptimized code.
+     */
+    private void swap(Router oldRouter, Router newRouter, long startTime, long heapUsedBeforeLoad) {
+        GraphSwapMetrics metrics = new GraphSwapMetrics();
+        metrics.heapUsedBeforeLoad = heapUsedBeforeLoad;
+        long warmUpStartTime = System.currentTimeMillis();
+        metrics.loadMillis = warmUpStartTime - startTime;
+        LOG.info("Reloading '{}': warming up the new router", routerId);
+        metrics.warmUpRequests = newRouter.warmUp(oldRouter.requestSample.getRequests());
+        newRouter.requestSample.addAll(oldRouter.requestSample);
+        long swapStartTime = System.currentTimeMillis();
+        metrics.warmUpMillis = swapStartTime - warmUpStartTime;
+        metrics.heapUsedWithBothGraphs = GraphSwapMetrics.heapUsed();
+        newRouter.swapMetrics = metrics;
+        router = newRouter; // Assignment in java is atomic
+        LOG.info("Reloading '{}': post-evicting router", routerId);
+        oldRouter.shutdown();
+        long endTime = System.currentTimeMillis();
+        metrics.swapTime = new Date(endTime);
+        metrics.swapMillis = endTime - swapStartTime;
+        metrics.swapLatencyMillis = swapStartTime - startTime;
+        LOG.info("Reloaded '{}': {}", routerId, metrics);
+    }
+
     /**
      * Check if a graph has been modified since the last time it has been loaded.
      * 
@@ -202,22 +248,12 @@ public class InputStreamGraphSource implements GraphSource {
      * router with the help of the router lifecycle manager.
      */
     private Router loadGraph() {
-        final Graph newGraph;
-        try (InputStream is = streams.getGraphInputStream()) {
-            LOG.info("Loading graph...");
-            try {
-                newGraph = Graph.load(new ObjectInputStream(is), loadLevel,
-                        streetVertexIndexFactory);
-            } catch (Exception ex) {
-                LOG.error("Exception while loading graph '{}'.", routerId, ex);
-                return null;
-            }
-
-            newGraph.routerId = (routerId);
-        } catch (IOException e) {
-            LOG.warn("Graph file not found or not openable for routerId '{}': {}", routerId, e);
+        long startTime = System.currentTimeMillis();
+        final Graph newGraph = readGraph();
+        if (newGraph == null) {
             return null;
         }
+        newGraph.routerId = (routerId);
 
         // Decorate the graph TODO how are we "decorating" it? This appears to refer to loading its configuration.
         // Even if a config file is not present on disk one could be bundled inside.
@@ -234,6 +270,8 @@ public class InputStreamGraphSource implements GraphSource {
             }
             Router newRouter = new Router(routerId, newGraph);
             newRouter.startup(config);
+            LOG.info("Router '{}' ready {} ms after starting to load the graph.", routerId,
+                    System.currentTimeMillis() - startTime);
             return newRouter;
         } catch (IOException e) {
             LOG.error("Can't read config file.");
@@ -242,6 +280,37 @@ public class InputStreamGraphSource implements GraphSource {
         }
     }
 
+    /**
+     * Read the graph from the columnar graph file if there is one to use, otherwise from the
+     * serialized graph.
+     * 
+     * @return The graph, or null if it could not be read.
+     */
+    private Graph readGraph() {
+        File columnarGraphFile = streams.getColumnarGraphFile();
+        if (columnarGraphFile != null) {
+            LOG.info("Loading columnar graph...");
+            try {
+                return ColumnarGraphFile.load(columnarGraphFile, loadLevel, streetVertexIndexFactory);
+            } catch (Exception ex) {
+                LOG.error("Exception while loading columnar graph '{}'.", routerId, ex);
+                return null;
+            }
+        }
+        try (InputStream is = streams.getGraphInputStream()) {
+            LOG.info("Loading graph...");
+            try {
+                return Graph.load(new ObjectInputStream(is), loadLevel, streetVertexIndexFactory);
+            } catch (Exception ex) {
+                LOG.error("Exception while loading graph '{}'.", routerId, ex);
+                return null;
+            }
+        } catch (IOException e) {
+            LOG.warn("Graph file not found or not openable for routerId '{}': {}", routerId, e);
+            return null;
+        }
+    }
+
     /**
      * InputStreamGraphSource delegates to some actual implementation the fact of getting the input
      * stream and checking the last modification timestamp for a given routerId.
@@ -253,6 +322,9 @@ public class InputStreamGraphSource implements GraphSource {
 
         public abstract InputStream getConfigInputStream() throws IOException;
 
+        /** @return The columnar graph file to load instead of the graph input stream, or null. */
+        public abstract File getColumnarGraphFile();
+
         public abstract long getLastModified();
     }
 
@@ -260,8 +332,11 @@ public class InputStreamGraphSource implements GraphSource {
 
         private File path;
 
-        private FileStreams(File path) {
+        private boolean columnar;
+
+        private FileStreams(File path, boolean columnar) {
             this.path = path;
+            this.columnar = columnar;
         }
 
         @Override
@@ -282,10 +357,37 @@ public class InputStreamGraphSource implements GraphSource {
             }
         }
 
+        /**
+         * A columnar graph file older than the serialized graph has not been rebuilt with it, for
+         * example when a new graph has been uploaded, so it is ignored.
+         */
+        @Override
+        public File getColumnarGraphFile() {
+            if (!columnar) {
+                return null;
+            }
+            File columnarGraphFile = new File(path, ColumnarGraphFile.FILENAME);
+            if (!columnarGraphFile.canRead()) {
+                LOG.info("No columnar graph file '{}', loading the serialized graph", columnarGraphFile.getPath());
+                return null;
+            }
+            if (columnarGraphFile.lastModified() < new File(path, GRAPH_FILENAME).lastModified()) {
+                LOG.warn("Columnar graph file '{}' is older than the serialized graph, loading the serialized graph",
+                        columnarGraphFile.getPath());
+                return null;
+            }
+            LOG.debug("Loading graph from columnar file '{}'", columnarGraphFile.getPath());
+            return columnarGraphFile;
+        }
+
         @Override
         public long getLastModified() {
             // Note: this returns 0L if the file does not exists
-            return new File(path, GRAPH_FILENAME).lastModified();
+            long lastModified = new File(path, GRAPH_FILENAME).lastModified();
+            if (columnar) {
+                lastModified = Math.max(lastModified, new File(path, ColumnarGraphFile.FILENAME).lastModified());
+            }
+            return lastModified;
         }
     }
 
@@ -313,6 +415,12 @@ public class InputStreamGraphSource implements GraphSource {
                     .getResourceAsStream(configFile.getPath());
         }
 
+        @Override
+        public File getColumnarGraphFile() {
+            // Memory mapping needs a file
+            return null;
+        }
+
         /**
          * For a packaged classpath resources we assume the data won't change, so returning always
          * 0L basically disable auto-reload in that case.
@@ -334,6 +442,9 @@ public class InputStreamGraphSource implements GraphSource {
 
         public LoadLevel loadLevel = LoadLevel.FULL;
 
+        /** Load columnar graph files when present */
+        public boolean columnarGraph = false;
+
         public FileFactory(File basePath) {
             this.basePath = basePath;
         }
@@ -341,7 +452,7 @@ public class InputStreamGraphSource implements GraphSource {
         @Override
         public GraphSource createGraphSource(String routerId) {
             return InputStreamGraphSource.newFileGraphSource(routerId, getBasePath(routerId),
-                    loadLevel);
+                    loadLevel, columnarGraph);
         }
 
         @Override
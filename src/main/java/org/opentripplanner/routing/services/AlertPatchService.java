@@ -22,10 +22,19 @@ import org.opentripplanner.routing.alertpatch.AlertPatch;
 public interface AlertPatchService {
     Collection<AlertPatch> getAllAlertPatches();
 
+    /** @return the patch with the id, or null if there is none */
+    AlertPatch getPatch(String id);
+
     Collection<AlertPatch> getStopPatches(AgencyAndId stop);
 
     Collection<AlertPatch> getRoutePatches(AgencyAndId route);
 
+    Collection<AlertPatch> getTripPatches(AgencyAndId trip);
+
+    Collection<AlertPatch> getPatternPatches(String patternCode);
+
+    Collection<AlertPatch> getAgencyPatches(String agency);
+
     void apply(AlertPatch alertPatch);
 
     void expire(Set<String> ids);
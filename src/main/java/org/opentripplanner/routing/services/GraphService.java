@@ -25,7 +25,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -66,6 +69,9 @@ public class GraphService {
 
     private ScheduledExecutorService scanExecutor;
 
+    /** Loads graphs in the background for staged reloads, one at a time. Created when first needed. */
+    private ExecutorService reloadExecutor;
+
     public GraphService() {
         this(false);
     }
@@ -95,6 +101,9 @@ public class GraphService {
     @PreDestroy
     private void teardown() {
         LOG.info("Cleaning-up graphs...");
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
         evictAll();
         cleanupWebapp();
     }
@@ -172,6 +181,46 @@ public class GraphService {
         }
     }
 
+    /**
+     * Reload a registered graph in the background, without evicting it first: the current graph keeps serving
+     * requests while the new one is loaded and warmed up, and is then swapped for it. If the reload fails, evict
+     * (remove) the graph. Unlike reloadGraph() this does not block the registration or eviction of other graphs.
+     *
+     * @param routerId ID of the router
+     * @param force When true, force a reload. If false, only check if the source has been modified,
+     *        and reload if so.
+     * @return The outcome of the reload, false if no graph is registered with this router ID.
+     */
+    public Future<Boolean> reloadGraphInBackground(String routerId, boolean force) {
+        final GraphSource graphSource;
+        synchronized (graphSources) {
+            graphSource = graphSources.get(routerId);
+            if (graphSource == null) {
+                return CompletableFuture.completedFuture(false);
+            }
+            if (reloadExecutor == null) {
+                reloadExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "graph-reload");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        return reloadExecutor.submit(() -> {
+            LOG.info("Reloading router '{}' in the background", routerId);
+            boolean success = graphSource.reload(force, false);
+            if (!success) {
+                synchronized (graphSources) {
+                    // Do not evict a graph registered under the same ID while this one was loading
+                    if (graphSources.get(routerId) == graphSource) {
+                        evictRouter(routerId);
+                    }
+                }
+            }
+            return success;
+        });
+    }
+
     /** @return a collection of all valid router IDs for this server */
     public Collection<String> getRouterIds() {
         return new ArrayList<String>(graphSources.keySet());
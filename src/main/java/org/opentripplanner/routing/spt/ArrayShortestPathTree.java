@@ -0,0 +1,228 @@
+package org.opentripplanner.routing.spt;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+
+/**
+ * A ShortestPathTree that keeps the states of each vertex in an array slot indexed by Vertex.getIndex()
+ * instead of a map of lists.
+ *
+ * A slot holds either nothing, a single State, or a list of co-dominant States. With single-state
+ * dominance functions like MinimumWeight or EarliestArrival a vertex almost always has one state, so add()
+ * and visit() neither hash the vertex nor allocate. A list is only created when incomparable states
+ * (bike rental, parking, turn restrictions...) meet at the same vertex.
+ *
+ * The slot array covers every vertex that exists when the search starts and grows if temporary vertices are
+ * created later. The indexes of the slots in use are recorded, so that listing the vertices and states of the
+ * tree only visits the vertices that were reached. Callers running many small searches, such as one per transit
+ * stop, should release() each tree once its results are copied out: its slots are then cleared and the array is
+ * reused by the next tree created on the same thread instead of allocating one per search.
+ * Select it with RoutingRequest.arrayShortestPathTree.
+ */
+public class ArrayShortestPathTree extends ShortestPathTree {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArrayShortestPathTree.class);
+
+    private static final Object[] NO_SLOTS = new Object[0];
+
+    /** The empty slot array released by the last tree on each thread, softly referenced so it can be reclaimed */
+    private static final ThreadLocal<SoftReference<Object[]>> releasedSlots = new ThreadLocal<>();
+
+    /** Each element is null, a State or a List of States */
+    private Object[] slots;
+
+    /** Indexes of the slots that are not null, in the order the vertices were reached */
+    private final TIntArrayList reached = new TIntArrayList();
+
+    public ArrayShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction) {
+        super(options, dominanceFunction);
+        Object[] released = takeReleasedSlots();
+        slots = released != null && released.length >= Vertex.getMaxIndex() ?
+                released : new Object[Vertex.getMaxIndex()];
+    }
+
+    @Override
+    public boolean add(State newState) {
+        int index = newState.getVertex().getIndex();
+        if (index >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(index + 1, Vertex.getMaxIndex()));
+        }
+
+        Object slot = slots[index];
+
+        // if the vertex has no states, add one and return
+        if (slot == null) {
+            slots[index] = newState;
+            reached.add(index);
+            return true;
+        }
+
+        if (slot instanceof State) {
+            State oldState = (State) slot;
+            // order is important, because in the case of a tie we want to reject the new state
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
+                return false;
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+                slots[index] = newState;
+                return true;
+            }
+
+            // the states are co-dominant, switch to a list
+            List<State> states = new ArrayList<>(2);
+            states.add(oldState);
+            states.add(newState);
+            slots[index] = states;
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<State> states = (List<State>) slot;
+        Iterator<State> it = states.iterator();
+        while (it.hasNext()) {
+            State oldState = it.next();
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
+                return false;
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState))
+                it.remove();
+        }
+
+        states.add(newState);
+        return true;
+    }
+
+    @Override
+    public boolean visit(State state) {
+        Object slot = getSlot(state.getVertex());
+        if (slot == state) {
+            return true;
+        }
+
+        if (slot instanceof List) {
+            for (Object s : (List<?>) slot) {
+                if (s == state) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        Object slot = getSlot(dest);
+        if (slot instanceof State) {
+            State state = (State) slot;
+            return state.isFinal() ? state : null;
+        }
+
+        if (slot == null)
+            return null;
+
+        State ret = null;
+        for (State s : getStates(dest)) {
+            if ((ret == null || s.weight < ret.weight) && s.isFinal()) {
+                ret = s;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<State> getStates(Vertex dest) {
+        Object slot = getSlot(dest);
+        if (slot == null)
+            return null;
+        if (slot instanceof State)
+            return Collections.singletonList((State) slot);
+        return (List<State>) slot;
+    }
+
+    @Override
+    public Set<Vertex> getVertices() {
+        Set<Vertex> vertices = Collections.newSetFromMap(new IdentityHashMap<Vertex, Boolean>(reached.size()));
+        for (int i = 0; i < reached.size(); i++) {
+            Object slot = slots[reached.get(i)];
+            if (slot instanceof State) {
+                vertices.add(((State) slot).getVertex());
+            } else {
+                // lists always hold at least one state
+                vertices.add(((State) ((List<?>) slot).get(0)).getVertex());
+            }
+        }
+        return vertices;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return reached.size();
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        ArrayList<State> allStates = new ArrayList<State>(reached.size());
+        for (int i = 0; i < reached.size(); i++) {
+            Object slot = slots[reached.get(i)];
+            if (slot instanceof State) {
+                allStates.add((State) slot);
+            } else {
+                for (Object s : (List<?>) slot) {
+                    allStates.add((State) s);
+                }
+            }
+        }
+        return allStates;
+    }
+
+    /**
+     * Empty this tree and hand its slot array over to the next tree created on this thread. Only the slots that were
+     * reached are cleared. The tree holds no states afterwards.
+     */
+    @Override
+    public void release() {
+        if (slots == NO_SLOTS) {
+            return;
+        }
+        for (int i = 0; i < reached.size(); i++) {
+            slots[reached.get(i)] = null;
+        }
+        reached.clear();
+        releasedSlots.set(new SoftReference<>(slots));
+        slots = NO_SLOTS;
+    }
+
+    @Override
+    public void dump() {
+        int statesCount = getAllStates().size();
+        LOG.info("SPT: vertices: " + reached.size() + " states: total: " + statesCount + " avg: "
+                + (statesCount * 1.0 / reached.size()));
+    }
+
+    @Override
+    public String toString() {
+        return "ArrayShortestPathTree(" + reached.size() + " vertices)";
+    }
+
+    private Object getSlot(Vertex vertex) {
+        int index = vertex.getIndex();
+        return index < slots.length ? slots[index] : null;
+    }
+
+    private static Object[] takeReleasedSlots() {
+        SoftReference<Object[]> reference = releasedSlots.get();
+        if (reference == null) {
+            return null;
+        }
+        releasedSlots.remove();
+        return reference.get();
+    }
+
+}
@@ -106,13 +106,28 @@ public abstract class DominanceFunction implements Serializable {
      * MultiShortestPathTree is the general case -- it will work with both single- and multi-state functions.
      */
      public ShortestPathTree getNewShortestPathTree(RoutingRequest routingRequest) {
+        if (routingRequest.arrayShortestPathTree) {
+            return new ArrayShortestPathTree(routingRequest, this);
+        }
         return new ShortestPathTree(routingRequest, this);
      }
 
+    /**
+     * Return true if this function orders all comparable states on a single criterion, so that a vertex normally
+     * keeps only one state. Co-dominant states can still appear where states are incomparable (bike rental,
+     * parking, turn restrictions...), but they are rare enough for AStar to queue states by vertex.
+     */
+    public boolean isSingleState() {
+        return false;
+    }
+
     public static class MinimumWeight extends DominanceFunction {
         /** Return true if the first state has lower weight than the second state. */
         @Override
         public boolean betterOrEqual (State a, State b) { return a.weight <= b.weight; }
+
+        @Override
+        public boolean isSingleState() { return true; }
     }
 
     /**
@@ -123,6 +138,9 @@ public abstract class DominanceFunction implements Serializable {
         /** Return true if the first state has lower elapsed time than the second state. */
         @Override
         public boolean betterOrEqual (State a, State b) { return a.getElapsedTimeSeconds() <= b.getElapsedTimeSeconds(); }
+
+        @Override
+        public boolean isSingleState() { return true; }
     }
     
     /**
@@ -138,6 +156,11 @@ public abstract class DominanceFunction implements Serializable {
             return a.getWalkDistance() <= b.getWalkDistance(); 
         }
 
+        @Override
+        public boolean isSingleState() {
+            return true;
+        }
+
     }
 
     /** In this implementation the relation is not symmetric. There are sets of mutually co-dominant states. */
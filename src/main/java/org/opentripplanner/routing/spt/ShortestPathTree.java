@@ -233,6 +233,13 @@ public class ShortestPathTree {
         return allStates;
     }
 
+    /**
+     * Let go of the storage of this tree once its results have been copied out, so that it can be reused by later
+     * searches. The tree must not be used afterwards.
+     */
+    public void release() {
+    }
+
     public String toString() {
         return "ShortestPathTree(" + this.stateSets.size() + " vertices)";
     }
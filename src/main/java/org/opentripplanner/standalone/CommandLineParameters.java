@@ -66,6 +66,14 @@ public class CommandLineParameters implements Cloneable {
             description = "Pass the graph to the server in-memory after building it, and saving to disk.")
     public boolean preFlight;
 
+    @Parameter(names = {"--columnarGraph"},
+            description = "Also save the built graph as Graph.columnar, and load graphs from Graph.columnar when present.")
+    public boolean columnarGraph = false;
+
+    @Parameter(names = {"--sequentialIndexing"},
+            description = "Build the indexes of loaded graphs on a single thread, e.g. to compare startup times.")
+    public boolean sequentialIndexing = false;
+
     @Parameter(names = { "--version", },
             description = "Print the version, and then exit.")
     public boolean version = false;
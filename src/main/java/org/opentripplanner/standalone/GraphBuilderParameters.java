@@ -152,11 +152,26 @@ public class GraphBuilderParameters {
      */
     public final boolean banDiscouragedBiking;
 
+    /**
+     * Load OSM data in a compact database, which needs much less memory for large (country-size) extracts.
+     */
+    public final boolean compactOsmDatabase;
+
+    /**
+     * Keep OSM node coordinates of the compact OSM database in a temporary file mapped in memory, off the heap.
+     */
+    public final boolean mapOsmNodeCoordinates;
+
     /**
      * Transfers up to this length in meters will be pre-calculated and included in the Graph.
      */
     public final double maxTransferDistance;
 
+    /**
+     * Search for the stops to transfer to from several stops at once.
+     */
+    public final boolean parallelTransfers;
+
     /**
      * This will add extra edges when linking a stop to a platform, to prevent detours along the platform edge.
      */
@@ -194,7 +209,10 @@ public class GraphBuilderParameters {
         pruningThresholdIslandWithStops = config.path("islandWithStopsMaxSize").asInt(5);
         banDiscouragedWalking = config.path("banDiscouragedWalking").asBoolean(false);
         banDiscouragedBiking = config.path("banDiscouragedBiking").asBoolean(false);
+        compactOsmDatabase = config.path("compactOsmDatabase").asBoolean(false);
+        mapOsmNodeCoordinates = config.path("mapOsmNodeCoordinates").asBoolean(false);
         maxTransferDistance = config.path("maxTransferDistance").asDouble(2000);
+        parallelTransfers = config.path("parallelTransfers").asBoolean(true);
         extraEdgesStopPlatformLink = config.path("extraEdgesStopPlatformLink").asBoolean(false);
     }
 
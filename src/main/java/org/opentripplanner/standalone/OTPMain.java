@@ -100,6 +100,8 @@ public class OTPMain {
 
         // TODO do params.infer() here to ensure coherency?
 
+        Graph.parallelIndexing = !params.sequentialIndexing;
+
         /* Create the top-level objects that represent the OTP server. */
         makeGraphService();
         otpServer = new OTPServer(params, graphService);
@@ -128,6 +130,7 @@ public class OTPMain {
             /* Auto-register pre-existing graph on disk, with optional auto-scan. */
             GraphScanner graphScanner = new GraphScanner(graphService, params.graphDirectory, params.autoScan);
             graphScanner.basePath = params.graphDirectory;
+            graphScanner.columnarGraph = params.columnarGraph;
             if (params.routerIds != null && params.routerIds.size() > 0) {
                 graphScanner.defaultRouterId = params.routerIds.get(0);
             }
@@ -183,6 +186,7 @@ public class OTPMain {
         graphService = new GraphService(params.autoReload);
         InputStreamGraphSource.FileFactory graphSourceFactory =
                 new InputStreamGraphSource.FileFactory(params.graphDirectory);
+        graphSourceFactory.columnarGraph = params.columnarGraph;
         graphService.graphSourceFactory = graphSourceFactory;
         if (params.graphDirectory != null) {
             graphSourceFactory.basePath = params.graphDirectory;
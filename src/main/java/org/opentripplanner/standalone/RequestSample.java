@@ -0,0 +1,62 @@
+package org.opentripplanner.standalone;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A uniform sample of bounded size of the trip planning requests a router has received (reservoir sampling). When the
+ * graph of the router is reloaded, the sample is replayed against the new graph to warm it up before it is swapped in.
+ *
+ * Requests are copied when they are added, before they are routed, so the sample never holds on to routing contexts.
+ */
+public class RequestSample {
+
+    private final int size;
+
+    private final List<RoutingRequest> requests;
+
+    private final Random random = new Random();
+
+    /** The number of requests offered to this sample, including the ones that were not kept. */
+    private long offered = 0;
+
+    public RequestSample(int size) {
+        this.size = size;
+        this.requests = new ArrayList<>(size);
+    }
+
+    /** Offer a request to the sample, which keeps a copy of it with a probability of size / offered requests. */
+    public synchronized void add(RoutingRequest request) {
+        if (size <= 0) {
+            return;
+        }
+        offered++;
+        if (requests.size() < size) {
+            requests.add(request.clone());
+        } else {
+            long i = (long) (random.nextDouble() * offered);
+            if (i < size) {
+                requests.set((int) i, request.clone());
+            }
+        }
+    }
+
+    /** Offer all the requests of another sample, used to carry the sample over to the router of a reloaded graph. */
+    public void addAll(RequestSample other) {
+        for (RoutingRequest request : other.getRequests()) {
+            add(request);
+        }
+    }
+
+    /** @return a copy of the requests in the sample, which must be cloned again before they are routed. */
+    public synchronized List<RoutingRequest> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
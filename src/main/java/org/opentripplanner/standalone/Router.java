@@ -9,11 +9,16 @@ import ch.qos.logback.core.FileAppender;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.opentripplanner.analyst.request.*;
 import org.opentripplanner.analyst.scenario.ScenarioStore;
+import org.opentripplanner.api.resource.GraphPathToTripPlanConverter;
+import org.opentripplanner.index.GraphQLExecutor;
 import org.opentripplanner.inspector.TileRendererManager;
 import org.opentripplanner.reflect.ReflectiveInitializer;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.impl.GraphSwapMetrics;
+import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.updater.GraphUpdaterConfigurator;
 import org.opentripplanner.util.ElevationUtils;
 import org.opentripplanner.util.WorldEnvelope;
@@ -21,6 +26,7 @@ import org.opentripplanner.visualizer.GraphVisualizer;
 import org.slf4j.LoggerFactory;
 
 import java.util.EnumMap;
+import java.util.List;
 
 /**
  * Represents the configuration of a single router (a single graph for a specific geographic area)
@@ -32,6 +38,10 @@ public class Router {
 
     public static final String ROUTER_CONFIG_FILENAME = "router-config.json";
 
+    private static final int DEFAULT_WARM_UP_SAMPLE_SIZE = 100;
+
+    private static final int DEFAULT_WARM_UP_TIMEOUT_SECONDS = 30;
+
     public String id;
     public Graph graph;
     public double[] timeouts = {5, 4, 2};
@@ -42,6 +52,15 @@ public class Router {
      */
     public Logger requestLogger = null;
 
+    /** Sample of the trip planning requests, replayed to warm up the router of a reloaded graph before it is used. */
+    public RequestSample requestSample = new RequestSample(DEFAULT_WARM_UP_SAMPLE_SIZE);
+
+    /** Maximum time spent warming up this router before it replaces the router of the previous graph. */
+    public int warmUpTimeoutSeconds = DEFAULT_WARM_UP_TIMEOUT_SECONDS;
+
+    /** How the reload that swapped in this router went, null if it was not swapped in by a staged reload. */
+    public GraphSwapMetrics swapMetrics = null;
+
     /* TODO The fields for "components" are slowly disappearing... maybe at some point a router will be nothing but configuration values tied to a Graph. */
 
     // Inspector/debug services
@@ -133,6 +152,10 @@ public class Router {
             LOG.info("Incoming requests will not be logged.");
         }
 
+        JsonNode warmUp = config.path("warmUp");
+        this.requestSample = new RequestSample(warmUp.path("sampleSize").asInt(DEFAULT_WARM_UP_SAMPLE_SIZE));
+        this.warmUpTimeoutSeconds = warmUp.path("timeoutSeconds").asInt(DEFAULT_WARM_UP_TIMEOUT_SECONDS);
+
         JsonNode boardTimes = config.get("boardTimes");
         if (boardTimes != null && boardTimes.isObject()) {
             graph.boardTimes = new EnumMap<>(TraverseMode.class);
@@ -170,6 +193,11 @@ public class Router {
             graph.stopClusterMode = "proximity";
         }
         
+        /* Bound the execution of GraphQL queries, the index is not built for some tests. */
+        if (graph.index != null) {
+            graph.index.setGraphQLExecutor(new GraphQLExecutor(this.id, config.path("graphQL")));
+        }
+
         /* Create Graph updater modules from JSON config. */
         GraphUpdaterConfigurator.setupGraph(this.graph, config);
 
@@ -188,6 +216,36 @@ public class Router {
     /** Shut down this router when evicted or (auto-)reloaded. Stop any real-time updater threads. */
     public void shutdown() {
         GraphUpdaterConfigurator.shutdownGraph(this.graph);
+        if (graph.index != null) {
+            graph.index.getGraphQLExecutor().shutdown();
+        }
+    }
+
+    /**
+     * Warm up the caches of this router and the JIT by planning the given requests, before this router starts serving
+     * requests. Gives up after warmUpTimeoutSeconds. Failing requests are ignored, they may well be outside the graph.
+     * @return the number of requests that were planned.
+     */
+    public int warmUp(List<RoutingRequest> requests) {
+        long deadline = System.currentTimeMillis() + warmUpTimeoutSeconds * 1000L;
+        int n = 0;
+        for (RoutingRequest sampled : requests) {
+            if (System.currentTimeMillis() > deadline) {
+                LOG.info("Warm-up of router '{}' timed out after {} of {} requests.", this.id, n, requests.size());
+                break;
+            }
+            RoutingRequest request = sampled.clone();
+            try {
+                List<GraphPath> paths = new GraphPathFinder(this).graphPathFinderEntryPoint(request);
+                GraphPathToTripPlanConverter.generatePlan(paths, request);
+            } catch (Exception e) {
+                LOG.debug("Warm-up request failed on router '{}': {}", this.id, e.toString());
+            } finally {
+                request.cleanup();
+            }
+            n++;
+        }
+        return n;
     }
 
     /**
@@ -11,7 +11,13 @@ import org.opentripplanner.routing.graph.GraphIndex;
 import org.opentripplanner.routing.trippattern.TripTimes;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class is used for matching TripDescriptors without trip_ids to scheduled GTFS data and to
@@ -19,11 +25,23 @@ import java.util.BitSet;
  *
  * The class should only be used if we know that the feed producer is unable to produce trip_ids
  * in the GTFS-RT feed.
+ *
+ * Scheduled trips are indexed by route, direction and first departure time the first time a trip is matched, and the
+ * services running on each date are cached, so matching a descriptor is a hash lookup instead of a scan over all
+ * trips of the route.
  */
 public class GtfsRealtimeFuzzyTripMatcher {
 
+    /** Dates of the service cache, the cache is cleared when it grows past this */
+    private static final int MAX_CACHED_SERVICE_DATES = 64;
+
     private GraphIndex index;
 
+    /** Scheduled trip times by route, direction and first departure, in pattern and timetable order */
+    private volatile Map<TripKey, TripTimes[]> tripTimesForKey;
+
+    private final Map<ServiceDate, BitSet> servicesForDate = new ConcurrentHashMap<>();
+
     public GtfsRealtimeFuzzyTripMatcher(GraphIndex index) {
         this.index = index;
     }
@@ -74,16 +92,92 @@ public class GtfsRealtimeFuzzyTripMatcher {
 
     public Trip getTrip (Route route, int direction,
                           int startTime, ServiceDate date) {
-        BitSet services = index.servicesRunning(date);
-        for (TripPattern pattern : index.patternsForRoute.get(route)) {
-            if (pattern.directionId != direction) continue;
-            for (TripTimes times : pattern.scheduledTimetable.tripTimes) {
-                if (times.getScheduledDepartureTime(0) == startTime &&
-                        services.get(times.serviceCode)) {
-                    return times.trip;
-                }
+        TripTimes[] candidates = getTripTimesForKey().get(new TripKey(route, direction, startTime));
+        if (candidates == null) {
+            return null;
+        }
+        BitSet services = getServicesRunning(date);
+        for (TripTimes times : candidates) {
+            if (services.get(times.serviceCode)) {
+                return times.trip;
             }
         }
         return null;
     }
+
+    private BitSet getServicesRunning(ServiceDate date) {
+        BitSet services = servicesForDate.get(date);
+        if (services == null) {
+            if (servicesForDate.size() >= MAX_CACHED_SERVICE_DATES) {
+                servicesForDate.clear();
+            }
+            services = index.servicesRunning(date);
+            servicesForDate.put(date, services);
+        }
+        return services;
+    }
+
+    private Map<TripKey, TripTimes[]> getTripTimesForKey() {
+        Map<TripKey, TripTimes[]> result = tripTimesForKey;
+        if (result == null) {
+            synchronized (this) {
+                result = tripTimesForKey;
+                if (result == null) {
+                    result = indexTripTimes();
+                    tripTimesForKey = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Groups the scheduled trip times of all routes by route, direction and first departure. Candidates keep the
+     * order in which a scan of the route's patterns would find them, so the first trip running on a date wins as
+     * before.
+     */
+    private Map<TripKey, TripTimes[]> indexTripTimes() {
+        Map<TripKey, List<TripTimes>> lists = new HashMap<>();
+        for (Route route : index.patternsForRoute.keySet()) {
+            for (TripPattern pattern : index.patternsForRoute.get(route)) {
+                for (TripTimes times : pattern.scheduledTimetable.tripTimes) {
+                    TripKey key = new TripKey(route, pattern.directionId, times.getScheduledDepartureTime(0));
+                    lists.computeIfAbsent(key, k -> new ArrayList<>(1)).add(times);
+                }
+            }
+        }
+        Map<TripKey, TripTimes[]> result = new HashMap<>(lists.size() * 4 / 3 + 1);
+        for (Map.Entry<TripKey, List<TripTimes>> entry : lists.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toArray(new TripTimes[entry.getValue().size()]));
+        }
+        return result;
+    }
+
+    private static final class TripKey {
+
+        private final Route route;
+
+        private final int direction;
+
+        private final int startTime;
+
+        private TripKey(Route route, int direction, int startTime) {
+            this.route = route;
+            this.direction = direction;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TripKey)) return false;
+            TripKey other = (TripKey) o;
+            return direction == other.direction && startTime == other.startTime && route.equals(other.route);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(route, direction, startTime);
+        }
+    }
 }
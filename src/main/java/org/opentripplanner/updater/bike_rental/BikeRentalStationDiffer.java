@@ -0,0 +1,138 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.bike_rental;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+
+/**
+ * Compares the stations of each poll of a bike rental data source with the previous poll, so that only new, changed
+ * and removed stations have to be applied to the graph.
+ *
+ * Instead of keeping the stations of the previous poll, only the state of each station that the updater applies is
+ * kept. This class is not thread-safe, it is meant to be used by the polling thread of a single updater.
+ */
+public class BikeRentalStationDiffer {
+
+    /** State of each station of the previous poll by station id */
+    private Map<String, StationState> stateById = new HashMap<>();
+
+    /**
+     * Compare the stations with the stations of the previous call
+     *
+     * @param stations all stations of a poll
+     * @return stations added, changed and removed since the previous call
+     */
+    public Diff diff(List<BikeRentalStation> stations) {
+        Diff diff = new Diff();
+        Map<String, StationState> newStateById = new HashMap<>(stations.size() * 4 / 3 + 1);
+        for (BikeRentalStation station : stations) {
+            if (newStateById.containsKey(station.id)) {
+                // duplicate station in the same poll, the first one wins
+                continue;
+            }
+            StationState state = new StationState(station);
+            newStateById.put(station.id, state);
+            StationState previousState = stateById.get(station.id);
+            if (previousState == null) {
+                diff.added.add(station);
+            } else if (!previousState.equals(state)) {
+                diff.changed.add(station);
+            }
+        }
+        for (String id : stateById.keySet()) {
+            if (!newStateById.containsKey(id)) {
+                diff.removed.add(id);
+            }
+        }
+        stateById = newStateById;
+        return diff;
+    }
+
+    /**
+     * Everything the updater applies to the graph or the bike rental station service for a station
+     */
+    static final class StationState {
+
+        private final double x, y;
+
+        private final int bikesAvailable, spacesAvailable;
+
+        private final boolean allowDropoff, isFloatingBike, realTimeData;
+
+        private final String state;
+
+        private final Set<String> networks;
+
+        private final String name;
+
+        StationState(BikeRentalStation station) {
+            x = station.x;
+            y = station.y;
+            bikesAvailable = station.bikesAvailable;
+            spacesAvailable = station.spacesAvailable;
+            allowDropoff = station.allowDropoff;
+            isFloatingBike = station.isFloatingBike;
+            realTimeData = station.realTimeData;
+            state = station.state;
+            // copied, data sources may reuse the set of a station
+            networks = station.networks == null ? null : new HashSet<>(station.networks);
+            name = station.name == null ? null : station.name.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StationState)) return false;
+            StationState other = (StationState) o;
+            return Double.compare(x, other.x) == 0 && Double.compare(y, other.y) == 0
+                    && bikesAvailable == other.bikesAvailable && spacesAvailable == other.spacesAvailable
+                    && allowDropoff == other.allowDropoff && isFloatingBike == other.isFloatingBike
+                    && realTimeData == other.realTimeData && Objects.equals(state, other.state)
+                    && Objects.equals(networks, other.networks) && Objects.equals(name, other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(x, y, bikesAvailable, spacesAvailable, allowDropoff, isFloatingBike, realTimeData,
+                    state, networks, name);
+        }
+    }
+
+    /**
+     * Changes between two polls
+     */
+    public static class Diff {
+
+        /** Stations that were not in the previous poll */
+        public final List<BikeRentalStation> added = new ArrayList<>();
+
+        /** Stations whose state changed since the previous poll */
+        public final List<BikeRentalStation> changed = new ArrayList<>();
+
+        /** Ids of stations of the previous poll that are missing */
+        public final Set<String> removed = new HashSet<>();
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+}
@@ -17,19 +17,29 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Iterables;
+import com.vividsolutions.jts.geom.Coordinate;
 import org.opentripplanner.graph_builder.linking.SimpleStreetSplitter;
 import org.opentripplanner.routing.bike_rental.BikeRentalStation;
 import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
 import org.opentripplanner.routing.edgetype.RentABikeOffEdge;
 import org.opentripplanner.routing.edgetype.RentABikeOnEdge;
+import org.opentripplanner.routing.edgetype.StreetBikeRentalLink;
+import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
 import org.opentripplanner.updater.GraphUpdaterManager;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.JsonConfigurable;
@@ -49,6 +59,12 @@ import org.slf4j.LoggerFactory;
  * bike1.sourceType = jcdecaux
  * bike1.url = https://api.jcdecaux.com/vls/v1/stations?contract=Xxx?apiKey=Zzz
  * </pre>
+ *
+ * Each poll is compared with the previous one by {@link BikeRentalStationDiffer}, and only new, changed and removed
+ * stations are handed to the graph writer thread; a poll without changes costs no graph writer runnable at all. The
+ * street edges new stations will be linked to are searched for in parallel on the polling thread. When a recently
+ * removed station comes back at the same place, it is linked to the street vertices it was linked to before instead
+ * of splitting the streets again.
  */
 public class BikeRentalUpdater extends PollingGraphUpdater {
 
@@ -58,14 +74,36 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
 
     private static final String DEFAULT_NETWORK_LIST = "default";
 
+    /** The number of removed stations whose link targets are remembered, the least recently removed are forgotten */
+    private static final int MAX_REMOVED_STATIONS = 1000;
+
     Map<BikeRentalStation, BikeRentalStationVertex> verticesByStation = new HashMap<BikeRentalStation, BikeRentalStationVertex>();
 
+    /**
+     * Street vertices removed stations were linked to by station id, only used by the graph writer thread. Bounded,
+     * as the ids of floating bikes change all the time and most of them never come back.
+     */
+    private Map<String, LinkTargets> linkTargetsByRemovedStation = new LinkedHashMap<String, LinkTargets>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LinkTargets> eldest) {
+            return size() > MAX_REMOVED_STATIONS;
+        }
+    };
+
+    private final BikeRentalStationDiffer differ = new BikeRentalStationDiffer();
+
     private BikeRentalDataSource source;
 
     private Graph graph;
 
     private SimpleStreetSplitter linker;
 
+    /**
+     * Searches for link edges share the read lock of the linker, one station at a time, and linking on the graph
+     * writer thread takes the write lock, so graph updates only wait for the searches already running.
+     */
+    private final ReadWriteLock linkerLock = new ReentrantReadWriteLock();
+
     private BikeRentalStationService service;
 
     private String network = "default";
@@ -158,8 +196,26 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
         }
         List<BikeRentalStation> stations = source.getStations();
 
-        // Create graph writer runnable to apply these stations to the graph
-        BikeRentalGraphWriterRunnable graphWriterRunnable = new BikeRentalGraphWriterRunnable(stations);
+        Set<String> defaultNetworks = new HashSet<String>(Arrays.asList(network));
+        for (BikeRentalStation station : stations) {
+            if (station.networks == null) {
+                /* API did not provide a network list, use default */
+                station.networks = defaultNetworks;
+            }
+        }
+
+        BikeRentalStationDiffer.Diff diff = differ.diff(stations);
+        if (diff.isEmpty()) {
+            LOG.debug("No changes in {} bike rental stations", stations.size());
+            return;
+        }
+
+        // Find the streets to link new stations to, edges split meanwhile are caught when the stations are linked
+        Map<String, List<StreetEdge>> linkEdges = diff.added.parallelStream().collect(Collectors.toMap(
+                station -> station.id, station -> findLinkEdges(station)));
+
+        // Create graph writer runnable to apply these changes to the graph
+        BikeRentalGraphWriterRunnable graphWriterRunnable = new BikeRentalGraphWriterRunnable(diff, linkEdges);
         updaterManager.execute(graphWriterRunnable);
     }
 
@@ -167,31 +223,36 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
     public void teardown() {
     }
 
+    /** Find the street edges to link a station to, the linker must not split streets during the search */
+    private List<StreetEdge> findLinkEdges(BikeRentalStation station) {
+        linkerLock.readLock().lock();
+        try {
+            return linker.findLinkEdges(new Coordinate(station.x, station.y));
+        } finally {
+            linkerLock.readLock().unlock();
+        }
+    }
+
     private class BikeRentalGraphWriterRunnable implements GraphWriterRunnable {
 
-        private List<BikeRentalStation> stations;
+        private BikeRentalStationDiffer.Diff diff;
+
+        private Map<String, List<StreetEdge>> linkEdges;
 
-        public BikeRentalGraphWriterRunnable(List<BikeRentalStation> stations) {
-            this.stations = stations;
+        public BikeRentalGraphWriterRunnable(BikeRentalStationDiffer.Diff diff, Map<String, List<StreetEdge>> linkEdges) {
+            this.diff = diff;
+            this.linkEdges = linkEdges;
         }
 
 		@Override
         public void run(Graph graph) {
-            // Apply stations to graph
-            Set<BikeRentalStation> stationSet = new HashSet<BikeRentalStation>();
-            Set<String> defaultNetworks = new HashSet<String>(Arrays.asList(network));
-            /* add any new stations and update bike counts for existing stations */
-            for (BikeRentalStation station : stations) {
-                if (station.networks == null) {
-                    /* API did not provide a network list, use default */
-                    station.networks = defaultNetworks;
-                }
+            /* add new stations */
+            for (BikeRentalStation station : diff.added) {
                 service.addBikeRentalStation(station);
-                stationSet.add(station);
                 BikeRentalStationVertex vertex = verticesByStation.get(station);
                 if (vertex == null) {
                     vertex = new BikeRentalStationVertex(graph, station);
-                    if (!linker.link(vertex)) {
+                    if (!link(graph, vertex, station)) {
                         // the toString includes the text "Bike rental station"
                         LOG.warn("{} not near any streets; it will not be usable.", station);
                     }
@@ -204,24 +265,82 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
                     vertex.setSpacesAvailable(station.spacesAvailable);
                 }
             }
+            /* update bike counts for changed stations */
+            for (BikeRentalStation station : diff.changed) {
+                service.addBikeRentalStation(station);
+                BikeRentalStationVertex vertex = verticesByStation.get(station);
+                if (vertex != null) {
+                    vertex.setBikesAvailable(station.bikesAvailable);
+                    vertex.setSpacesAvailable(station.spacesAvailable);
+                }
+            }
+            if (diff.removed.isEmpty()) {
+                return;
+            }
             /* remove existing stations that were not present in the update */
             List<BikeRentalStation> toRemove = new ArrayList<BikeRentalStation>();
             for (Entry<BikeRentalStation, BikeRentalStationVertex> entry : verticesByStation.entrySet()) {
                 BikeRentalStation station = entry.getKey();
-                if (stationSet.contains(station))
+                if (!diff.removed.contains(station.id))
                     continue;
                 BikeRentalStationVertex vertex = entry.getValue();
                 if (graph.containsVertex(vertex)) {
+                    // the streets split for the station stay split, remember where it was linked for when it returns
+                    List<StreetVertex> targets = new ArrayList<StreetVertex>();
+                    for (StreetBikeRentalLink link : Iterables.filter(vertex.getOutgoing(), StreetBikeRentalLink.class)) {
+                        targets.add((StreetVertex) link.getToVertex());
+                    }
+                    if (!targets.isEmpty()) {
+                        linkTargetsByRemovedStation.put(station.id, new LinkTargets(vertex.getCoordinate(), targets));
+                    }
                     graph.removeVertexAndEdges(vertex);
                 }
                 toRemove.add(station);
                 service.removeBikeRentalStation(station);
-                // TODO: need to unsplit any streets that were split
             }
             for (BikeRentalStation station : toRemove) {
                 // post-iteration removal to avoid concurrent modification
                 verticesByStation.remove(station);
             }
         }
+
+        /**
+         * Link the vertex of a new station to the streets. A station that was removed earlier is linked to the same
+         * street vertices again if it is at the same place and they still exist. Otherwise the edges found on the
+         * polling thread are used.
+         */
+        private boolean link(Graph graph, BikeRentalStationVertex vertex, BikeRentalStation station) {
+            LinkTargets linkTargets = linkTargetsByRemovedStation.remove(station.id);
+            if (linkTargets != null && linkTargets.coordinate.equals2D(vertex.getCoordinate())
+                    && linkTargets.vertices.stream().allMatch(graph::containsVertex)) {
+                for (StreetVertex target : linkTargets.vertices) {
+                    new StreetBikeRentalLink(vertex, target);
+                    new StreetBikeRentalLink(target, vertex);
+                }
+                return true;
+            }
+            List<StreetEdge> edges = linkEdges.get(station.id);
+            linkerLock.writeLock().lock();
+            try {
+                return edges != null ? linker.link(vertex, edges) : linker.link(vertex);
+            } finally {
+                linkerLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * The street vertices a removed station was linked to and its coordinate at the time
+     */
+    private static class LinkTargets {
+
+        private final Coordinate coordinate;
+
+        private final List<StreetVertex> vertices;
+
+        private LinkTargets(Coordinate coordinate, List<StreetVertex> vertices) {
+            this.coordinate = coordinate;
+            this.vertices = vertices;
+        }
     }
 }
@@ -0,0 +1,210 @@
+package org.opentripplanner.updater.stoptime;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opentripplanner.updater.GraphUpdaterManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+
+/**
+ * Collects trip updates from a streaming GTFS-RT source (MQTT, websocket) and applies them to the graph in batches.
+ *
+ * Only the newest update of each trip and service date is kept while waiting, so a burst of messages about the same
+ * vehicles costs one applyTripUpdates call instead of one graph writer runnable per message. A batch is handed to the
+ * GraphUpdaterManager at most once per flush interval, and never while the previous batch is still waiting for the
+ * graph writer thread, so the writer queue cannot grow without bound. The batch is taken when the writer runs, so it
+ * always contains the latest updates.
+ *
+ * Queue depth and the number of updates replaced by newer ones are exposed for monitoring and logged with each batch.
+ */
+public class CoalescingTripUpdateQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingTripUpdateQueue.class);
+
+    private final String feedId;
+
+    /** Pending updates by trip and service date, in arrival order */
+    private Map<String, TripUpdate> pending = new LinkedHashMap<>();
+
+    /** Whether the pending updates replace all previous updates of the feed */
+    private boolean pendingFullDataset = false;
+
+    /** Whether anything was offered since the last drain, a full dataset may be empty */
+    private boolean hasPending = false;
+
+    private long receivedCount = 0;
+
+    private long droppedCount = 0;
+
+    private long appliedCount = 0;
+
+    private long uniqueKey = 0;
+
+    private final AtomicBoolean batchScheduled = new AtomicBoolean(false);
+
+    private ScheduledExecutorService flushExecutor;
+
+    /**
+     * @param feedId feed id of the updates
+     */
+    public CoalescingTripUpdateQueue(String feedId) {
+        this.feedId = feedId;
+    }
+
+    /**
+     * Start handing batches to the updater manager
+     *
+     * @param updaterManager updater manager executing the batches
+     * @param flushIntervalMillis minimum time between batches
+     */
+    public void start(GraphUpdaterManager updaterManager, long flushIntervalMillis) {
+        // a daemon thread, so that the queue does not keep the JVM alive if the updater is not torn down
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("TripUpdateQueue-" + feedId + "-%d").setDaemon(true).build());
+        flushExecutor.scheduleWithFixedDelay(() -> flush(updaterManager), flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop handing batches to the updater manager. Pending updates are discarded.
+     */
+    public void stop() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Add updates of a single message
+     *
+     * @param fullDataset whether the updates replace all previous updates of the feed
+     * @param updates updates
+     */
+    public synchronized void offer(boolean fullDataset, List<TripUpdate> updates) {
+        if (fullDataset) {
+            droppedCount += pending.size();
+            pending = new LinkedHashMap<>();
+            pendingFullDataset = true;
+        }
+
+        for (TripUpdate update : updates) {
+            receivedCount++;
+            String key = getKey(update);
+            TripUpdate previous = pending.put(key, update);
+            if (previous != null) {
+                droppedCount++;
+                // messages may arrive out of order, never replace a newer update with an older one
+                if (previous.hasTimestamp() && update.hasTimestamp() && previous.getTimestamp() > update.getTimestamp()) {
+                    pending.put(key, previous);
+                }
+            }
+        }
+
+        hasPending = true;
+    }
+
+    /**
+     * Take all pending updates
+     *
+     * @return graph writer runnable applying the pending updates, or null if there are none
+     */
+    public synchronized TripUpdateGraphWriterRunnable drain() {
+        if (!hasPending) {
+            return null;
+        }
+
+        List<TripUpdate> updates = new ArrayList<>(pending.values());
+        TripUpdateGraphWriterRunnable runnable = new TripUpdateGraphWriterRunnable(pendingFullDataset, updates, feedId);
+        appliedCount += updates.size();
+        pending = new LinkedHashMap<>();
+        pendingFullDataset = false;
+        hasPending = false;
+        return runnable;
+    }
+
+    /**
+     * @return number of updates waiting to be applied
+     */
+    public synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * @return number of updates received
+     */
+    public synchronized long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * @return number of updates replaced by a newer update of the same trip, or by a full dataset, before being applied
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return number of updates handed to the graph writer
+     */
+    public synchronized long getAppliedCount() {
+        return appliedCount;
+    }
+
+    /**
+     * Schedules a batch on the graph writer thread unless one is already waiting there
+     *
+     * @param updaterManager updater manager
+     */
+    private void flush(GraphUpdaterManager updaterManager) {
+        synchronized (this) {
+            if (!hasPending) {
+                return;
+            }
+        }
+
+        if (!batchScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        updaterManager.execute(graph -> {
+            TripUpdateGraphWriterRunnable runnable = drain();
+            batchScheduled.set(false);
+            if (runnable != null) {
+                runnable.run(graph);
+            }
+            LOG.debug("Applied trip update batch of feed {}: queue depth {}, received {}, dropped {}, applied {}",
+                    feedId, getQueueDepth(), getReceivedCount(), getDroppedCount(), getAppliedCount());
+        });
+    }
+
+    /**
+     * Returns the key identifying the trip and service date of an update. Updates without a trip descriptor get a
+     * unique key, so they are passed through as is.
+     *
+     * @param update trip update
+     * @return key
+     */
+    private String getKey(TripUpdate update) {
+        if (!update.hasTrip()) {
+            return "#" + (uniqueKey++);
+        }
+
+        TripDescriptor trip = update.getTrip();
+        if (trip.hasTripId()) {
+            return trip.getTripId() + "|" + trip.getStartDate();
+        }
+
+        return trip.getRouteId() + "|" + trip.getDirectionId() + "|" + trip.getStartTime() + "|" + trip.getStartDate();
+    }
+
+}
@@ -22,8 +22,9 @@ import java.util.List;
 
 /**
  * This class starts an Paho MQTT client which opens a connection to a GTFS-RT data source.
- * A callback is registered which handles incoming GTFS-RT messages as they stream in by placing a
- * GTFS-RT decoder Runnable task in the single-threaded executor for handling.
+ * A callback is registered which handles incoming GTFS-RT messages as they stream in by placing the decoded
+ * trip updates in a {@link CoalescingTripUpdateQueue}, which applies the newest update of each trip in batches
+ * every flushIntervalMs milliseconds. By default, with flushIntervalMs = 0, each message is applied separately.
  *
  * Usage example ('bessersmith' name is an example) in the file 'Graph.properties':
  *
@@ -32,6 +33,7 @@ import java.util.List;
  * bessersmith.feedId = hsl
  * bessersmith.url = ssl://mqtt.hsl.fi:443
  * bessersmith.topic = "gtfs/trip-updates/#"
+ * bessersmith.flushIntervalMs = 1000
  * </pre>
  *
  */
@@ -50,6 +52,10 @@ public class MqttGtfsRealtimeUpdater implements GraphUpdater {
 
     private boolean fuzzyTripMatching;
 
+    private long flushIntervalMs;
+
+    private CoalescingTripUpdateQueue tripUpdateQueue;
+
     private String clientId = "OpenTripPlanner-" + MqttClient.generateClientId();
 
     MemoryPersistence persistence = new MemoryPersistence();
@@ -64,6 +70,7 @@ public class MqttGtfsRealtimeUpdater implements GraphUpdater {
         feedId = config.path("feedId").asText("");
         qos = config.path("qos").asInt(0);
         fuzzyTripMatching = config.path("fuzzyTripMatching").asBoolean(false);
+        flushIntervalMs = config.path("flushIntervalMs").asLong(0);
     }
 
     @Override public void setGraphUpdaterManager(GraphUpdaterManager updaterManager) {
@@ -84,6 +91,11 @@ public class MqttGtfsRealtimeUpdater implements GraphUpdater {
                 graph.timetableSnapshotSource = (snapshotSource);
             }
         });
+
+        if (flushIntervalMs > 0) {
+            tripUpdateQueue = new CoalescingTripUpdateQueue(feedId);
+            tripUpdateQueue.start(updaterManager, flushIntervalMs);
+        }
     }
 
     @Override public void run() throws Exception {
@@ -134,7 +146,10 @@ public class MqttGtfsRealtimeUpdater implements GraphUpdater {
                     LOG.error("Could not decode gtfs-rt message:", e);
                 }
 
-                if (updates != null) {
+                if (updates != null && tripUpdateQueue != null) {
+                    // Coalesce trip updates, they are applied in batches
+                    tripUpdateQueue.offer(fullDataset, updates);
+                } else if (updates != null) {
                     // Handle trip updates via graph writer runnable
                     TripUpdateGraphWriterRunnable runnable = new TripUpdateGraphWriterRunnable(
                         fullDataset, updates, feedId);
@@ -152,6 +167,9 @@ public class MqttGtfsRealtimeUpdater implements GraphUpdater {
     }
 
     @Override public void teardown() {
+        if (tripUpdateQueue != null) {
+            tripUpdateQueue.stop();
+        }
         try {
             client.disconnect();
         } catch (MqttException e) {
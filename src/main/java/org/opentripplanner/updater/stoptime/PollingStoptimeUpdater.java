@@ -68,6 +68,11 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
      */
     private Boolean purgeExpiredData;
 
+    /**
+     * Property to set on the RealtimeDataSnapshotSource
+     */
+    private Boolean parallelUpdates;
+
     /**
      * Feed id that is used for the trip ids in the TripUpdates
      */
@@ -114,6 +119,7 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
             this.maxSnapshotFrequency = maxSnapshotFrequency;
         }
         this.purgeExpiredData = config.path("purgeExpiredData").asBoolean(true);
+        this.parallelUpdates = config.path("parallelUpdates").asBoolean(false);
         if (config.path("fuzzyTripMatching").asBoolean(false)) {
             this.fuzzyTripMatcher = new GtfsRealtimeFuzzyTripMatcher(graph.index);
         }
@@ -150,6 +156,9 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
                 if (purgeExpiredData != null) {
                     snapshotSource.purgeExpiredData = (purgeExpiredData);
                 }
+                if (parallelUpdates != null) {
+                    snapshotSource.parallelUpdates = (parallelUpdates);
+                }
                 if (fuzzyTripMatcher != null) {
                     snapshotSource.fuzzyTripMatcher = fuzzyTripMatcher;
                 }
@@ -17,11 +17,13 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
 
 import org.onebusaway.gtfs.model.Agency;
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -104,6 +106,15 @@ public class TimetableSnapshotSource {
     /** Should expired realtime data be purged from the graph. */
     public boolean purgeExpiredData = true;
 
+    /**
+     * Should large messages be decoded in parallel and their scheduled trip updates applied concurrently for
+     * different patterns, see {@link #applyTripUpdatesInParallel(Graph, List, String)}.
+     */
+    public boolean parallelUpdates = false;
+
+    /** Messages with fewer trip updates than this are applied sequentially even if parallelUpdates is set. */
+    public int parallelUpdatesThreshold = 100;
+
     protected ServiceDate lastPurgeDate = null;
 
     protected long lastSnapshotTime = -1;
@@ -198,72 +209,26 @@ public class TimetableSnapshotSource {
             }
 
             LOG.debug("message contains {} trip updates", updates.size());
-            int uIndex = 0;
-
-            for (TripUpdate tripUpdate : updates) {
-                SentryUtilities.setupSentryTripUpdate(tripUpdate);
-
-                if (fuzzyTripMatcher != null && tripUpdate.hasTrip()) {
-                    final TripDescriptor trip = fuzzyTripMatcher.match(feedId, tripUpdate.getTrip());
-                    tripUpdate = tripUpdate.toBuilder().setTrip(trip).build();
-                }
 
-                if (!tripUpdate.hasTrip()) {
-                    LOG.warn("Missing TripDescriptor in gtfs-rt trip update: \n{}", tripUpdate);
-                    continue;
-                }
-
-                ServiceDate serviceDate = new ServiceDate();
-                final TripDescriptor tripDescriptor = tripUpdate.getTrip();
+            if (parallelUpdates && updates.size() >= parallelUpdatesThreshold) {
+                applyTripUpdatesInParallel(graph, updates, feedId);
+            } else {
+                int uIndex = 0;
 
-                if (tripDescriptor.hasStartDate()) {
-                    try {
-                        serviceDate = ServiceDate.parseString(tripDescriptor.getStartDate());
-                    } catch (final ParseException e) {
-                        LOG.warn("Failed to parse start date in gtfs-rt trip update: \n{}", tripUpdate);
+                for (TripUpdate tripUpdate : updates) {
+                    SentryUtilities.setupSentryTripUpdate(tripUpdate);
+                    final DecodedTripUpdate decoded = decodeTripUpdate(tripUpdate, feedId);
+                    if (decoded == null) {
                         continue;
                     }
-                } else {
-                    // TODO: figure out the correct service date. For the special case that a trip
-                    // starts for example at 40:00, yesterday would probably be a better guess.
-                }
-
-                uIndex += 1;
-                LOG.debug("trip update #{} ({} updates) :",
-                        uIndex, tripUpdate.getStopTimeUpdateCount());
-                LOG.trace("{}", tripUpdate);
-
-                // Determine what kind of trip update this is
-                boolean applied = false;
-                final TripDescriptor.ScheduleRelationship tripScheduleRelationship = determineTripScheduleRelationship(
-                        tripUpdate);
-                switch (tripScheduleRelationship) {
-                    case SCHEDULED:
-                        applied = handleScheduledTrip(tripUpdate, feedId, serviceDate);
-                        break;
-                    case ADDED:
-                        applied = validateAndHandleAddedTrip(graph, tripUpdate, feedId, serviceDate);
-                        break;
-                    case UNSCHEDULED:
-                        applied = handleUnscheduledTrip(tripUpdate, feedId, serviceDate);
-                        break;
-                    case CANCELED:
-                        applied = handleCanceledTrip(tripUpdate, feedId, serviceDate);
-                        break;
-                    case MODIFIED:
-                        applied = validateAndHandleModifiedTrip(graph, tripUpdate, feedId, serviceDate);
-                        break;
-                }
 
-                if (applied) {
-                    appliedBlockCount++;
-                } else {
-                    LOG.info("Failed to apply TripUpdate.");
-                    LOG.trace(" Contents: {}", tripUpdate);
-                }
+                    uIndex += 1;
+                    LOG.debug("trip update #{} ({} updates) :",
+                            uIndex, decoded.tripUpdate.getStopTimeUpdateCount());
+                    LOG.trace("{}", decoded.tripUpdate);
 
-                if (appliedBlockCount > 0 && appliedBlockCount % logFrequency == 0) {
-                    LOG.info("Applied {} trip updates.", appliedBlockCount);
+                    final boolean applied = applyTripUpdate(graph, decoded, feedId);
+                    countAppliedTripUpdate(applied, decoded.tripUpdate);
                 }
             }
             LOG.debug("end of update message");
@@ -283,6 +248,153 @@ public class TimetableSnapshotSource {
         }
     }
 
+    /**
+     * Applies the trip updates of a message with the same result as the sequential loop in applyTripUpdates, but
+     * spreads the work over several threads. The caller must hold the buffer lock.
+     *
+     * All updates are first decoded, validated and, if they update a scheduled trip, turned into updated trip times
+     * in parallel. None of this depends on the buffer, as scheduled trips are always updated on top of the scheduled
+     * timetable of their pattern. The updates are then applied in message order, except that each run of consecutive
+     * updates of scheduled trips is grouped by pattern and the groups are applied to the buffer concurrently, each
+     * in message order. Updates of different patterns in such a run do not depend on each other. Updates adding,
+     * modifying or canceling trips are applied one by one between the runs, as they may touch several patterns.
+     *
+     * @param graph graph to update
+     * @param updates trip updates
+     * @param feedId feed id of the updates
+     */
+    private void applyTripUpdatesInParallel(final Graph graph, final List<TripUpdate> updates, final String feedId) {
+        final DecodedTripUpdate[] decodedUpdates = new DecodedTripUpdate[updates.size()];
+        IntStream.range(0, updates.size()).parallel().forEach(index -> {
+            final DecodedTripUpdate decoded = decodeTripUpdate(updates.get(index), feedId);
+            if (decoded != null && decoded.scheduleRelationship == TripDescriptor.ScheduleRelationship.SCHEDULED) {
+                decoded.pattern = getPatternForTripId(feedId, decoded.tripUpdate.getTrip().getTripId());
+                decoded.updatedTripTimes = createScheduledTripTimes(decoded.pattern, decoded.tripUpdate,
+                        decoded.serviceDate);
+            }
+            decodedUpdates[index] = decoded;
+        });
+
+        // The Sentry context is thread-local, so it is only set up on this thread, for each update in message order
+        final List<DecodedTripUpdate> scheduledUpdates = new ArrayList<>();
+        for (int index = 0; index < decodedUpdates.length; index++) {
+            SentryUtilities.setupSentryTripUpdate(updates.get(index));
+            final DecodedTripUpdate decoded = decodedUpdates[index];
+            if (decoded == null) {
+                continue;
+            }
+            if (decoded.scheduleRelationship == TripDescriptor.ScheduleRelationship.SCHEDULED) {
+                scheduledUpdates.add(decoded);
+            } else {
+                applyScheduledTripUpdatesByPattern(scheduledUpdates, feedId);
+                scheduledUpdates.clear();
+                final boolean applied = applyTripUpdate(graph, decoded, feedId);
+                countAppliedTripUpdate(applied, decoded.tripUpdate);
+            }
+        }
+        applyScheduledTripUpdatesByPattern(scheduledUpdates, feedId);
+    }
+
+    /**
+     * Applies decoded updates of scheduled trips to the buffer, concurrently for different patterns.
+     *
+     * @param scheduledUpdates decoded updates of scheduled trips in message order
+     * @param feedId feed id of the updates
+     */
+    private void applyScheduledTripUpdatesByPattern(final List<DecodedTripUpdate> scheduledUpdates, final String feedId) {
+        final Map<TripPattern, List<DecodedTripUpdate>> updatesByPattern = new LinkedHashMap<>();
+        for (final DecodedTripUpdate decoded : scheduledUpdates) {
+            if (decoded.updatedTripTimes != null) {
+                updatesByPattern.computeIfAbsent(decoded.pattern, pattern -> new ArrayList<>()).add(decoded);
+            }
+        }
+
+        updatesByPattern.values().parallelStream().forEach(patternUpdates -> {
+            for (final DecodedTripUpdate decoded : patternUpdates) {
+                decoded.applied = buffer.update(feedId, decoded.pattern, decoded.updatedTripTimes,
+                        decoded.serviceDate);
+            }
+        });
+
+        for (final DecodedTripUpdate decoded : scheduledUpdates) {
+            countAppliedTripUpdate(decoded.applied, decoded.tripUpdate);
+        }
+    }
+
+    /**
+     * Matches the trip of a trip update and determines its service date and how it should be handled. May run on
+     * pool threads, so it must not touch thread-local state such as the Sentry context.
+     *
+     * @param tripUpdate trip update
+     * @param feedId feed id of the update
+     * @return decoded trip update; null if the update cannot be applied
+     */
+    private DecodedTripUpdate decodeTripUpdate(TripUpdate tripUpdate, final String feedId) {
+        if (fuzzyTripMatcher != null && tripUpdate.hasTrip()) {
+            final TripDescriptor trip = fuzzyTripMatcher.match(feedId, tripUpdate.getTrip());
+            tripUpdate = tripUpdate.toBuilder().setTrip(trip).build();
+        }
+
+        if (!tripUpdate.hasTrip()) {
+            LOG.warn("Missing TripDescriptor in gtfs-rt trip update: \n{}", tripUpdate);
+            return null;
+        }
+
+        ServiceDate serviceDate = new ServiceDate();
+        final TripDescriptor tripDescriptor = tripUpdate.getTrip();
+
+        if (tripDescriptor.hasStartDate()) {
+            try {
+                serviceDate = ServiceDate.parseString(tripDescriptor.getStartDate());
+            } catch (final ParseException e) {
+                LOG.warn("Failed to parse start date in gtfs-rt trip update: \n{}", tripUpdate);
+                return null;
+            }
+        } else {
+            // TODO: figure out the correct service date. For the special case that a trip
+            // starts for example at 40:00, yesterday would probably be a better guess.
+        }
+
+        // Determine what kind of trip update this is
+        return new DecodedTripUpdate(tripUpdate, serviceDate, determineTripScheduleRelationship(tripUpdate));
+    }
+
+    /**
+     * Applies a decoded trip update to the buffer.
+     *
+     * @return true iff successful
+     */
+    private boolean applyTripUpdate(final Graph graph, final DecodedTripUpdate decoded, final String feedId) {
+        final TripUpdate tripUpdate = decoded.tripUpdate;
+        final ServiceDate serviceDate = decoded.serviceDate;
+        switch (decoded.scheduleRelationship) {
+            case SCHEDULED:
+                return handleScheduledTrip(tripUpdate, feedId, serviceDate);
+            case ADDED:
+                return validateAndHandleAddedTrip(graph, tripUpdate, feedId, serviceDate);
+            case UNSCHEDULED:
+                return handleUnscheduledTrip(tripUpdate, feedId, serviceDate);
+            case CANCELED:
+                return handleCanceledTrip(tripUpdate, feedId, serviceDate);
+            case MODIFIED:
+                return validateAndHandleModifiedTrip(graph, tripUpdate, feedId, serviceDate);
+        }
+        return false;
+    }
+
+    private void countAppliedTripUpdate(final boolean applied, final TripUpdate tripUpdate) {
+        if (applied) {
+            appliedBlockCount++;
+        } else {
+            LOG.info("Failed to apply TripUpdate.");
+            LOG.trace(" Contents: {}", tripUpdate);
+        }
+
+        if (appliedBlockCount > 0 && appliedBlockCount % logFrequency == 0) {
+            LOG.info("Applied {} trip updates.", appliedBlockCount);
+        }
+    }
+
     /**
      * Determine how the trip update should be handled.
      *
@@ -330,14 +442,34 @@ public class TimetableSnapshotSource {
         final String tripId = tripDescriptor.getTripId();
         final TripPattern pattern = getPatternForTripId(feedId, tripId);
 
-        if (pattern == null) {
-            LOG.warn("No pattern found for tripId {}, skipping TripUpdate.", tripId);
+        final TripTimes updatedTripTimes = createScheduledTripTimes(pattern, tripUpdate, serviceDate);
+
+        if (updatedTripTimes == null) {
             return false;
         }
 
+        final boolean success = buffer.update(feedId, pattern, updatedTripTimes, serviceDate);
+        return success;
+    }
+
+    /**
+     * Apply a trip update of a scheduled trip on the scheduled timetable of its pattern. Does not use the buffer.
+     *
+     * @param pattern pattern of the scheduled trip, may be null
+     * @param tripUpdate trip update
+     * @param serviceDate service date
+     * @return updated trip times; null if the update is invalid
+     */
+    private TripTimes createScheduledTripTimes(final TripPattern pattern, final TripUpdate tripUpdate,
+            final ServiceDate serviceDate) {
+        if (pattern == null) {
+            LOG.warn("No pattern found for tripId {}, skipping TripUpdate.", tripUpdate.getTrip().getTripId());
+            return null;
+        }
+
         if (tripUpdate.getStopTimeUpdateCount() < 1) {
             LOG.warn("TripUpdate contains no updates, skipping.");
-            return false;
+            return null;
         }
 
         // Apply update on the *scheduled* time table and set the updated trip times in the buffer
@@ -345,14 +477,13 @@ public class TimetableSnapshotSource {
                 timeZone, serviceDate);
 
         if (updatedTripTimes == null) {
-            return false;
+            return null;
         }
 
         // Make sure that updated trip times have the correct real time state
         updatedTripTimes.setRealTimeState(RealTimeState.UPDATED);
 
-        final boolean success = buffer.update(feedId, pattern, updatedTripTimes, serviceDate);
-        return success;
+        return updatedTripTimes;
     }
 
     /**
@@ -987,4 +1118,30 @@ public class TimetableSnapshotSource {
         return stop;
     }
 
+
+    /**
+     * A trip update with its matched trip descriptor, service date and schedule relationship. For updates of
+     * scheduled trips decoded in parallel, also the pattern and updated trip times.
+     */
+    private static class DecodedTripUpdate {
+
+        private final TripUpdate tripUpdate;
+
+        private final ServiceDate serviceDate;
+
+        private final TripDescriptor.ScheduleRelationship scheduleRelationship;
+
+        private TripPattern pattern;
+
+        private TripTimes updatedTripTimes;
+
+        private boolean applied;
+
+        private DecodedTripUpdate(TripUpdate tripUpdate, ServiceDate serviceDate,
+                TripDescriptor.ScheduleRelationship scheduleRelationship) {
+            this.tripUpdate = tripUpdate;
+            this.serviceDate = serviceDate;
+            this.scheduleRelationship = scheduleRelationship;
+        }
+    }
 }
@@ -39,8 +39,10 @@ import com.ning.http.client.websocket.WebSocketUpgradeHandler;
 
 /**
  * This class starts an HTTP client which opens a websocket connection to a GTFS-RT data source. A
- * callback is registered which handles incoming GTFS-RT messages as they stream in by placing a
- * GTFS-RT decoder Runnable task in the single-threaded executor for handling.
+ * callback is registered which handles incoming GTFS-RT messages as they stream in by placing the
+ * decoded trip updates in a {@link CoalescingTripUpdateQueue}, which applies the newest update of each
+ * trip in batches every flushIntervalMs milliseconds. By default, with flushIntervalMs = 0, each message is
+ * applied separately.
  *
  * Usage example ('websocket' name is an example) in the file 'Graph.properties':
  *
@@ -48,6 +50,7 @@ import com.ning.http.client.websocket.WebSocketUpgradeHandler;
  * websocket.type = websocket-gtfs-rt-updater
  * websocket.defaultAgencyId = agency
  * websocket.url = ws://localhost:8088/tripUpdates
+ * websocket.flushIntervalMs = 1000
  * </pre>
  *
  */
@@ -59,6 +62,8 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
 
     private static final int DEFAULT_RECONNECT_PERIOD_SEC = 300; // Five minutes
 
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 0;
+
     private static Logger LOG = LoggerFactory.getLogger(WebsocketGtfsRealtimeUpdater.class);
 
     /**
@@ -81,6 +86,13 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
      */
     private int reconnectPeriodSec;
 
+    /**
+     * Minimum time between applied batches of trip updates, 0 applies each message separately
+     */
+    private long flushIntervalMs;
+
+    private CoalescingTripUpdateQueue tripUpdateQueue;
+
     @Override
     public void setGraphUpdaterManager(GraphUpdaterManager updaterManager) {
         this.updaterManager = updaterManager;
@@ -91,6 +103,7 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
         url = config.path("url").asText();
         feedId = config.path("feedId").asText("");
         reconnectPeriodSec = config.path("reconnectPeriodSec").asInt(DEFAULT_RECONNECT_PERIOD_SEC);
+        flushIntervalMs = config.path("flushIntervalMs").asLong(DEFAULT_FLUSH_INTERVAL_MS);
     }
 
     @Override
@@ -107,6 +120,11 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
                 }
             }
         });
+
+        if (flushIntervalMs > 0) {
+            tripUpdateQueue = new CoalescingTripUpdateQueue(feedId);
+            tripUpdateQueue.start(updaterManager, flushIntervalMs);
+        }
     }
 
     @Override
@@ -162,6 +180,9 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
 
     @Override
     public void teardown() {
+        if (tripUpdateQueue != null) {
+            tripUpdateQueue.stop();
+        }
     }
 
     /**
@@ -198,7 +219,10 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
                 LOG.error("Could not decode gtfs-rt message:", e);
             }
 
-            if (updates != null) {
+            if (updates != null && tripUpdateQueue != null) {
+                // Coalesce trip updates, they are applied in batches
+                tripUpdateQueue.offer(fullDataset, updates);
+            } else if (updates != null) {
                 // Handle trip updates via graph writer runnable
                 TripUpdateGraphWriterRunnable runnable = new TripUpdateGraphWriterRunnable(
                         fullDataset, updates, feedId);
@@ -0,0 +1,59 @@
+package org.opentripplanner.airquality;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AirQualityGridTest {
+
+  @Test
+  public void testRegularAxes() {
+    AirQualityGrid grid = new AirQualityGrid(new double[] { 60.0, 60.1, 60.2, 60.3 }, new double[] { 24.0, 24.5, 25.0 });
+
+    assertEquals(12, grid.getCellCount());
+    assertEquals(0, grid.getClosestCell(23.0, 59.0));
+    assertEquals(11, grid.getClosestCell(26.0, 61.0));
+
+    int cell = grid.getClosestCell(24.6, 60.14);
+    assertEquals(1, grid.getLatitudeIndex(cell));
+    assertEquals(1, grid.getLongitudeIndex(cell));
+  }
+
+  @Test
+  public void testIrregularAxes() {
+    AirQualityGrid grid = new AirQualityGrid(new double[] { 60.0, 60.1, 60.5, 61.0 }, new double[] { 25.0, 24.9, 24.0 });
+
+    int cell = grid.getClosestCell(24.4, 60.31);
+    assertEquals(2, grid.getLatitudeIndex(cell));
+    assertEquals(2, grid.getLongitudeIndex(cell));
+
+    cell = grid.getClosestCell(24.96, 60.29);
+    assertEquals(1, grid.getLatitudeIndex(cell));
+    assertEquals(0, grid.getLongitudeIndex(cell));
+  }
+
+  @Test
+  public void testGeometryKey() {
+    AirQualityGrid grid = new AirQualityGrid(new double[] { 60.0, 60.1 }, new double[] { 24.0, 24.5 });
+    AirQualityGrid same = new AirQualityGrid(new double[] { 60.0, 60.1 }, new double[] { 24.0, 24.5 });
+    AirQualityGrid other = new AirQualityGrid(new double[] { 60.0, 60.2 }, new double[] { 24.0, 24.5 });
+
+    assertEquals(grid.getGeometryKey(), same.getGeometryKey());
+    assertTrue(grid.sameGeometry(same));
+    assertFalse(grid.sameGeometry(other));
+  }
+
+  @Test
+  public void testWindow() {
+    AirQualityGrid grid = new AirQualityGrid(new double[] { 60.0, 60.1, 60.2, 60.3 }, new double[] { 24.0, 24.5, 25.0 });
+    AirQualityGrid.Window window = new AirQualityGrid.Window(1, 2, 1, 2);
+
+    assertEquals(4, window.getCellCount());
+    assertEquals(0, window.getSliceIndex(grid, grid.getClosestCell(24.5, 60.1)));
+    assertEquals(3, window.getSliceIndex(grid, grid.getClosestCell(25.0, 60.2)));
+    assertEquals(12, grid.getFullWindow().getCellCount());
+  }
+
+}
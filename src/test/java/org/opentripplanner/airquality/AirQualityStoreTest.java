@@ -0,0 +1,57 @@
+package org.opentripplanner.airquality;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AirQualityStoreTest {
+
+  private static final long ORIGIN = 1500000000000L;
+  private static final long HOUR = 3600000L;
+
+  @Test
+  public void testPublish() {
+    AirQualityStore store = new AirQualityStore();
+    assertNull(store.getForecast());
+
+    AirQualityStore.Update update = store.beginUpdate(ORIGIN, 2, new int[] { 7, 3 });
+    update.setValues(0, new float[] { 1.5f, 2.5f });
+    update.setValues(1, new float[] { 3.5f, 4.5f });
+    assertNull(store.getForecast());
+    update.publish();
+
+    AirQualityForecast forecast = store.getForecast();
+    assertEquals(0, forecast.getHourIndex(ORIGIN + HOUR / 2));
+    assertEquals(1, forecast.getHourIndex(ORIGIN + HOUR));
+    assertEquals(-1, forecast.getHourIndex(ORIGIN + 2 * HOUR));
+    assertEquals(2.5f, forecast.getAqi(7, 1), 0f);
+    assertEquals(3.5f, forecast.getAqi(3, 0), 0f);
+    assertTrue(Float.isNaN(forecast.getAqi(5, 0)));
+    assertTrue(Float.isNaN(forecast.getAqi(100, 0)));
+  }
+
+  @Test
+  public void testDoubleBuffering() {
+    AirQualityStore store = new AirQualityStore();
+
+    AirQualityStore.Update first = store.beginUpdate(ORIGIN, 1, new int[] { 1 });
+    first.setValue(0, 0, 1f);
+    first.publish();
+    AirQualityForecast firstForecast = store.getForecast();
+
+    AirQualityStore.Update second = store.beginUpdate(ORIGIN + HOUR, 1, new int[] { 1 });
+    second.setValue(0, 0, 2f);
+
+    // writing the next forecast must not touch the one in use
+    assertSame(firstForecast, store.getForecast());
+    assertEquals(1f, firstForecast.getAqi(1, 0), 0f);
+
+    second.publish();
+    assertEquals(2f, store.getForecast().getAqi(1, 0), 0f);
+    assertEquals(1f, firstForecast.getAqi(1, 0), 0f);
+  }
+
+}
@@ -0,0 +1,79 @@
+package org.opentripplanner.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestPersistentArray extends TestCase {
+
+    public void testSetAndGet() {
+        PersistentArray<String> array = new PersistentArray<>();
+        assertNull(array.get(0));
+        assertNull(array.get(100000));
+
+        array.set(3, "a");
+        array.set(1000, "b");
+        assertEquals("a", array.get(3));
+        assertEquals("b", array.get(1000));
+        assertNull(array.get(4));
+        assertEquals(2, array.size());
+
+        array.set(3, null);
+        array.set(5000, null);
+        assertNull(array.get(3));
+        assertEquals(1, array.size());
+    }
+
+    public void testFreeze() {
+        PersistentArray<String> array = new PersistentArray<>();
+        array.set(1, "a");
+        array.set(2, "b");
+        array.set(700, "c");
+
+        PersistentArray<String> frozen = array.freeze();
+        array.set(1, "x");
+        array.set(700, null);
+        array.set(10000, "y");
+
+        // writes after freezing are not visible in the frozen copy
+        assertEquals("a", frozen.get(1));
+        assertEquals("b", frozen.get(2));
+        assertEquals("c", frozen.get(700));
+        assertNull(frozen.get(10000));
+        assertEquals(3, frozen.size());
+
+        assertEquals("x", array.get(1));
+        assertEquals("b", array.get(2));
+        assertNull(array.get(700));
+        assertEquals("y", array.get(10000));
+        assertEquals(3, array.size());
+
+        try {
+            frozen.set(1, "z");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals("a", frozen.get(1));
+        }
+    }
+
+    public void testForEach() {
+        PersistentArray<String> array = new PersistentArray<>();
+        array.set(600, "c");
+        array.set(0, "a");
+        array.set(255, "b");
+
+        List<Integer> indexes = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        array.forEach((index, value) -> {
+            indexes.add(index);
+            values.add(value);
+        });
+        assertEquals(3, indexes.size());
+        assertEquals(Integer.valueOf(0), indexes.get(0));
+        assertEquals(Integer.valueOf(255), indexes.get(1));
+        assertEquals(Integer.valueOf(600), indexes.get(2));
+        assertEquals("c", values.get(2));
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.opentripplanner.common.pqueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestIndexedFourAryHeap extends TestCase {
+
+    private static final int N = 10000;
+
+    public void testExtractInOrder() {
+        Random random = new Random(42);
+        IndexedFourAryHeap<Integer> heap = new IndexedFourAryHeap<>(10, 10);
+        List<Double> keys = new ArrayList<>(N);
+        for (int i = 0; i < N; i++) {
+            double key = random.nextDouble();
+            keys.add(key);
+            heap.insert_or_rekey(i, i, key);
+        }
+        assertEquals(N, heap.size());
+
+        Collections.sort(keys);
+        for (int i = 0; i < N; i++) {
+            assertEquals(keys.get(i), heap.peek_min_key(), 0.0);
+            heap.extract_min();
+        }
+        assertTrue(heap.empty());
+        assertNull(heap.extract_min());
+        assertNull(heap.peek_min());
+    }
+
+    public void testRekey() {
+        Random random = new Random(42);
+        IndexedFourAryHeap<String> heap = new IndexedFourAryHeap<>(10, N);
+        double[] keys = new double[N];
+        for (int i = 0; i < N; i++) {
+            keys[i] = random.nextDouble();
+            heap.insert_or_rekey(i, "a" + i, keys[i]);
+        }
+        // decrease some keys and increase others, replacing the elements
+        for (int i = 0; i < N; i += 3) {
+            keys[i] = random.nextBoolean() ? keys[i] / 2 : keys[i] * 2;
+            heap.insert_or_rekey(i, "b" + i, keys[i]);
+        }
+        assertEquals(N, heap.size());
+        assertEquals("b3", heap.get(3));
+        assertEquals("a4", heap.get(4));
+
+        double previous = Double.NEGATIVE_INFINITY;
+        while (!heap.empty()) {
+            double key = heap.peek_min_key();
+            String element = heap.extract_min();
+            int handle = Integer.parseInt(element.substring(1));
+            assertTrue(key >= previous);
+            assertEquals(keys[handle], key, 0.0);
+            assertEquals(handle % 3 == 0 ? "b" : "a", element.substring(0, 1));
+            assertFalse(heap.contains(handle));
+            previous = key;
+        }
+    }
+
+    public void testReinsertAfterExtract() {
+        IndexedFourAryHeap<Integer> heap = new IndexedFourAryHeap<>(10, 1);
+        heap.insert_or_rekey(100, 1, 1.0);
+        heap.insert_or_rekey(5, 2, 2.0);
+        assertEquals(Integer.valueOf(1), heap.extract_min());
+        assertFalse(heap.contains(100));
+        heap.insert_or_rekey(100, 3, 3.0);
+        assertEquals(2, heap.size());
+        heap.reset();
+        assertTrue(heap.empty());
+        assertFalse(heap.contains(5));
+        assertNull(heap.get(100));
+    }
+
+}
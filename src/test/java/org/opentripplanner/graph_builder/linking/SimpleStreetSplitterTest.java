@@ -1,14 +1,33 @@
 package org.opentripplanner.graph_builder.linking;
 
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
 import org.junit.Before;
 import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetBikeRentalLink;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.SplitterVertex;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.spy;
@@ -40,4 +59,86 @@ public class SimpleStreetSplitterTest {
         spySimpleStreetSplitter.getClosestVertex(genericLocation, routingRequest, true);
         verify(spySimpleStreetSplitter).link(any(Vertex.class), eq(TraverseMode.WALK), eq(routingRequest));
     }
+
+    /**
+     * Finding the edges to link to does not modify the graph, and the found edges are split when the vertex is linked.
+     */
+    @Test
+    public void testFindLinkEdgesAndLink() {
+        Graph graph = new Graph();
+        StreetEdge[] street = street(graph);
+        SimpleStreetSplitter splitter = new SimpleStreetSplitter(graph);
+
+        List<StreetEdge> edges = splitter.findLinkEdges(new Coordinate(24.945, 60.1701));
+        assertEquals(new HashSet<>(Arrays.asList(street)), new HashSet<>(edges));
+        assertEquals(2, graph.countVertices());
+        assertTrue(splitter.findLinkEdges(new Coordinate(24.945, 60.2)).isEmpty());
+
+        BikeRentalStationVertex vertex = stationVertex(graph, 24.945, 60.1701);
+        assertTrue(splitter.link(vertex, edges));
+        for (StreetEdge edge : street) {
+            assertFalse(edge.getToVertex().getIncoming().contains(edge));
+        }
+        List<StreetBikeRentalLink> links = linksFrom(vertex);
+        assertEquals(2, links.size());
+        for (StreetBikeRentalLink link : links) {
+            assertTrue(link.getToVertex() instanceof SplitterVertex);
+        }
+
+        assertFalse(splitter.link(stationVertex(graph, 24.945, 60.2), splitter.findLinkEdges(new Coordinate(24.945, 60.2))));
+    }
+
+    /**
+     * A vertex whose edges were split after they were found is linked to the edges that replaced them.
+     */
+    @Test
+    public void testLinkToSplitEdges() {
+        Graph graph = new Graph();
+        StreetEdge[] street = street(graph);
+        SimpleStreetSplitter splitter = new SimpleStreetSplitter(graph);
+
+        List<StreetEdge> firstEdges = splitter.findLinkEdges(new Coordinate(24.943, 60.1701));
+        List<StreetEdge> secondEdges = splitter.findLinkEdges(new Coordinate(24.947, 60.1701));
+        assertEquals(new HashSet<>(Arrays.asList(street)), new HashSet<>(secondEdges));
+
+        BikeRentalStationVertex first = stationVertex(graph, 24.943, 60.1701);
+        assertTrue(splitter.link(first, firstEdges));
+        BikeRentalStationVertex second = stationVertex(graph, 24.947, 60.1701);
+        assertTrue(splitter.link(second, secondEdges));
+
+        for (StreetEdge edge : street) {
+            assertFalse(edge.getToVertex().getIncoming().contains(edge));
+        }
+        List<StreetBikeRentalLink> links = linksFrom(second);
+        assertEquals(2, links.size());
+        for (StreetBikeRentalLink link : links) {
+            Vertex target = link.getToVertex();
+            assertTrue(target instanceof SplitterVertex);
+            assertEquals(24.947, target.getLon(), 1e-6);
+        }
+    }
+
+    /** A straight street in both directions between two intersections */
+    static StreetEdge[] street(Graph graph) {
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 24.94, 60.17);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 24.95, 60.17);
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(new Coordinate[] {
+            a.getCoordinate(), b.getCoordinate() });
+        return new StreetEdge[] {
+            new StreetEdge(a, b, geometry, "ab", 555, StreetTraversalPermission.ALL, false),
+            new StreetEdge(b, a, (LineString) geometry.reverse(), "ab", 555, StreetTraversalPermission.ALL, true)
+        };
+    }
+
+    private static BikeRentalStationVertex stationVertex(Graph graph, double x, double y) {
+        BikeRentalStation station = new BikeRentalStation();
+        station.id = x + "," + y;
+        station.x = x;
+        station.y = y;
+        return new BikeRentalStationVertex(graph, station);
+    }
+
+    private static List<StreetBikeRentalLink> linksFrom(Vertex vertex) {
+        return Lists.newArrayList(Iterables.filter(vertex.getOutgoing(), StreetBikeRentalLink.class));
+    }
 }
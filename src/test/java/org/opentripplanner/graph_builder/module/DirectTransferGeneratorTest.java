@@ -0,0 +1,59 @@
+package org.opentripplanner.graph_builder.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.opentripplanner.graph_builder.module.FakeGraph.addPerpendicularRoutes;
+import static org.opentripplanner.graph_builder.module.FakeGraph.buildGraphNoTransit;
+import static org.opentripplanner.graph_builder.module.FakeGraph.link;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import com.google.common.collect.Iterables;
+
+public class DirectTransferGeneratorTest {
+
+    /**
+     * Searching for the nearby stops of several stops at once must create the same transfers, in the same order, as
+     * searching one stop after the other.
+     */
+    @Test
+    public void testParallelTransfersMatchSequential() throws Exception {
+        List<String> sequential = transfers(false);
+        List<String> parallel = transfers(true);
+        assertFalse(sequential.isEmpty());
+        assertEquals(sequential, parallel);
+    }
+
+    /** @return from, to and distance of the transfers of each stop, in the order they were created */
+    private List<String> transfers(boolean parallel) throws Exception {
+        Graph graph = buildGraphNoTransit();
+        addPerpendicularRoutes(graph);
+        link(graph);
+        new DirectTransferGenerator(600, parallel).buildGraph(graph, new HashMap<>());
+
+        List<TransitStop> stops = new ArrayList<>();
+        Iterables.addAll(stops, Iterables.filter(graph.getVertices(), TransitStop.class));
+        stops.sort(Comparator.comparing(TransitStop::getLabel));
+
+        List<String> transfers = new ArrayList<>();
+        for (TransitStop stop : stops) {
+            for (Edge e : stop.getOutgoing()) {
+                if (e instanceof SimpleTransfer) {
+                    transfers.add(e.getFromVertex().getLabel() + " " + e.getToVertex().getLabel() + " "
+                            + ((SimpleTransfer) e).getDistance());
+                }
+            }
+        }
+        return transfers;
+    }
+
+}
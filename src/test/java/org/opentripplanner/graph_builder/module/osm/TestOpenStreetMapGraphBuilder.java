@@ -108,6 +108,41 @@ public class TestOpenStreetMapGraphBuilder extends TestCase {
                 .getName().contains("Mariana Smoluchowskiego"));
     }
 
+    @Test
+    public void testCompactDatabase() throws Exception {
+        Graph graph = buildGraph(false, false);
+        for (boolean mapNodeCoordinates : new boolean[] { false, true }) {
+            Graph compactGraph = buildGraph(true, mapNodeCoordinates);
+            assertEquals(graph.getVertices().size(), compactGraph.getVertices().size());
+            assertEquals(graph.getEdges().size(), compactGraph.getEdges().size());
+            for (Vertex v : graph.getVertices()) {
+                // virtual nodes are numbered in the order ways are stored in, which differs between databases
+                if (v.getLabel().startsWith("osm:node:-")) {
+                    continue;
+                }
+                Vertex compactV = compactGraph.getVertex(v.getLabel());
+                assertNotNull(compactV);
+                assertEquals(v.getLat(), compactV.getLat(), 1e-7);
+                assertEquals(v.getLon(), compactV.getLon(), 1e-7);
+                assertEquals(v.getDegreeOut(), compactV.getDegreeOut());
+            }
+        }
+    }
+
+    private Graph buildGraph(boolean compactOsmDatabase, boolean mapOsmNodeCoordinates) throws Exception {
+        Graph gg = new Graph();
+        OpenStreetMapModule loader = new OpenStreetMapModule();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        loader.compactOsmDatabase = compactOsmDatabase;
+        loader.mapOsmNodeCoordinates = mapOsmNodeCoordinates;
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        File file = new File(URLDecoder.decode(getClass().getResource("map.osm.gz").getFile(), "UTF-8"));
+        provider.setPath(file);
+        loader.setProvider(provider);
+        loader.buildGraph(gg, extra);
+        return gg;
+    }
+
     /**
      * Detailed testing of OSM graph building using a very small chunk of NYC (SOHO-ish).
      * @throws Exception
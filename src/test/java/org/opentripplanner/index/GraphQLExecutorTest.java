@@ -0,0 +1,151 @@
+package org.opentripplanner.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class GraphQLExecutorTest {
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        GraphQLExecutor executor = createExecutor(1, 0);
+        CountDownLatch latch = new CountDownLatch(1);
+        Future<String> running = executor.submit("a", 10000, () -> {
+            latch.await();
+            return "done";
+        });
+
+        try {
+            executor.submit("b", 10000, () -> "never");
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, executor.getMetrics().get("b").getRejected());
+        }
+
+        latch.countDown();
+        assertEquals("done", running.get());
+        assertEquals(1, executor.getMetrics().get("a").getExecuted());
+        assertEquals(0, executor.getMetrics().get("a").getRejected());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRejectsAfterQueueTimeout() throws Exception {
+        GraphQLExecutor executor = createExecutor(1, 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.submit(null, 10000, () -> {
+            latch.await();
+            return "done";
+        });
+        Future<String> waiting = executor.submit(null, 10, () -> "late");
+
+        Thread.sleep(100);
+        latch.countDown();
+        try {
+            waiting.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        GraphQLExecutor.OperationMetrics metrics = executor.getMetrics().get(GraphQLExecutor.ANONYMOUS_OPERATION);
+        assertEquals(1, metrics.getExecuted());
+        assertEquals(1, metrics.getRejected());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testExecutesBatchLargerThanLimits() throws Exception {
+        GraphQLExecutor executor = createExecutor(2, 1);
+        int batchSize = 10;
+        AtomicInteger executing = new AtomicInteger();
+        AtomicInteger maxExecuting = new AtomicInteger();
+        List<Callable<Integer>> queries = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            int query = i;
+            queries.add(() -> {
+                maxExecuting.accumulateAndGet(executing.incrementAndGet(), Math::max);
+                Thread.sleep(10);
+                executing.decrementAndGet();
+                return query;
+            });
+        }
+
+        List<Future<Integer>> results = executor.submitBatch(Collections.nCopies(batchSize, "batch"), 10000, queries);
+        for (int i = 0; i < batchSize; i++) {
+            assertEquals(Integer.valueOf(i), results.get(i).get());
+        }
+        assertTrue(maxExecuting.get() <= 2);
+        assertEquals(batchSize, executor.getMetrics().get("batch").getExecuted());
+        assertEquals(0, executor.getMetrics().get("batch").getRejected());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRejectsBatchWhenQueueIsFull() throws Exception {
+        GraphQLExecutor executor = createExecutor(1, 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        Future<String> running = executor.submit("a", 10000, () -> {
+            latch.await();
+            return "done";
+        });
+        Future<String> waiting = executor.submit("b", 10000, () -> "waited");
+
+        try {
+            executor.submitBatch(Collections.nCopies(3, "batch"), 10000,
+                Collections.<Callable<String>>nCopies(3, () -> "never"));
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(3, executor.getMetrics().get("batch").getRejected());
+        }
+
+        latch.countDown();
+        assertEquals("done", running.get());
+        assertEquals("waited", waiting.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRejectsBatchAfterQueueTimeout() throws Exception {
+        GraphQLExecutor executor = createExecutor(1, 2);
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.submit(null, 10000, () -> {
+            latch.await();
+            return "done";
+        });
+        List<Future<String>> results = executor.submitBatch(Collections.nCopies(3, "batch"), 10,
+            Collections.<Callable<String>>nCopies(3, () -> "late"));
+
+        Thread.sleep(100);
+        latch.countDown();
+        for (Future<String> result : results) {
+            try {
+                result.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        }
+        assertEquals(3, executor.getMetrics().get("batch").getRejected());
+        executor.shutdown();
+    }
+
+    private GraphQLExecutor createExecutor(int maxConcurrentQueries, int maxQueuedQueries) throws Exception {
+        return new GraphQLExecutor("test", new ObjectMapper().readTree(
+            "{\"maxConcurrentQueries\": " + maxConcurrentQueries + ", \"maxQueuedQueries\": " + maxQueuedQueries + "}"));
+    }
+}
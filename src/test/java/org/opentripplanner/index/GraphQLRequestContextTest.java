@@ -0,0 +1,62 @@
+package org.opentripplanner.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opentripplanner.graph_builder.module.FakeGraph.addTransit;
+import static org.opentripplanner.graph_builder.module.FakeGraph.buildGraphNoTransit;
+import static org.opentripplanner.graph_builder.module.FakeGraph.link;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.execution.ExecutorServiceExecutionStrategy;
+
+public class GraphQLRequestContextTest {
+
+    /**
+     * The stoptimes of departure rows found by a nearest search are resolved through the request context, so asking
+     * for the same departures twice computes them once.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNearestDepartureRowStoptimesAreMemoized() throws Exception {
+        Graph graph = buildGraphNoTransit();
+        addTransit(graph);
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        // stop s1, the first stop of the only pattern
+        String query =
+            "{ nearest(lat: 40.2182, lon: -83.0889, filterByPlaceTypes: [DEPARTURE_ROW]) {" +
+            "    edges { node { place { ... on DepartureRow {" +
+            "        first: stoptimes { scheduledDeparture }" +
+            "        second: stoptimes { scheduledDeparture }" +
+            "    } } } }" +
+            "} }";
+
+        GraphQLRequestContext context = new GraphQLRequestContext(graph.index, null);
+        ExecutionResult result = new GraphQL(
+            graph.index.indexSchema, new ExecutorServiceExecutionStrategy(graph.index.getGraphQLExecutor().getFieldExecutor())
+        ).execute(query, null, context, Collections.emptyMap());
+        assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+
+        Map<String, Object> data = (Map<String, Object>) result.getData();
+        List<Map<String, Object>> edges = (List<Map<String, Object>>) ((Map<String, Object>) data.get("nearest")).get("edges");
+        assertEquals(1, edges.size());
+        Map<String, Object> row = (Map<String, Object>) ((Map<String, Object>) edges.get(0).get("node")).get("place");
+        assertFalse(((List<?>) row.get("first")).isEmpty());
+        assertEquals(row.get("first"), row.get("second"));
+
+        assertEquals(2, context.getResolverCalls());
+        assertEquals(1, context.getSavedResolverCalls());
+    }
+
+}
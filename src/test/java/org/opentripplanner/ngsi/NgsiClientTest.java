@@ -0,0 +1,110 @@
+package org.opentripplanner.ngsi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.ngsi.models.NoiseLevelObserved;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class NgsiClientTest {
+
+  private static final int ENTITY_COUNT = 5;
+
+  private HttpServer server;
+  private List<String> queries;
+  private String serverUrl;
+
+  @Before
+  public void setUp() throws IOException {
+    queries = Collections.synchronizedList(new ArrayList<>());
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/v2/entities", this::handleEntities);
+    server.createContext("/v2/broken", exchange -> respond(exchange, 500, "{}"));
+    server.start();
+    serverUrl = String.format("http://127.0.0.1:%d/v2", server.getAddress().getPort());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testPaging() throws Exception {
+    try (NgsiClient client = new NgsiClient(2)) {
+      List<NoiseLevelObserved> result = client.listNoiseLevelObserved(serverUrl + "/entities", Collections.<NameValuePair>emptyList());
+      assertEquals(ENTITY_COUNT, result.size());
+      for (int i = 0; i < ENTITY_COUNT; i++) {
+        assertEquals("sensor-" + i, result.get(i).getId());
+        assertEquals(60d + i, result.get(i).getLAmax().getValue(), 0d);
+        assertEquals(25d, result.get(i).getLocation().getValue().getCoordinates().get(0), 0d);
+      }
+
+      // 5 entities in pages of 2 take 3 requests
+      assertEquals(3, queries.size());
+    }
+  }
+
+  @Test
+  public void testError() throws Exception {
+    try (NgsiClient client = new NgsiClient()) {
+      assertNull(client.listNoiseLevelObserved(serverUrl + "/broken", Collections.<NameValuePair>emptyList()));
+      // the client stays usable after an error response
+      assertEquals(ENTITY_COUNT, client.listNoiseLevelObserved(serverUrl + "/entities", Collections.<NameValuePair>emptyList()).size());
+    }
+  }
+
+  private void handleEntities(HttpExchange exchange) throws IOException {
+    String query = exchange.getRequestURI().getRawQuery();
+    queries.add(query);
+
+    int limit = 20;
+    int offset = 0;
+    for (NameValuePair parameter : URLEncodedUtils.parse(query, StandardCharsets.UTF_8)) {
+      if ("limit".equals(parameter.getName())) {
+        limit = Integer.parseInt(parameter.getValue());
+      } else if ("offset".equals(parameter.getName())) {
+        offset = Integer.parseInt(parameter.getValue());
+      }
+    }
+
+    StringBuilder body = new StringBuilder("[");
+    for (int i = offset; i < Math.min(ENTITY_COUNT, offset + limit); i++) {
+      if (i > offset) {
+        body.append(',');
+      }
+
+      body.append(String.format("{\"id\":\"sensor-%d\",\"type\":\"NoiseLevelObserved\",\"unknown\":{\"value\":1},", i))
+        .append("\"location\":{\"type\":\"geo:json\",\"value\":{\"type\":\"Point\",\"coordinates\":[25.0,62.0]}},")
+        .append(String.format("\"LAmax\":{\"type\":\"Number\",\"value\":%d}}", 60 + i));
+    }
+    body.append(']');
+
+    respond(exchange, 200, body.toString());
+  }
+
+  private void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+}
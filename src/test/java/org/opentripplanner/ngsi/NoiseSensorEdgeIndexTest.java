@@ -0,0 +1,89 @@
+package org.opentripplanner.ngsi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.ngsi.models.LAmax;
+import org.opentripplanner.ngsi.models.Location;
+import org.opentripplanner.ngsi.models.NoiseLevelObserved;
+import org.opentripplanner.ngsi.models.Point;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class NoiseSensorEdgeIndexTest {
+
+  private static final long TIMEOUT = 60000L;
+
+  private Graph graph;
+  private StreetEdge near;
+  private StreetEdge far;
+
+  @Before
+  public void setUp() {
+    graph = new Graph();
+    IntersectionVertex a = new IntersectionVertex(graph, "A", 25.0000, 62.0000);
+    IntersectionVertex b = new IntersectionVertex(graph, "B", 25.0010, 62.0000);
+    IntersectionVertex c = new IntersectionVertex(graph, "C", 25.1000, 62.1000);
+    IntersectionVertex d = new IntersectionVertex(graph, "D", 25.1010, 62.1000);
+    near = new StreetEdge(a, b, null, "AB", 50, StreetTraversalPermission.ALL, false);
+    far = new StreetEdge(c, d, null, "CD", 50, StreetTraversalPermission.ALL, false);
+  }
+
+  @Test
+  public void testUpdate() {
+    NoiseSensorEdgeIndex index = new NoiseSensorEdgeIndex(TIMEOUT);
+
+    assertEquals(1, index.update(graph, Arrays.asList(createObservation("s1", 25.0005, 62.0001, 75d)), 0));
+    assertEquals(75d, near.getNoiseLevel(), 0d);
+    assertEquals(0d, far.getNoiseLevel(), 0d);
+
+    // a louder sensor near the same edge wins, an unchanged reading touches nothing
+    index.update(graph, Arrays.asList(createObservation("s2", 25.0004, 62.0000, 82d)), 1000);
+    assertEquals(82d, near.getNoiseLevel(), 0d);
+    assertEquals(0, index.update(graph, Arrays.asList(createObservation("s1", 25.0005, 62.0001, 75d)), 2000));
+
+    // quieter reading from the loudest sensor falls back to the other one
+    index.update(graph, Arrays.asList(createObservation("s2", 25.0004, 62.0000, 60d)), 3000);
+    assertEquals(75d, near.getNoiseLevel(), 0d);
+    assertEquals(2, index.getSensorCount());
+  }
+
+  @Test
+  public void testMoveAndExpire() {
+    NoiseSensorEdgeIndex index = new NoiseSensorEdgeIndex(TIMEOUT);
+
+    index.update(graph, Arrays.asList(createObservation("s1", 25.0005, 62.0001, 75d)), 0);
+    index.update(graph, Arrays.asList(createObservation("s1", 25.1005, 62.1001, 70d)), 1000);
+    assertEquals(0d, near.getNoiseLevel(), 0d);
+    assertEquals(70d, far.getNoiseLevel(), 0d);
+
+    index.update(graph, Collections.<NoiseLevelObserved>emptyList(), 1000 + TIMEOUT + 1);
+    assertEquals(0d, far.getNoiseLevel(), 0d);
+    assertEquals(0, index.getSensorCount());
+  }
+
+  private NoiseLevelObserved createObservation(String id, double longitude, double latitude, double level) {
+    Point point = new Point();
+    point.setType("Point");
+    point.setCoordinates(Arrays.asList(longitude, latitude));
+
+    Location location = new Location();
+    location.setValue(point);
+
+    LAmax lAmax = new LAmax();
+    lAmax.setValue(level);
+
+    NoiseLevelObserved result = new NoiseLevelObserved();
+    result.setId(id);
+    result.setLocation(location);
+    result.setLAmax(lAmax);
+    return result;
+  }
+
+}
@@ -1,5 +1,8 @@
 package org.opentripplanner.profile;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import junit.framework.TestCase;
 import org.junit.Test;
 import org.opentripplanner.graph_builder.module.FakeGraph;
@@ -66,4 +69,45 @@ public class PropagatedTimesStoreTest extends TestCase {
         // 1000 should not be included in average
         assertEquals(1, pts.avgs[0]);
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that statistics accumulated one iteration at a time, in several parts that are merged, give the same
+     * results as the full array of times.
+     */
+    @Test
+    public static void testStatisticsMatchArray () {
+        ProfileRequest pr = new ProfileRequest();
+        Graph g = new Graph();
+        Random random = new Random(42);
+
+        int nIterations = 20;
+        int nTargets = 50;
+        int[][] times = new int[nIterations][nTargets];
+        boolean[] includeInAverages = new boolean[nIterations];
+        for (int i = 0; i < nIterations; i++) {
+            includeInAverages[i] = i % 4 > 1;
+            for (int t = 0; t < nTargets; t++) {
+                // target t is unreachable with probability t / nTargets
+                times[i][t] = random.nextInt(nTargets) < t ? RaptorWorker.UNREACHED : random.nextInt(7200);
+            }
+        }
+
+        PropagatedTimesStore fromArray = new PropagatedTimesStore(g, pr, nTargets);
+        fromArray.setFromArray(times, includeInAverages, PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+
+        PropagatedTimesStore.IterationStatistics statistics = new PropagatedTimesStore.IterationStatistics(nTargets);
+        PropagatedTimesStore.IterationStatistics otherStatistics = new PropagatedTimesStore.IterationStatistics(nTargets);
+        for (int i = 0; i < nIterations; i++) {
+            (i % 3 == 0 ? otherStatistics : statistics).add(times[i], includeInAverages[i]);
+        }
+        statistics.merge(otherStatistics);
+        assertEquals(nIterations, statistics.getIterations());
+
+        PropagatedTimesStore fromStatistics = new PropagatedTimesStore(g, pr, nTargets);
+        fromStatistics.setFromStatistics(statistics);
+
+        assertTrue(Arrays.equals(fromArray.mins, fromStatistics.mins));
+        assertTrue(Arrays.equals(fromArray.avgs, fromStatistics.avgs));
+        assertTrue(Arrays.equals(fromArray.maxs, fromStatistics.maxs));
+    }
+}
@@ -33,6 +33,7 @@ import org.opentripplanner.routing.graph.SimpleConcreteVertex;
 import org.opentripplanner.routing.graph.TemporaryConcreteEdge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.location.TemporaryStreetLocation;
+import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 
@@ -244,10 +245,38 @@ public class AStarTest {
         }
     }
 
+    @Test
+    public void testIndexedQueueReusedBetweenSearches() {
+        // searches stop at their target with states still queued, which must not leak into the next search
+        String[][] searches = { { "56th_24th", "leary_20th" }, { "shilshole_20th", "56th_22nd" },
+                { "market_russell", "shilshole_24th" }, { "56th_24th", "leary_20th" } };
+        for (String[] search : searches) {
+            GraphPath expected = path(search[0], search[1], false);
+            GraphPath actual = path(search[0], search[1], true);
+            assertEquals(expected.states.size(), actual.states.size());
+            for (int i = 0; i < expected.states.size(); i++) {
+                assertEquals(expected.states.get(i).getVertex(), actual.states.get(i).getVertex());
+            }
+            assertEquals(expected.getWeight(), actual.getWeight(), 0.0);
+        }
+    }
+
     /****
      * Private Methods
      ****/
 
+    private GraphPath path(String from, String to, boolean indexedPriorityQueue) {
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.dominanceFunction = new DominanceFunction.MinimumWeight();
+        options.indexedPriorityQueue = indexedPriorityQueue;
+        options.setRoutingContext(_graph, _graph.getVertex(from), _graph.getVertex(to));
+        ShortestPathTree tree = new AStar().getShortestPathTree(options);
+        GraphPath path = tree.getPath(_graph.getVertex(to), false);
+        options.cleanup();
+        return path;
+    }
+
     private SimpleConcreteVertex vertex(String label, double lat, double lon) {
         SimpleConcreteVertex v = new SimpleConcreteVertex(_graph, label, lat, lon);
         return v;
@@ -18,6 +18,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -249,4 +250,59 @@ public class TimetableSnapshotTest {
         assertNull(resolver.commit());
         assertFalse(resolver.isDirty());
     }
+
+    /**
+     * The timetables merged with trips added to other patterns are only merged again when the timetables of their
+     * pattern or the added trips change, otherwise committed snapshots share them.
+     */
+    @Test
+    public void testMergedTimetablesOfUnchangedPatternsAreShared() {
+        ServiceDate today = new ServiceDate();
+        TripPattern pattern = patternIndex.get(new AgencyAndId("agency", "1.1"));
+        TripPattern otherPattern = patternIndex.get(new AgencyAndId("agency", "2.1"));
+
+        // a pattern created by real-time updates, with updated trip times in its scheduled timetable
+        TripPattern addedPattern = new TripPattern(pattern.route, pattern.stopPattern);
+        TripTimes updated = new TripTimes(pattern.scheduledTimetable.getTripTimes(
+                pattern.scheduledTimetable.getTripIndex("1.2")));
+        updated.updateDepartureTime(0, updated.getScheduledDepartureTime(0));
+        addedPattern.add(updated);
+
+        TimetableSnapshot resolver = new TimetableSnapshot();
+        assertTrue(updateResolver(resolver, pattern, canceled("1.1"), "agency", today));
+        TimetableSnapshot snapshot = resolver.commit();
+        assertFalse(snapshot.resolve(pattern, today).tripTimes.contains(updated));
+
+        // adding a trip of the pattern to another pattern merges the pattern again
+        TripTimes added = new TripTimes(pattern.scheduledTimetable.getTripTimes(
+                pattern.scheduledTimetable.getTripIndex("1.1")));
+        assertTrue(resolver.update("agency", addedPattern, added, today));
+        TimetableSnapshot addedSnapshot = resolver.commit();
+        Timetable merged = addedSnapshot.resolve(pattern, today);
+        assertTrue(merged.tripTimes.contains(updated));
+
+        // updating another pattern keeps the merged timetable
+        assertTrue(updateResolver(resolver, otherPattern, canceled("2.1"), "agency", today));
+        snapshot = resolver.commit();
+        assertSame(merged, snapshot.resolve(pattern, today));
+
+        // updating the pattern merges it again
+        assertTrue(updateResolver(resolver, pattern, canceled("1.3"), "agency", today));
+        snapshot = resolver.commit();
+        assertNotSame(merged, snapshot.resolve(pattern, today));
+        assertTrue(snapshot.resolve(pattern, today).tripTimes.contains(updated));
+
+        // without updates nothing is merged, and earlier snapshots are unchanged
+        resolver.clear("agency");
+        snapshot = resolver.commit();
+        assertSame(pattern.scheduledTimetable, snapshot.resolve(pattern, today));
+        assertSame(merged, addedSnapshot.resolve(pattern, today));
+    }
+
+    private TripUpdate canceled(String tripId) {
+        TripDescriptor.Builder tripDescriptorBuilder = TripDescriptor.newBuilder();
+        tripDescriptorBuilder.setTripId(tripId);
+        tripDescriptorBuilder.setScheduleRelationship(ScheduleRelationship.CANCELED);
+        return TripUpdate.newBuilder().setTrip(tripDescriptorBuilder).build();
+    }
 }
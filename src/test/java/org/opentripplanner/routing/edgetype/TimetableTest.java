@@ -20,6 +20,7 @@ import static org.opentripplanner.util.TestUtils.AUGUST;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -35,6 +36,8 @@ import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -315,4 +318,32 @@ public class TimetableTest {
         updatedTripTimes = timetable.createUpdatedTripTimes(tripUpdate, timeZone, serviceDate); 
         assertNull(updatedTripTimes);
     }
+
+    @Test
+    public void testSortedTripIndex() {
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex stop_a = graph.getVertex(feedId + ":A");
+        Vertex stop_c = graph.getVertex(feedId + ":C");
+        RoutingRequest options = new RoutingRequest();
+        options.setRoutingContext(graph, stop_a, stop_c);
+        ServiceDay serviceDay = new ServiceDay(graph, serviceDate, graph.getCalendarService(), timeZone);
+
+        for (TripPattern tripPattern : new HashSet<TripPattern>(patternIndex.values())) {
+            // a finished timetable uses the sorted trip index, an unfinished copy the linear search
+            Timetable indexed = new Timetable(tripPattern.scheduledTimetable, null);
+            indexed.finish();
+            Timetable scanned = new Timetable(tripPattern.scheduledTimetable, null);
+
+            for (int stopIndex = 0; stopIndex < tripPattern.getStops().size(); stopIndex++) {
+                for (int time = -3600; time < 30 * 3600; time += 300) {
+                    State s0 = new State(stop_a, serviceDay.time(time), options);
+                    assertEquals(scanned.getNextTrip(s0, serviceDay, stopIndex, true),
+                            indexed.getNextTrip(s0, serviceDay, stopIndex, true));
+                    assertEquals(scanned.getNextTrip(s0, serviceDay, stopIndex, false),
+                            indexed.getNextTrip(s0, serviceDay, stopIndex, false));
+                }
+            }
+        }
+        options.cleanup();
+    }
 }
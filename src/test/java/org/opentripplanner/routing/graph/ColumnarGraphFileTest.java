@@ -0,0 +1,116 @@
+package org.opentripplanner.routing.graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+public class ColumnarGraphFileTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        roundTrip(ColumnarGraphFile.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Map the columns in segments of a few bytes, so that values and labels cross the ends of segments */
+    @Test
+    public void testRoundTripAcrossSegments() throws Exception {
+        roundTrip(7);
+    }
+
+    private void roundTrip(long segmentSize) throws Exception {
+        Graph graph = new Graph();
+        OsmVertex a = new OsmVertex(graph, "osm:node:1", 24.94, 60.17, 1);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 24.95, 60.17);
+        b.trafficLight = true;
+        SimpleConcreteVertex c = new SimpleConcreteVertex(graph, "c", 60.18, 24.95);
+
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(new Coordinate[] {
+            new Coordinate(24.94, 60.17), new Coordinate(24.945, 60.171), new Coordinate(24.95, 60.17) });
+        StreetEdge ab = new StreetEdge(a, b, geometry, "Mannerheimintie", 600, StreetTraversalPermission.ALL, false);
+        ab.setRef("51");
+        ab.wayId = 42;
+        ab.setBicycleSafetyFactor(0.8f);
+        ab.setCarSpeed(13.9f);
+        ab.setRoundabout(true);
+        StreetEdge ba = new StreetEdge(b, a, (LineString) geometry.reverse(), "Mannerheimintie", 600,
+            StreetTraversalPermission.PEDESTRIAN, true);
+        ba.shareData(ab);
+        Edge bc = new SimpleConcreteEdge(b, c);
+        graph.addTurnRestriction(ab, new TurnRestriction(ab, ba, TurnRestrictionType.NO_TURN, new TraverseModeSet("CAR")));
+
+        File file = File.createTempFile("Graph", ".columnar");
+        try {
+            ColumnarGraphFile.save(graph, file);
+            Graph loaded = ColumnarGraphFile.load(file, LoadLevel.FULL, new DefaultStreetVertexIndexFactory(),
+                segmentSize);
+
+            assertEquals(3, loaded.countVertices());
+            assertEquals(3, loaded.countEdges());
+
+            OsmVertex loadedA = (OsmVertex) loaded.getVertex("osm:node:1");
+            assertEquals(1, loadedA.nodeId);
+            assertEquals(24.94, loadedA.getX(), 0);
+            assertEquals(60.17, loadedA.getY(), 0);
+            IntersectionVertex loadedB = (IntersectionVertex) loaded.getVertex("b");
+            assertTrue(loadedB.trafficLight);
+
+            StreetEdge loadedAB = (StreetEdge) loadedA.getOutgoing().iterator().next();
+            assertEquals(ab.getId(), loadedAB.getId());
+            assertSame(loadedB, loadedAB.getToVertex());
+            assertEquals("Mannerheimintie", loadedAB.getName());
+            assertEquals("51", loadedAB.getRef());
+            assertEquals(42, loadedAB.wayId);
+            assertEquals(600, loadedAB.getDistance(), 0);
+            assertEquals(0.8f, loadedAB.getBicycleSafetyFactor(), 0);
+            assertEquals(13.9f, loadedAB.getCarSpeed(), 0);
+            assertEquals(StreetTraversalPermission.ALL, loadedAB.getPermission());
+            assertTrue(loadedAB.isRoundabout());
+            assertEquals(ab.getInAngle(), loadedAB.getInAngle());
+            assertEquals(ab.getOutAngle(), loadedAB.getOutAngle());
+            assertArrayEquals(ab.getGeometry().getCoordinates(), loadedAB.getGeometry().getCoordinates());
+
+            StreetEdge loadedBA = null;
+            Edge loadedBC = null;
+            for (Edge e : loadedB.getOutgoing()) {
+                if (e instanceof StreetEdge) {
+                    loadedBA = (StreetEdge) e;
+                } else {
+                    loadedBC = e;
+                }
+            }
+            assertTrue(loadedBA.isBack());
+            assertNull(loadedBA.getRef());
+            assertSame(loadedAB.getCompactGeometry(), loadedBA.getCompactGeometry());
+
+            // references from the serialized part of the file resolve to the edges and vertices in the columns
+            assertEquals(bc.getClass(), loadedBC.getClass());
+            assertSame(loaded.getVertex("c"), loadedBC.getToVertex());
+            List<TurnRestriction> restrictions = loaded.getTurnRestrictions(loadedAB);
+            assertEquals(1, restrictions.size());
+            assertSame(loadedAB, restrictions.get(0).from);
+            assertSame(loadedBA, restrictions.get(0).to);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -10,6 +10,8 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.GtfsTest;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.index.GraphQLRequestContext;
+import org.opentripplanner.index.model.StopTimesInPattern;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
@@ -19,6 +21,7 @@ import com.vividsolutions.jts.geom.Envelope;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Check that the graph index is created, that GTFS elements can be found in the index, and that
@@ -82,6 +85,19 @@ public class GraphIndexTest extends GtfsTest {
         }
     }
 
+    /** Check that building the independent parts of the index concurrently gives the same index. */
+    public void testParallelIndexing() {
+        GraphIndex parallelIndex = new GraphIndex(graph, ForkJoinPool.commonPool());
+        assertEquals(graph.index.vertexForId, parallelIndex.vertexForId);
+        assertEquals(graph.index.stopForId, parallelIndex.stopForId);
+        assertEquals(graph.index.tripForId, parallelIndex.tripForId);
+        assertEquals(graph.index.routeForId, parallelIndex.routeForId);
+        assertEquals(graph.index.patternForTrip, parallelIndex.patternForTrip);
+        assertEquals(graph.index.patternsForStop, parallelIndex.patternsForStop);
+        assertEquals(graph.index.stopClusterForId.keySet(), parallelIndex.stopClusterForId.keySet());
+        assertNotNull(parallelIndex.indexSchema);
+    }
+
     public void testSpatialIndex() {
         String feedId = graph.getFeedIds().iterator().next();
         Stop stopJ = graph.index.stopForId.get(new AgencyAndId(feedId, "J"));
@@ -110,7 +126,7 @@ public class GraphIndexTest extends GtfsTest {
                 "}";
 
         ExecutionResult result = new GraphQL(
-            graph.index.indexSchema, new ExecutorServiceExecutionStrategy(graph.index.threadPool)
+            graph.index.indexSchema, new ExecutorServiceExecutionStrategy(graph.index.getGraphQLExecutor().getFieldExecutor())
         ).execute(query);
         assertTrue(result.getErrors().isEmpty());
         Map<String, Object> data = (Map<String, Object>) result.getData();
@@ -130,7 +146,7 @@ public class GraphIndexTest extends GtfsTest {
                         "}\n";
 
         ExecutionResult result = new GraphQL(
-            graph.index.indexSchema, new ExecutorServiceExecutionStrategy(graph.index.threadPool)
+            graph.index.indexSchema, new ExecutorServiceExecutionStrategy(graph.index.getGraphQLExecutor().getFieldExecutor())
         ).execute(query);
         assertTrue(result.getErrors().isEmpty());
         Map<String, Object> data = (Map<String, Object>) result.getData();
@@ -217,12 +233,33 @@ public class GraphIndexTest extends GtfsTest {
             + "  }";
 
         ExecutionResult result = new GraphQL(
-            graph.index.indexSchema, new ExecutorServiceExecutionStrategy(graph.index.threadPool)
+            graph.index.indexSchema, new ExecutorServiceExecutionStrategy(graph.index.getGraphQLExecutor().getFieldExecutor())
         ).execute(query);
         assertTrue(result.getErrors().isEmpty());
     }
 
 
+    public void testRequestContextMemoizesStopTimes() {
+        String feedId = graph.getFeedIds().iterator().next();
+        Stop stopA = graph.index.stopForId.get(new AgencyAndId(feedId, "A"));
+        GraphQLRequestContext context = new GraphQLRequestContext(graph.index, null);
+
+        List<StopTimesInPattern> first = graph.index.stopTimesForStop(stopA, 0, 24 * 60 * 60, 5, false, context);
+        long resolutions = context.getTimetableResolutions();
+        assertEquals(0, context.getSavedResolverCalls());
+        assertTrue(resolutions > 0);
+
+        List<StopTimesInPattern> second = graph.index.stopTimesForStop(stopA, 0, 24 * 60 * 60, 5, false, context);
+        assertEquals(first.size(), second.size());
+        assertEquals(graph.index.patternsForStop.get(stopA).size(), context.getSavedResolverCalls());
+        assertEquals(resolutions, context.getTimetableResolutions());
+
+        // another search window of the same stop resolves the same timetables again, from the cache
+        graph.index.stopTimesForStop(stopA, 0, 60 * 60, 5, false, context);
+        assertEquals(2 * resolutions, context.getTimetableResolutions());
+        assertEquals(resolutions, context.getSavedTimetableResolutions());
+    }
+
     public void testParentStations() {
         // graph.index.stopsForParentStation;
     }
@@ -15,6 +15,8 @@ package org.opentripplanner.routing.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collections;
@@ -84,6 +86,35 @@ public class AlertPatchServiceImplTest {
         assertTrue(instance.getRoutePatches(testRoute).isEmpty());
     }
 
+    @Test
+    public void testIndexes() {
+        AgencyAndId testTrip = new AgencyAndId("C", "C");
+        alerts[1].setTrip(testTrip);
+        alerts[2].setAgencyId("D");
+        alerts[3].setRoute(testRoute);
+
+        AlertPatchServiceImpl instance = getAlertPatchServiceImpl();
+        for(TestAlertPatch alert : alerts) {
+            instance.apply(alert);
+        }
+
+        assertEquals(2, instance.getRoutePatches(testRoute).size());
+        assertTrue(instance.getRoutePatches(testRoute).contains(alerts[3]));
+        assertEquals(1, instance.getTripPatches(testTrip).size());
+        assertTrue(instance.getTripPatches(testTrip).contains(alerts[1]));
+        assertEquals(1, instance.getAgencyPatches("D").size());
+        assertTrue(instance.getAgencyPatches("D").contains(alerts[2]));
+        assertTrue(instance.getPatternPatches("unknown").isEmpty());
+        assertSame(alerts[1], instance.getPatch("1"));
+
+        instance.expireAllExcept(Collections.singleton(alerts[0].getId()));
+
+        assertEquals(1, instance.getRoutePatches(testRoute).size());
+        assertTrue(instance.getTripPatches(testTrip).isEmpty());
+        assertTrue(instance.getAgencyPatches("D").isEmpty());
+        assertNull(instance.getPatch("1"));
+    }
+
     @Test
     public void testExpire() {
         Set<String> purge = new HashSet<String>();
@@ -20,6 +20,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import junit.framework.TestCase;
 import org.junit.Test;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
+import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.error.GraphNotFoundException;
@@ -27,6 +28,7 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.standalone.Router;
 
 import java.io.*;
 
@@ -199,6 +201,30 @@ public class GraphServiceTest extends TestCase {
         assertEquals(0, graphService.getRouterIds().size());
     }
 
+    @Test
+    public final void testGraphServiceBackgroundReload() throws Exception {
+
+        InputStreamGraphSource.FileFactory graphSourceFactory = new InputStreamGraphSource.FileFactory(basePath);
+        graphSourceFactory.save("A", new ByteArrayInputStream(emptyGraphData));
+        GraphService graphService = new GraphService();
+        graphService.registerGraph("A", graphSourceFactory.createGraphSource("A"));
+        Router oldRouter = graphService.getRouter("A");
+        assertNull(oldRouter.swapMetrics);
+        oldRouter.requestSample.add(new RoutingRequest());
+
+        // The old router keeps serving until the new one is loaded and warmed up with the sampled requests
+        graphSourceFactory.save("A", new ByteArrayInputStream(smallGraphData));
+        assertTrue(graphService.reloadGraphInBackground("A", true).get());
+        Router newRouter = graphService.getRouter("A");
+        assertNotSame(oldRouter, newRouter);
+        assertEquals(smallGraph.getVertices().size(), newRouter.graph.getVertices().size());
+        assertNotNull(newRouter.swapMetrics);
+        assertEquals(1, newRouter.swapMetrics.warmUpRequests);
+        assertEquals(1, newRouter.requestSample.getRequests().size());
+
+        assertFalse(graphService.reloadGraphInBackground("B", true).get());
+    }
+
     @Test
     public final void testGraphServiceAutoscan() throws IOException {
 
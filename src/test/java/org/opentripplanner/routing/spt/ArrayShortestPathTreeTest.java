@@ -0,0 +1,129 @@
+package org.opentripplanner.routing.spt;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class ArrayShortestPathTreeTest extends TestCase {
+
+    private static final int SIZE = 10;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] vertices;
+
+    @Override
+    protected void setUp() {
+        graph = new Graph();
+        vertices = new IntersectionVertex[SIZE][SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                vertices[y][x] = new IntersectionVertex(graph, "v" + x + "_" + y, 24.9 + x * 0.001, 60.1 + y * 0.001);
+            }
+        }
+
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                // make horizontal streets a bit longer so there are unique shortest paths
+                if (x + 1 < SIZE) {
+                    street(vertices[y][x], vertices[y][x + 1], 60 + y);
+                }
+                if (y + 1 < SIZE) {
+                    street(vertices[y][x], vertices[y + 1][x], 50 + x);
+                }
+            }
+        }
+    }
+
+    public void testSameResultAsMapBasedTree() {
+        for (DominanceFunction dominanceFunction : new DominanceFunction[] {
+                new DominanceFunction.MinimumWeight(), new DominanceFunction.EarliestArrival(), new DominanceFunction.Pareto() }) {
+            ShortestPathTree expected = search(dominanceFunction, false);
+            ShortestPathTree actual = search(dominanceFunction, true);
+
+            assertTrue(actual instanceof ArrayShortestPathTree);
+            assertEquals(expected.getVertexCount(), actual.getVertexCount());
+            assertEquals(expected.getVertices(), actual.getVertices());
+            assertEquals(expected.getAllStates().size(), actual.getAllStates().size());
+
+            for (Vertex vertex : expected.getVertices()) {
+                assertEquals(expected.getState(vertex).getWeight(), actual.getState(vertex).getWeight(), 0.0);
+                assertEquals(expected.getStates(vertex).size(), actual.getStates(vertex).size());
+            }
+        }
+    }
+
+    public void testReleaseAndReuse() {
+        ShortestPathTree expected = search(new DominanceFunction.MinimumWeight(), false);
+        ShortestPathTree first = search(new DominanceFunction.MinimumWeight(), true);
+        assertEquals(expected.getVertexCount(), first.getVertexCount());
+        first.release();
+        assertEquals(0, first.getVertexCount());
+        assertTrue(first.getAllStates().isEmpty());
+        assertNull(first.getState(vertices[0][0]));
+
+        // the next tree on this thread reuses the released slots, which must have been cleared
+        ShortestPathTree second = search(new DominanceFunction.MinimumWeight(), true);
+        assertEquals(expected.getVertices(), second.getVertices());
+        assertEquals(expected.getAllStates().size(), second.getAllStates().size());
+        for (Vertex vertex : expected.getVertices()) {
+            assertEquals(expected.getState(vertex).getWeight(), second.getState(vertex).getWeight(), 0.0);
+        }
+        second.release();
+    }
+
+    public void testAddAndVisit() {
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.setRoutingContext(graph, vertices[0][0], vertices[SIZE - 1][SIZE - 1]);
+        ArrayShortestPathTree spt = new ArrayShortestPathTree(options, new DominanceFunction.MinimumWeight());
+
+        State initial = new State(options);
+        assertTrue(spt.add(initial));
+        assertTrue(spt.visit(initial));
+        assertEquals(1, spt.getVertexCount());
+        assertSame(initial, spt.getState(vertices[0][0]));
+        assertNull(spt.getStates(vertices[1][1]));
+
+        StreetEdge edge = (StreetEdge) vertices[0][0].getOutgoing().iterator().next();
+        State next = edge.traverse(initial);
+        assertTrue(spt.add(next));
+        // an equal state is rejected and the old one stays visitable
+        assertFalse(spt.add(edge.traverse(initial)));
+        assertTrue(spt.visit(next));
+        assertEquals(2, spt.getVertexCount());
+        options.cleanup();
+    }
+
+    private ShortestPathTree search(DominanceFunction dominanceFunction, boolean arrayShortestPathTree) {
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.dominanceFunction = dominanceFunction;
+        options.arrayShortestPathTree = arrayShortestPathTree;
+        options.setRoutingContext(graph, vertices[0][0], vertices[SIZE - 1][SIZE - 1]);
+        ShortestPathTree spt = new AStar().getShortestPathTree(options);
+        options.cleanup();
+        return spt;
+    }
+
+    private void street(IntersectionVertex a, IntersectionVertex b, double length) {
+        edge(a, b, length, false);
+        edge(b, a, length, true);
+    }
+
+    private void edge(IntersectionVertex from, IntersectionVertex to, double length, boolean back) {
+        new StreetEdge(from, to, GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { from.getCoordinate(), to.getCoordinate() }), from.getLabel() + "_" + to.getLabel(),
+                length, StreetTraversalPermission.ALL, back);
+    }
+
+}
@@ -1,7 +1,20 @@
 package org.opentripplanner.updater;
 
 import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.opentripplanner.GtfsTest;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class GtfsRealtimeFuzzyTripMatcherTest extends GtfsTest {
 
@@ -26,6 +39,75 @@ public class GtfsRealtimeFuzzyTripMatcherTest extends GtfsTest {
         assertFalse(trip1.hasTripId());
     }
 
+    /**
+     * Trips of a route and direction sharing their first departure but running on different services are told apart
+     * by the services running on the date, picking the trip the scan over all trips of the route used to pick. The
+     * dates span more days than the service cache holds, and each date is matched twice, so dates are both looked up
+     * in and evicted from the cache.
+     */
+    public void testSharedFirstDepartureOnDifferentServices() throws Exception {
+        // route, direction and first departure of trips that share them with a trip of another service
+        Map<List<Object>, Set<Integer>> servicesForKey = new HashMap<>();
+        for (TripPattern pattern : graph.index.patternsForRoute.values()) {
+            for (TripTimes times : pattern.scheduledTimetable.tripTimes) {
+                List<Object> key = keyOf(pattern.route, pattern.directionId, times.getScheduledDepartureTime(0));
+                servicesForKey.computeIfAbsent(key, k -> new HashSet<>()).add(times.serviceCode);
+            }
+        }
+        List<List<Object>> sharedKeys = new ArrayList<>();
+        for (Map.Entry<List<Object>, Set<Integer>> entry : servicesForKey.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                sharedKeys.add(entry.getKey());
+            }
+        }
+        assertFalse(sharedKeys.isEmpty());
+
+        GtfsRealtimeFuzzyTripMatcher matcher = new GtfsRealtimeFuzzyTripMatcher(graph.index);
+        int differentTripsMatched = 0;
+        for (List<Object> key : sharedKeys) {
+            Route route = (Route) key.get(0);
+            int direction = (Integer) key.get(1);
+            int startTime = (Integer) key.get(2);
+            Set<Trip> matched = new HashSet<>();
+            ServiceDate date = new ServiceDate(2009, 9, 1);
+            for (int day = 0; day < 90; day++, date = date.next()) {
+                Trip expected = scan(route, direction, startTime, date);
+                assertEquals(expected, matcher.getTrip(route, direction, startTime, date));
+                assertEquals(expected, matcher.getTrip(route, direction, startTime, date));
+                if (expected != null) {
+                    matched.add(expected);
+                }
+            }
+            if (matched.size() > 1) {
+                differentTripsMatched++;
+            }
+        }
+        // the date decides between the trips sharing a first departure
+        assertTrue(differentTripsMatched > 0);
+    }
+
+    /** The matching of trips before they were indexed: the first trip of the route's patterns running on the date */
+    private Trip scan(Route route, int direction, int startTime, ServiceDate date) {
+        BitSet services = graph.index.servicesRunning(date);
+        for (TripPattern pattern : graph.index.patternsForRoute.get(route)) {
+            if (pattern.directionId != direction) continue;
+            for (TripTimes times : pattern.scheduledTimetable.tripTimes) {
+                if (times.getScheduledDepartureTime(0) == startTime && services.get(times.serviceCode)) {
+                    return times.trip;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<Object> keyOf(Route route, int direction, int startTime) {
+        List<Object> key = new ArrayList<>(3);
+        key.add(route);
+        key.add(direction);
+        key.add(startTime);
+        return key;
+    }
+
     @Override
     public String getFeedName() {
         return "google_transit.zip";
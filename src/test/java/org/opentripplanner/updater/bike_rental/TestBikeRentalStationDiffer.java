@@ -0,0 +1,82 @@
+package org.opentripplanner.updater.bike_rental;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+import org.opentripplanner.util.NonLocalizedString;
+
+public class TestBikeRentalStationDiffer extends TestCase {
+
+    public void testDiff() {
+        BikeRentalStationDiffer differ = new BikeRentalStationDiffer();
+
+        BikeRentalStationDiffer.Diff diff = differ.diff(Arrays.asList(station("a", 1), station("b", 2)));
+        assertEquals(2, diff.added.size());
+        assertTrue(diff.changed.isEmpty());
+        assertTrue(diff.removed.isEmpty());
+
+        // nothing changed, equal state in new objects
+        diff = differ.diff(Arrays.asList(station("b", 2), station("a", 1)));
+        assertTrue(diff.isEmpty());
+
+        diff = differ.diff(Arrays.asList(station("a", 3), station("c", 1)));
+        assertEquals(1, diff.added.size());
+        assertEquals("c", diff.added.get(0).id);
+        assertEquals(1, diff.changed.size());
+        assertEquals("a", diff.changed.get(0).id);
+        assertEquals(Collections.singleton("b"), diff.removed);
+
+        // a station that comes back is added again
+        diff = differ.diff(Arrays.asList(station("a", 3), station("b", 2), station("c", 1)));
+        assertEquals(1, diff.added.size());
+        assertEquals("b", diff.added.get(0).id);
+        assertTrue(diff.changed.isEmpty());
+        assertTrue(diff.removed.isEmpty());
+    }
+
+    public void testState() {
+        BikeRentalStation station = station("a", 1);
+        BikeRentalStationDiffer.StationState state = new BikeRentalStationDiffer.StationState(station);
+        assertEquals(state, new BikeRentalStationDiffer.StationState(station.clone()));
+
+        BikeRentalStation other = station.clone();
+        other.spacesAvailable++;
+        assertFalse(state.equals(new BikeRentalStationDiffer.StationState(other)));
+
+        other = station.clone();
+        other.allowDropoff = false;
+        assertFalse(state.equals(new BikeRentalStationDiffer.StationState(other)));
+
+        other = station.clone();
+        other.networks = Collections.singleton("other");
+        assertFalse(state.equals(new BikeRentalStationDiffer.StationState(other)));
+    }
+
+    /** Changes that cancel out in a polynomial hash of the counts are still detected */
+    public void testCompensatingChangesAreDetected() {
+        BikeRentalStationDiffer differ = new BikeRentalStationDiffer();
+        BikeRentalStation station = station("a", 1);
+        station.spacesAvailable = 40;
+        differ.diff(Collections.singletonList(station));
+
+        BikeRentalStation other = station.clone();
+        other.bikesAvailable += 1;
+        other.spacesAvailable -= 31;
+        BikeRentalStationDiffer.Diff diff = differ.diff(Collections.singletonList(other));
+        assertEquals(Collections.singletonList(other), diff.changed);
+    }
+
+    private BikeRentalStation station(String id, int bikesAvailable) {
+        BikeRentalStation station = new BikeRentalStation();
+        station.id = id;
+        station.name = new NonLocalizedString(id);
+        station.x = 24.94;
+        station.y = 60.17;
+        station.bikesAvailable = bikesAvailable;
+        station.spacesAvailable = 10;
+        station.networks = Collections.singleton("default");
+        return station;
+    }
+}
@@ -0,0 +1,108 @@
+package org.opentripplanner.updater.bike_rental;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Iterables;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetBikeRentalLink;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.SplitterVertex;
+import org.opentripplanner.updater.GraphUpdaterManager;
+
+public class TestBikeRentalUpdater extends TestCase {
+
+    private static final String STATION_A = "bike rental station A[24.943-60.170]";
+
+    private static final String STATION_B = "bike rental station B[24.947-60.170]";
+
+    /**
+     * A station that is removed and comes back at the same place is linked to the street vertices it was linked to
+     * before, without splitting the streets again.
+     */
+    public void testRemovedStationIsLinkedAgain() throws Exception {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 24.94, 60.17);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 24.95, 60.17);
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(new Coordinate[] {
+            a.getCoordinate(), b.getCoordinate() });
+        new StreetEdge(a, b, geometry, "ab", 555, StreetTraversalPermission.ALL, false);
+        new StreetEdge(b, a, (LineString) geometry.reverse(), "ab", 555, StreetTraversalPermission.ALL, true);
+
+        File kml = File.createTempFile("bike-rental", ".kml");
+        GraphUpdaterManager manager = new GraphUpdaterManager(graph);
+        try {
+            ObjectNode config = new ObjectMapper().createObjectNode();
+            config.put("type", "bike-rental");
+            config.put("sourceType", "kml");
+            config.put("url", kml.toURI().toString());
+            BikeRentalUpdater updater = new BikeRentalUpdater();
+            updater.configure(graph, config);
+            updater.setGraphUpdaterManager(manager);
+            updater.setup();
+
+            writeStations(kml, true);
+            poll(updater, manager);
+            Set<Vertex> targets = linkTargets(graph.getVertex(STATION_A));
+            assertEquals(2, targets.size());
+            for (Vertex target : targets) {
+                assertTrue(target instanceof SplitterVertex);
+            }
+            assertEquals(2, linkTargets(graph.getVertex(STATION_B)).size());
+            int vertexCount = graph.countVertices();
+
+            writeStations(kml, false);
+            poll(updater, manager);
+            assertNull(graph.getVertex(STATION_A));
+            assertNotNull(graph.getVertex(STATION_B));
+
+            writeStations(kml, true);
+            poll(updater, manager);
+            assertEquals(targets, linkTargets(graph.getVertex(STATION_A)));
+            assertEquals(vertexCount, graph.countVertices());
+        } finally {
+            manager.stop();
+            kml.delete();
+        }
+    }
+
+    /** Run a poll and wait until its changes have been applied to the graph */
+    private void poll(BikeRentalUpdater updater, GraphUpdaterManager manager) throws Exception {
+        updater.runPolling();
+        manager.executeBlocking(graph -> { });
+    }
+
+    private Set<Vertex> linkTargets(Vertex vertex) {
+        Set<Vertex> targets = new HashSet<>();
+        for (StreetBikeRentalLink link : Iterables.filter(vertex.getOutgoing(), StreetBikeRentalLink.class)) {
+            targets.add(link.getToVertex());
+        }
+        return targets;
+    }
+
+    private void writeStations(File kml, boolean withA) throws IOException {
+        try (Writer writer = new FileWriter(kml)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<kml xmlns=\"http://earth.google.com/kml/2.2\"><Document>\n");
+            if (withA) {
+                writer.write("<Placemark><name>A</name><Point><coordinates>24.943,60.1701</coordinates></Point></Placemark>\n");
+            }
+            writer.write("<Placemark><name>B</name><Point><coordinates>24.947,60.1701</coordinates></Point></Placemark>\n");
+            writer.write("</Document></kml>\n");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.opentripplanner.updater.stoptime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+
+public class CoalescingTripUpdateQueueTest {
+
+    @Test
+    public void testKeepsNewestUpdatePerTrip() {
+        CoalescingTripUpdateQueue queue = new CoalescingTripUpdateQueue("feed");
+        TripUpdate a1 = createTripUpdate("a", "20170101", 1);
+        TripUpdate b1 = createTripUpdate("b", "20170101", 1);
+        TripUpdate a2 = createTripUpdate("a", "20170101", 2);
+        TripUpdate aNextDay = createTripUpdate("a", "20170102", 1);
+        TripUpdate aOld = createTripUpdate("a", "20170101", 0);
+
+        queue.offer(false, Arrays.asList(a1, b1));
+        queue.offer(false, Arrays.asList(a2, aNextDay));
+        queue.offer(false, Collections.singletonList(aOld));
+
+        assertEquals(3, queue.getQueueDepth());
+        assertEquals(5, queue.getReceivedCount());
+        assertEquals(2, queue.getDroppedCount());
+
+        TripUpdateGraphWriterRunnable runnable = queue.drain();
+        assertNotNull(runnable);
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(3, queue.getAppliedCount());
+        assertNull(queue.drain());
+
+        Graph graph = mock(Graph.class);
+        TimetableSnapshotSource timetableSnapshotSource = mock(TimetableSnapshotSource.class);
+        graph.timetableSnapshotSource = timetableSnapshotSource;
+        runnable.run(graph);
+
+        verify(timetableSnapshotSource).applyTripUpdates(graph, false, Arrays.asList(a2, b1, aNextDay), "feed");
+    }
+
+    @Test
+    public void testFullDatasetReplacesPendingUpdates() {
+        CoalescingTripUpdateQueue queue = new CoalescingTripUpdateQueue("feed");
+        TripUpdate a = createTripUpdate("a", "20170101", 1);
+        TripUpdate b = createTripUpdate("b", "20170101", 1);
+        TripUpdate c = createTripUpdate("c", "20170101", 2);
+
+        queue.offer(false, Arrays.asList(a, b));
+        queue.offer(true, Collections.<TripUpdate>emptyList());
+        queue.offer(false, Collections.singletonList(c));
+
+        assertEquals(1, queue.getQueueDepth());
+        assertEquals(2, queue.getDroppedCount());
+
+        Graph graph = mock(Graph.class);
+        TimetableSnapshotSource timetableSnapshotSource = mock(TimetableSnapshotSource.class);
+        graph.timetableSnapshotSource = timetableSnapshotSource;
+        queue.drain().run(graph);
+
+        // differential updates after a full dataset are applied together with it
+        verify(timetableSnapshotSource).applyTripUpdates(graph, true, Collections.singletonList(c), "feed");
+    }
+
+    private TripUpdate createTripUpdate(String tripId, String startDate, long timestamp) {
+        TripDescriptor.Builder tripDescriptorBuilder = TripDescriptor.newBuilder();
+        tripDescriptorBuilder.setTripId(tripId);
+        tripDescriptorBuilder.setStartDate(startDate);
+        TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+        tripUpdateBuilder.setTrip(tripDescriptorBuilder);
+        tripUpdateBuilder.setTimestamp(timestamp);
+        return tripUpdateBuilder.buildPartial();
+    }
+
+}
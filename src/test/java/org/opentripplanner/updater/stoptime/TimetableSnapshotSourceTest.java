@@ -22,6 +22,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
@@ -512,4 +513,57 @@ public class TimetableSnapshotSourceTest {
         assertNotSame(snapshotA.resolve(pattern, null ), snapshotA.resolve(pattern, serviceDate));
         assertSame   (snapshotB.resolve(pattern, null ), snapshotB.resolve(pattern, previously));
     }
+
+    @Test
+    public void testParallelUpdatesMatchSequential() throws InvalidProtocolBufferException {
+        final List<TripUpdate> updates = new ArrayList<>();
+        int delay = 0;
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            for (TripTimes tripTimes : pattern.scheduledTimetable.tripTimes) {
+                final TripDescriptor.Builder tripDescriptorBuilder = TripDescriptor.newBuilder();
+                tripDescriptorBuilder.setTripId(tripTimes.trip.getId().getId());
+
+                final TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+                tripUpdateBuilder.setTrip(tripDescriptorBuilder);
+
+                final StopTimeUpdate.Builder stopTimeUpdateBuilder = tripUpdateBuilder.addStopTimeUpdateBuilder();
+                stopTimeUpdateBuilder.setStopSequence(tripTimes.getStopSequence(0));
+                stopTimeUpdateBuilder.getArrivalBuilder().setDelay(++delay);
+                stopTimeUpdateBuilder.getDepartureBuilder().setDelay(delay);
+
+                updates.add(tripUpdateBuilder.build());
+            }
+        }
+        // a cancellation splits the scheduled updates into two runs
+        updates.add(updates.size() / 2, TripUpdate.parseFrom(cancellation));
+
+        final TimetableSnapshotSource sequentialUpdater = new TimetableSnapshotSource(graph);
+        sequentialUpdater.maxSnapshotFrequency = (-1);
+        sequentialUpdater.applyTripUpdates(graph, fullDataset, updates, feedId);
+
+        final TimetableSnapshotSource parallelUpdater = new TimetableSnapshotSource(graph);
+        parallelUpdater.maxSnapshotFrequency = (-1);
+        parallelUpdater.parallelUpdates = true;
+        parallelUpdater.parallelUpdatesThreshold = 1;
+        parallelUpdater.applyTripUpdates(graph, fullDataset, updates, feedId);
+
+        final TimetableSnapshot sequential = sequentialUpdater.getTimetableSnapshot();
+        final TimetableSnapshot parallel = parallelUpdater.getTimetableSnapshot();
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            final Timetable expected = sequential.resolve(pattern, serviceDate);
+            final Timetable actual = parallel.resolve(pattern, serviceDate);
+            assertEquals(expected.tripTimes.size(), actual.tripTimes.size());
+            for (int i = 0; i < expected.tripTimes.size(); i++) {
+                final TripTimes expectedTimes = expected.getTripTimes(i);
+                final TripTimes actualTimes = actual.getTripTimes(i);
+                assertEquals(expectedTimes.trip, actualTimes.trip);
+                assertEquals(expectedTimes.getRealTimeState(), actualTimes.getRealTimeState());
+                assertEquals(expectedTimes.isCanceled(), actualTimes.isCanceled());
+                for (int stop = 0; stop < expectedTimes.getNumStops(); stop++) {
+                    assertEquals(expectedTimes.getArrivalTime(stop), actualTimes.getArrivalTime(stop));
+                    assertEquals(expectedTimes.getDepartureTime(stop), actualTimes.getDepartureTime(stop));
+                }
+            }
+        }
+    }
 }